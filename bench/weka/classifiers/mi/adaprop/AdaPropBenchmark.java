@@ -0,0 +1,63 @@
+package weka.classifiers.mi.adaprop;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+import weka.classifiers.mi.AdaProp;
+import weka.core.Instance;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for classifying a bag with a trained AdaProp model: propositionalising the bag
+ *  with the tree, and classifying the result with the base classifier.
+ *
+ * To keep training the model (during setup) quick, the tree is grown by evaluating the splits with ZeroR
+ *  (as in BenchmarkData.buildTree), and J48 is used as the base classifier.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdaPropBenchmark extends BenchmarkData
+{
+    @Param({"1", "8"})
+    public int treeSize;
+
+    /** The ID of the propositionalisation strategy (see PropositionalisationStrategy.STRATEGIES) */
+    @Param({"1", "2"})
+    public int propStrategyID;
+
+    private AdaProp adaProp;
+
+    /** The index of the next bag to classify, so that each bag gets classified in turn */
+    private int nextBag;
+
+    @Override /** @inheritDoc */
+    protected void setup() throws Exception
+    {
+        adaProp = new AdaProp();
+        adaProp.setOptions(new String[] {
+                "-" + AdaProp.MAX_TREE_KEY, String.valueOf(treeSize),
+                "-" + AdaProp.PROP_KEY, String.valueOf(propStrategyID),
+                "-" + AdaProp.MIN_OCC_KEY, "1",
+                "-" + AdaProp.SEARCH_CLASSIFIER_KEY, "weka.classifiers.rules.ZeroR",
+                "-W", "weka.classifiers.trees.J48"
+        });
+        adaProp.buildClassifier(bags);
+    }
+
+    @Benchmark
+    public double[] distributionForInstance() throws Exception
+    {
+        final Instance bag = bags.instance(nextBag);
+        nextBag = (nextBag + 1) % bags.numInstances();
+        return adaProp.distributionForInstance(bag);
+    }
+}
@@ -0,0 +1,67 @@
+package weka.classifiers.mi.adaprop;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import weka.classifiers.mi.ArtificialDatasetGenerator;
+import weka.classifiers.rules.ZeroR;
+import weka.core.Instances;
+
+/**
+ * The input shared by the benchmarks: an artificial MI dataset (see ArtificialDatasetGenerator)
+ *  for each combination of the parameters below. Each benchmark adds its own parameters,
+ *  and prepares anything else it needs (e.g. a tree of splits) in setup.
+ */
+@State(Scope.Benchmark)
+public abstract class BenchmarkData
+{
+    /** The seed for generating the dataset, so that every run benchmarks the same data */
+    static final long SEED = 1;
+
+    /** The depth of the (hidden) tree of splits which determines the class of each bag */
+    static final int NUM_SPLITS = 2;
+
+    @Param({"50", "200"})
+    public int numBags;
+
+    @Param({"5", "20"})
+    public int bagSize;
+
+    @Param({"5", "20"})
+    public int numAttr;
+
+    /** The MI dataset */
+    protected Instances bags;
+
+    @Setup(Level.Trial)
+    public void setupData() throws Exception
+    {
+        bags = ArtificialDatasetGenerator.generate(numAttr, numBags, bagSize, bagSize,
+                Math.min(NUM_SPLITS, numAttr), SEED);
+        bags.setClassIndex(bags.numAttributes() - 1);
+        setup();
+    }
+
+    /** Prepare the rest of the input for the benchmark, once the dataset has been generated */
+    protected abstract void setup() throws Exception;
+
+    /**
+     * Grow a tree of splits over the dataset. The tree is grown breadth-first, evaluating the splits
+     *  with ZeroR (so every candidate scores the same), which is cheap while still giving a tree of the
+     *  requested size (or as close to it as the dataset allows).
+     *
+     * @param treeSize The number of nodes in the tree.
+     * @param propStrategy The propositionalisation strategy.
+     * @return The root of the tree.
+     */
+    protected RootSplitNode buildTree(final int treeSize, final PropositionalisationStrategy propStrategy)
+            throws Exception
+    {
+        return SplitNode.buildTree(bags, SplitStrategy.getStrategy(SplitStrategy.DEFAULT_STRATEGY, numAttr),
+                treeSize, 1, new ZeroR(), SearchStrategy.getStrategy(SearchStrategy.DEFAULT_STRATEGY),
+                propStrategy, EvaluationStrategy.getStrategy(EvaluationStrategy.DEFAULT_STRATEGY, null),
+                new TaskRunner(1));
+    }
+}
@@ -0,0 +1,466 @@
+package weka.classifiers.mi.adaprop;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.mi.ArtificialDatasetGenerator;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.Utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A benchmark of the latency of classifying a bag (AdaProp.distributionForInstance) with a trained model.
+ *
+ * Loads a serialised model (e.g. saved with the -d option of Weka's command line), and replays artificial bags
+ *  (see ArtificialDatasetGenerator) of each of the given sizes, from one or more threads, in two ways:
+ *  - in a closed loop, where each thread sends its next bag as soon as the previous one is classified.
+ *     This measures the service time (and the maximum throughput).
+ *  - in an open loop, where the bags are sent at a fixed rate, regardless of how long each one takes.
+ *     The latency of each bag is measured from the time it was scheduled to be sent, rather than from when it
+ *     was actually sent, so that a slow bag also counts against the bags queued up behind it (i.e. it is
+ *     corrected for coordinated omission). The uncorrected service time is reported alongside, for comparison.
+ *
+ * For each, it reports the 50th, 99th and 99.9th percentiles and the maximum of the latency, and the number of
+ *  bytes allocated per prediction (when the JVM can measure it). The latencies are recorded in a histogram
+ *  (see LatencyHistogram) which does not allocate, so that recording does not add to the allocation.
+ * Each thread classifies with its own copy of the model, so that the base classifier need not be thread-safe.
+ */
+public class LatencyBenchmark
+{
+    public static final String MODEL_KEY = "model";
+    public static final String ATTR_KEY = "attr";
+    public static final String BAG_SIZE_KEY = "bagSize";
+    public static final String NUM_BAGS_KEY = "numBags";
+    public static final String THREADS_KEY = "threads";
+    public static final String MODE_KEY = "mode";
+    public static final String RATE_KEY = "rate";
+    public static final String SECONDS_KEY = "seconds";
+    public static final String WARMUP_SECONDS_KEY = "warmupSeconds";
+    public static final String SEED_KEY = "seed";
+
+    public static final String DEFAULT_ATTR = "5";
+    public static final String DEFAULT_BAG_SIZE = "10,100,1000";
+    public static final String DEFAULT_NUM_BAGS = "1000";
+    public static final String DEFAULT_THREADS = "1";
+    public static final String DEFAULT_MODE = "both";
+    public static final String DEFAULT_RATE = "1000";
+    public static final String DEFAULT_SECONDS = "30";
+    public static final String DEFAULT_WARMUP_SECONDS = "10";
+    public static final String DEFAULT_SEED = "1";
+
+    private static final String MODE_CLOSED = "closed";
+    private static final String MODE_OPEN = "open";
+    private static final String MODE_BOTH = "both";
+
+    /** The depth of the (hidden) tree of splits which determines the class of each bag */
+    static final int NUM_SPLITS = 2;
+
+    /**
+     * In the open loop, a thread sleeps until this long before its next bag is due, and then spins,
+     *  since sleeping for exactly the right time is not precise enough (it may oversleep by tens of microseconds,
+     *  which would be counted as latency).
+     */
+    static final long SPIN_NANOS = 200000;
+
+    private static final String TABLE_HEADER = String.format("%-6s %7s %7s %10s %10s %10s %10s %10s %10s %12s",
+            "mode", "bagSize", "threads", "target/s", "actual/s", "p50 us", "p99 us", "p99.9 us", "max us",
+            "bytes/pred");
+
+    /**
+     * Run the benchmark. Options:
+     *  -model (the serialised AdaProp model), -attr (the number of attributes of the instances in its bags),
+     *  -bagSize (comma-separated list of the bag sizes to classify), -numBags (the number of distinct bags
+     *  to replay, for each size), -threads, -mode (closed, open or both), -rate (the total number of bags to
+     *  send per second, in the open loop), -seconds (to measure each loop for), -warmupSeconds, -seed.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        final String modelFile = Utils.getOption(MODEL_KEY, args);
+        if (modelFile.isEmpty())
+        {
+            throw new IllegalArgumentException("No model given (use -" + MODEL_KEY + " <file>).");
+        }
+        final int numAttr = Integer.parseInt(getOption(ATTR_KEY, args, DEFAULT_ATTR));
+        final String[] bagSizes = getOption(BAG_SIZE_KEY, args, DEFAULT_BAG_SIZE).split(",");
+        final int numBags = Integer.parseInt(getOption(NUM_BAGS_KEY, args, DEFAULT_NUM_BAGS));
+        final int numThreads = Integer.parseInt(getOption(THREADS_KEY, args, DEFAULT_THREADS));
+        final String mode = getOption(MODE_KEY, args, DEFAULT_MODE);
+        final double rate = Double.parseDouble(getOption(RATE_KEY, args, DEFAULT_RATE));
+        final double seconds = Double.parseDouble(getOption(SECONDS_KEY, args, DEFAULT_SECONDS));
+        final double warmupSeconds = Double.parseDouble(getOption(WARMUP_SECONDS_KEY, args, DEFAULT_WARMUP_SECONDS));
+        final long seed = Long.parseLong(getOption(SEED_KEY, args, DEFAULT_SEED));
+        if (!mode.equals(MODE_CLOSED) && !mode.equals(MODE_OPEN) && !mode.equals(MODE_BOTH))
+        {
+            throw new IllegalArgumentException("Unknown mode: " + mode + " (expected closed, open or both).");
+        }
+
+        final Classifier model = (Classifier) SerializationHelper.read(modelFile);
+
+        System.out.println(TABLE_HEADER);
+        for (String bagSizeValue : bagSizes)
+        {
+            final int bagSize = Integer.parseInt(bagSizeValue.trim());
+            final Instances bags = ArtificialDatasetGenerator.generate(numAttr, numBags, bagSize, bagSize,
+                    Math.min(NUM_SPLITS, numAttr), seed);
+            bags.setClassIndex(bags.numAttributes() - 1);
+
+            run(model, bags, numThreads, 0, warmupSeconds); // warm up, in a closed loop
+            if (!mode.equals(MODE_OPEN))
+            {
+                System.out.println(run(model, bags, numThreads, 0, seconds).toRow(MODE_CLOSED, bagSize));
+            }
+            if (!mode.equals(MODE_CLOSED))
+            {
+                final Report report = run(model, bags, numThreads, rate, seconds);
+                System.out.println(report.toRow(MODE_OPEN, bagSize));
+                System.out.println(report.toServiceTimeRow(bagSize));
+            }
+        }
+    }
+
+    /**
+     * Classify the bags (in turn) from each of the threads, for the given time.
+     *
+     * @param model The model to classify with (each thread classifies with its own copy).
+     * @param bags The bags to classify. Each thread starts at a different bag.
+     * @param numThreads The number of threads to classify from.
+     * @param rate The total number of bags to send per second (in an open loop), or 0 for a closed loop.
+     * @param seconds The time to run for.
+     * @return The latencies, and the allocation per prediction, over all the threads.
+     */
+    static Report run(final Classifier model, final Instances bags, final int numThreads, final double rate,
+                      final double seconds) throws Exception
+    {
+        final Worker[] workers = new Worker[numThreads];
+        final Thread[] threads = new Thread[numThreads];
+        final CountDownLatch ready = new CountDownLatch(numThreads);
+        final CountDownLatch go = new CountDownLatch(1);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        // in an open loop, each thread sends every numThreads/rate seconds (with the threads staggered evenly):
+        final long intervalNanos = rate > 0 ? (long) (1e9 * numThreads / rate) : 0;
+        for (int threadIndex = 0; threadIndex < numThreads; threadIndex++)
+        {
+            workers[threadIndex] = new Worker(AbstractClassifier.makeCopy(model), bags,
+                    threadIndex * bags.numInstances() / numThreads, intervalNanos,
+                    threadIndex * intervalNanos / numThreads);
+            final Worker worker = workers[threadIndex];
+            threads[threadIndex] = new Thread(new Runnable()
+            {
+                @Override /** @inheritDoc */
+                public void run()
+                {
+                    try
+                    {
+                        ready.countDown();
+                        go.await();
+                        worker.run((long) (seconds * 1e9));
+                    }
+                    catch (Exception e)
+                    {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }, "LatencyBenchmark-" + threadIndex);
+            threads[threadIndex].start();
+        }
+
+        ready.await();
+        final long start = System.nanoTime();
+        for (Worker worker : workers)
+        {
+            worker.setStartTime(start);
+        }
+        go.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        final double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        if (failure.get() != null)
+        {
+            throw failure.get();
+        }
+
+        final Report report = new Report(numThreads, rate, elapsedSeconds);
+        for (Worker worker : workers)
+        {
+            report.add(worker);
+        }
+        return report;
+    }
+
+    /** Get the value of the option, or the default value if it is not given */
+    private static String getOption(final String key, final String[] args, final String defaultValue)
+            throws Exception
+    {
+        final String value = Utils.getOption(key, args);
+        return value.isEmpty() ? defaultValue : value;
+    }
+
+    /** Classifies bags (in a closed or open loop) from a single thread, recording the latency of each */
+    private static class Worker
+    {
+        private final Classifier model;
+        private final Instance[] bags;
+        private final long intervalNanos;
+        private final long offsetNanos;
+        private int nextBag;
+        private volatile long startTime;
+
+        /** The latency of each bag (from when it was scheduled to be sent, in an open loop) */
+        final LatencyHistogram latencies = new LatencyHistogram();
+
+        /** The time taken to classify each bag (from when it was actually sent) */
+        final LatencyHistogram serviceTimes = new LatencyHistogram();
+
+        /** The number of bytes allocated by this thread while classifying (or -1 if unknown) */
+        long allocatedBytes;
+
+        /**
+         * @param model The model to classify with.
+         * @param bags The bags to classify.
+         * @param firstBag The index of the first bag to classify.
+         * @param intervalNanos The time between sending each bag (0 for a closed loop).
+         * @param offsetNanos The time (after the start) at which to send the first bag, in an open loop.
+         */
+        Worker(final Classifier model, final Instances bags, final int firstBag, final long intervalNanos,
+               final long offsetNanos)
+        {
+            this.model = model;
+            this.bags = new Instance[bags.numInstances()];
+            for (int bagIndex = 0; bagIndex < this.bags.length; bagIndex++)
+            {
+                this.bags[bagIndex] = bags.instance(bagIndex);
+            }
+            this.nextBag = firstBag;
+            this.intervalNanos = intervalNanos;
+            this.offsetNanos = offsetNanos;
+        }
+
+        void setStartTime(final long startTime)
+        {
+            this.startTime = startTime;
+        }
+
+        /** Classify bags until the duration (from the start time) is up */
+        void run(final long durationNanos) throws Exception
+        {
+            final long end = startTime + durationNanos;
+            final long startAllocated = getAllocatedBytes();
+            long scheduled = startTime + offsetNanos;
+            while (true)
+            {
+                if (intervalNanos > 0)
+                {
+                    // wait until the next bag is due (if it is overdue, send it at once):
+                    long now = System.nanoTime();
+                    while (scheduled - now > SPIN_NANOS)
+                    {
+                        LockSupport.parkNanos(scheduled - now - SPIN_NANOS);
+                        now = System.nanoTime();
+                    }
+                    while (scheduled - System.nanoTime() > 0)
+                    {
+                        // spin
+                    }
+                }
+
+                final long sent = System.nanoTime();
+                if (sent - end >= 0)
+                {
+                    break;
+                }
+                model.distributionForInstance(bags[nextBag]);
+                final long done = System.nanoTime();
+                nextBag = (nextBag + 1) % bags.length;
+
+                serviceTimes.record(done - sent);
+                latencies.record(intervalNanos > 0 ? done - scheduled : done - sent);
+                scheduled += intervalNanos;
+            }
+
+            final long endAllocated = getAllocatedBytes();
+            allocatedBytes = (startAllocated < 0 || endAllocated < 0) ? -1 : endAllocated - startAllocated;
+        }
+
+        /**
+         * @return The number of bytes allocated by this thread so far,
+         *  or -1 if the JVM cannot measure it (it needs the HotSpot extension of the ThreadMXBean).
+         */
+        private static long getAllocatedBytes()
+        {
+            final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean)
+            {
+                final com.sun.management.ThreadMXBean hotSpotThreads = (com.sun.management.ThreadMXBean) threads;
+                if (hotSpotThreads.isThreadAllocatedMemorySupported() &&
+                        hotSpotThreads.isThreadAllocatedMemoryEnabled())
+                {
+                    return hotSpotThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                }
+            }
+            return -1;
+        }
+    }
+
+    /** The latencies (and allocation) of a run, over all of its threads */
+    static class Report
+    {
+        private final int numThreads;
+        private final double rate;
+        private final double elapsedSeconds;
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final LatencyHistogram serviceTimes = new LatencyHistogram();
+        private long allocatedBytes;
+
+        Report(final int numThreads, final double rate, final double elapsedSeconds)
+        {
+            this.numThreads = numThreads;
+            this.rate = rate;
+            this.elapsedSeconds = elapsedSeconds;
+        }
+
+        private void add(final Worker worker)
+        {
+            latencies.add(worker.latencies);
+            serviceTimes.add(worker.serviceTimes);
+            allocatedBytes = (allocatedBytes < 0 || worker.allocatedBytes < 0) ? -1 :
+                    allocatedBytes + worker.allocatedBytes;
+        }
+
+        /** @return The number of bytes allocated per prediction (or -1 if unknown). */
+        double getBytesPerPrediction()
+        {
+            return (allocatedBytes < 0 || latencies.getCount() == 0) ? -1 :
+                    (double) allocatedBytes / latencies.getCount();
+        }
+
+        String toRow(final String mode, final int bagSize)
+        {
+            return toRow(mode, bagSize, latencies);
+        }
+
+        /** @return A row for the (uncorrected) service times of the bags. */
+        String toServiceTimeRow(final int bagSize)
+        {
+            return toRow("(svc)", bagSize, serviceTimes);
+        }
+
+        private String toRow(final String mode, final int bagSize, final LatencyHistogram histogram)
+        {
+            return String.format("%-6s %7d %7d %10s %10.0f %10.1f %10.1f %10.1f %10.1f %12.0f",
+                    mode, bagSize, numThreads, rate > 0 ? String.format("%.0f", rate) : "-",
+                    histogram.getCount() / elapsedSeconds,
+                    histogram.getPercentile(50) / 1e3, histogram.getPercentile(99) / 1e3,
+                    histogram.getPercentile(99.9) / 1e3, histogram.getMax() / 1e3,
+                    getBytesPerPrediction());
+        }
+    }
+}
+
+/**
+ * A histogram of latencies (in nanoseconds), which records each value without allocating.
+ *
+ * Values are counted in log-linear buckets: below 128ns, each value has its own bucket; above that, each power
+ *  of 2 is divided into 64 buckets, so that each value is counted to within 1/64 (about 1.6%) of its value.
+ * Percentiles are reported as the highest value in their bucket (but no more than the maximum value recorded).
+ */
+class LatencyHistogram
+{
+    /** The number of buckets per power of 2 (above the first 2*SUB_BUCKETS values) */
+    private static final int SUB_BUCKETS = 64;
+
+    /** log2(SUB_BUCKETS) */
+    private static final int SUB_BUCKET_BITS = 6;
+
+    private final long[] counts = new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS];
+    private long count;
+    private long max;
+
+    /** Record a latency (negative latencies are counted as 0) */
+    void record(final long value)
+    {
+        final long latency = Math.max(0, value);
+        counts[getBucket(latency)]++;
+        count++;
+        max = Math.max(max, latency);
+    }
+
+    /** Add all the latencies recorded by the other histogram */
+    void add(final LatencyHistogram other)
+    {
+        for (int bucket = 0; bucket < counts.length; bucket++)
+        {
+            counts[bucket] += other.counts[bucket];
+        }
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    /** @return The number of latencies recorded. */
+    long getCount()
+    {
+        return count;
+    }
+
+    /** @return The largest latency recorded. */
+    long getMax()
+    {
+        return max;
+    }
+
+    /**
+     * @param percentile The percentile (from 0 to 100).
+     * @return The latency at the percentile (the highest value of its bucket), or 0 if none were recorded.
+     */
+    long getPercentile(final double percentile)
+    {
+        if (count == 0)
+        {
+            return 0;
+        }
+
+        // the (1-based) rank of the latency at the percentile:
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++)
+        {
+            seen += counts[bucket];
+            if (seen >= rank)
+            {
+                return Math.min(getHighestValue(bucket), max);
+            }
+        }
+        return max;
+    }
+
+    /** @return The bucket for the latency. */
+    static int getBucket(final long latency)
+    {
+        if (latency < 2 * SUB_BUCKETS)
+        {
+            return (int) latency;
+        }
+        final int shift = (63 - Long.numberOfLeadingZeros(latency)) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (latency >>> shift);
+    }
+
+    /** @return The highest latency counted in the bucket. */
+    static long getHighestValue(final int bucket)
+    {
+        if (bucket < 2 * SUB_BUCKETS)
+        {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long subBucket = bucket - shift * SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,77 @@
+package weka.classifiers.mi.adaprop;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for propositionalising bags with a tree of splits, and for filtering
+ *  the bags across a single split (which the search does for every candidate split).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropositionalisationBenchmark extends BenchmarkData
+{
+    @Param({"1", "8"})
+    public int treeSize;
+
+    /** The ID of the propositionalisation strategy (see PropositionalisationStrategy.STRATEGIES) */
+    @Param({"1", "2"})
+    public int propStrategyID;
+
+    private PropositionalisationStrategy propStrategy;
+    private RootSplitNode root;
+    private Instances propHeader;
+    private int numInst;
+
+    /** The index of the next bag to propositionalise, so that each bag gets propositionalised in turn */
+    private int nextBag;
+
+    @Override /** @inheritDoc */
+    protected void setup() throws Exception
+    {
+        propStrategy = PropositionalisationStrategy.getStrategy(propStrategyID, numAttr);
+        root = buildTree(treeSize, propStrategy);
+        propHeader = SplitNode.createPropositionalisedHeader(bags, root, 0);
+        numInst = 0;
+        for (Instance bag : bags)
+        {
+            numInst += bag.relationalValue(SplitNode.REL_INDEX).size();
+        }
+    }
+
+    @Benchmark
+    public Instance propositionaliseBag()
+    {
+        final Instance bag = bags.instance(nextBag);
+        nextBag = (nextBag + 1) % bags.numInstances();
+        return SplitNode.propositionaliseBag(bag, root, propHeader, propStrategy);
+    }
+
+    @Benchmark
+    public Instances propositionaliseDataset()
+    {
+        return SplitNode.propositionaliseDataset(bags, root, propStrategy);
+    }
+
+    @Benchmark
+    public BitSet filterDataset()
+    {
+        final RegionPartitioner counter = new RegionPartitioner(numInst);
+        root.filterDataset(bags, new BitSet(numInst), counter);
+        return counter.leftIgnore;
+    }
+}
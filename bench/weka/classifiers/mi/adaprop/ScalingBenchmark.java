@@ -0,0 +1,490 @@
+package weka.classifiers.mi.adaprop;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.SingleClassifierEnhancer;
+import weka.classifiers.mi.AdaProp;
+import weka.classifiers.mi.ArtificialDatasetGenerator;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An end-to-end benchmark of training AdaProp, to find out how it scales.
+ *
+ * Trains AdaProp on artificial datasets (see ArtificialDatasetGenerator), for every combination of
+ *  the number of bags, the number of instances per bag, the number of attributes, the maximum tree size
+ *  and the split, search, propositionalisation and evaluation strategies. For each run, it records the
+ *  wall time, the peak heap usage, the amount (and rate) of allocation, the number of candidate splits
+ *  evaluated and the number of times a classifier was built. The results are written to a CSV file
+ *  (one row per run) and summarised in a table on the standard output.
+ *
+ * Each list of values is given as a comma-separated option (see main). Every dataset is generated from the
+ *  same seed, so the runs are reproducible. Before the measured runs, every configuration is trained once
+ *  on a small dataset, so that the measurements do not include the warm-up of the JVM (e.g. compiling the
+ *  code). Once a configuration takes longer than maxSeconds to train, it is not run on any larger number of bags.
+ *
+ * To count the classifier builds, the base classifier is wrapped (see CountingClassifier). This hides its
+ *  type, so the evaluation strategies which specialise on the type of classifier (e.g. the closed form for
+ *  Naive Bayes) train it as usual; the default base classifier (J48) is not specialised on anyway.
+ * The allocation is measured for the thread which trains AdaProp, so the runs are single-threaded.
+ */
+public class ScalingBenchmark
+{
+    public static final String BAGS_KEY = "bags";
+    public static final String BAG_SIZE_KEY = "bagSize";
+    public static final String ATTR_KEY = "attr";
+    public static final String MAX_TREE_KEY = AdaProp.MAX_TREE_KEY;
+    public static final String SPLIT_KEY = AdaProp.SPLIT_KEY;
+    public static final String SEARCH_KEY = AdaProp.SEARCH_KEY;
+    public static final String PROP_KEY = AdaProp.PROP_KEY;
+    public static final String EVAL_KEY = AdaProp.EVAL_KEY;
+    public static final String CLASSIFIER_KEY = "W";
+    public static final String MIN_OCC_KEY = AdaProp.MIN_OCC_KEY;
+    public static final String SEED_KEY = "seed";
+    public static final String MAX_SECONDS_KEY = "maxSeconds";
+    public static final String WARMUP_BAGS_KEY = "warmupBags";
+    public static final String OUTPUT_KEY = "o";
+
+    public static final String DEFAULT_BAGS = "1000,10000,100000,1000000";
+    public static final String DEFAULT_BAG_SIZE = "10,50";
+    public static final String DEFAULT_ATTR = "5,20";
+    public static final String DEFAULT_MAX_TREE = "4,16";
+    public static final String DEFAULT_CLASSIFIER = "weka.classifiers.trees.J48";
+    public static final String DEFAULT_MIN_OCC = "5";
+    public static final String DEFAULT_SEED = "1";
+    public static final String DEFAULT_MAX_SECONDS = "600";
+    public static final String DEFAULT_WARMUP_BAGS = "100";
+    public static final String DEFAULT_OUTPUT = "scaling.csv";
+
+    /** The depth of the (hidden) tree of splits which determines the class of each bag */
+    static final int NUM_SPLITS = 2;
+
+    private static final String CSV_HEADER = "numBags,bagSize,numAttr,maxTreeSize,split,search,prop,eval,status," +
+            "wallSeconds,peakHeapMB,baseHeapMB,allocatedMB,allocationMBPerSec," +
+            "numNodesEvaluated,numCandidatesEvaluated,numClassifierBuilds";
+
+    private static final double MB = 1024.0 * 1024.0;
+
+    /**
+     * Run the benchmark. Options (each list is comma-separated):
+     *  -bags (number of bags), -bagSize (instances per bag), -attr (attributes per instance),
+     *  -maxTreeSize, -split, -search, -prop, -eval (the strategy IDs, default all),
+     *  -W (the base classifier, with its options), -minOcc, -seed,
+     *  -maxSeconds (the time after which a configuration is not run on more bags),
+     *  -warmupBags (the number of bags to warm up on, 0 for no warm-up), -o (the CSV file).
+     */
+    public static void main(String[] args) throws Exception
+    {
+        final int[] numBagsList = parseList(getOption(BAGS_KEY, args, DEFAULT_BAGS));
+        final int[] bagSizeList = parseList(getOption(BAG_SIZE_KEY, args, DEFAULT_BAG_SIZE));
+        final int[] numAttrList = parseList(getOption(ATTR_KEY, args, DEFAULT_ATTR));
+        final int[] maxTreeList = parseList(getOption(MAX_TREE_KEY, args, DEFAULT_MAX_TREE));
+        final int[] splitList = parseList(getOption(SPLIT_KEY, args, allIDs(SplitStrategy.STRATEGIES.length)));
+        final int[] searchList = parseList(getOption(SEARCH_KEY, args, allIDs(SearchStrategy.STRATEGIES.length)));
+        final int[] propList = parseList(getOption(PROP_KEY, args,
+                allIDs(PropositionalisationStrategy.STRATEGIES.length)));
+        final int[] evalList = parseList(getOption(EVAL_KEY, args, allIDs(EvaluationStrategy.STRATEGIES.length)));
+        final String classifierSpec = getOption(CLASSIFIER_KEY, args, DEFAULT_CLASSIFIER);
+        final String minOcc = getOption(MIN_OCC_KEY, args, DEFAULT_MIN_OCC);
+        final long seed = Long.parseLong(getOption(SEED_KEY, args, DEFAULT_SEED));
+        final double maxSeconds = Double.parseDouble(getOption(MAX_SECONDS_KEY, args, DEFAULT_MAX_SECONDS));
+        final int warmupBags = Integer.parseInt(getOption(WARMUP_BAGS_KEY, args, DEFAULT_WARMUP_BAGS));
+        final String output = getOption(OUTPUT_KEY, args, DEFAULT_OUTPUT);
+
+        final String[] classifierOptions = Utils.splitOptions(classifierSpec);
+        final String classifierName = classifierOptions[0];
+        classifierOptions[0] = "";
+
+        // every combination of the tree size and the strategies, to train on each dataset:
+        final List<int[]> configurations = combine(maxTreeList, splitList, searchList, propList, evalList);
+
+        if (warmupBags > 0)
+        {
+            final Instances bags = ArtificialDatasetGenerator.generate(numAttrList[0], warmupBags,
+                    bagSizeList[0], bagSizeList[0], Math.min(NUM_SPLITS, numAttrList[0]), seed);
+            bags.setClassIndex(bags.numAttributes() - 1);
+            for (int[] configuration : configurations)
+            {
+                final Result result = new Result(warmupBags, bagSizeList[0], numAttrList[0], configuration[0],
+                        configuration[1], configuration[2], configuration[3], configuration[4]);
+                run(result, bags, AbstractClassifier.forName(classifierName, classifierOptions.clone()), minOcc);
+            }
+        }
+
+        final List<Result> results = new ArrayList<Result>();
+        final Set<String> tooSlow = new HashSet<String>();
+        final PrintWriter csv = new PrintWriter(new OutputStreamWriter(new FileOutputStream(output), "UTF-8"));
+        try
+        {
+            csv.println(CSV_HEADER);
+            for (int bagSize : bagSizeList)
+            {
+                for (int numAttr : numAttrList)
+                {
+                    for (int numBags : numBagsList)
+                    {
+                        Instances bags = null; // generated on first use
+                        for (int[] configuration : configurations)
+                        {
+                            final Result result = new Result(numBags, bagSize, numAttr, configuration[0],
+                                    configuration[1], configuration[2], configuration[3], configuration[4]);
+                            if (tooSlow.contains(result.getConfiguration()))
+                            {
+                                continue; // already too slow on fewer bags
+                            }
+                            if (bags == null)
+                            {
+                                bags = ArtificialDatasetGenerator.generate(numAttr, numBags, bagSize, bagSize,
+                                        Math.min(NUM_SPLITS, numAttr), seed);
+                                bags.setClassIndex(bags.numAttributes() - 1);
+                            }
+
+                            final Classifier base = AbstractClassifier.forName(classifierName,
+                                    classifierOptions.clone());
+                            run(result, bags, base, minOcc);
+                            if (result.wallSeconds > maxSeconds)
+                            {
+                                tooSlow.add(result.getConfiguration());
+                            }
+
+                            results.add(result);
+                            csv.println(result.toCsv());
+                            csv.flush();
+                            System.err.println(result.toRow());
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            csv.close();
+        }
+
+        printSummary(results);
+    }
+
+    /**
+     * Train AdaProp on the bags, recording the measurements in the result.
+     * The heap is collected before the run, so that (as far as possible) only the run is measured.
+     */
+    static void run(final Result result, final Instances bags, final Classifier base, final String minOcc)
+    {
+        final AdaProp adaProp = new AdaProp();
+
+        System.gc();
+        resetPeakHeap();
+        result.baseHeapMB = getUsedHeap() / MB;
+        final long startBuilds = CountingClassifier.getNumBuilds();
+        final long startAllocated = getAllocatedBytes();
+        final long start = System.nanoTime();
+        try
+        {
+            adaProp.setOptions(new String[] {
+                    "-" + AdaProp.MAX_TREE_KEY, String.valueOf(result.maxTreeSize),
+                    "-" + AdaProp.SPLIT_KEY, String.valueOf(result.split),
+                    "-" + AdaProp.SEARCH_KEY, String.valueOf(result.search),
+                    "-" + AdaProp.PROP_KEY, String.valueOf(result.prop),
+                    "-" + AdaProp.EVAL_KEY, String.valueOf(result.eval),
+                    "-" + AdaProp.MIN_OCC_KEY, minOcc
+            });
+            adaProp.setClassifier(new CountingClassifier(base)); // after the options, which reset the classifier
+            adaProp.buildClassifier(bags);
+            result.status = "ok";
+            result.numNodesEvaluated = (long) adaProp.getMeasure("measureNumNodesEvaluated");
+            result.numCandidatesEvaluated = (long) adaProp.getMeasure("measureNumCandidatesEvaluated");
+        }
+        catch (Exception e)
+        {
+            result.status = "failed: " + e.getMessage();
+        }
+        catch (OutOfMemoryError e)
+        {
+            result.status = "out of memory";
+        }
+        result.wallSeconds = (System.nanoTime() - start) / 1e9;
+        final long endAllocated = getAllocatedBytes();
+        result.allocatedMB = (startAllocated < 0 || endAllocated < 0) ? -1 : (endAllocated - startAllocated) / MB;
+        result.numClassifierBuilds = CountingClassifier.getNumBuilds() - startBuilds;
+        result.peakHeapMB = getPeakHeap() / MB;
+    }
+
+    /** Print the results (as a table), and how the training time of each configuration grows with the bags */
+    static void printSummary(final List<Result> results)
+    {
+        System.out.println();
+        System.out.println(Result.TABLE_HEADER);
+        for (Result result : results)
+        {
+            System.out.println(result.toRow());
+        }
+
+        // the smallest and largest (successful) runs of each configuration:
+        final Map<String, Result[]> extremes = new HashMap<String, Result[]>();
+        final List<String> configurations = new ArrayList<String>();
+        for (Result result : results)
+        {
+            if (!result.status.equals("ok"))
+            {
+                continue;
+            }
+            final Result[] pair = extremes.get(result.getConfiguration());
+            if (pair == null)
+            {
+                extremes.put(result.getConfiguration(), new Result[] { result, result });
+                configurations.add(result.getConfiguration());
+            }
+            else
+            {
+                if (result.numBags < pair[0].numBags) { pair[0] = result; }
+                if (result.numBags > pair[1].numBags) { pair[1] = result; }
+            }
+        }
+
+        System.out.println();
+        System.out.println("Growth of the training time with the number of bags " +
+                "(time ~ bags^exponent, between the fewest and most bags trained on):");
+        for (String configuration : configurations)
+        {
+            final Result[] pair = extremes.get(configuration);
+            if (pair[0].numBags == pair[1].numBags || pair[0].wallSeconds <= 0)
+            {
+                continue;
+            }
+            final double exponent = Math.log(pair[1].wallSeconds / pair[0].wallSeconds) /
+                    Math.log((double) pair[1].numBags / pair[0].numBags);
+            System.out.println(String.format("  %s: %.2f (%d to %d bags)",
+                    configuration, exponent, pair[0].numBags, pair[1].numBags));
+        }
+    }
+
+    //<editor-fold defaultstate="collapsed" desc="===Measurement===">
+    /** Reset the peak usage of each heap memory pool to its current usage */
+    private static void resetPeakHeap()
+    {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /** @return The sum of the peak usage of each heap memory pool, in bytes. */
+    private static long getPeakHeap()
+    {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /** @return The heap currently in use, in bytes. */
+    private static long getUsedHeap()
+    {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * @return The number of bytes allocated by this thread so far,
+     *  or -1 if the JVM cannot measure it (it needs the HotSpot extension of the ThreadMXBean).
+     */
+    private static long getAllocatedBytes()
+    {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+        {
+            final com.sun.management.ThreadMXBean hotSpotThreads = (com.sun.management.ThreadMXBean) threads;
+            if (hotSpotThreads.isThreadAllocatedMemorySupported() && hotSpotThreads.isThreadAllocatedMemoryEnabled())
+            {
+                return hotSpotThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="===Option Handling===">
+    /** Get the value of the option, or the default value if it is not given */
+    private static String getOption(final String key, final String[] args, final String defaultValue)
+            throws Exception
+    {
+        final String value = Utils.getOption(key, args);
+        return value.isEmpty() ? defaultValue : value;
+    }
+
+    /** Parse a comma-separated list of integers */
+    private static int[] parseList(final String list)
+    {
+        final String[] values = list.split(",");
+        final int[] result = new int[values.length];
+        for (int index = 0; index < values.length; index++)
+        {
+            result[index] = Integer.parseInt(values[index].trim());
+        }
+        return result;
+    }
+
+    /**
+     * @return Every combination of the values of the lists, each as an array
+     *  (holding a value from each list, in the order of the lists).
+     */
+    private static List<int[]> combine(final int[]... lists)
+    {
+        List<int[]> result = new ArrayList<int[]>();
+        result.add(new int[0]);
+        for (int[] list : lists)
+        {
+            final List<int[]> extended = new ArrayList<int[]>(result.size() * list.length);
+            for (int[] prefix : result)
+            {
+                for (int value : list)
+                {
+                    final int[] combination = Arrays.copyOf(prefix, prefix.length + 1);
+                    combination[prefix.length] = value;
+                    extended.add(combination);
+                }
+            }
+            result = extended;
+        }
+        return result;
+    }
+
+    /** @return A list of all the IDs (numbered from 1) of a kind of strategy. */
+    private static String allIDs(final int numStrategies)
+    {
+        final StringBuilder result = new StringBuilder();
+        for (int id = 1; id <= numStrategies; id++)
+        {
+            result.append(id == 1 ? "" : ",").append(id);
+        }
+        return result.toString();
+    }
+    //</editor-fold>
+
+    /** The measurements of a single run */
+    static class Result
+    {
+        static final String TABLE_HEADER = String.format("%8s %5s %5s %5s %5s %6s %5s %5s %10s %9s %10s %10s %10s  %s",
+                "bags", "size", "attr", "tree", "split", "search", "prop", "eval",
+                "seconds", "peak MB", "alloc MB/s", "candidates", "builds", "status");
+
+        final int numBags;
+        final int bagSize;
+        final int numAttr;
+        final int maxTreeSize;
+        final int split;
+        final int search;
+        final int prop;
+        final int eval;
+
+        String status;
+        double wallSeconds;
+        double peakHeapMB;
+        double baseHeapMB;
+        double allocatedMB;
+        long numNodesEvaluated;
+        long numCandidatesEvaluated;
+        long numClassifierBuilds;
+
+        Result(final int numBags, final int bagSize, final int numAttr, final int maxTreeSize,
+               final int split, final int search, final int prop, final int eval)
+        {
+            this.numBags = numBags;
+            this.bagSize = bagSize;
+            this.numAttr = numAttr;
+            this.maxTreeSize = maxTreeSize;
+            this.split = split;
+            this.search = search;
+            this.prop = prop;
+            this.eval = eval;
+        }
+
+        /** @return A description of the configuration of this run, apart from the number of bags. */
+        String getConfiguration()
+        {
+            return String.format("bagSize=%d attr=%d maxTreeSize=%d split=%d search=%d prop=%d eval=%d",
+                    bagSize, numAttr, maxTreeSize, split, search, prop, eval);
+        }
+
+        /** @return The rate of allocation, in MB per second (or -1 if unknown). */
+        double getAllocationRate()
+        {
+            return (allocatedMB < 0 || wallSeconds <= 0) ? -1 : allocatedMB / wallSeconds;
+        }
+
+        String toCsv()
+        {
+            return String.format("%d,%d,%d,%d,%d,%d,%d,%d,\"%s\",%.3f,%.1f,%.1f,%.1f,%.1f,%d,%d,%d",
+                    numBags, bagSize, numAttr, maxTreeSize, split, search, prop, eval,
+                    status.replace("\"", "\"\""), wallSeconds, peakHeapMB, baseHeapMB,
+                    allocatedMB, getAllocationRate(), numNodesEvaluated, numCandidatesEvaluated,
+                    numClassifierBuilds);
+        }
+
+        String toRow()
+        {
+            return String.format("%8d %5d %5d %5d %5d %6d %5d %5d %10.3f %9.1f %10.1f %10d %10d  %s",
+                    numBags, bagSize, numAttr, maxTreeSize, split, search, prop, eval,
+                    wallSeconds, peakHeapMB, getAllocationRate(), numCandidatesEvaluated, numClassifierBuilds,
+                    status);
+        }
+    }
+}
+
+/**
+ * Wraps a classifier, counting the number of times it is built (by any copy of this classifier,
+ *  since AdaProp and the evaluation strategies copy the classifier they are given).
+ */
+class CountingClassifier extends SingleClassifierEnhancer
+{
+    /** The number of times any counting classifier has been built */
+    private static final AtomicLong NUM_BUILDS = new AtomicLong();
+
+    CountingClassifier(final Classifier classifier)
+    {
+        m_Classifier = classifier;
+    }
+
+    /** @return The number of times any counting classifier has been built. */
+    static long getNumBuilds()
+    {
+        return NUM_BUILDS.get();
+    }
+
+    @Override /** @inheritDoc */
+    public void buildClassifier(final Instances data) throws Exception
+    {
+        NUM_BUILDS.incrementAndGet();
+        m_Classifier.buildClassifier(data);
+    }
+
+    @Override /** @inheritDoc */
+    public double[] distributionForInstance(final Instance instance) throws Exception
+    {
+        return m_Classifier.distributionForInstance(instance);
+    }
+}
@@ -0,0 +1,43 @@
+package weka.classifiers.mi.adaprop;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for generating the candidate splits of the root node, with each split strategy.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SplitStrategyBenchmark extends BenchmarkData
+{
+    /** The ID of the split strategy (see SplitStrategy.STRATEGIES) */
+    @Param({"1", "2", "3", "4"})
+    public int splitStrategyID;
+
+    private SplitStrategy splitStrategy;
+
+    @Override /** @inheritDoc */
+    protected void setup()
+    {
+        splitStrategy = SplitStrategy.getStrategy(splitStrategyID, numAttr);
+    }
+
+    @Benchmark
+    public List<?> generateSplitPoints()
+    {
+        return splitStrategy.generateSplitPoints(bags, new BitSet());
+    }
+}
@@ -1,11 +1,15 @@
 package weka.classifiers.mi;
 
+import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.classifiers.SingleClassifierEnhancer;
 import weka.classifiers.mi.adaprop.*;
 import weka.classifiers.trees.RandomForest;
 import weka.core.*;
 
+import javax.management.JMException;
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 
@@ -38,9 +42,45 @@ public class AdaProp extends SingleClassifierEnhancer
     //<editor-fold defaultstate="collapsed" desc="===Additional Measure Handling ===">
     private int selectedMaxTreeSize = 0;
     private double errorAtChosenMaxTreeSize = 0.0;
-    private static final int NUM_ADDITIONAL_MEASURES = 2;
+    private long numNodesEvaluated = 0;
+    private long numCandidatesEvaluated = 0;
+    private long numEvalCacheHits = 0;
+    private long numEvalCacheMisses = 0;
+    private long numCandidatesGenerated = 0;
+    private long numNodesExpanded = 0;
+    private long numClassifierBuilds = 0;
+    private long peakBorderSize = 0;
+    private double splitGenerationTime = 0.0;
+    private double propositionalisationTime = 0.0;
+    private double trainingTime = 0.0;
+    private double evaluationTime = 0.0;
+    private long datasetCopyAllocatedBytes = 0;
+    private long propositionalisationAllocatedBytes = 0;
+    private long trainingAllocatedBytes = 0;
+    private long peakBorderBytes = 0;
+    private long peakHeapGrowth = 0;
+    private static final int NUM_ADDITIONAL_MEASURES = 20;
     private static final String SELECTED_MAX_TREE_SIZE_KEY = "measureSelectedMaxTreeSize";
     private static final String ERROR_AT_MAX_TREE_SIZE_KEY = "measureErrorAtChosenMaxTreeSize";
+    private static final String NUM_NODES_EVALUATED_KEY = "measureNumNodesEvaluated";
+    private static final String NUM_CANDIDATES_EVALUATED_KEY = "measureNumCandidatesEvaluated";
+    private static final String NUM_EVAL_CACHE_HITS_KEY = "measureNumEvalCacheHits";
+    private static final String NUM_EVAL_CACHE_MISSES_KEY = "measureNumEvalCacheMisses";
+    private static final String NUM_CANDIDATES_GENERATED_KEY = "measureNumCandidatesGenerated";
+    private static final String NUM_NODES_EXPANDED_KEY = "measureNumNodesExpanded";
+    private static final String NUM_CLASSIFIER_BUILDS_KEY = "measureNumClassifierBuilds";
+    private static final String PEAK_BORDER_SIZE_KEY = "measurePeakBorderSize";
+    private static final String SPLIT_GENERATION_TIME_KEY = "measureSplitGenerationTime";
+    private static final String PROPOSITIONALISATION_TIME_KEY = "measurePropositionalisationTime";
+    private static final String TRAINING_TIME_KEY = "measureTrainingTime";
+    private static final String EVALUATION_TIME_KEY = "measureEvaluationTime";
+    private static final String DATASET_COPY_ALLOCATED_BYTES_KEY = "measureDatasetCopyAllocatedBytes";
+    private static final String PROPOSITIONALISATION_ALLOCATED_BYTES_KEY =
+            "measurePropositionalisationAllocatedBytes";
+    private static final String TRAINING_ALLOCATED_BYTES_KEY = "measureTrainingAllocatedBytes";
+    private static final String PEAK_BORDER_BYTES_KEY = "measurePeakBorderBytes";
+    private static final String PEAK_HEAP_GROWTH_KEY = "measurePeakHeapGrowth";
+    private static final String SERIALISED_MODEL_SIZE_KEY = "measureSerialisedModelSize";
 
     @Override /** @inheritDoc */
     public Enumeration enumerateMeasures()
@@ -48,6 +88,24 @@ public class AdaProp extends SingleClassifierEnhancer
         Vector<String> newVector = new Vector<String>(NUM_ADDITIONAL_MEASURES);
         newVector.addElement(SELECTED_MAX_TREE_SIZE_KEY);
         newVector.addElement(ERROR_AT_MAX_TREE_SIZE_KEY);
+        newVector.addElement(NUM_NODES_EVALUATED_KEY);
+        newVector.addElement(NUM_CANDIDATES_EVALUATED_KEY);
+        newVector.addElement(NUM_EVAL_CACHE_HITS_KEY);
+        newVector.addElement(NUM_EVAL_CACHE_MISSES_KEY);
+        newVector.addElement(NUM_CANDIDATES_GENERATED_KEY);
+        newVector.addElement(NUM_NODES_EXPANDED_KEY);
+        newVector.addElement(NUM_CLASSIFIER_BUILDS_KEY);
+        newVector.addElement(PEAK_BORDER_SIZE_KEY);
+        newVector.addElement(SPLIT_GENERATION_TIME_KEY);
+        newVector.addElement(PROPOSITIONALISATION_TIME_KEY);
+        newVector.addElement(TRAINING_TIME_KEY);
+        newVector.addElement(EVALUATION_TIME_KEY);
+        newVector.addElement(DATASET_COPY_ALLOCATED_BYTES_KEY);
+        newVector.addElement(PROPOSITIONALISATION_ALLOCATED_BYTES_KEY);
+        newVector.addElement(TRAINING_ALLOCATED_BYTES_KEY);
+        newVector.addElement(PEAK_BORDER_BYTES_KEY);
+        newVector.addElement(PEAK_HEAP_GROWTH_KEY);
+        newVector.addElement(SERIALISED_MODEL_SIZE_KEY);
         // TODO - what if base-classifier produces additional measures?
         return newVector.elements();
     }
@@ -63,17 +121,113 @@ public class AdaProp extends SingleClassifierEnhancer
         {
             return errorAtChosenMaxTreeSize;
         }
+        else if (measureName.equals(NUM_NODES_EVALUATED_KEY))
+        {
+            return numNodesEvaluated;
+        }
+        else if (measureName.equals(NUM_CANDIDATES_EVALUATED_KEY))
+        {
+            return numCandidatesEvaluated;
+        }
+        else if (measureName.equals(NUM_EVAL_CACHE_HITS_KEY))
+        {
+            return numEvalCacheHits;
+        }
+        else if (measureName.equals(NUM_EVAL_CACHE_MISSES_KEY))
+        {
+            return numEvalCacheMisses;
+        }
+        else if (measureName.equals(NUM_CANDIDATES_GENERATED_KEY))
+        {
+            return numCandidatesGenerated;
+        }
+        else if (measureName.equals(NUM_NODES_EXPANDED_KEY))
+        {
+            return numNodesExpanded;
+        }
+        else if (measureName.equals(NUM_CLASSIFIER_BUILDS_KEY))
+        {
+            return numClassifierBuilds;
+        }
+        else if (measureName.equals(PEAK_BORDER_SIZE_KEY))
+        {
+            return peakBorderSize;
+        }
+        else if (measureName.equals(SPLIT_GENERATION_TIME_KEY))
+        {
+            return splitGenerationTime;
+        }
+        else if (measureName.equals(PROPOSITIONALISATION_TIME_KEY))
+        {
+            return propositionalisationTime;
+        }
+        else if (measureName.equals(TRAINING_TIME_KEY))
+        {
+            return trainingTime;
+        }
+        else if (measureName.equals(EVALUATION_TIME_KEY))
+        {
+            return evaluationTime;
+        }
+        else if (measureName.equals(DATASET_COPY_ALLOCATED_BYTES_KEY))
+        {
+            return datasetCopyAllocatedBytes;
+        }
+        else if (measureName.equals(PROPOSITIONALISATION_ALLOCATED_BYTES_KEY))
+        {
+            return propositionalisationAllocatedBytes;
+        }
+        else if (measureName.equals(TRAINING_ALLOCATED_BYTES_KEY))
+        {
+            return trainingAllocatedBytes;
+        }
+        else if (measureName.equals(PEAK_BORDER_BYTES_KEY))
+        {
+            return peakBorderBytes;
+        }
+        else if (measureName.equals(PEAK_HEAP_GROWTH_KEY))
+        {
+            return peakHeapGrowth;
+        }
+        else if (measureName.equals(SERIALISED_MODEL_SIZE_KEY))
+        {
+            return getSerialisedModelSize();
+        }
         else
         {
             throw new IllegalArgumentException("Unknown measure: " + measureName);
         }
     }
+
+    /**
+     * @return The size (in bytes) of this model when serialised, as a guide to the memory needed to load it
+     * for scoring (or NaN if it cannot be serialised).
+     */
+    private double getSerialisedModelSize()
+    {
+        try
+        {
+            return MemoryMeter.getSerialisedSize(this);
+        }
+        catch (IOException e)
+        {
+            return Double.NaN;
+        }
+    }
     // </editor-fold>
 
     //<editor-fold defaultstate="collapsed" desc="===Option Handling===">
     private static final int DEFAULT_MAX_TREE_SIZE = 8;
     private static final int DEFAULT_MIN_OCCUPANCY = 5;
     private static final boolean DEFAULT_PARAM_SEL = false;
+    private static final int DEFAULT_NUM_THREADS = 1;
+    private static final double DEFAULT_TIME_BUDGET = 0;
+    private static final String DEFAULT_CHECKPOINT_FILE = "";
+    private static final int DEFAULT_EVAL_CACHE_SIZE = 0;
+    private static final String DEFAULT_EVAL_CACHE_DIR = "";
+    private static final boolean DEFAULT_INCREMENTAL_SEARCH = false;
+    private static final boolean DEFAULT_PROFILE = false;
+    private static final String DEFAULT_JMX_NAME = "";
 
     // keys for command line options:
     // (e.g. when using "AdaProp -prop 1 -maxTreeSize 4" etc)
@@ -84,6 +238,15 @@ public class AdaProp extends SingleClassifierEnhancer
     public static final String MAX_TREE_KEY = "maxTreeSize";
     public static final String MIN_OCC_KEY = "minOcc";
     public static final String PARAM_SEL_KEY = "paramSel";
+    public static final String NUM_THREADS_KEY = "numThreads";
+    public static final String TIME_BUDGET_KEY = "timeBudget";
+    public static final String CHECKPOINT_KEY = "checkpoint";
+    public static final String EVAL_CACHE_SIZE_KEY = "evalCacheSize";
+    public static final String EVAL_CACHE_DIR_KEY = "evalCacheDir";
+    public static final String SEARCH_CLASSIFIER_KEY = "searchClassifier";
+    public static final String INCREMENTAL_SEARCH_KEY = "incrementalSearch";
+    public static final String PROFILE_KEY = "profile";
+    public static final String JMX_NAME_KEY = "jmxName";
     public static final String MAX_TREE_DESCRIPTION =
             "Maximum size (number of nodes) of the tree. Default=8.";
     public static final String MIN_OCC_DESCRIPTION =
@@ -91,6 +254,37 @@ public class AdaProp extends SingleClassifierEnhancer
     public static final String PARAM_SEL_DESCRIPTION =
             "Perform Cross-validated Tree Size Parameter Selection. " +
                     "Default=False.";
+    public static final String NUM_THREADS_DESCRIPTION =
+            "Number of threads to use when building the tree. Default=1.";
+    public static final String TIME_BUDGET_DESCRIPTION =
+            "Time budget (in seconds) for building the tree (including " +
+                    "selecting its size), after which the best complete tree " +
+                    "so far is used. Default=0 (unlimited).";
+    public static final String CHECKPOINT_DESCRIPTION =
+            "File to checkpoint the tree building to, and to resume it from. " +
+                    "Default=none.";
+    public static final String EVAL_CACHE_SIZE_DESCRIPTION =
+            "Number of split evaluations to remember (in memory), so that " +
+                    "identical evaluations are not repeated. Default=0 (none).";
+    public static final String EVAL_CACHE_DIR_DESCRIPTION =
+            "Directory in which to store split evaluations, so that they can " +
+                    "be reused by later runs. Default=none.";
+    public static final String SEARCH_CLASSIFIER_DESCRIPTION =
+            "Classifier (with its options) to evaluate the splits with when " +
+                    "building the tree, e.g. a cheaper version of the base " +
+                    "classifier. Default=none (use the base classifier).";
+    public static final String INCREMENTAL_SEARCH_DESCRIPTION =
+            "Train updateable classifiers incrementally (in a single pass " +
+                    "over the bags) when evaluating the splits. Default=False.";
+    public static final String PROFILE_DESCRIPTION =
+            "Profile the building of each node of the tree (the instances " +
+                    "in the node, the candidate splits evaluated, the time " +
+                    "taken and the error margin of the chosen split), and " +
+                    "show the profiles in the tree. Default=False.";
+    public static final String JMX_NAME_DESCRIPTION =
+            "Name under which to register a JMX MBean with the live " +
+                    "scoring and build statistics of this model (once it " +
+                    "is built or used). Default=none (not registered).";
 
     /** The id of the instance-space splitting strategy to use */
     protected int m_SplitStrategy = SplitStrategy.DEFAULT_STRATEGY;
@@ -114,6 +308,48 @@ public class AdaProp extends SingleClassifierEnhancer
     /** Whether cross-validated parameter selection is to be used */
     protected boolean m_DoCVParameterSelection = DEFAULT_PARAM_SEL;
 
+    /** The number of threads to use when building the tree */
+    protected int m_NumThreads = DEFAULT_NUM_THREADS;
+
+    /**
+     * The time budget (in seconds) for building the tree, including selecting
+     * its size (0 for unlimited)
+     */
+    protected double m_TimeBudget = DEFAULT_TIME_BUDGET;
+
+    /** The file to checkpoint the tree building to (empty for no checkpoints) */
+    protected String m_CheckpointFile = DEFAULT_CHECKPOINT_FILE;
+
+    /** The number of split evaluations to remember in memory (0 for none) */
+    protected int m_EvalCacheSize = DEFAULT_EVAL_CACHE_SIZE;
+
+    /** The directory in which to store split evaluations (empty for none) */
+    protected String m_EvalCacheDir = DEFAULT_EVAL_CACHE_DIR;
+
+    /**
+     * The classifier to evaluate the splits with when building the tree
+     * (null to use the base classifier, m_Classifier)
+     */
+    protected Classifier m_SearchClassifier = null;
+
+    /** Whether updateable classifiers are trained incrementally when evaluating the splits */
+    protected boolean m_IncrementalSearch = DEFAULT_INCREMENTAL_SEARCH;
+
+    /** Whether the building of each node of the tree is profiled */
+    protected boolean m_Profile = DEFAULT_PROFILE;
+
+    /** The name to register the statistics of this model under, with JMX (empty for none) */
+    protected String m_JmxName = DEFAULT_JMX_NAME;
+
+    /** The statistics of this model (once registered, see registerMBean) */
+    private transient volatile AdaPropStats m_Stats = null;
+
+    /** Is told about the progress of each build (or null) */
+    protected transient BuildProgressListener m_ProgressListener = null;
+
+    /** The monitor of the build in progress (or null) */
+    private transient volatile BuildMonitor m_BuildMonitor = null;
+
     /** For randomization (when performing CV) */
     protected Random m_Random = new Random(1);
 
@@ -264,6 +500,181 @@ public class AdaProp extends SingleClassifierEnhancer
         return m_DoCVParameterSelection;
     }
 
+    /**
+     * Gets the number of threads used when building the tree
+     * @return the number of threads
+     */
+    public int getNumThreads()
+    {
+        return m_NumThreads;
+    }
+
+    /**
+     * Sets the number of threads used when building the tree
+     * @param numThreads The number of threads
+     */
+    public void setNumThreads(int numThreads)
+    {
+        m_NumThreads = numThreads;
+    }
+
+    /**
+     * Gets the time budget (in seconds) for building the tree (including
+     * selecting its size)
+     * @return the time budget (0 for unlimited)
+     */
+    public double getTimeBudget()
+    {
+        return m_TimeBudget;
+    }
+
+    /**
+     * Sets the time budget (in seconds) for building the tree (including
+     * selecting its size)
+     * @param timeBudget The time budget (0 for unlimited)
+     */
+    public void setTimeBudget(double timeBudget)
+    {
+        m_TimeBudget = timeBudget;
+    }
+
+    /**
+     * Gets the file to checkpoint the tree building to
+     * @return the checkpoint file (empty for no checkpoints)
+     */
+    public String getCheckpointFile()
+    {
+        return m_CheckpointFile;
+    }
+
+    /**
+     * Sets the file to checkpoint the tree building to. If the file holds
+     * a checkpoint of the same build, the build is resumed from it.
+     * @param checkpointFile The checkpoint file (empty for no checkpoints)
+     */
+    public void setCheckpointFile(String checkpointFile)
+    {
+        m_CheckpointFile = checkpointFile;
+    }
+
+    /**
+     * Gets the number of split evaluations remembered in memory
+     * @return the number of evaluations (0 for none)
+     */
+    public int getEvalCacheSize()
+    {
+        return m_EvalCacheSize;
+    }
+
+    /**
+     * Sets the number of split evaluations remembered in memory
+     * @param evalCacheSize The number of evaluations (0 for none)
+     */
+    public void setEvalCacheSize(int evalCacheSize)
+    {
+        m_EvalCacheSize = evalCacheSize;
+    }
+
+    /**
+     * Gets the directory in which split evaluations are stored
+     * @return the directory (empty for none)
+     */
+    public String getEvalCacheDir()
+    {
+        return m_EvalCacheDir;
+    }
+
+    /**
+     * Sets the directory in which split evaluations are stored. Evaluations
+     * stored there by earlier runs are reused.
+     * @param evalCacheDir The directory (empty for none)
+     */
+    public void setEvalCacheDir(String evalCacheDir)
+    {
+        m_EvalCacheDir = evalCacheDir;
+    }
+
+    /**
+     * Gets the classifier used to evaluate the splits when building the tree
+     * @return the classifier (null if the base classifier is used)
+     */
+    public Classifier getSearchClassifier()
+    {
+        return m_SearchClassifier;
+    }
+
+    /**
+     * Sets the classifier used to evaluate the splits when building the tree
+     * (and when selecting its size). The base classifier is still used for
+     * the final model.
+     * @param searchClassifier The classifier (null to use the base classifier)
+     */
+    public void setSearchClassifier(Classifier searchClassifier)
+    {
+        m_SearchClassifier = searchClassifier;
+    }
+
+    /**
+     * Gets whether updateable classifiers are trained incrementally when evaluating the splits
+     * @return true if they are trained incrementally
+     */
+    public boolean getIncrementalSearch()
+    {
+        return m_IncrementalSearch;
+    }
+
+    /**
+     * Sets whether updateable classifiers are trained incrementally (in a
+     * single pass over the bags) when evaluating the splits. This only
+     * applies to the classifier used for the search (see searchClassifier).
+     * @param incrementalSearch true to train them incrementally
+     */
+    public void setIncrementalSearch(boolean incrementalSearch)
+    {
+        m_IncrementalSearch = incrementalSearch;
+    }
+
+    /**
+     * Gets whether the building of each node of the tree is profiled
+     * @return true if it is profiled
+     */
+    public boolean getProfile()
+    {
+        return m_Profile;
+    }
+
+    /**
+     * Sets whether the building of each node of the tree is profiled. The
+     * profiles are shown in the tree (see toString) and are available from
+     * getNodeProfiles.
+     * @param profile true to profile the building of each node
+     */
+    public void setProfile(boolean profile)
+    {
+        m_Profile = profile;
+    }
+
+    /**
+     * Gets the name the statistics of this model are registered under
+     * @return the name (empty if they are not registered)
+     */
+    public String getJmxName()
+    {
+        return m_JmxName;
+    }
+
+    /**
+     * Sets the name to register the statistics of this model under, as a
+     * JMX MBean (see AdaPropStats). They are registered when the model is
+     * next built or used (e.g. once it is loaded), or by registerMBean.
+     * If they are registered under another name, they are unregistered then.
+     * @param jmxName The name (empty for none)
+     */
+    public void setJmxName(String jmxName)
+    {
+        m_JmxName = jmxName;
+    }
+
     @Override /** @inheritDoc */
     public Capabilities getCapabilities()
     {
@@ -341,6 +752,34 @@ public class AdaProp extends SingleClassifierEnhancer
         result.addElement(toNullaryOption(
                 PARAM_SEL_DESCRIPTION, PARAM_SEL_KEY));
 
+        result.addElement(toUnaryOption(
+                NUM_THREADS_DESCRIPTION, NUM_THREADS_KEY));
+
+        result.addElement(toUnaryOption(
+                TIME_BUDGET_DESCRIPTION, TIME_BUDGET_KEY));
+
+        result.addElement(new Option("\t" + CHECKPOINT_DESCRIPTION,
+                CHECKPOINT_KEY, 1, "-" + CHECKPOINT_KEY + " <file>"));
+
+        result.addElement(toUnaryOption(
+                EVAL_CACHE_SIZE_DESCRIPTION, EVAL_CACHE_SIZE_KEY));
+
+        result.addElement(new Option("\t" + EVAL_CACHE_DIR_DESCRIPTION,
+                EVAL_CACHE_DIR_KEY, 1, "-" + EVAL_CACHE_DIR_KEY + " <dir>"));
+
+        result.addElement(new Option("\t" + SEARCH_CLASSIFIER_DESCRIPTION,
+                SEARCH_CLASSIFIER_KEY, 1, "-" + SEARCH_CLASSIFIER_KEY +
+                " <classname [options]>"));
+
+        result.addElement(toNullaryOption(
+                INCREMENTAL_SEARCH_DESCRIPTION, INCREMENTAL_SEARCH_KEY));
+
+        result.addElement(toNullaryOption(
+                PROFILE_DESCRIPTION, PROFILE_KEY));
+
+        result.addElement(new Option("\t" + JMX_NAME_DESCRIPTION,
+                JMX_NAME_KEY, 1, "-" + JMX_NAME_KEY + " <name>"));
+
         // copy each of the superclass' options
         Enumeration enu = super.listOptions();
         while (enu.hasMoreElements())
@@ -413,6 +852,48 @@ public class AdaProp extends SingleClassifierEnhancer
         this.setDoCVParameterSelection(
                 Utils.getFlag(PARAM_SEL_KEY, options));
 
+        final String numThreadsStr = Utils.getOption(NUM_THREADS_KEY, options);
+        this.setNumThreads(numThreadsStr.isEmpty() ?
+                DEFAULT_NUM_THREADS :
+                Integer.parseInt(numThreadsStr));
+
+        final String timeBudgetStr = Utils.getOption(TIME_BUDGET_KEY, options);
+        this.setTimeBudget(timeBudgetStr.isEmpty() ?
+                DEFAULT_TIME_BUDGET :
+                Double.parseDouble(timeBudgetStr));
+
+        this.setCheckpointFile(Utils.getOption(CHECKPOINT_KEY, options));
+
+        final String evalCacheSizeStr = Utils.getOption(EVAL_CACHE_SIZE_KEY, options);
+        this.setEvalCacheSize(evalCacheSizeStr.isEmpty() ?
+                DEFAULT_EVAL_CACHE_SIZE :
+                Integer.parseInt(evalCacheSizeStr));
+
+        this.setEvalCacheDir(Utils.getOption(EVAL_CACHE_DIR_KEY, options));
+
+        final String searchClassifierStr =
+                Utils.getOption(SEARCH_CLASSIFIER_KEY, options);
+        if (searchClassifierStr.isEmpty())
+        {
+            this.setSearchClassifier(null);
+        }
+        else
+        {
+            // the class name, followed by the options of the classifier:
+            final String[] spec = Utils.splitOptions(searchClassifierStr);
+            final String className = spec[0];
+            spec[0] = "";
+            this.setSearchClassifier(
+                    AbstractClassifier.forName(className, spec));
+        }
+
+        this.setIncrementalSearch(
+                Utils.getFlag(INCREMENTAL_SEARCH_KEY, options));
+
+        this.setProfile(Utils.getFlag(PROFILE_KEY, options));
+
+        this.setJmxName(Utils.getOption(JMX_NAME_KEY, options));
+
         super.setOptions(options);
     }
 
@@ -445,6 +926,49 @@ public class AdaProp extends SingleClassifierEnhancer
             result.add("-" + PARAM_SEL_KEY);
         }
 
+        result.add("-" + NUM_THREADS_KEY);
+        result.add("" + m_NumThreads);
+
+        result.add("-" + TIME_BUDGET_KEY);
+        result.add("" + m_TimeBudget);
+
+        if (!m_CheckpointFile.isEmpty())
+        {
+            result.add("-" + CHECKPOINT_KEY);
+            result.add(m_CheckpointFile);
+        }
+
+        result.add("-" + EVAL_CACHE_SIZE_KEY);
+        result.add("" + m_EvalCacheSize);
+
+        if (!m_EvalCacheDir.isEmpty())
+        {
+            result.add("-" + EVAL_CACHE_DIR_KEY);
+            result.add(m_EvalCacheDir);
+        }
+
+        if (m_SearchClassifier != null)
+        {
+            result.add("-" + SEARCH_CLASSIFIER_KEY);
+            result.add(Utils.toCommandLine(m_SearchClassifier));
+        }
+
+        if (getIncrementalSearch())
+        {
+            result.add("-" + INCREMENTAL_SEARCH_KEY);
+        }
+
+        if (getProfile())
+        {
+            result.add("-" + PROFILE_KEY);
+        }
+
+        if (!m_JmxName.isEmpty())
+        {
+            result.add("-" + JMX_NAME_KEY);
+            result.add(m_JmxName);
+        }
+
         result.addAll(Arrays.asList(super.getOptions()));
         return (String[]) result.toArray(new String[result.size()]);
     }
@@ -487,19 +1011,166 @@ public class AdaProp extends SingleClassifierEnhancer
                         m_Classifier.toString());
     }
 
+    /**
+     * Get the profile of building each node of the tree (if built with profiling, see setProfile).
+     *
+     * @return The profile of each node, in the order in which the nodes were added to the tree
+     *  (empty if the tree has not been built, null for each node if it was not profiled).
+     */
+    public List<NodeProfile> getNodeProfiles()
+    {
+        return (splitTreeRoot == null) ?
+                new ArrayList<NodeProfile>() : splitTreeRoot.getNodeProfiles();
+    }
+
     @Override /** @inheritDoc */
     public double[] distributionForInstance(Instance newBag) throws Exception
     {
-        // propositionalise the bag
-        Instance propBag = SplitNode.propositionaliseBag(
-                newBag, splitTreeRoot, propositionalisedDataset, propStrategy);
+        final AdaPropStats stats = getStats();
+        final FlightRecorderEvents.Event event =
+                FlightRecorderEvents.SCORING.begin();
+        final boolean timed = (event != null || stats != null);
+        final long start = timed ? System.nanoTime() : 0;
+
+        final double[] distribution;
+        final long propositionalised;
+        try
+        {
+            // propositionalise the bag
+            Instance propBag = SplitNode.propositionaliseBag(
+                    newBag, splitTreeRoot, propositionalisedDataset, propStrategy);
+            propositionalised = timed ? System.nanoTime() : 0;
 
-        // use the base classifier for prediction.
-        return m_Classifier.distributionForInstance(propBag);
+            // use the base classifier for prediction.
+            distribution = m_Classifier.distributionForInstance(propBag);
+        }
+        catch (Exception e)
+        {
+            if (stats != null)
+            {
+                stats.recordError();
+            }
+            throw e;
+        }
+        if (timed)
+        {
+            final long classified = System.nanoTime();
+            final int bagSize = newBag.relationalValue(
+                    SplitNode.REL_INDEX).numInstances();
+            if (event != null)
+            {
+                event.set(0, bagSize).set(1, propositionalised - start)
+                        .set(2, classified - propositionalised).commit();
+            }
+            if (stats != null)
+            {
+                stats.recordPrediction(bagSize, propositionalised - start,
+                        classified - propositionalised);
+            }
+        }
+        return distribution;
+    }
+
+    /**
+     * Register the statistics of this model (under the jmxName), as a JMX
+     * MBean, if they are not registered already. This is done when the
+     * model is built or first used, if the jmxName is set. If they are
+     * registered under another name (i.e. the jmxName has changed since),
+     * they are unregistered (and registered afresh, unless the jmxName has
+     * been cleared).
+     *
+     * @return The statistics (or null, if the jmxName is not set).
+     */
+    public AdaPropStats registerMBean() throws JMException
+    {
+        synchronized (this)
+        {
+            if (m_Stats != null && !m_JmxName.equals(m_Stats.getModelName()))
+            {
+                unregisterMBean();
+            }
+            if (m_Stats == null && !m_JmxName.isEmpty())
+            {
+                final AdaPropStats stats = new AdaPropStats();
+                stats.register(m_JmxName);
+                m_Stats = stats;
+            }
+            return m_Stats;
+        }
+    }
+
+    /** Unregister the statistics of this model (if they are registered) */
+    public void unregisterMBean() throws JMException
+    {
+        synchronized (this)
+        {
+            if (m_Stats != null)
+            {
+                m_Stats.unregister();
+                m_Stats = null;
+            }
+        }
+    }
+
+    /** @return The statistics of this model (registering them if need be), or null if they are not kept. */
+    private AdaPropStats getStats() throws JMException
+    {
+        final AdaPropStats stats = m_Stats;
+        final boolean upToDate = (stats == null) ?
+                m_JmxName.isEmpty() : m_JmxName.equals(stats.getModelName());
+        return upToDate ? stats : registerMBean();
+    }
+
+    /**
+     * Set the listener to tell about the progress of each build (null for none).
+     * It must be thread-safe, if more than one thread is used (see BuildProgressListener).
+     */
+    public void setProgressListener(final BuildProgressListener listener)
+    {
+        m_ProgressListener = listener;
+    }
+
+    /**
+     * Cancel the build in progress (if any), which stops soon after, throwing an
+     * InterruptedException from buildClassifier. May be called from any thread.
+     * (Interrupting the thread building the classifier has the same effect.)
+     */
+    public void cancelBuild()
+    {
+        final BuildMonitor monitor = m_BuildMonitor;
+        if (monitor != null)
+        {
+            monitor.cancel();
+        }
     }
 
     @Override /** @inheritDoc */
     public void buildClassifier(Instances trainingDataBags) throws Exception
+    {
+        // (the folds of cross-validation and the final tree are each part of
+        // this build, so they are all cancelled with it, and all share its
+        // time budget)
+        final AdaPropStats stats = getStats();
+        final BuildMonitor buildMonitor = new BuildMonitor(m_TimeBudget);
+        buildMonitor.setListener((stats == null) ? m_ProgressListener :
+                stats.buildStarted(m_ProgressListener));
+        m_BuildMonitor = buildMonitor;
+        try
+        {
+            buildClassifier(trainingDataBags, buildMonitor);
+        }
+        finally
+        {
+            m_BuildMonitor = null;
+            if (stats != null)
+            {
+                stats.buildFinished();
+            }
+        }
+    }
+
+    private void buildClassifier(Instances trainingDataBags,
+            final BuildMonitor buildMonitor) throws Exception
     {
         if (m_Classifier == null)
         {
@@ -509,14 +1180,30 @@ public class AdaProp extends SingleClassifierEnhancer
         // can classifier handle the data?
         getCapabilities().testWithFail(trainingDataBags);
 
+        // the heap is sampled after each phase (and as the tree grows), to find
+        // the most memory in use during the build:
+        final long heapAtStart = MemoryMeter.getHeapUsed();
+
         // remove instances with missing class (make a copy first)
+        final long copyStartBytes = MemoryMeter.getAllocatedBytes();
         Instances trainingBags = new Instances(trainingDataBags);
         trainingBags.deleteWithMissingClass();
+        datasetCopyAllocatedBytes =
+                MemoryMeter.getAllocatedBytes() - copyStartBytes;
+        long peakHeapUsed = MemoryMeter.getHeapUsed();
 
         // TODO : what if the dataset is empty?
         final int numAttr =
                 trainingBags.instance(0).relationalValue(1).numAttributes();
 
+        // resume from the checkpoint of this build (if any), including the
+        // state of the random number generator:
+        final BuildCheckpoint checkpoint = loadCheckpoint(trainingBags);
+        if (checkpoint != null)
+        {
+            m_Random = checkpoint.random;
+        }
+
         // convert the strategy IDs to strategy objects:
         SplitStrategy splitStrategy = SplitStrategy.getStrategy(
                 m_SplitStrategy, numAttr);
@@ -524,41 +1211,261 @@ public class AdaProp extends SingleClassifierEnhancer
                 m_SearchStrategy);
         propStrategy = PropositionalisationStrategy.getStrategy(
                 m_PropositionalisationStrategy, numAttr);
-        EvaluationStrategy evalStrategy = EvaluationStrategy.getStrategy(
-                m_EvalStrategy, m_Random);
-
-        // automatically determine maxTreeSize if required:
-        selectedMaxTreeSize = m_MaxTreeSize;
-        if (m_DoCVParameterSelection)
+        // (the evaluation strategy may hold state drawn from m_Random, so it
+        // is resumed from the checkpoint too)
+        EvaluationStrategy evalStrategy = (checkpoint != null) ?
+                checkpoint.evalStrategy :
+                EvaluationStrategy.getStrategy(m_EvalStrategy, m_Random);
+        final EvaluationStrategy uncachedEvalStrategy = evalStrategy;
+        evalStrategy.setTrainIncrementally(m_IncrementalSearch);
+
+        // remember the split evaluations, if required:
+        CachingEvaluationStrategy evalCache = null;
+        if (m_EvalCacheSize > 0 || !m_EvalCacheDir.isEmpty())
         {
-            AdaPropParams params = new AdaPropParams(m_MaxTreeSize,
-                    m_MinOccupancy, m_Classifier, splitStrategy, evalStrategy,
-                    searchStrategy, propStrategy);
-            selectedMaxTreeSize = selectMaxTreeSizeParameter(trainingBags,
-                    m_Random, params);
+            evalCache = new CachingEvaluationStrategy(evalStrategy,
+                    m_EvalCacheSize, m_EvalCacheDir);
+            evalStrategy = evalCache;
         }
 
-        // create the tree of splits:
-        splitTreeRoot = SplitNode.buildTree(trainingBags, splitStrategy,
-                selectedMaxTreeSize, m_MinOccupancy, m_Classifier,
-                searchStrategy, propStrategy, evalStrategy);
+        // the splits are evaluated with the search classifier (if any), while
+        // the base classifier is only trained once the tree is complete:
+        final Classifier searchClassifier = (m_SearchClassifier == null) ?
+                m_Classifier : AbstractClassifier.makeCopy(m_SearchClassifier);
+
+        final TaskRunner taskRunner = new TaskRunner(m_NumThreads);
+        try
+        {
+            // automatically determine maxTreeSize if required:
+            selectedMaxTreeSize = m_MaxTreeSize;
+            if (checkpoint != null)
+            {
+                selectedMaxTreeSize = checkpoint.selectedMaxTreeSize;
+                errorAtChosenMaxTreeSize = checkpoint.errorAtChosenMaxTreeSize;
+            }
+            else if (m_DoCVParameterSelection)
+            {
+                AdaPropParams params = new AdaPropParams(m_MaxTreeSize,
+                        m_MinOccupancy, searchClassifier, splitStrategy, evalStrategy,
+                        searchStrategy, propStrategy, buildMonitor);
+                selectedMaxTreeSize = selectMaxTreeSizeParameter(trainingBags,
+                        m_Random, params, taskRunner);
+                peakHeapUsed = Math.max(peakHeapUsed, MemoryMeter.getHeapUsed());
+            }
+
+            // create the tree of splits (within what is left of the budget):
+            final BuildMonitor monitor = new BuildMonitor(buildMonitor);
+            monitor.setProfiling(m_Profile);
+            if (m_CheckpointFile.isEmpty())
+            {
+                splitTreeRoot = SplitNode.buildTree(trainingBags, splitStrategy,
+                        selectedMaxTreeSize, m_MinOccupancy, searchClassifier,
+                        searchStrategy, propStrategy, evalStrategy, taskRunner,
+                        monitor);
+            }
+            else
+            {
+                final RootSplitNode root = (checkpoint == null) ?
+                        SplitNode.startTree(trainingBags, splitStrategy,
+                                selectedMaxTreeSize, m_MinOccupancy,
+                                searchClassifier, searchStrategy, propStrategy,
+                                evalStrategy, taskRunner, monitor) :
+                        SplitNode.resumeTree(checkpoint.root, trainingBags,
+                                splitStrategy, selectedMaxTreeSize,
+                                m_MinOccupancy, searchClassifier, propStrategy,
+                                evalStrategy, taskRunner, monitor);
+                splitTreeRoot = growTreeWithCheckpoints(root, trainingBags,
+                        uncachedEvalStrategy);
+            }
+            // (the work of the whole build, including the cross-validation
+            // for selecting the tree size, is counted by the build monitor)
+            numNodesEvaluated = buildMonitor.getNumNodesEvaluated();
+            numCandidatesEvaluated = buildMonitor.getNumCandidatesEvaluated();
+            numCandidatesGenerated = buildMonitor.getNumCandidatesGenerated();
+            numNodesExpanded = buildMonitor.getNumNodesExpanded();
+            numClassifierBuilds = buildMonitor.getNumClassifierBuilds();
+            peakBorderSize = buildMonitor.getPeakBorderSize();
+            splitGenerationTime = buildMonitor.getSplitGenerationTime();
+            propositionalisationTime =
+                    buildMonitor.getPropositionalisationTime();
+            trainingTime = buildMonitor.getTrainingTime();
+            evaluationTime = buildMonitor.getEvaluationTime();
+            propositionalisationAllocatedBytes =
+                    buildMonitor.getPropositionalisationAllocatedBytes();
+            trainingAllocatedBytes = buildMonitor.getTrainingAllocatedBytes();
+            peakBorderBytes = peakBorderSize *
+                    MemoryMeter.estimateBitSetSize(countInstances(trainingBags));
+            peakHeapUsed =
+                    Math.max(peakHeapUsed, buildMonitor.getPeakHeapUsed());
+            numEvalCacheHits = (evalCache == null) ? 0 : evalCache.getNumHits();
+            numEvalCacheMisses = (evalCache == null) ? 0 : evalCache.getNumMisses();
+        }
+        finally
+        {
+            taskRunner.shutdown();
+        }
 
         // retrain m_classifier with the best split tree:
+        buildMonitor.checkCancelled();
+        final long propStartBytes = MemoryMeter.getAllocatedBytes();
         Instances propTrainingBags = SplitNode.propositionaliseDataset(
                 trainingBags, splitTreeRoot, propStrategy);
+        final long trainStartBytes = MemoryMeter.getAllocatedBytes();
+        propositionalisationAllocatedBytes += trainStartBytes - propStartBytes;
+        peakHeapUsed = Math.max(peakHeapUsed, MemoryMeter.getHeapUsed());
         m_Classifier.buildClassifier(propTrainingBags);
+        trainingAllocatedBytes +=
+                MemoryMeter.getAllocatedBytes() - trainStartBytes;
+        peakHeapUsed = Math.max(peakHeapUsed, MemoryMeter.getHeapUsed());
+        peakHeapGrowth = Math.max(0, peakHeapUsed - heapAtStart);
 
         // store only the header (conserve memory)
         propositionalisedDataset = new Instances(propTrainingBags, 0);
     }
 
+    /** @return The number of instances, over all of the bags. */
+    private static int countInstances(final Instances bags)
+    {
+        int numInstances = 0;
+        for (int bagIndex = 0; bagIndex < bags.numInstances(); bagIndex++)
+        {
+            numInstances += bags.instance(bagIndex).relationalValue(
+                    SplitNode.REL_INDEX).numInstances();
+        }
+        return numInstances;
+    }
+
+    /**
+     * Grow the tree one node at a time, saving a checkpoint before each node
+     * (so that the build can be resumed if it is interrupted). The checkpoint
+     * is deleted once the tree is complete.
+     *
+     * @return The root of the complete tree.
+     */
+    private RootSplitNode growTreeWithCheckpoints(final RootSplitNode root,
+            final Instances trainingBags, final EvaluationStrategy evalStrategy)
+            throws Exception
+    {
+        final String buildKey = getBuildKey(trainingBags);
+        do
+        {
+            saveCheckpoint(new BuildCheckpoint(buildKey, root, m_Random,
+                    evalStrategy, selectedMaxTreeSize,
+                    errorAtChosenMaxTreeSize));
+        }
+        while (root.addNode());
+
+        final File file = new File(m_CheckpointFile);
+        if (file.exists() && !file.delete())
+        {
+            throw new IOException("Unable to delete checkpoint: " + file);
+        }
+        return root;
+    }
+
+    /**
+     * Describe this build (the options, except for those which do not
+     * affect the built model, and a fingerprint of the training data), so
+     * that a checkpoint is only resumed by the same build.
+     */
+    private String getBuildKey(final Instances trainingBags)
+    {
+        final List<String> ignoredKeys = Arrays.asList("-" + NUM_THREADS_KEY,
+                "-" + TIME_BUDGET_KEY, "-" + CHECKPOINT_KEY,
+                "-" + EVAL_CACHE_SIZE_KEY, "-" + EVAL_CACHE_DIR_KEY,
+                "-" + JMX_NAME_KEY);
+        final StringBuilder key = new StringBuilder();
+        final String[] options = getOptions();
+        for (int i = 0; i < options.length; i++)
+        {
+            if (ignoredKeys.contains(options[i]))
+            {
+                i++; // skip the value too.
+            }
+            else
+            {
+                key.append(options[i]).append(' ');
+            }
+        }
+        key.append("| ").append(trainingBags.relationName())
+                .append(" | ").append(trainingBags.numInstances())
+                .append(" | ").append(new Fingerprint().add(trainingBags));
+        return key.toString();
+    }
+
+    /**
+     * Save the checkpoint, replacing the previous one. The checkpoint is
+     * written to a temporary file first, so that an interrupted save never
+     * leaves a broken checkpoint behind.
+     */
+    private void saveCheckpoint(final BuildCheckpoint checkpoint)
+            throws Exception
+    {
+        final File file = new File(m_CheckpointFile);
+        final File tempFile = new File(m_CheckpointFile + ".tmp");
+        SerializationHelper.write(tempFile.getPath(), checkpoint);
+        if (!tempFile.renameTo(file))
+        {
+            // some platforms cannot rename over an existing file:
+            if (!file.delete() || !tempFile.renameTo(file))
+            {
+                throw new IOException("Unable to save checkpoint: " + file);
+            }
+        }
+    }
+
+    /**
+     * Load the checkpoint of this build, if checkpoints are enabled and the
+     * checkpoint file holds a checkpoint of this build. A checkpoint which
+     * cannot be read (e.g. it is corrupt, or was saved by an incompatible
+     * version of AdaProp) is ignored, so the build starts afresh.
+     *
+     * @return The checkpoint, or null if there is none.
+     */
+    private BuildCheckpoint loadCheckpoint(final Instances trainingBags)
+            throws Exception
+    {
+        if (m_CheckpointFile.isEmpty() || !new File(m_CheckpointFile).exists())
+        {
+            return null;
+        }
+
+        final Object saved;
+        try
+        {
+            saved = SerializationHelper.read(m_CheckpointFile);
+        }
+        catch (IOException e)
+        {
+            return null; // (including an InvalidClassException)
+        }
+        catch (ClassNotFoundException e)
+        {
+            return null;
+        }
+        if (!(saved instanceof BuildCheckpoint))
+        {
+            return null;
+        }
+        final BuildCheckpoint checkpoint = (BuildCheckpoint) saved;
+        return checkpoint.buildKey.equals(getBuildKey(trainingBags)) ?
+                checkpoint : null;
+    }
+
     /**
      * Select, via Cross-validation, the "best" value for the maxTreeSize
-     * parameter, bounded by the upper limit (in params)
+     * parameter, bounded by the upper limit (in params).
+     *
+     * Every tree size (from 0 to the upper limit) is scored, and the
+     * smallest size with the least cross-validated error is selected.
+     * If the time budget runs out, only the folds completed so far are
+     * used (or, if there are none, the sizes scored on the first fold).
+     *
      * @return The selected maxTreeSize parameter
      */
     protected int selectMaxTreeSizeParameter(
-            final Instances bags, final Random random, AdaPropParams params)
+            final Instances bags, final Random random, AdaPropParams params,
+            final TaskRunner taskRunner)
     throws Exception
     {
         // TODO
@@ -572,57 +1479,150 @@ public class AdaProp extends SingleClassifierEnhancer
             trainingData.stratify(numFolds);
         }
 
-        // Build the folds
-        ArrayList<Instances> trainingFolds = new ArrayList<Instances>(numFolds);
-        ArrayList<Instances> testFolds = new ArrayList<Instances>(numFolds);
-        ArrayList<RootSplitNode> trees = new ArrayList<RootSplitNode>(numFolds);
-
-        double curErr = 0;
-        for (int foldIndex = 0; foldIndex < numFolds; foldIndex++)
+        // sum up the error of each tree size over all folds (a fold cut
+        // short by the time budget only scores the sizes it reached)
+        final double[] errorBySize = new double[params.maxNodeCount + 1];
+        int numSizesScored = 0;
+        int numFoldsDone = 0;
+        while (numFoldsDone < numFolds && !params.monitor.isOutOfTime())
         {
             // configure folds
             final Instances trainingBags =
-                    trainingData.trainCV(numFolds, foldIndex, random);
-            trainingFolds.add(trainingBags);
-            final Instances testBags = trainingData.testCV(numFolds, foldIndex);
-            testFolds.add(testBags);
-
-            // build root
-            final RootSplitNode root =
-                    params.searchStrategy.buildRoot(params.propStrategy);
-            trees.add(root);
-
-            // compute error
-            curErr += trainAndEvalCVError(root, trainingBags, testBags, params);
+                    trainingData.trainCV(numFolds, numFoldsDone, random);
+            final Instances testBags =
+                    trainingData.testCV(numFolds, numFoldsDone);
+
+            final double[] foldErrorBySize = new double[errorBySize.length];
+            final int numFoldSizesScored =
+                    params.searchStrategy.buildsNestedTrees() ?
+                            addErrorsOfPrefixTrees(trainingBags, testBags,
+                                    params, taskRunner, foldErrorBySize) :
+                            addErrorsOfGrownTrees(trainingBags, testBags,
+                                    params, taskRunner, foldErrorBySize);
+            if (params.monitor.isOutOfTime())
+            {
+                // (the fold may be incomplete, so only use it if it is the
+                // only one)
+                if (numFoldsDone == 0)
+                {
+                    System.arraycopy(foldErrorBySize, 0, errorBySize, 0,
+                            errorBySize.length);
+                    numSizesScored = numFoldSizesScored;
+                }
+                break;
+            }
+            for (int size = 0; size < errorBySize.length; size++)
+            {
+                errorBySize[size] += foldErrorBySize[size];
+            }
+            numSizesScored = errorBySize.length;
+            numFoldsDone++;
+            params.monitor.foldDone(numFoldsDone, numFolds);
         }
 
-        // try each value, until the upper limit is reached,
-        // or cross-validated accuracy decreases
-        int curMaxTreeSize=0;
-        for (; curMaxTreeSize < params.maxNodeCount; curMaxTreeSize++ )
+        // select the smallest size with the least error
+        if (numSizesScored == 0)
+        {
+            errorAtChosenMaxTreeSize = Double.NaN;
+            return 0;
+        }
+        int selectedSize = 0;
+        for (int size = 1; size < numSizesScored; size++)
         {
-            double nextErr = 0;
-            for (int foldIndex = 0; foldIndex < numFolds; foldIndex++)
+            if (errorBySize[size] < errorBySize[selectedSize])
             {
-                // update tree
-                final RootSplitNode root = trees.get(foldIndex);
-                // trees.get(foldIndex).addNode( trainingFolds.get(foldIndex))
-
-                // compute new cross-validated error
-                curErr += trainAndEvalCVError(root, trainingFolds.get(foldIndex),
-                        testFolds.get(foldIndex), params);
+                selectedSize = size;
             }
+        }
 
-            // stop if error on test set > prev-error
-            if (nextErr > curErr) {
-                errorAtChosenMaxTreeSize = curErr;
-                break;
-            } else {
-                curErr = nextErr;
+        errorAtChosenMaxTreeSize = errorBySize[selectedSize];
+        return selectedSize;
+    }
+
+    /**
+     * Score each tree size on one fold, by building the largest tree once
+     * and scoring each of its prefixes (the trees made of its first few
+     * nodes) on the same propositionalised data. Only valid for search
+     * strategies which build nested trees.
+     *
+     * @return The number of sizes scored (from 0), i.e. those which the tree
+     * reached.
+     */
+    private static int addErrorsOfPrefixTrees(
+            final Instances trainingBags, final Instances testBags,
+            final AdaPropParams params, final TaskRunner taskRunner,
+            final double[] errorBySize) throws Exception
+    {
+        // build the largest tree, and propositionalise with it once
+        final RootSplitNode root = SplitNode.buildTree(trainingBags,
+                params.splitStrategy, params.maxNodeCount,
+                params.minOccupancy, params.classifier,
+                params.searchStrategy, params.propStrategy,
+                params.evalStrategy, taskRunner,
+                new BuildMonitor(params.monitor));
+        final Instances propTrainingBags = SplitNode.propositionaliseDataset(
+                trainingBags, root, params.propStrategy);
+        final Instances propTestBags = SplitNode.propositionaliseDataset(
+                testBags, root, params.propStrategy);
+
+        // a larger size gives the same tree, if the tree could not grow
+        double err = 0;
+        for (int size = 0; size < errorBySize.length; size++)
+        {
+            if (size <= root.getNodeCount())
+            {
+                err = params.evalStrategy.evaluateOnTestSet(
+                        SplitNode.selectPrefix(propTrainingBags, size, params.propStrategy),
+                        SplitNode.selectPrefix(propTestBags, size, params.propStrategy),
+                        params.classifier);
             }
+            errorBySize[size] += err;
         }
+        return root.getNodeCount() + 1;
+    }
 
-        return curMaxTreeSize - 1;
+    /**
+     * Score each tree size on one fold, by growing the tree one node at a
+     * time (continuing the search each time).
+     *
+     * @return The number of sizes scored (from 0), i.e. those which the tree
+     * reached.
+     */
+    private static int addErrorsOfGrownTrees(
+            final Instances trainingBags, final Instances testBags,
+            final AdaPropParams params, final TaskRunner taskRunner,
+            final double[] errorBySize) throws Exception
+    {
+        // start growing the tree (with no nodes)
+        final RootSplitNode root = SplitNode.startTree(trainingBags,
+                params.splitStrategy, params.maxNodeCount,
+                params.minOccupancy, params.classifier,
+                params.searchStrategy, params.propStrategy,
+                params.evalStrategy, taskRunner,
+                new BuildMonitor(params.monitor));
+        try
+        {
+            // a larger size gives the same tree, if the tree could not grow
+            double err = 0;
+            boolean grown = true;
+            for (int size = 0; size < errorBySize.length; size++)
+            {
+                if (size == 0 || (grown && root.addNode()))
+                {
+                    err = trainAndEvalCVError(root, trainingBags, testBags, params);
+                }
+                else
+                {
+                    grown = false;
+                }
+                errorBySize[size] += err;
+            }
+            return root.getNodeCount() + 1;
+        }
+        finally
+        {
+            root.finishGrowing();
+        }
     }
 
     /** Compute Error on testFold after training on trainingFolds */
@@ -630,16 +1630,52 @@ public class AdaProp extends SingleClassifierEnhancer
             final RootSplitNode root, final Instances trainingBags,
             final Instances testBags, AdaPropParams params) throws Exception
     {
-        // train on training data
+        // propositionalise both training and test data with the same tree
         final Instances propTrainingBags = SplitNode.propositionaliseDataset(
                 trainingBags, root, params.propStrategy);
-        params.classifier.buildClassifier(propTrainingBags);
-
-        // compute error on the test data
         final Instances propTestBags = SplitNode.propositionaliseDataset(
                 testBags, root, params.propStrategy);
-        return params.evalStrategy.evaluateDataset(
-                propTestBags, params.classifier);
+
+        // train on training data, compute error on the test data
+        return params.evalStrategy.evaluateOnTestSet(
+                propTrainingBags, propTestBags, params.classifier);
+    }
+}
+
+/**
+ * A checkpoint of a (partly built) tree of splits, along with everything
+ *  else needed to resume the build as if it had never been interrupted.
+ */
+final class BuildCheckpoint implements Serializable
+{
+    static final long serialVersionUID = AdaProp.serialVersionUID + 2000L;
+
+    /** Describes the build (options and data) which saved this checkpoint */
+    public final String buildKey;
+
+    /** The partly built tree (along with the state of its search) */
+    public final RootSplitNode root;
+
+    /** The state of the random number generator */
+    public final Random random;
+
+    /** The evaluation strategy (which may use, or hold state drawn from, the random number generator) */
+    public final EvaluationStrategy evalStrategy;
+
+    public final int selectedMaxTreeSize;
+    public final double errorAtChosenMaxTreeSize;
+
+    BuildCheckpoint(final String buildKey, final RootSplitNode root,
+                    final Random random, final EvaluationStrategy evalStrategy,
+                    final int selectedMaxTreeSize,
+                    final double errorAtChosenMaxTreeSize)
+    {
+        this.buildKey = buildKey;
+        this.root = root;
+        this.random = random;
+        this.evalStrategy = evalStrategy;
+        this.selectedMaxTreeSize = selectedMaxTreeSize;
+        this.errorAtChosenMaxTreeSize = errorAtChosenMaxTreeSize;
     }
 }
 
@@ -656,13 +1692,16 @@ final class AdaPropParams implements Serializable
     public final EvaluationStrategy evalStrategy;
     public final SearchStrategy searchStrategy;
     public final PropositionalisationStrategy propStrategy;
+    public final BuildMonitor monitor;
 
     AdaPropParams(final int maxNodeCount, final int minOccupancy,
                   final Classifier classifier, final SplitStrategy splitStrategy,
                   final EvaluationStrategy evalStrategy,
                   final SearchStrategy searchStrategy,
-                  final PropositionalisationStrategy propStrategy)
+                  final PropositionalisationStrategy propStrategy,
+                  final BuildMonitor monitor)
     {
+        this.monitor = monitor;
         this.maxNodeCount = maxNodeCount;
         this.minOccupancy = minOccupancy;
         this.propStrategy = propStrategy;
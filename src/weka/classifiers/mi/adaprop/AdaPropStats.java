@@ -0,0 +1,461 @@
+package weka.classifiers.mi.adaprop;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The live scoring and build statistics of an AdaProp model, registered as a JMX MBean (see register), so that
+ *  they can be monitored (e.g. charted and alerted on) by any JMX client.
+ *
+ * Scoring is recorded by recordPrediction (and recordError), from any number of threads at once, without locking.
+ *  The progress of a build is recorded through the listener returned by buildStarted (see BuildProgressListener).
+ */
+public class AdaPropStats implements AdaPropStatsMBean
+{
+    /** The domain (and type) of the names the statistics are registered under */
+    public static final String DOMAIN = "weka.classifiers.mi";
+    public static final String TYPE = "AdaProp";
+
+    /** The id of the next statistics registered (so that each is registered under a name of its own) */
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final ConcurrentHistogram propositionalisationLatency = new ConcurrentHistogram();
+    private final ConcurrentHistogram classificationLatency = new ConcurrentHistogram();
+    private final ConcurrentHistogram bagSize = new ConcurrentHistogram();
+    private final AtomicLong numErrors = new AtomicLong();
+
+    /** The progress of the build in progress (written by the threads of the build, so may be out of step) */
+    private volatile long buildStart;
+    private volatile boolean building;
+    private volatile int nodeCount;
+    private volatile int maxNodeCount;
+    private volatile int numCandidatesDone;
+    private volatile int numCandidates;
+    private volatile int numFoldsDone;
+    private volatile int numFolds;
+    private volatile double lastBuildSeconds;
+    private final AtomicLong numBuilds = new AtomicLong();
+
+    /** The name of the model these statistics are registered for, and the name they are registered under */
+    private volatile String modelName;
+    private ObjectName objectName;
+
+    /**
+     * @param name The name of a model (see register).
+     * @return The pattern matching the names which the statistics of every model registered with the given
+     *  name are registered under (e.g. to query the platform MBean server with).
+     */
+    public static ObjectName getObjectNamePattern(final String name) throws JMException
+    {
+        return new ObjectName(DOMAIN + ":type=" + TYPE + ",name=" + ObjectName.quote(name) + ",*");
+    }
+
+    /**
+     * Register these statistics (with the platform MBean server), for the model of the given name. Each
+     *  registration is made under a name of its own (with a unique id), so models of the same name (e.g. copies
+     *  of a model) never replace one another's statistics. If these statistics are registered already,
+     *  they are unregistered first.
+     *
+     * @param name The name of the model (e.g. the file it was loaded from).
+     */
+    public synchronized void register(final String name) throws JMException
+    {
+        unregister();
+        final ObjectName newName = new ObjectName(DOMAIN + ":type=" + TYPE + ",name=" + ObjectName.quote(name)
+                + ",id=" + NEXT_ID.incrementAndGet());
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+        objectName = newName;
+        modelName = name;
+    }
+
+    /** Unregister these statistics (if they are registered) */
+    public synchronized void unregister() throws JMException
+    {
+        if (objectName != null)
+        {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName))
+            {
+                server.unregisterMBean(objectName);
+            }
+            objectName = null;
+            modelName = null;
+        }
+    }
+
+    /** @return The name these statistics are registered under (or null if they are not registered). */
+    public synchronized ObjectName getRegisteredName()
+    {
+        return objectName;
+    }
+
+    /** @return The name of the model these statistics are registered for (or null if they are not registered). */
+    public String getModelName()
+    {
+        return modelName;
+    }
+
+    /**
+     * Record that a bag has been classified.
+     *
+     * @param numInstances The number of instances in the bag.
+     * @param propositionalisationNanos The time taken to propositionalise the bag.
+     * @param classificationNanos The time taken by the base classifier to classify the propositionalised bag.
+     */
+    public void recordPrediction(final int numInstances, final long propositionalisationNanos,
+                                 final long classificationNanos)
+    {
+        bagSize.record(numInstances);
+        propositionalisationLatency.record(propositionalisationNanos);
+        classificationLatency.record(classificationNanos);
+    }
+
+    /** Record that a bag could not be classified */
+    public void recordError()
+    {
+        numErrors.incrementAndGet();
+    }
+
+    /**
+     * Record that a build has started.
+     *
+     * @param other The listener to forward the progress of the build to, as well (or null).
+     * @return The listener to report the progress of the build to.
+     */
+    public BuildProgressListener buildStarted(final BuildProgressListener other)
+    {
+        nodeCount = 0;
+        maxNodeCount = 0;
+        numCandidatesDone = 0;
+        numCandidates = 0;
+        numFoldsDone = 0;
+        numFolds = 0;
+        buildStart = System.nanoTime();
+        building = true;
+        return new ProgressRecorder(other);
+    }
+
+    /** Record that the build (started by buildStarted) has finished, successfully or not */
+    public void buildFinished()
+    {
+        lastBuildSeconds = (System.nanoTime() - buildStart) / 1e9;
+        building = false;
+        numBuilds.incrementAndGet();
+    }
+
+    @Override /** @inheritDoc */
+    public long getPredictionCount()
+    {
+        return classificationLatency.getCount();
+    }
+
+    @Override /** @inheritDoc */
+    public long getErrorCount()
+    {
+        return numErrors.get();
+    }
+
+    @Override /** @inheritDoc */
+    public long[] getPropositionalisationLatencyHistogram()
+    {
+        return propositionalisationLatency.getCounts();
+    }
+
+    @Override /** @inheritDoc */
+    public double getPropositionalisationLatencyMeanMicros()
+    {
+        return propositionalisationLatency.getMean() / 1e3;
+    }
+
+    @Override /** @inheritDoc */
+    public double getPropositionalisationLatencyP99Micros()
+    {
+        return propositionalisationLatency.getPercentile(0.99) / 1e3;
+    }
+
+    @Override /** @inheritDoc */
+    public long[] getClassificationLatencyHistogram()
+    {
+        return classificationLatency.getCounts();
+    }
+
+    @Override /** @inheritDoc */
+    public double getClassificationLatencyMeanMicros()
+    {
+        return classificationLatency.getMean() / 1e3;
+    }
+
+    @Override /** @inheritDoc */
+    public double getClassificationLatencyP99Micros()
+    {
+        return classificationLatency.getPercentile(0.99) / 1e3;
+    }
+
+    @Override /** @inheritDoc */
+    public long[] getLatencyHistogramBoundsNanos()
+    {
+        return ConcurrentHistogram.getBounds();
+    }
+
+    @Override /** @inheritDoc */
+    public long[] getBagSizeHistogram()
+    {
+        return bagSize.getCounts();
+    }
+
+    @Override /** @inheritDoc */
+    public long[] getBagSizeHistogramBounds()
+    {
+        return ConcurrentHistogram.getBounds();
+    }
+
+    @Override /** @inheritDoc */
+    public double getBagSizeMean()
+    {
+        return bagSize.getMean();
+    }
+
+    @Override /** @inheritDoc */
+    public boolean isBuilding()
+    {
+        return building;
+    }
+
+    @Override /** @inheritDoc */
+    public long getBuildCount()
+    {
+        return numBuilds.get();
+    }
+
+    @Override /** @inheritDoc */
+    public double getBuildElapsedSeconds()
+    {
+        return building ? (System.nanoTime() - buildStart) / 1e9 : 0;
+    }
+
+    @Override /** @inheritDoc */
+    public double getLastBuildSeconds()
+    {
+        return lastBuildSeconds;
+    }
+
+    @Override /** @inheritDoc */
+    public int getBuildNodeCount()
+    {
+        return nodeCount;
+    }
+
+    @Override /** @inheritDoc */
+    public int getBuildMaxNodeCount()
+    {
+        return maxNodeCount;
+    }
+
+    @Override /** @inheritDoc */
+    public int getBuildCandidatesDone()
+    {
+        return numCandidatesDone;
+    }
+
+    @Override /** @inheritDoc */
+    public int getBuildCandidates()
+    {
+        return numCandidates;
+    }
+
+    @Override /** @inheritDoc */
+    public int getBuildFoldsDone()
+    {
+        return numFoldsDone;
+    }
+
+    @Override /** @inheritDoc */
+    public int getBuildFolds()
+    {
+        return numFolds;
+    }
+
+    @Override /** @inheritDoc */
+    public void reset()
+    {
+        propositionalisationLatency.reset();
+        classificationLatency.reset();
+        bagSize.reset();
+        numErrors.set(0);
+    }
+
+    /** Records the progress of a build (in the statistics), and forwards it to another listener (if any) */
+    private final class ProgressRecorder implements BuildProgressListener
+    {
+        private final BuildProgressListener other;
+
+        ProgressRecorder(final BuildProgressListener other)
+        {
+            this.other = other;
+        }
+
+        @Override /** @inheritDoc */
+        public void nodeExpanded(final int nodeCount, final int maxNodeCount)
+        {
+            AdaPropStats.this.nodeCount = nodeCount;
+            AdaPropStats.this.maxNodeCount = maxNodeCount;
+            if (other != null)
+            {
+                other.nodeExpanded(nodeCount, maxNodeCount);
+            }
+        }
+
+        @Override /** @inheritDoc */
+        public void candidateEvaluated(final int numCandidatesDone, final int numCandidates)
+        {
+            AdaPropStats.this.numCandidatesDone = numCandidatesDone;
+            AdaPropStats.this.numCandidates = numCandidates;
+            if (other != null)
+            {
+                other.candidateEvaluated(numCandidatesDone, numCandidates);
+            }
+        }
+
+        @Override /** @inheritDoc */
+        public void foldDone(final int numFoldsDone, final int numFolds)
+        {
+            AdaPropStats.this.numFoldsDone = numFoldsDone;
+            AdaPropStats.this.numFolds = numFolds;
+            if (other != null)
+            {
+                other.foldDone(numFoldsDone, numFolds);
+            }
+        }
+    }
+}
+
+/**
+ * A histogram of (non-negative) values, which can be recorded from any number of threads at once.
+ *
+ * The buckets are log-linear: each power of two is split into 4 buckets, so each bucket is at most 25% wider
+ *  than its lower bound (and values up to 3 have a bucket each). Values above 2^40 are put in the last bucket.
+ * Percentiles are reported as the greatest value of their bucket (but no more than the greatest value recorded).
+ */
+final class ConcurrentHistogram
+{
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int NUM_SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int NUM_BUCKETS = NUM_SUB_BUCKETS * (MAX_EXPONENT - SUB_BUCKET_BITS + 2);
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /** @return The bucket of the value. */
+    static int getBucket(final long value)
+    {
+        if (value < NUM_SUB_BUCKETS)
+        {
+            return (int) Math.max(0, value);
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (NUM_SUB_BUCKETS - 1);
+        return Math.min(NUM_BUCKETS - 1, NUM_SUB_BUCKETS * (exponent - SUB_BUCKET_BITS + 1) + subBucket);
+    }
+
+    /** @return The greatest value in the bucket. */
+    static long getUpperBound(final int bucket)
+    {
+        if (bucket < NUM_SUB_BUCKETS)
+        {
+            return bucket;
+        }
+        if (bucket == NUM_BUCKETS - 1)
+        {
+            return Long.MAX_VALUE;
+        }
+        final int shift = bucket / NUM_SUB_BUCKETS - 1;
+        final long lowerBound = (long) (NUM_SUB_BUCKETS + bucket % NUM_SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    /** @return The greatest value in each bucket. */
+    static long[] getBounds()
+    {
+        final long[] bounds = new long[NUM_BUCKETS];
+        for (int bucket = 0; bucket < NUM_BUCKETS; bucket++)
+        {
+            bounds[bucket] = getUpperBound(bucket);
+        }
+        return bounds;
+    }
+
+    void record(final long value)
+    {
+        counts.incrementAndGet(getBucket(value));
+        sum.addAndGet(value);
+        count.incrementAndGet();
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value))
+        {
+            currentMax = max.get();
+        }
+    }
+
+    long getCount()
+    {
+        return count.get();
+    }
+
+    /** @return The number of values in each bucket. */
+    long[] getCounts()
+    {
+        final long[] result = new long[NUM_BUCKETS];
+        for (int bucket = 0; bucket < NUM_BUCKETS; bucket++)
+        {
+            result[bucket] = counts.get(bucket);
+        }
+        return result;
+    }
+
+    /** @return The mean of the values (0 if there are none). */
+    double getMean()
+    {
+        final long n = count.get();
+        return (n == 0) ? 0 : (double) sum.get() / n;
+    }
+
+    /** @return The upper bound of the bucket holding the given fraction (e.g. 0.99) of the values (0 if none). */
+    double getPercentile(final double fraction)
+    {
+        final long[] current = getCounts();
+        long total = 0;
+        for (long bucketCount : current)
+        {
+            total += bucketCount;
+        }
+        final long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int bucket = 0; bucket < NUM_BUCKETS; bucket++)
+        {
+            seen += current[bucket];
+            if (seen >= rank && current[bucket] > 0)
+            {
+                return Math.min(getUpperBound(bucket), max.get());
+            }
+        }
+        return 0;
+    }
+
+    void reset()
+    {
+        for (int bucket = 0; bucket < NUM_BUCKETS; bucket++)
+        {
+            counts.set(bucket, 0);
+        }
+        sum.set(0);
+        count.set(0);
+        max.set(0);
+    }
+}
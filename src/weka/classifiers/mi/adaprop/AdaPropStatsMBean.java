@@ -0,0 +1,74 @@
+package weka.classifiers.mi.adaprop;
+
+/**
+ * The JMX management interface of AdaPropStats: the live scoring and build statistics of an AdaProp model.
+ *
+ * The latencies are histograms (see getLatencyHistogramBoundsNanos), from which the mean and the 99th percentile
+ *  are also given (the percentile is the upper bound of its bucket, so it is within about 25%).
+ */
+public interface AdaPropStatsMBean
+{
+    /** @return The number of bags classified. */
+    long getPredictionCount();
+
+    /** @return The number of bags which could not be classified (i.e. an exception was thrown). */
+    long getErrorCount();
+
+    /** @return The number of bags classified in each latency bucket, for propositionalising the bag. */
+    long[] getPropositionalisationLatencyHistogram();
+
+    double getPropositionalisationLatencyMeanMicros();
+
+    double getPropositionalisationLatencyP99Micros();
+
+    /** @return The number of bags classified in each latency bucket, for the base classifier. */
+    long[] getClassificationLatencyHistogram();
+
+    double getClassificationLatencyMeanMicros();
+
+    double getClassificationLatencyP99Micros();
+
+    /** @return The greatest latency (in nanoseconds) of each bucket of the latency histograms. */
+    long[] getLatencyHistogramBoundsNanos();
+
+    /** @return The number of bags classified in each bag size bucket. */
+    long[] getBagSizeHistogram();
+
+    /** @return The greatest bag size (in instances) of each bucket of the bag size histogram. */
+    long[] getBagSizeHistogramBounds();
+
+    double getBagSizeMean();
+
+    /** @return true if the model is being built. */
+    boolean isBuilding();
+
+    /** @return The number of builds finished (successfully or not). */
+    long getBuildCount();
+
+    /** @return The time (in seconds) that the build in progress has taken so far (0 if none). */
+    double getBuildElapsedSeconds();
+
+    /** @return The time (in seconds) that the last finished build took. */
+    double getLastBuildSeconds();
+
+    /** @return The number of nodes of the tree being built. */
+    int getBuildNodeCount();
+
+    /** @return The maximum number of nodes of the tree being built. */
+    int getBuildMaxNodeCount();
+
+    /** @return The number of candidate splits evaluated, at the node being built. */
+    int getBuildCandidatesDone();
+
+    /** @return The number of candidate splits, at the node being built. */
+    int getBuildCandidates();
+
+    /** @return The number of folds done, when selecting the tree size by cross-validation. */
+    int getBuildFoldsDone();
+
+    /** @return The number of folds, when selecting the tree size by cross-validation (0 if it is not). */
+    int getBuildFolds();
+
+    /** Reset the scoring statistics (but not the progress of a build in progress) */
+    void reset();
+}
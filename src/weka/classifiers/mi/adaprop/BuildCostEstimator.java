@@ -0,0 +1,427 @@
+package weka.classifiers.mi.adaprop;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.mi.AdaProp;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Estimates the cost of building AdaProp (with the given options) on a dataset, before building it:
+ *  the number of candidate splits evaluated, the number of classifiers built, the peak memory and the wall time.
+ *
+ * The estimate is calibrated by probe runs: a small tree (see setProbeTreeSize) is built on a sample of the bags
+ *  (see setProbeBags), stratified to the class balance of the dataset, and on half of that sample (after a warm-up
+ *  run), with the same options otherwise. The work done in the probes is then scaled up to the size of the dataset and of the tree,
+ *  assuming that:
+ *  - the search evaluates as many nodes for each node of the tree as it did in the probe;
+ *  - each node has as many candidate splits as in the probe (or, for split strategies whose candidates come from
+ *    the instances, as many in proportion to the instances, see SplitStrategy.candidatesGrowWithInstances);
+ *  - evaluating a candidate takes a fixed time, plus a time in proportion to the number of bags and to the number
+ *    of propositionalised attributes (which grows with the size of the tree), as fitted to the two probes.
+ * The peak memory is that of the dataset and of the propositionalised datasets in use at once (but not the working
+ *  memory of the base classifier). So the estimate is rough (e.g. a base classifier which is superlinear in the
+ *  number of bags is underestimated), but enough to tell a build of minutes from one of hours, e.g. for packing
+ *  jobs onto machines.
+ */
+public class BuildCostEstimator
+{
+    public static final int DEFAULT_PROBE_BAGS = 100;
+    public static final int DEFAULT_PROBE_TREE_SIZE = 4;
+
+    /** The number of folds used to select the maxTreeSize (see AdaProp.selectMaxTreeSizeParameter) */
+    private static final int NUM_CV_FOLDS = 5;
+
+    /** The options of the build to estimate (copied for the probe, so never modified) */
+    private final AdaProp options;
+
+    private int probeBags = DEFAULT_PROBE_BAGS;
+    private int probeTreeSize = DEFAULT_PROBE_TREE_SIZE;
+    private long seed = 1;
+
+    /** @param options An AdaProp classifier with the options of the build to estimate. */
+    public BuildCostEstimator(final AdaProp options)
+    {
+        this.options = options;
+    }
+
+    /** @return The (greatest) number of bags in the sample used for the probe run. */
+    public int getProbeBags()
+    {
+        return probeBags;
+    }
+
+    public void setProbeBags(final int probeBags)
+    {
+        this.probeBags = probeBags;
+    }
+
+    /** @return The (greatest) size of the tree built in the probe run. */
+    public int getProbeTreeSize()
+    {
+        return probeTreeSize;
+    }
+
+    public void setProbeTreeSize(final int probeTreeSize)
+    {
+        this.probeTreeSize = probeTreeSize;
+    }
+
+    /** @return The seed for sampling the bags for the probe run. */
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    public void setSeed(final long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Estimate the cost of building on the bags (using a sample of them for the probe run).
+     *
+     * @param bags The training bags.
+     * @return The estimated cost.
+     */
+    public Estimate estimate(final Instances bags) throws Exception
+    {
+        return estimate(new DatasetStatistics(bags), bags);
+    }
+
+    /**
+     * Estimate the cost of building on a dataset, which is described by its statistics,
+     *  using a sample of its bags for the probe run.
+     *
+     * @param stats The statistics of the (whole) dataset.
+     * @param sample Some of the bags of the dataset (at least probeBags, if possible).
+     * @return The estimated cost.
+     */
+    public Estimate estimate(final DatasetStatistics stats, final Instances sample) throws Exception
+    {
+        if (sample.numInstances() == 0)
+        {
+            throw new IllegalArgumentException("The sample has no bags.");
+        }
+        final Random random = new Random(seed);
+        final Instances probeData = stratifiedSample(sample, stats, probeBags, random);
+        final DatasetStatistics probeStats = new DatasetStatistics(probeData);
+        if (probeStats.getNumAttributes() != stats.getNumAttributes())
+        {
+            throw new IllegalArgumentException("The sample has " + probeStats.getNumAttributes() +
+                    " attributes, but the dataset has " + stats.getNumAttributes() + ".");
+        }
+
+        // probe with half of the sample, then all of it, to tell the time each candidate takes regardless
+        // of the number of bags (e.g. creating the classifier) from the time it takes for each bag. The first
+        // build runs mostly interpreted (until the JIT compiler catches up), so it is only a warm-up:
+        final int maxTreeSize = options.getMaxTreeSize();
+        final int probeTree = Math.min(probeTreeSize, maxTreeSize);
+        final Instances halfData = stratifiedSample(probeData, probeStats,
+                Math.max(1, probeData.numInstances() / 2), random);
+        runProbe(halfData, probeTree);
+        final Probe halfProbe = runProbe(halfData, probeTree);
+        final Probe probe = runProbe(probeData, probeTree);
+        final double slope = (halfProbe.numBags < probe.numBags) ?
+                (probe.getSecondsPerCandidate() - halfProbe.getSecondsPerCandidate()) /
+                        (probe.numBags - halfProbe.numBags) : 0;
+        double secondsPerBag = probe.getSecondsPerCandidate() / probe.numBags;
+        double secondsPerCandidate = 0;
+        if (slope > 0 && slope < secondsPerBag)
+        {
+            secondsPerBag = slope;
+            secondsPerCandidate = probe.getSecondsPerCandidate() - slope * probe.numBags;
+        }
+        // (otherwise, the probes are too noisy to fit, so the time is taken to be all in proportion to the bags)
+
+        // scale the work up to the size of the tree (and, for some split strategies, of the dataset), and the
+        // time per candidate up to the number of bags and of propositionalised attributes:
+        final double instanceRatio = (double) stats.getNumInstances() / Math.max(1, probeStats.getNumInstances());
+        final double columnRatio = (maxTreeSize + 2.0) / (probeTree + 2.0);
+        final double nodeRatio = (probeTree > 0) ? (double) maxTreeSize / probeTree : 0;
+        final SplitStrategy splitStrategy = SplitStrategy.getStrategy(
+                options.getSplitStrategy().getSelectedTag().getID(), stats.getNumAttributes());
+        final boolean scaleCandidates = splitStrategy.candidatesGrowWithInstances();
+        final double candidateRatio = nodeRatio * (scaleCandidates ? instanceRatio : 1);
+        final double buildsPerCandidate = (probe.candidates > 0) ? probe.builds / probe.candidates : 0;
+        final double secondsPerFullCandidate =
+                secondsPerCandidate + secondsPerBag * stats.getNumBags() * columnRatio;
+
+        double estCandidates = probe.candidates * candidateRatio;
+        double estSearchSeconds = estCandidates * secondsPerFullCandidate;
+
+        // selecting the tree size first builds a tree on each fold (of most of the bags):
+        if (options.getDoCVParameterSelection())
+        {
+            final double foldRatio = (NUM_CV_FOLDS - 1.0) / NUM_CV_FOLDS;
+            final double foldCandidates = probe.candidates * candidateRatio * (scaleCandidates ? foldRatio : 1);
+            estCandidates += NUM_CV_FOLDS * foldCandidates;
+            estSearchSeconds += NUM_CV_FOLDS * foldCandidates *
+                    (secondsPerCandidate + secondsPerBag * foldRatio * stats.getNumBags() * columnRatio);
+        }
+
+        final double timeBudget = options.getTimeBudget();
+        if (timeBudget > 0 && estSearchSeconds > timeBudget)
+        {
+            // the budget covers both the selection and the search, which stop when it runs out, having evaluated
+            // fewer candidates:
+            estCandidates *= timeBudget / estSearchSeconds;
+            estSearchSeconds = timeBudget;
+        }
+        final double estBuilds = estCandidates * buildsPerCandidate;
+        final double estSeconds = estSearchSeconds + probe.finalBuildSeconds * stats.getNumBags() / probe.numBags;
+
+        // the dataset is in memory throughout, along with the propositionalised dataset of each candidate
+        // being evaluated (one per thread), and of the final tree:
+        final PropositionalisationStrategy propStrategy = PropositionalisationStrategy.getStrategy(
+                options.getPropositionalisationStrategy().getSelectedTag().getID(), stats.getNumAttributes());
+        final long numPropAttr = (2L * maxTreeSize + 1) * propStrategy.getNumPropAttrPerRegion() + 1;
+        final long propBytes = stats.getNumBags() * (DatasetStatistics.INSTANCE_OVERHEAD + 8 * numPropAttr);
+        final long estMemory = stats.estimateSize() + (Math.max(1, options.getNumThreads()) + 1) * propBytes;
+
+        return new Estimate(Math.round(estCandidates), Math.round(estBuilds), estMemory, estSeconds);
+    }
+
+    /** Build a (probe) tree of the given size on the bags, with the options otherwise */
+    private Probe runProbe(final Instances bags, final int probeTree) throws Exception
+    {
+        // (without selecting the tree size, using any state saved from other builds, or publishing its statistics)
+        final AdaProp probe = (AdaProp) AbstractClassifier.makeCopy(options);
+        probe.setMaxTreeSize(probeTree);
+        probe.setDoCVParameterSelection(false);
+        probe.setTimeBudget(0);
+        probe.setCheckpointFile("");
+        probe.setEvalCacheDir("");
+        probe.setJmxName("");
+        final long start = System.nanoTime();
+        probe.buildClassifier(bags);
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        final double builds = probe.getMeasure("measureNumClassifierBuilds");
+        final double trainingTime = probe.getMeasure("measureTrainingTime");
+
+        // the final classifier is built once (after the search), taking about as long as any other build:
+        final double finalBuildSeconds = (builds > 0) ? trainingTime / builds : 0;
+        return new Probe(bags.numInstances(), probe.getMeasure("measureNumCandidatesEvaluated"), builds,
+                Math.max(0, seconds - finalBuildSeconds), finalBuildSeconds);
+    }
+
+    /**
+     * Sample (without replacement) up to numBags of the bags, keeping the class balance of the dataset.
+     * The bags are kept in their original order.
+     */
+    static Instances stratifiedSample(final Instances bags, final DatasetStatistics stats, final int numBags,
+                                      final Random random)
+    {
+        final List<Integer> chosen = new ArrayList<Integer>();
+        if (numBags >= bags.numInstances() || !bags.classAttribute().isNominal())
+        {
+            // too few bags to sample, or no classes to balance:
+            for (int bagIndex = 0; bagIndex < bags.numInstances(); bagIndex++)
+            {
+                chosen.add(bagIndex);
+            }
+            Collections.shuffle(chosen, random);
+            chosen.subList(Math.min(numBags, chosen.size()), chosen.size()).clear();
+        }
+        else
+        {
+            // take the share of the bags of each class in the dataset (at least one, if there are any):
+            final int numClasses = bags.classAttribute().numValues();
+            for (int classIndex = 0; classIndex < numClasses; classIndex++)
+            {
+                final List<Integer> ofClass = new ArrayList<Integer>();
+                for (int bagIndex = 0; bagIndex < bags.numInstances(); bagIndex++)
+                {
+                    final Instance bag = bags.instance(bagIndex);
+                    if (!bag.classIsMissing() && (int) bag.classValue() == classIndex)
+                    {
+                        ofClass.add(bagIndex);
+                    }
+                }
+                Collections.shuffle(ofClass, random);
+                final int share = (int) Math.round(numBags * stats.getClassProportion(classIndex));
+                chosen.addAll(ofClass.subList(0, Math.min(ofClass.size(), Math.max(1, share))));
+            }
+        }
+
+        Collections.sort(chosen);
+        final Instances sample = new Instances(bags, chosen.size());
+        for (int bagIndex : chosen)
+        {
+            sample.add(bags.instance(bagIndex));
+        }
+        return sample;
+    }
+
+    /** The statistics of a (multi-instance) dataset which determine the cost of building on it */
+    public static final class DatasetStatistics
+    {
+        /** The approximate size (in bytes) of each instance and bag, other than the values of the instances */
+        static final long INSTANCE_OVERHEAD = 40;
+        static final long BAG_OVERHEAD = 120;
+
+        private final int numBags;
+        private final int numInstances;
+        private final int numAttributes;
+        private final int[] classCounts;
+
+        /**
+         * @param numBags The number of bags.
+         * @param numInstances The number of instances, over all bags.
+         * @param numAttributes The number of attributes of each instance (in the bags).
+         * @param classCounts The number of bags of each class (empty, if the class is not nominal).
+         */
+        public DatasetStatistics(final int numBags, final int numInstances, final int numAttributes,
+                                 final int[] classCounts)
+        {
+            this.numBags = numBags;
+            this.numInstances = numInstances;
+            this.numAttributes = numAttributes;
+            this.classCounts = classCounts.clone();
+        }
+
+        /** @param bags The bags of the dataset. */
+        public DatasetStatistics(final Instances bags)
+        {
+            this.numBags = bags.numInstances();
+            this.numAttributes = (numBags == 0) ? 0 :
+                    bags.instance(0).relationalValue(SplitNode.REL_INDEX).numAttributes();
+            this.classCounts = new int[bags.classAttribute().isNominal() ? bags.classAttribute().numValues() : 0];
+            int numInstances = 0;
+            for (int bagIndex = 0; bagIndex < numBags; bagIndex++)
+            {
+                final Instance bag = bags.instance(bagIndex);
+                numInstances += bag.relationalValue(SplitNode.REL_INDEX).numInstances();
+                if (classCounts.length > 0 && !bag.classIsMissing())
+                {
+                    classCounts[(int) bag.classValue()]++;
+                }
+            }
+            this.numInstances = numInstances;
+        }
+
+        public int getNumBags()
+        {
+            return numBags;
+        }
+
+        public int getNumInstances()
+        {
+            return numInstances;
+        }
+
+        public int getNumAttributes()
+        {
+            return numAttributes;
+        }
+
+        /** @return The number of bags of each class (empty, if the class is not nominal). */
+        public int[] getClassCounts()
+        {
+            return classCounts.clone();
+        }
+
+        /** @return The proportion of the bags which are of the class. */
+        public double getClassProportion(final int classIndex)
+        {
+            int total = 0;
+            for (int count : classCounts)
+            {
+                total += count;
+            }
+            return (total == 0) ? 0 : (double) classCounts[classIndex] / total;
+        }
+
+        /** @return The approximate size (in bytes) of the dataset in memory. */
+        public long estimateSize()
+        {
+            return numInstances * (INSTANCE_OVERHEAD + 8L * numAttributes) + numBags * BAG_OVERHEAD;
+        }
+    }
+
+    /** The estimated cost of a build */
+    public static final class Estimate
+    {
+        private final long numCandidatesEvaluated;
+        private final long numClassifierBuilds;
+        private final long peakMemoryBytes;
+        private final double wallTime;
+
+        Estimate(final long numCandidatesEvaluated, final long numClassifierBuilds, final long peakMemoryBytes,
+                 final double wallTime)
+        {
+            this.numCandidatesEvaluated = numCandidatesEvaluated;
+            this.numClassifierBuilds = numClassifierBuilds;
+            this.peakMemoryBytes = peakMemoryBytes;
+            this.wallTime = wallTime;
+        }
+
+        /** @return The number of candidate splits evaluated (including when selecting the tree size). */
+        public long getNumCandidatesEvaluated()
+        {
+            return numCandidatesEvaluated;
+        }
+
+        /** @return The number of times a classifier is trained to evaluate a candidate split. */
+        public long getNumClassifierBuilds()
+        {
+            return numClassifierBuilds;
+        }
+
+        /** @return The most memory (in bytes) in use, including the dataset. */
+        public long getPeakMemoryBytes()
+        {
+            return peakMemoryBytes;
+        }
+
+        /** @return The time (in seconds) to build the classifier. */
+        public double getWallTime()
+        {
+            return wallTime;
+        }
+
+        /** @return true if the build is expected to take no longer than the time and no more than the memory. */
+        public boolean fitsWithin(final double seconds, final long memoryBytes)
+        {
+            return wallTime <= seconds && peakMemoryBytes <= memoryBytes;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%d candidates, %d builds, %.1f MB, %.1f s",
+                    numCandidatesEvaluated, numClassifierBuilds, peakMemoryBytes / (1024.0 * 1024.0), wallTime);
+        }
+    }
+
+    /** The work done (and the time taken) by a probe run */
+    private static final class Probe
+    {
+        final int numBags;
+        final double candidates;
+        final double builds;
+        final double searchSeconds;
+        final double finalBuildSeconds;
+
+        Probe(final int numBags, final double candidates, final double builds, final double searchSeconds,
+              final double finalBuildSeconds)
+        {
+            this.numBags = numBags;
+            this.candidates = candidates;
+            this.builds = builds;
+            this.searchSeconds = searchSeconds;
+            this.finalBuildSeconds = finalBuildSeconds;
+        }
+
+        /** @return The time taken by the search for each candidate evaluated. */
+        double getSecondsPerCandidate()
+        {
+            return (candidates > 0) ? searchSeconds / candidates : 0;
+        }
+    }
+}
@@ -0,0 +1,510 @@
+package weka.classifiers.mi.adaprop;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps track of the progress of building a tree: the time budget (if any)
+ *  and the amount of work done so far.
+ *
+ * The search strategies check the budget between node expansions and between
+ *  the evaluations of candidate splits. Once the budget runs out, the build stops
+ *  and the best complete tree so far is used.
+ *
+ * The build can also be cancelled (see cancel), e.g. from another thread, or by interrupting
+ *  the thread building the tree. It is checked at the same points as the budget, and stops
+ *  the build by throwing an InterruptedException (so that no tree is built).
+ *
+ * The progress of the build is reported to the listener (if any, see setListener).
+ *  A monitor may be part of another (see BuildMonitor(BuildMonitor)), in which case it is cancelled
+ *  along with the other, runs out of time along with the other, and reports its progress to the listener of the other.
+ *
+ * The work done is counted (and timed, and the bytes it allocates counted, see MemoryMeter) by each
+ *  thread in its own counters, which are only summed when they are read. The counters should be read once the build is done
+ *  (until then, the counts of other threads may be out of date). The counts of a monitor include those of the monitors
+ *  which are part of it (e.g. of each fold of cross-validation).
+ */
+public class BuildMonitor implements Serializable
+{
+    /** The time (as per System.nanoTime) at which the budget runs out, if there is a budget */
+    private final long deadline;
+
+    /** Whether there is a time budget */
+    private final boolean hasBudget;
+
+    /** The monitor which this monitor is part of (or null) */
+    private final BuildMonitor parent;
+
+    /** Whether the build has been cancelled */
+    private volatile boolean cancelled;
+
+    /** Is told about the progress of the build (or null) */
+    private transient volatile BuildProgressListener listener;
+
+    /** Whether the building of each node is to be profiled (see NodeProfile) */
+    private volatile boolean profiling;
+
+    /** The counters of the current thread (recreated when deserialised) */
+    private transient ThreadLocal<BuildCounters> threadCounters;
+
+    /** The counters of every thread which has done any work (for this monitor, or any monitor which is part of it) */
+    private transient List<BuildCounters> allCounters;
+
+    /** Monitor a build with no time budget */
+    public BuildMonitor()
+    {
+        this(0);
+    }
+
+    /** @param timeBudget The time budget, in seconds (0 or less for no budget), starting from now. */
+    public BuildMonitor(final double timeBudget)
+    {
+        this(timeBudget, null);
+    }
+
+    /**
+     * Monitor a build which is part of another build (e.g. a fold of cross-validation), with no time budget of its own.
+     * It is cancelled (and runs out of time) along with the other build, and its progress is reported to the listener
+     * of the other.
+     *
+     * @param parent The monitor of the other build.
+     */
+    public BuildMonitor(final BuildMonitor parent)
+    {
+        this(0, parent);
+    }
+
+    /**
+     * Monitor a build which is part of another build, within a time budget (as well as that of the other build).
+     *
+     * @param timeBudget The time budget, in seconds (0 or less for no budget), starting from now.
+     * @param parent The monitor of the other build (or null, if it is not part of another build).
+     */
+    public BuildMonitor(final double timeBudget, final BuildMonitor parent)
+    {
+        this.hasBudget = timeBudget > 0;
+        this.deadline = hasBudget ? System.nanoTime() + (long) (timeBudget * 1e9) : 0;
+        this.parent = parent;
+        initCounters();
+    }
+
+    private void initCounters()
+    {
+        threadCounters = new ThreadLocal<BuildCounters>();
+        allCounters = new ArrayList<BuildCounters>();
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        initCounters();
+    }
+
+    /** @return The counters of the current thread (created on first use). */
+    BuildCounters counters()
+    {
+        BuildCounters counters = threadCounters.get();
+        if (counters == null)
+        {
+            counters = new BuildCounters();
+            threadCounters.set(counters);
+            for (BuildMonitor monitor = this; monitor != null; monitor = monitor.parent)
+            {
+                synchronized (monitor.allCounters)
+                {
+                    monitor.allCounters.add(counters);
+                }
+            }
+        }
+        return counters;
+    }
+
+    /** @return true if the building of each node is profiled (see NodeProfile). */
+    public boolean isProfiling()
+    {
+        return profiling;
+    }
+
+    /** Set whether the building of each node is to be profiled (recording a NodeProfile in each node). */
+    public void setProfiling(final boolean profiling)
+    {
+        this.profiling = profiling;
+    }
+
+    /** @return true if the time budget (of this monitor, or of any monitor which it is part of) has run out. */
+    public boolean isOutOfTime()
+    {
+        return (hasBudget && (System.nanoTime() - deadline) >= 0) ||
+                (parent != null && parent.isOutOfTime());
+    }
+
+    /**
+     * Check that the build has not been cancelled, and that the time budget has not run out.
+     *
+     * @throws InterruptedException If the build has been cancelled.
+     * @throws OutOfTimeException If the time budget has run out.
+     */
+    void checkTime() throws InterruptedException, OutOfTimeException
+    {
+        checkCancelled();
+        if (isOutOfTime())
+        {
+            throw new OutOfTimeException();
+        }
+    }
+
+    /** Cancel the build (which stops at the next check, see checkCancelled). May be called from any thread. */
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    /** @return true if the build (or the build which it is part of) has been cancelled. */
+    public boolean isCancelled()
+    {
+        return cancelled || (parent != null && parent.isCancelled());
+    }
+
+    /**
+     * Check that the build has not been cancelled, and that the current thread has not been interrupted.
+     *  (An interrupt only stops the current thread: the other threads of the build are stopped by the
+     *  thread waiting for them, see TaskRunner.invokeAll, which also interrupts them when a task fails.)
+     *
+     * @throws InterruptedException If the build has been cancelled or the thread interrupted (clearing the interrupt).
+     */
+    public void checkCancelled() throws InterruptedException
+    {
+        if (Thread.interrupted() || isCancelled())
+        {
+            throw new InterruptedException("The build was cancelled.");
+        }
+    }
+
+    /** @return The listener to report the progress of the build to (or null). */
+    private BuildProgressListener getListener()
+    {
+        return (listener != null || parent == null) ? listener : parent.getListener();
+    }
+
+    /** Set the listener to report the progress of the build to (null for none). */
+    public void setListener(final BuildProgressListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Record that a candidate split of a node has been evaluated.
+     *
+     * @param numCandidatesDone The number of candidate splits of the node evaluated so far.
+     * @param numCandidates The number of candidate splits of the node.
+     */
+    void candidateEvaluated(final int numCandidatesDone, final int numCandidates)
+    {
+        counters().numCandidatesEvaluated++;
+        final BuildProgressListener listener = getListener();
+        if (listener != null)
+        {
+            listener.candidateEvaluated(numCandidatesDone, numCandidates);
+        }
+    }
+
+    /**
+     * Record that nodes have been split (i.e. added to a tree).
+     *
+     * @param numNodes The number of nodes split.
+     * @param nodeCount The number of nodes in the tree, after splitting the nodes.
+     * @param maxNodeCount The maximum number of nodes of the tree.
+     */
+    void nodesExpanded(final int numNodes, final int nodeCount, final int maxNodeCount)
+    {
+        final BuildCounters counters = counters();
+        counters.numNodesExpanded += numNodes;
+        counters.peakHeapUsed = Math.max(counters.peakHeapUsed, MemoryMeter.getHeapUsed());
+        final BuildProgressListener listener = getListener();
+        if (listener != null)
+        {
+            listener.nodeExpanded(nodeCount, maxNodeCount);
+        }
+    }
+
+    /**
+     * Record that a fold of cross-validation has been done.
+     *
+     * @param numFoldsDone The number of folds done so far.
+     * @param numFolds The number of folds.
+     */
+    public void foldDone(final int numFoldsDone, final int numFolds)
+    {
+        final BuildProgressListener listener = getListener();
+        if (listener != null)
+        {
+            listener.foldDone(numFoldsDone, numFolds);
+        }
+    }
+
+    /** Record the number of nodes on the border (i.e. waiting to be expanded) of the search */
+    void borderSize(final int numNodes)
+    {
+        final BuildCounters counters = counters();
+        counters.peakBorderSize = Math.max(counters.peakBorderSize, numNodes);
+    }
+
+    /** @return The number of nodes whose candidate splits have all been evaluated. */
+    public long getNumNodesEvaluated()
+    {
+        long total = 0;
+        for (BuildCounters counters : snapshot())
+        {
+            total += counters.numNodesEvaluated;
+        }
+        return total;
+    }
+
+    /** @return The number of candidate splits evaluated. */
+    public long getNumCandidatesEvaluated()
+    {
+        long total = 0;
+        for (BuildCounters counters : snapshot())
+        {
+            total += counters.numCandidatesEvaluated;
+        }
+        return total;
+    }
+
+    /** @return The number of candidate splits generated (after removing equivalent splits). */
+    public long getNumCandidatesGenerated()
+    {
+        long total = 0;
+        for (BuildCounters counters : snapshot())
+        {
+            total += counters.numCandidatesGenerated;
+        }
+        return total;
+    }
+
+    /** @return The number of nodes split (i.e. added to a tree), including those of discarded trees. */
+    public long getNumNodesExpanded()
+    {
+        long total = 0;
+        for (BuildCounters counters : snapshot())
+        {
+            total += counters.numNodesExpanded;
+        }
+        return total;
+    }
+
+    /** @return The number of times a classifier was trained to evaluate a candidate split. */
+    public long getNumClassifierBuilds()
+    {
+        long total = 0;
+        for (BuildCounters counters : snapshot())
+        {
+            total += counters.numClassifierBuilds;
+        }
+        return total;
+    }
+
+    /** @return The greatest number of nodes on the border of the search at any one time. */
+    public long getPeakBorderSize()
+    {
+        long peak = 0;
+        for (BuildCounters counters : snapshot())
+        {
+            peak = Math.max(peak, counters.peakBorderSize);
+        }
+        return peak;
+    }
+
+    /** @return The time (in seconds, summed over all threads) spent generating candidate splits. */
+    public double getSplitGenerationTime()
+    {
+        long total = 0;
+        for (BuildCounters counters : snapshot())
+        {
+            total += counters.splitGenerationNanos;
+        }
+        return total / 1e9;
+    }
+
+    /** @return The time (in seconds, summed over all threads) spent propositionalising bags. */
+    public double getPropositionalisationTime()
+    {
+        long total = 0;
+        for (BuildCounters counters : snapshot())
+        {
+            total += counters.propositionalisationNanos;
+        }
+        return total / 1e9;
+    }
+
+    /** @return The time (in seconds, summed over all threads) spent training classifiers. */
+    public double getTrainingTime()
+    {
+        long total = 0;
+        for (BuildCounters counters : snapshot())
+        {
+            total += counters.trainingNanos;
+        }
+        return total / 1e9;
+    }
+
+    /**
+     * @return The time (in seconds, summed over all threads) spent evaluating candidate splits,
+     *  other than propositionalising and training (e.g. computing the error of the trained classifier).
+     */
+    public double getEvaluationTime()
+    {
+        long total = 0;
+        for (BuildCounters counters : snapshot())
+        {
+            total += counters.evaluationNanos;
+        }
+        return total / 1e9;
+    }
+
+    /** @return The bytes allocated (summed over all threads) while propositionalising bags. */
+    public long getPropositionalisationAllocatedBytes()
+    {
+        long total = 0;
+        for (BuildCounters counters : snapshot())
+        {
+            total += counters.propositionalisationBytes;
+        }
+        return total;
+    }
+
+    /** @return The bytes allocated (summed over all threads) while training classifiers. */
+    public long getTrainingAllocatedBytes()
+    {
+        long total = 0;
+        for (BuildCounters counters : snapshot())
+        {
+            total += counters.trainingBytes;
+        }
+        return total;
+    }
+
+    /** @return The most heap in use, as sampled each time nodes were added to a tree (0 if none were). */
+    public long getPeakHeapUsed()
+    {
+        long peak = 0;
+        for (BuildCounters counters : snapshot())
+        {
+            peak = Math.max(peak, counters.peakHeapUsed);
+        }
+        return peak;
+    }
+
+    /** @return The counters of each thread. */
+    private List<BuildCounters> snapshot()
+    {
+        synchronized (allCounters)
+        {
+            return new ArrayList<BuildCounters>(allCounters);
+        }
+    }
+}
+
+/**
+ * The amount of work done (and the time taken) by one thread, while building a tree.
+ * Only the thread which owns the counters updates them, so they need no synchronisation.
+ *
+ * While a thread evaluates the candidate splits of a node, its counters are active (see activate),
+ *  so that the evaluation strategies can record the classifiers they train without being given
+ *  the monitor.
+ */
+final class BuildCounters
+{
+    /** The counters of the build which the current thread is evaluating candidate splits for (if any) */
+    private static final ThreadLocal<BuildCounters> ACTIVE = new ThreadLocal<BuildCounters>();
+
+    long numCandidatesGenerated;
+    long numCandidatesEvaluated;
+    long numNodesEvaluated;
+    long numNodesExpanded;
+    long numClassifierBuilds;
+    long peakBorderSize;
+
+    long splitGenerationNanos;
+    long propositionalisationNanos;
+    long trainingNanos;
+    long evaluationNanos;
+
+    long propositionalisationBytes;
+    long trainingBytes;
+    long peakHeapUsed;
+
+    /**
+     * Make these the counters to which the work of the current thread is recorded (see recordTraining).
+     * @return The counters which were active before (to restore, via deactivate).
+     */
+    BuildCounters activate()
+    {
+        final BuildCounters previous = ACTIVE.get();
+        ACTIVE.set(this);
+        return previous;
+    }
+
+    /** Restore the counters which were active before these were activated */
+    static void deactivate(final BuildCounters previous)
+    {
+        if (previous == null)
+        {
+            ACTIVE.remove();
+        }
+        else
+        {
+            ACTIVE.set(previous);
+        }
+    }
+
+    /**
+     * Record (to the active counters, if any) that classifiers have been trained,
+     *  taking the given time and allocating the given bytes.
+     */
+    static void recordTraining(final int numBuilds, final long nanos, final long bytes)
+    {
+        final BuildCounters counters = ACTIVE.get();
+        if (counters != null)
+        {
+            counters.numClassifierBuilds += numBuilds;
+            counters.trainingNanos += nanos;
+            counters.trainingBytes += bytes;
+        }
+    }
+
+    /**
+     * Record (to the active counters, if any) that bags have been propositionalised,
+     *  taking the given time and allocating the given bytes.
+     */
+    static void recordPropositionalisation(final long nanos, final long bytes)
+    {
+        final BuildCounters counters = ACTIVE.get();
+        if (counters != null)
+        {
+            counters.propositionalisationNanos += nanos;
+            counters.propositionalisationBytes += bytes;
+        }
+    }
+
+    /** @return The time recorded by the spans nested within the evaluation of a candidate split. */
+    long getNestedNanos()
+    {
+        return propositionalisationNanos + trainingNanos;
+    }
+}
+
+/**
+ * Thrown (and caught by the search strategies) when the time budget for building a tree runs out.
+ * The node which was being evaluated is then discarded, leaving the tree as it was before that node.
+ */
+class OutOfTimeException extends Exception
+{
+    OutOfTimeException()
+    {
+        super("The time budget for building the tree has run out.");
+    }
+}
@@ -0,0 +1,36 @@
+package weka.classifiers.mi.adaprop;
+
+/**
+ * Is told about the progress of building a tree (see BuildMonitor.setListener).
+ *
+ * When the tree is built with several threads, the listener may be called from any of them
+ *  (and from several at once), so it must be thread-safe. It is called in the middle of the
+ *  build, so it should return quickly (e.g. by only recording the progress).
+ */
+public interface BuildProgressListener
+{
+    /**
+     * A node has been added to a tree.
+     *
+     * @param nodeCount The number of nodes in the tree (some search strategies grow several trees,
+     *  or rebuild the tree, so this may go down as well as up).
+     * @param maxNodeCount The maximum number of nodes of the tree (i.e. the maxTreeSize).
+     */
+    void nodeExpanded(int nodeCount, int maxNodeCount);
+
+    /**
+     * A candidate split of a node has been evaluated.
+     *
+     * @param numCandidatesDone The number of candidate splits of the node evaluated so far.
+     * @param numCandidates The number of candidate splits of the node.
+     */
+    void candidateEvaluated(int numCandidatesDone, int numCandidates);
+
+    /**
+     * A fold of cross-validation (when selecting the maxTreeSize) has been done.
+     *
+     * @param numFoldsDone The number of folds done so far.
+     * @param numFolds The number of folds.
+     */
+    void foldDone(int numFoldsDone, int numFolds);
+}
@@ -0,0 +1,340 @@
+package weka.classifiers.mi.adaprop;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps an evaluation strategy, remembering the result of each evaluation so that
+ *  evaluating an identical (propositionalised) dataset with the same classifier is never done twice.
+ *
+ * Each evaluation is keyed by a fingerprint of the values in the dataset, the classifier (and its options)
+ *  and the wrapped evaluation strategy. Recent results are kept in memory (least recently used first out),
+ *  and, if a directory is given, all results are also stored on disk, so they can be reused by later runs.
+ *
+ * Only repeatable evaluations (see EvaluationStrategy.isRepeatable) are cached, since the result of
+ *  the other evaluations depends on the state of their random number generator.
+ */
+public class CachingEvaluationStrategy extends EvaluationStrategy
+{
+    /** The extension of the files in which results are stored on disk */
+    private static final String FILE_EXTENSION = ".eval";
+
+    /** The strategy whose evaluations are cached */
+    private final EvaluationStrategy strategy;
+
+    /** The most recently used results (guarded by itself) */
+    private final LruMap cache;
+
+    /** The directory in which results are stored (null to store results in memory only) */
+    private final File directory;
+
+    private final AtomicLong numHits = new AtomicLong();
+    private final AtomicLong numMisses = new AtomicLong();
+
+    /**
+     * @param strategy The strategy whose evaluations are cached.
+     * @param maxSize The maximum number of results to keep in memory.
+     * @param directory The directory in which results are stored (null or empty to store results in memory only).
+     * @throws IOException If the directory cannot be created.
+     */
+    public CachingEvaluationStrategy(final EvaluationStrategy strategy, final int maxSize, final String directory)
+            throws IOException
+    {
+        this.strategy = strategy;
+        this.cache = new LruMap(Math.max(0, maxSize));
+        this.directory = (directory == null || directory.isEmpty()) ? null : new File(directory);
+        if (this.directory != null && !this.directory.isDirectory() && !this.directory.mkdirs())
+        {
+            throw new IOException("Unable to create the evaluation cache directory: " + directory);
+        }
+    }
+
+    /** @return The number of evaluations whose result was found in the cache. */
+    public long getNumHits()
+    {
+        return numHits.get();
+    }
+
+    /** @return The number of (cacheable) evaluations whose result was not found in the cache. */
+    public long getNumMisses()
+    {
+        return numMisses.get();
+    }
+
+    @Override /** @inheritDoc */
+    public double evaluateDataset(final Instances dataset, final Classifier classifier) throws Exception
+    {
+        if (!strategy.isRepeatable())
+        {
+            return strategy.evaluateDataset(dataset, classifier);
+        }
+
+        final String key = getKey(dataset, dataset, classifier);
+        final Double cached = lookup(key);
+        if (cached != null)
+        {
+            numHits.incrementAndGet();
+            return cached;
+        }
+
+        numMisses.incrementAndGet();
+        final double result = strategy.evaluateDataset(dataset, classifier);
+        store(key, result);
+        return result;
+    }
+
+    @Override /** @inheritDoc */
+    public double evaluateRows(final Instances header, final Iterable<Instance> rows, final Classifier classifier)
+            throws Exception
+    {
+        if (!strategy.isRepeatable())
+        {
+            return strategy.evaluateRows(header, rows, classifier);
+        }
+
+        final String key = getKey(header, rows, classifier);
+        final Double cached = lookup(key);
+        if (cached != null)
+        {
+            numHits.incrementAndGet();
+            return cached;
+        }
+
+        numMisses.incrementAndGet();
+        final double result = strategy.evaluateRows(header, rows, classifier);
+        store(key, result);
+        return result;
+    }
+
+    @Override /** @inheritDoc */
+    public double evaluateOnTestSet(final Instances trainingSet, final Instances testSet, final Classifier classifier)
+            throws Exception
+    {
+        return strategy.evaluateOnTestSet(trainingSet, testSet, classifier);
+    }
+
+    @Override /** @inheritDoc */
+    protected double evaluateModel(final Evaluation eval, final Classifier classifier, final Instances dataset)
+            throws Exception
+    {
+        return strategy.evaluateModel(eval, classifier, dataset);
+    }
+
+    @Override /** @inheritDoc */
+    protected double getMetric(final Evaluation eval) throws Exception
+    {
+        return strategy.getMetric(eval);
+    }
+
+    @Override /** @inheritDoc */
+    public boolean isRepeatable()
+    {
+        return strategy.isRepeatable();
+    }
+
+    @Override /** @inheritDoc */
+    public EvaluationStrategy forParallelTask()
+    {
+        // only repeatable evaluations are cached, and they are shared by all tasks:
+        return strategy.isRepeatable() ? this : strategy.forParallelTask();
+    }
+
+    @Override /** @inheritDoc */
+    public boolean getTrainIncrementally()
+    {
+        return strategy.getTrainIncrementally();
+    }
+
+    @Override /** @inheritDoc */
+    public void setTrainIncrementally(final boolean trainIncrementally)
+    {
+        strategy.setTrainIncrementally(trainIncrementally);
+    }
+
+    /**
+     * Describe an evaluation: which strategy, which classifier (with its options) and which data.
+     */
+    String getKey(final Instances header, final Iterable<Instance> rows, final Classifier classifier)
+    {
+        final StringBuilder key = new StringBuilder();
+        key.append(strategy.getDescription());
+        if (strategy.getTrainIncrementally())
+        {
+            key.append(" (incremental)");
+        }
+        key.append(" | ");
+        key.append(classifier.getClass().getName());
+        if (classifier instanceof OptionHandler)
+        {
+            key.append(' ').append(Utils.joinOptions(((OptionHandler) classifier).getOptions()));
+        }
+        key.append(" | ").append(fingerprint(header, rows));
+        return key.toString();
+    }
+
+    /**
+     * Compute a fingerprint of the values (and weights) of the rows: their dimensions and two
+     *  independent 64-bit hashes of their values (see Fingerprint), so that two different datasets are very
+     *  unlikely to collide.
+     */
+    static String fingerprint(final Instances header, final Iterable<Instance> rows)
+    {
+        if (rows instanceof CandidateRows)
+        {
+            // only the columns which differ between the candidates are computed (once, see CandidateRows):
+            final CandidateRows candidateRows = (CandidateRows) rows;
+            return String.format("%dx%d:%s", candidateRows.getNumRows(), header.numAttributes(),
+                    candidateRows.fingerprint());
+        }
+
+        final Fingerprint fingerprint = new Fingerprint();
+        int numRows = 0;
+        for (Instance inst : rows)
+        {
+            numRows++;
+            fingerprint.add(inst);
+        }
+        return String.format("%dx%d:%s", numRows, header.numAttributes(), fingerprint);
+    }
+
+    /** Find the result of the evaluation in memory, or else on disk (if any). */
+    private Double lookup(final String key) throws IOException
+    {
+        synchronized (cache)
+        {
+            final Double result = cache.get(key);
+            if (result != null || directory == null)
+            {
+                return result;
+            }
+        }
+
+        final Double result = read(key);
+        if (result != null)
+        {
+            synchronized (cache)
+            {
+                cache.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    /** Store the result of the evaluation in memory, and on disk (if any). */
+    private void store(final String key, final double result) throws IOException
+    {
+        synchronized (cache)
+        {
+            cache.put(key, result);
+        }
+        if (directory != null)
+        {
+            write(key, result);
+        }
+    }
+
+    /** Read the result of the evaluation from disk, or null if it has not been stored. */
+    private Double read(final String key) throws IOException
+    {
+        final File file = getFile(key);
+        if (!file.exists())
+        {
+            return null;
+        }
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try
+        {
+            // the file holds the full key, in case of a collision of the file names:
+            final String storedKey = reader.readLine();
+            final String storedResult = reader.readLine();
+            return (key.equals(storedKey) && storedResult != null) ? Double.valueOf(storedResult) : null;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Write the result of the evaluation to disk. It is written to a temporary file first,
+     *  so that an interrupted write (or another run writing the same result) never leaves a broken file behind.
+     */
+    private void write(final String key, final double result) throws IOException
+    {
+        final File file = getFile(key);
+        final File tempFile = File.createTempFile(file.getName(), ".tmp", directory);
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+        try
+        {
+            writer.write(key + "\n" + result + "\n");
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        if (!tempFile.renameTo(file))
+        {
+            // some platforms cannot rename over an existing file (which, if it exists, holds the same result):
+            if (!tempFile.delete())
+            {
+                throw new IOException("Unable to store the evaluation in: " + file);
+            }
+        }
+    }
+
+    /** @return The file in which the result of the evaluation is stored (named by a digest of its key). */
+    private File getFile(final String key) throws IOException
+    {
+        try
+        {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            final StringBuilder name = new StringBuilder();
+            for (byte b : digest)
+            {
+                name.append(String.format("%02x", b));
+            }
+            return new File(directory, name + FILE_EXTENSION);
+        }
+        catch (java.security.NoSuchAlgorithmException e)
+        {
+            throw new IOException("Unable to name the evaluation cache file: " + e.getMessage());
+        }
+    }
+
+    /** A map which removes its least recently used entry once it grows beyond its maximum size */
+    private static class LruMap extends LinkedHashMap<String, Double>
+    {
+        private final int maxSize;
+
+        LruMap(final int maxSize)
+        {
+            super(16, 0.75f, true); // iterate in access-order
+            this.maxSize = maxSize;
+        }
+
+        @Override /** @inheritDoc */
+        protected boolean removeEldestEntry(final Map.Entry<String, Double> eldest)
+        {
+            return size() > maxSize;
+        }
+    }
+}
@@ -2,17 +2,52 @@ package weka.classifiers.mi.adaprop;
 
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
+import weka.classifiers.UpdateableClassifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
+import weka.core.DenseInstance;
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Tag;
+import weka.core.Utils;
+import weka.estimators.DiscreteEstimator;
+import weka.estimators.NormalEstimator;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.WeakHashMap;
 
 /**
  * Defines the strategy for evaluating datasets
  */
 public abstract class EvaluationStrategy implements Serializable
 {
+    /** Whether updateable classifiers are to be trained incrementally (see evaluateRows) */
+    private boolean trainIncrementally = false;
+
+    /** @return true if updateable classifiers are trained incrementally (see evaluateRows). */
+    public boolean getTrainIncrementally()
+    {
+        return trainIncrementally;
+    }
+
+    /**
+     * Set whether updateable classifiers are to be trained incrementally (see evaluateRows).
+     * Incremental training may give a different model to training on the whole dataset at once
+     *  (e.g. a single pass of stochastic gradient descent, rather than several).
+     */
+    public void setTrainIncrementally(final boolean trainIncrementally)
+    {
+        this.trainIncrementally = trainIncrementally;
+    }
+
     /**
      * Evaluate the classifier on the dataset, returning the chosen metric
      *
@@ -23,11 +58,123 @@ public abstract class EvaluationStrategy implements Serializable
      */
     public double evaluateDataset(Instances dataset, Classifier classifier) throws Exception
     {
-        classifier.buildClassifier(dataset);
+        train(classifier, dataset);
         Evaluation evaluation = new Evaluation(dataset);
         return evaluateModel(evaluation, classifier, dataset);
     }
 
+    /**
+     * Evaluate the classifier on a dataset whose rows are generated on demand, returning the chosen metric.
+     *
+     * If the classifier is updateable and is to be trained incrementally (and the evaluation is repeatable),
+     *  it is trained and evaluated as the rows are generated, without holding the whole dataset in memory.
+     *  Otherwise, the rows are collected into a dataset, which is evaluated as per evaluateDataset.
+     *
+     * @param header The header (an empty dataset) of the rows.
+     * @param rows The rows of the dataset (which may be iterated over more than once).
+     * @param classifier The classifier to evaluate
+     * @return The chosen error metric when training the classifier on the dataset
+     * @throws Exception
+     */
+    public double evaluateRows(Instances header, Iterable<Instance> rows, Classifier classifier) throws Exception
+    {
+        if (trainIncrementally && isRepeatable() && classifier instanceof UpdateableClassifier)
+        {
+            return evaluateIncrementally(header, rows, classifier);
+        }
+
+        return evaluateDataset(collectRows(header, rows), classifier);
+    }
+
+    /**
+     * Collect the rows into a dataset (with the given header),
+     *  recording the time taken (and the bytes allocated) as propositionalisation.
+     */
+    protected static Instances collectRows(Instances header, Iterable<Instance> rows)
+    {
+        final long startBytes = MemoryMeter.getAllocatedBytes();
+        final long start = System.nanoTime();
+        final Instances dataset = new Instances(header, header.numInstances());
+        for (Instance row : rows)
+        {
+            dataset.add(row);
+        }
+        BuildCounters.recordPropositionalisation(System.nanoTime() - start,
+                MemoryMeter.getAllocatedBytes() - startBytes);
+        return dataset;
+    }
+
+    /**
+     * Train the classifier on the dataset, recording the build (and the time taken and bytes allocated)
+     *  if it is for evaluating a candidate split.
+     */
+    protected static void train(Classifier classifier, Instances dataset) throws Exception
+    {
+        final long startBytes = MemoryMeter.getAllocatedBytes();
+        final long start = System.nanoTime();
+        classifier.buildClassifier(dataset);
+        BuildCounters.recordTraining(1, System.nanoTime() - start, MemoryMeter.getAllocatedBytes() - startBytes);
+    }
+
+    /**
+     * Cross-validate the classifier on the dataset (into the evaluation), recording each fold as a build.
+     * The time taken and bytes allocated (including testing each fold) are recorded as training.
+     */
+    protected static void crossValidate(Evaluation eval, Classifier classifier, Instances dataset, int numFolds,
+                                        Random random) throws Exception
+    {
+        final long startBytes = MemoryMeter.getAllocatedBytes();
+        final long start = System.nanoTime();
+        eval.crossValidateModel(classifier, dataset, numFolds, random);
+        BuildCounters.recordTraining(numFolds, System.nanoTime() - start,
+                MemoryMeter.getAllocatedBytes() - startBytes);
+    }
+
+    /**
+     * Train the (updateable) classifier on each row in turn, then evaluate it on each row,
+     *  as evaluateDataset would on the same rows.
+     */
+    private double evaluateIncrementally(Instances header, Iterable<Instance> rows, Classifier classifier)
+            throws Exception
+    {
+        // the rows are generated while training, so the time to generate them is recorded as training time:
+        final long startBytes = MemoryMeter.getAllocatedBytes();
+        final long start = System.nanoTime();
+        final UpdateableClassifier updateable = (UpdateableClassifier) classifier;
+        classifier.buildClassifier(header);
+        Evaluation evaluation = new Evaluation(header);
+        for (Instance row : rows)
+        {
+            updateable.updateClassifier(row);
+            evaluation.updatePriors(row);
+        }
+        BuildCounters.recordTraining(1, System.nanoTime() - start, MemoryMeter.getAllocatedBytes() - startBytes);
+        for (Instance row : rows)
+        {
+            evaluation.evaluateModelOnceAndRecordPrediction(classifier, row);
+        }
+        return getMetric(evaluation);
+    }
+
+    /**
+     * Train the classifier on the training set, then evaluate it on a separate test set,
+     *  returning the chosen metric.
+     *
+     * @param trainingSet The dataset to train the classifier on
+     * @param testSet The dataset to evaluate the classifier on
+     * @param classifier The classifier to evaluate
+     * @return The chosen error metric on the test set
+     * @throws Exception
+     */
+    public double evaluateOnTestSet(Instances trainingSet, Instances testSet, Classifier classifier)
+            throws Exception
+    {
+        train(classifier, trainingSet);
+        Evaluation evaluation = new Evaluation(trainingSet);
+        evaluation.evaluateModel(classifier, testSet);
+        return getMetric(evaluation);
+    }
+
     /**
      * Determine the error rate for this evaluation.
      * @param eval The Evaluation object
@@ -36,6 +183,52 @@ public abstract class EvaluationStrategy implements Serializable
     protected abstract double evaluateModel(Evaluation eval, Classifier classifier, Instances dataset)
             throws Exception;
 
+    /**
+     * Get the chosen metric from a completed evaluation.
+     * @param eval The Evaluation object (after evaluating a model)
+     * @return The error metric
+     */
+    protected abstract double getMetric(Evaluation eval) throws Exception;
+
+    /**
+     * @return true if evaluating the same dataset with the same classifier always gives the same result
+     *  (i.e. the evaluation does not depend on the state of a random number generator).
+     */
+    public boolean isRepeatable()
+    {
+        return true;
+    }
+
+    /**
+     * Get the strategy for one of several tasks which evaluate splits in parallel.
+     *
+     * A strategy which draws on a random number generator returns a copy with its own generator, seeded from
+     *  the generator of this strategy, so that its evaluations do not depend on the order in which the tasks
+     *  happen to run. The copies must therefore be taken in a fixed order (e.g. of the tasks), before they run.
+     *
+     * @return The strategy for the task (this strategy, if it is repeatable).
+     */
+    public EvaluationStrategy forParallelTask()
+    {
+        return this;
+    }
+
+    /** @return The copy, with the same settings as this strategy (see forParallelTask). */
+    protected EvaluationStrategy withSettingsOf(final EvaluationStrategy copy)
+    {
+        copy.setTrainIncrementally(trainIncrementally);
+        return copy;
+    }
+
+    /**
+     * @return A description of this strategy and its settings, which is the same for any two strategies
+     *  which give the same evaluations (e.g. for keying cached evaluations).
+     */
+    public String getDescription()
+    {
+        return getClass().getName();
+    }
+
     // <editor-fold desc="===Option Handling===">
     private static final int NUM_CV_FOLDS = 5;
     private static final int EVAL_MISCLASSIFICATION_ERROR = 1;
@@ -44,6 +237,10 @@ public abstract class EvaluationStrategy implements Serializable
     private static final int EVAL_CV_RMSE = 4;
     private static final int EVAL_INFO_GAIN = 5;
     private static final int EVAL_CV_INFO_GAIN = 6;
+    private static final int EVAL_NB_MISCLASSIFICATION_ERROR = 7;
+    private static final int EVAL_GRADIENT_GAIN = 8;
+    private static final int EVAL_HOLDOUT_MISCLASSIFICATION_ERROR = 9;
+    private static final double HOLDOUT_FRACTION = 1.0 / 3;
     public static final int DEFAULT_STRATEGY = EVAL_MISCLASSIFICATION_ERROR;
     public static final String DESCRIPTION = "Split Evaluation strategy: " +
             "1=mis-classification error (default), " +
@@ -51,7 +248,10 @@ public abstract class EvaluationStrategy implements Serializable
             "3=root mean squared error, " +
             "4=cross-validated root mean squared error, " +
             "5=gain ratio, " +
-            "6=cross-validated gain ratio";
+            "6=cross-validated gain ratio, " +
+            "7=mis-classification error (in closed form for Naive Bayes), " +
+            "8=gradient-statistics gain (training once per node), " +
+            "9=hold-out mis-classification error";
 
     public static final Tag[] STRATEGIES =
             {
@@ -60,7 +260,10 @@ public abstract class EvaluationStrategy implements Serializable
                     new Tag(EVAL_RMSE, "By Root mean squared error"),
                     new Tag(EVAL_CV_RMSE, "By Cross-validated Root mean squared error"),
                     new Tag(EVAL_INFO_GAIN, "By Information Gain ratio"),
-                    new Tag(EVAL_CV_INFO_GAIN, "By Cross-validated Informatio Gain ratio")
+                    new Tag(EVAL_CV_INFO_GAIN, "By Cross-validated Informatio Gain ratio"),
+                    new Tag(EVAL_NB_MISCLASSIFICATION_ERROR, "By Misclassification error (closed form for Naive Bayes)"),
+                    new Tag(EVAL_GRADIENT_GAIN, "By Gain in log-loss (second-order approximation)"),
+                    new Tag(EVAL_HOLDOUT_MISCLASSIFICATION_ERROR, "By Hold-out Misclassification error")
             };
 
     /**
@@ -86,6 +289,12 @@ public abstract class EvaluationStrategy implements Serializable
                 return new InfoGainEvaluationStrategy();
             case EVAL_CV_INFO_GAIN:
                 return new InfoGainCrossValidatedErrorEvaluationStrategy(random, NUM_CV_FOLDS);
+            case EVAL_NB_MISCLASSIFICATION_ERROR:
+                return new NaiveBayesMisClassificationErrorEvaluationStrategy();
+            case EVAL_GRADIENT_GAIN:
+                return new GradientGainEvaluationStrategy();
+            case EVAL_HOLDOUT_MISCLASSIFICATION_ERROR:
+                return new MisClassificationHoldoutErrorEvaluationStrategy(random.nextLong(), HOLDOUT_FRACTION);
             default:
                 throw new IllegalArgumentException(
                         "Unknown evaluation strategy code: " + strategyID);
@@ -101,10 +310,436 @@ class MisClassificationErrorEvaluationStrategy extends EvaluationStrategy
             throws Exception
     {
         eval.evaluateModel(classifier, dataset);
+        return getMetric(eval);
+    }
+
+    @Override
+    protected double getMetric(final Evaluation eval) throws Exception
+    {
         return eval.incorrect();
     }
 }
 
+/**
+ * Computes the mis-classification error (on the training set) of a Naive Bayes classifier in closed form,
+ *  from the sufficient statistics of each column (the count, sum and sum of squares of each class),
+ *  giving the same error as training and evaluating the classifier.
+ *
+ * Since Naive Bayes treats each column independently, the log-likelihood of the columns which are the same
+ *  for every candidate split of a node (see CandidateRows) is computed once for the node, leaving only
+ *  the columns of the node itself to be computed for each candidate.
+ *
+ * Other classifiers (and Naive Bayes with a kernel estimator or discretization) are trained as usual.
+ */
+class NaiveBayesMisClassificationErrorEvaluationStrategy extends MisClassificationErrorEvaluationStrategy
+{
+    /** The smallest probability of any value (as in NaiveBayes) */
+    private static final double MIN_PROBABILITY = 1e-75;
+
+    /** The log-likelihoods of the shared columns of each node being evaluated (created on first use) */
+    private transient Map<CandidateRows, double[][]> sharedLogLikelihoods;
+
+    @Override /** @inheritDoc */
+    public double evaluateDataset(final Instances dataset, final Classifier classifier) throws Exception
+    {
+        if (!isClosedForm(classifier))
+        {
+            return super.evaluateDataset(dataset, classifier);
+        }
+
+        final int[] classValues = getClassValues(dataset);
+        final double[][] logLikelihoods = getLogPriors(classValues, dataset.numClasses());
+        final double[] columnValues = new double[dataset.numInstances()];
+        for (int attrIndex = 0; attrIndex < dataset.numAttributes(); attrIndex++)
+        {
+            if (attrIndex != dataset.classIndex())
+            {
+                for (int row = 0; row < columnValues.length; row++)
+                {
+                    columnValues[row] = dataset.instance(row).value(attrIndex);
+                }
+                addLogLikelihoods(columnValues, classValues, logLikelihoods);
+            }
+        }
+        return countMisclassified(logLikelihoods, classValues);
+    }
+
+    @Override /** @inheritDoc */
+    public double evaluateRows(final Instances header, final Iterable<Instance> rows, final Classifier classifier)
+            throws Exception
+    {
+        if (!(rows instanceof CandidateRows) || !isClosedForm(classifier))
+        {
+            return super.evaluateRows(header, rows, classifier);
+        }
+
+        // start from the log-likelihoods of the shared columns, then add those of the node's columns:
+        final CandidateRows candidateRows = (CandidateRows) rows;
+        final double[][] shared = getSharedLogLikelihoods(candidateRows, header);
+        final double[][] logLikelihoods = new double[shared.length][];
+        for (int row = 0; row < shared.length; row++)
+        {
+            logLikelihoods[row] = shared[row].clone();
+        }
+
+        final BitSet changedColumns = candidateRows.getChangedColumns();
+        final double[][] columnValues = new double[changedColumns.cardinality()][shared.length];
+        int row = 0;
+        for (Instance inst : rows)
+        {
+            int column = 0;
+            for (int attrIndex = changedColumns.nextSetBit(0); attrIndex >= 0;
+                 attrIndex = changedColumns.nextSetBit(attrIndex + 1))
+            {
+                columnValues[column++][row] = inst.value(attrIndex);
+            }
+            row++;
+        }
+
+        final int[] classValues = getClassValues(candidateRows.getSharedValues(), header.classIndex());
+        for (double[] values : columnValues)
+        {
+            addLogLikelihoods(values, classValues, logLikelihoods);
+        }
+        return countMisclassified(logLikelihoods, classValues);
+    }
+
+    /**
+     * @return true if the error of the classifier can be computed in closed form
+     *  (i.e. if it is a Naive Bayes classifier using normal distributions, trained on all the data at once).
+     */
+    private boolean isClosedForm(final Classifier classifier)
+    {
+        if (classifier.getClass() != NaiveBayes.class && classifier.getClass() != NaiveBayesUpdateable.class)
+        {
+            return false;
+        }
+        final NaiveBayes naiveBayes = (NaiveBayes) classifier;
+        return !naiveBayes.getUseKernelEstimator() && !naiveBayes.getUseSupervisedDiscretization() &&
+                !(getTrainIncrementally() && classifier instanceof UpdateableClassifier);
+    }
+
+    /** Get the log-likelihoods of the shared columns (computing them on first use for the node) */
+    private double[][] getSharedLogLikelihoods(final CandidateRows rows, final Instances header)
+    {
+        synchronized (this)
+        {
+            if (sharedLogLikelihoods == null)
+            {
+                sharedLogLikelihoods = Collections.synchronizedMap(new WeakHashMap<CandidateRows, double[][]>());
+            }
+        }
+
+        double[][] logLikelihoods = sharedLogLikelihoods.get(rows);
+        if (logLikelihoods == null)
+        {
+            final double[][] sharedValues = rows.getSharedValues();
+            final BitSet changedColumns = rows.getChangedColumns();
+            final int[] classValues = getClassValues(sharedValues, header.classIndex());
+            logLikelihoods = getLogPriors(classValues, header.numClasses());
+            final double[] columnValues = new double[sharedValues.length];
+            for (int attrIndex = 0; attrIndex < header.numAttributes(); attrIndex++)
+            {
+                if (attrIndex != header.classIndex() && !changedColumns.get(attrIndex))
+                {
+                    for (int row = 0; row < sharedValues.length; row++)
+                    {
+                        columnValues[row] = sharedValues[row][attrIndex];
+                    }
+                    addLogLikelihoods(columnValues, classValues, logLikelihoods);
+                }
+            }
+            sharedLogLikelihoods.put(rows, logLikelihoods);
+        }
+        return logLikelihoods;
+    }
+
+    private static int[] getClassValues(final Instances dataset)
+    {
+        final int[] classValues = new int[dataset.numInstances()];
+        for (int row = 0; row < classValues.length; row++)
+        {
+            classValues[row] = (int) dataset.instance(row).classValue();
+        }
+        return classValues;
+    }
+
+    private static int[] getClassValues(final double[][] values, final int classIndex)
+    {
+        final int[] classValues = new int[values.length];
+        for (int row = 0; row < classValues.length; row++)
+        {
+            classValues[row] = (int) values[row][classIndex];
+        }
+        return classValues;
+    }
+
+    /** Get the log of the prior probability of each class, for each row (with a Laplace correction). */
+    private static double[][] getLogPriors(final int[] classValues, final int numClasses)
+    {
+        final DiscreteEstimator classDistribution = new DiscreteEstimator(numClasses, true);
+        for (int classValue : classValues)
+        {
+            classDistribution.addValue(classValue, 1.0);
+        }
+
+        final double[][] logLikelihoods = new double[classValues.length][numClasses];
+        for (double[] rowLogLikelihoods : logLikelihoods)
+        {
+            for (int classValue = 0; classValue < numClasses; classValue++)
+            {
+                rowLogLikelihoods[classValue] = Math.log(classDistribution.getProbability(classValue));
+            }
+        }
+        return logLikelihoods;
+    }
+
+    /**
+     * Add the log-likelihood of one column (modelled by a normal distribution per class, as in NaiveBayes)
+     *  to the log-likelihood of each class, for each row.
+     */
+    private static void addLogLikelihoods(final double[] columnValues, final int[] classValues,
+                                          final double[][] logLikelihoods)
+    {
+        final int numClasses = logLikelihoods.length == 0 ? 0 : logLikelihoods[0].length;
+        final NormalEstimator[] distributions = new NormalEstimator[numClasses];
+        final double precision = getPrecision(columnValues);
+        for (int classValue = 0; classValue < numClasses; classValue++)
+        {
+            distributions[classValue] = new NormalEstimator(precision);
+        }
+        for (int row = 0; row < columnValues.length; row++)
+        {
+            distributions[classValues[row]].addValue(columnValues[row], 1.0);
+        }
+
+        for (int row = 0; row < columnValues.length; row++)
+        {
+            for (int classValue = 0; classValue < numClasses; classValue++)
+            {
+                logLikelihoods[row][classValue] += Math.log(Math.max(MIN_PROBABILITY,
+                        distributions[classValue].getProbability(columnValues[row])));
+            }
+        }
+    }
+
+    /** Get the precision of the values of a column: the average gap between distinct values (as in NaiveBayes) */
+    private static double getPrecision(final double[] columnValues)
+    {
+        final double[] sorted = columnValues.clone();
+        Arrays.sort(sorted);
+
+        double deltaSum = 0;
+        int distinct = 0;
+        for (int index = 1; index < sorted.length; index++)
+        {
+            if (sorted[index] != sorted[index - 1])
+            {
+                deltaSum += sorted[index] - sorted[index - 1];
+                distinct++;
+            }
+        }
+        return (distinct > 0) ? deltaSum / distinct : 0.01;
+    }
+
+    /** Count the rows whose most likely class (the first, if several are equally likely) is not their class */
+    private static double countMisclassified(final double[][] logLikelihoods, final int[] classValues)
+    {
+        int numMisclassified = 0;
+        for (int row = 0; row < classValues.length; row++)
+        {
+            if (Utils.maxIndex(logLikelihoods[row]) != classValues[row])
+            {
+                numMisclassified++;
+            }
+        }
+        return numMisclassified;
+    }
+}
+
+/**
+ * Scores candidate splits by a second-order (boosting-style) approximation of the reduction in log-loss,
+ *  rather than by training the classifier for each candidate.
+ *
+ * For each node, the classifier is trained once, on the columns which are the same for every candidate split
+ *  (see CandidateRows). The gradient and hessian of the log-loss of its predictions for each bag are then used
+ *  to score each candidate: the gain is that of the best threshold on any of the node's new columns, as when
+ *  growing a gradient-boosted tree. The error of a candidate is its negated gain (so lower is still better).
+ *
+ * Any other dataset is evaluated by its mis-classification error, as in MisClassificationErrorEvaluationStrategy.
+ */
+class GradientGainEvaluationStrategy extends MisClassificationErrorEvaluationStrategy
+{
+    /** The L2 regularisation of the weight of each side of a threshold (as in gradient-boosted trees) */
+    private static final double LAMBDA = 1.0;
+
+    /** The gradient statistics of each node being evaluated (created on first use) */
+    private transient Map<CandidateRows, GradientStatistics> nodeStatistics;
+
+    @Override /** @inheritDoc */
+    public double evaluateRows(final Instances header, final Iterable<Instance> rows, final Classifier classifier)
+            throws Exception
+    {
+        if (!(rows instanceof CandidateRows))
+        {
+            return super.evaluateRows(header, rows, classifier);
+        }
+
+        final CandidateRows candidateRows = (CandidateRows) rows;
+        final GradientStatistics stats = getStatistics(candidateRows, classifier);
+        final BitSet changedColumns = candidateRows.getChangedColumns();
+        final double[][] columnValues = new double[changedColumns.cardinality()][stats.numRows()];
+        int row = 0;
+        for (Instance inst : rows)
+        {
+            int column = 0;
+            for (int attrIndex = changedColumns.nextSetBit(0); attrIndex >= 0;
+                 attrIndex = changedColumns.nextSetBit(attrIndex + 1))
+            {
+                columnValues[column++][row] = inst.value(attrIndex);
+            }
+            row++;
+        }
+
+        double bestGain = 0;
+        for (double[] values : columnValues)
+        {
+            bestGain = Math.max(bestGain, stats.getBestGain(values));
+        }
+        return -bestGain;
+    }
+
+    /** Get the gradient statistics of the node (training the classifier on first use for the node) */
+    private GradientStatistics getStatistics(final CandidateRows rows, final Classifier classifier) throws Exception
+    {
+        synchronized (this)
+        {
+            if (nodeStatistics == null)
+            {
+                nodeStatistics = Collections.synchronizedMap(new WeakHashMap<CandidateRows, GradientStatistics>());
+            }
+        }
+
+        GradientStatistics stats = nodeStatistics.get(rows);
+        if (stats == null)
+        {
+            final Instances dataset = new Instances(rows.getHeader(), rows.getSharedValues().length);
+            for (double[] values : rows.getSharedValues())
+            {
+                dataset.add(new DenseInstance(1.0, values.clone()));
+            }
+            train(classifier, dataset);
+            stats = new GradientStatistics(dataset, classifier);
+            nodeStatistics.put(rows, stats);
+        }
+        return stats;
+    }
+
+    /** The gradient and hessian of the log-loss (of the softmax of each class) for each bag */
+    private static class GradientStatistics
+    {
+        /** The gradient, for each class, for each bag */
+        private final double[][] gradients;
+
+        /** The hessian, for each class, for each bag */
+        private final double[][] hessians;
+
+        /** The sum of the gradients (and of the hessians) of each class, over all bags */
+        private final double[] gradientSums;
+        private final double[] hessianSums;
+
+        GradientStatistics(final Instances dataset, final Classifier classifier) throws Exception
+        {
+            final int numClasses = dataset.numClasses();
+            final int numRows = dataset.numInstances();
+            gradients = new double[numClasses][numRows];
+            hessians = new double[numClasses][numRows];
+            gradientSums = new double[numClasses];
+            hessianSums = new double[numClasses];
+            for (int row = 0; row < numRows; row++)
+            {
+                final Instance inst = dataset.instance(row);
+                final double[] dist = classifier.distributionForInstance(inst);
+                for (int classValue = 0; classValue < numClasses; classValue++)
+                {
+                    final double prob = dist[classValue];
+                    gradients[classValue][row] = prob - (inst.classValue() == classValue ? 1 : 0);
+                    hessians[classValue][row] = prob * (1 - prob);
+                    gradientSums[classValue] += gradients[classValue][row];
+                    hessianSums[classValue] += hessians[classValue][row];
+                }
+            }
+        }
+
+        int numRows()
+        {
+            return gradients.length == 0 ? 0 : gradients[0].length;
+        }
+
+        /**
+         * Get the gain of the best threshold on the column: the reduction in the (second-order approximation of
+         *  the) log-loss when each side of the threshold gets its own (optimal) weight, summed over the classes.
+         */
+        double getBestGain(final double[] columnValues)
+        {
+            final int numClasses = gradients.length;
+            final Integer[] order = new Integer[columnValues.length];
+            for (int row = 0; row < order.length; row++)
+            {
+                order[row] = row;
+            }
+            Arrays.sort(order, new Comparator<Integer>()
+            {
+                @Override /** @inheritDoc */
+                public int compare(final Integer row, final Integer otherRow)
+                {
+                    return Double.compare(columnValues[row], columnValues[otherRow]);
+                }
+            });
+
+            double noSplitScore = 0;
+            for (int classValue = 0; classValue < numClasses; classValue++)
+            {
+                noSplitScore += score(gradientSums[classValue], hessianSums[classValue]);
+            }
+
+            // try each threshold between distinct values:
+            final double[] leftGradients = new double[numClasses];
+            final double[] leftHessians = new double[numClasses];
+            double bestGain = 0;
+            for (int index = 0; index < order.length - 1; index++)
+            {
+                final int row = order[index];
+                for (int classValue = 0; classValue < numClasses; classValue++)
+                {
+                    leftGradients[classValue] += gradients[classValue][row];
+                    leftHessians[classValue] += hessians[classValue][row];
+                }
+                if (columnValues[row] == columnValues[order[index + 1]])
+                {
+                    continue; // not a threshold
+                }
+
+                double splitScore = 0;
+                for (int classValue = 0; classValue < numClasses; classValue++)
+                {
+                    splitScore += score(leftGradients[classValue], leftHessians[classValue]) +
+                            score(gradientSums[classValue] - leftGradients[classValue],
+                                  hessianSums[classValue] - leftHessians[classValue]);
+                }
+                bestGain = Math.max(bestGain, (splitScore - noSplitScore) / 2);
+            }
+            return bestGain;
+        }
+
+        /** The (twice the) reduction in loss from giving the optimal weight to rows with these sums */
+        private static double score(final double gradientSum, final double hessianSum)
+        {
+            return gradientSum * gradientSum / (hessianSum + LAMBDA);
+        }
+    }
+}
+
 class RMSEEvaluationStrategy extends EvaluationStrategy
 {
     @Override
@@ -113,6 +748,12 @@ class RMSEEvaluationStrategy extends EvaluationStrategy
     {
 
         eval.evaluateModel(classifier, dataset);
+        return getMetric(eval);
+    }
+
+    @Override
+    protected double getMetric(final Evaluation eval) throws Exception
+    {
         return eval.rootMeanSquaredError();
     }
 }
@@ -125,7 +766,13 @@ class InfoGainEvaluationStrategy extends EvaluationStrategy
     {
 
         eval.evaluateModel(classifier, dataset);
-        return  -eval.SFMeanEntropyGain(); // negated, to get a monotonic error function
+        return getMetric(eval);
+    }
+
+    @Override
+    protected double getMetric(final Evaluation eval) throws Exception
+    {
+        return -eval.SFMeanEntropyGain(); // negated, to get a monotonic error function
     }
 }
 
@@ -140,11 +787,29 @@ class MisClassificationCrossValidatedErrorEvaluationStrategy extends EvaluationS
         this.numFolds = numFolds;
     }
 
+    @Override
+    public boolean isRepeatable()
+    {
+        return false; // the folds depend on the state of the random number generator
+    }
+
+    @Override
+    public EvaluationStrategy forParallelTask()
+    {
+        return withSettingsOf(new MisClassificationCrossValidatedErrorEvaluationStrategy(new Random(random.nextLong()), numFolds));
+    }
+
     @Override
     public double evaluateModel(final Evaluation eval, Classifier classifier, Instances dataset)
             throws Exception
     {
-        eval.crossValidateModel(classifier, dataset, numFolds, random);
+        crossValidate(eval, classifier, dataset, numFolds, random);
+        return getMetric(eval);
+    }
+
+    @Override
+    protected double getMetric(final Evaluation eval) throws Exception
+    {
         return eval.incorrect();
     }
 }
@@ -160,11 +825,29 @@ class RMSECrossValidatedErrorEvaluationStrategy extends EvaluationStrategy
         this.numFolds = numFolds;
     }
 
+    @Override
+    public boolean isRepeatable()
+    {
+        return false; // the folds depend on the state of the random number generator
+    }
+
+    @Override
+    public EvaluationStrategy forParallelTask()
+    {
+        return withSettingsOf(new RMSECrossValidatedErrorEvaluationStrategy(new Random(random.nextLong()), numFolds));
+    }
+
     @Override
     public double evaluateModel(final Evaluation eval, Classifier classifier, Instances dataset)
             throws Exception
     {
-        eval.crossValidateModel(classifier, dataset, numFolds, random);
+        crossValidate(eval, classifier, dataset, numFolds, random);
+        return getMetric(eval);
+    }
+
+    @Override
+    protected double getMetric(final Evaluation eval) throws Exception
+    {
         return eval.rootMeanSquaredError();
     }
 }
@@ -180,11 +863,148 @@ class InfoGainCrossValidatedErrorEvaluationStrategy extends EvaluationStrategy
         this.numFolds = numFolds;
     }
 
+    @Override
+    public boolean isRepeatable()
+    {
+        return false; // the folds depend on the state of the random number generator
+    }
+
+    @Override
+    public EvaluationStrategy forParallelTask()
+    {
+        return withSettingsOf(new InfoGainCrossValidatedErrorEvaluationStrategy(new Random(random.nextLong()), numFolds));
+    }
+
     @Override
     public double evaluateModel(final Evaluation eval, Classifier classifier, Instances dataset)
             throws Exception
     {
-        eval.crossValidateModel(classifier, dataset, numFolds, random);
-        return -eval.SFMeanEntropyGain(); // negated, to get a monotonic error function.
+        crossValidate(eval, classifier, dataset, numFolds, random);
+        return getMetric(eval);
+    }
+
+    @Override
+    protected double getMetric(final Evaluation eval) throws Exception
+    {
+        return -eval.SFMeanEntropyGain(); // negated, to get a monotonic error function
+    }
+}
+/**
+ * Evaluates the mis-classification error on a hold-out set of bags, after training on the remaining bags.
+ *
+ * The bags are split (stratified by class) once, using a fixed seed, and the same split is reused
+ *  for every evaluation of the same bags (i.e. for every candidate split at every node), so the
+ *  errors of different candidates (and nodes) are comparable.
+ */
+class MisClassificationHoldoutErrorEvaluationStrategy extends EvaluationStrategy
+{
+    private final long seed;
+    private final double holdoutFraction;
+
+    /** The split of the bags last evaluated (recomputed if different bags are evaluated) */
+    private transient volatile HoldoutSplit split;
+
+    public MisClassificationHoldoutErrorEvaluationStrategy(long seed, double holdoutFraction)
+    {
+        this.seed = seed;
+        this.holdoutFraction = holdoutFraction;
+    }
+
+    @Override
+    public double evaluateDataset(final Instances dataset, final Classifier classifier) throws Exception
+    {
+        final BitSet holdout = getSplit(dataset).holdout;
+        final Instances trainingSet = new Instances(dataset, dataset.numInstances());
+        final Instances holdoutSet = new Instances(dataset, holdout.cardinality());
+        for (int row = 0; row < dataset.numInstances(); row++)
+        {
+            (holdout.get(row) ? holdoutSet : trainingSet).add(dataset.instance(row));
+        }
+
+        train(classifier, trainingSet);
+        Evaluation evaluation = new Evaluation(trainingSet);
+        return evaluateModel(evaluation, classifier, holdoutSet);
+    }
+
+    @Override
+    public double evaluateRows(final Instances header, final Iterable<Instance> rows, final Classifier classifier)
+            throws Exception
+    {
+        // never trained incrementally, since the classifier is not trained on every row
+        return evaluateDataset(collectRows(header, rows), classifier);
+    }
+
+    @Override
+    public double evaluateModel(final Evaluation eval, Classifier classifier, Instances dataset)
+            throws Exception
+    {
+        eval.evaluateModel(classifier, dataset);
+        return getMetric(eval);
+    }
+
+    @Override
+    protected double getMetric(final Evaluation eval) throws Exception
+    {
+        return eval.incorrect();
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return super.getDescription() + " -seed " + seed + " -holdout " + holdoutFraction;
+    }
+
+    /** Get the split of the bags (reusing the last split, if the same bags are evaluated again) */
+    private HoldoutSplit getSplit(final Instances dataset)
+    {
+        final int[] classValues = new int[dataset.numInstances()];
+        for (int row = 0; row < classValues.length; row++)
+        {
+            classValues[row] = (int) dataset.instance(row).classValue();
+        }
+
+        HoldoutSplit curSplit = split;
+        if (curSplit == null || !Arrays.equals(curSplit.classValues, classValues))
+        {
+            curSplit = new HoldoutSplit(classValues, dataset.numClasses(), seed, holdoutFraction);
+            split = curSplit;
+        }
+        return curSplit;
     }
-}
\ No newline at end of file
+
+    /** A split of the bags into a training set and a hold-out set, stratified by class */
+    private static final class HoldoutSplit
+    {
+        /** The class value of each bag (identifying the bags which were split) */
+        final int[] classValues;
+
+        /** The bags in the hold-out set */
+        final BitSet holdout;
+
+        HoldoutSplit(final int[] classValues, final int numClasses, final long seed, final double holdoutFraction)
+        {
+            this.classValues = classValues;
+            this.holdout = new BitSet(classValues.length);
+
+            // hold out the same fraction of the bags of each class:
+            final Random random = new Random(seed);
+            for (int classValue = 0; classValue < numClasses; classValue++)
+            {
+                final List<Integer> rows = new ArrayList<Integer>();
+                for (int row = 0; row < classValues.length; row++)
+                {
+                    if (classValues[row] == classValue)
+                    {
+                        rows.add(row);
+                    }
+                }
+                Collections.shuffle(rows, random);
+                final int numHeldOut = (int) Math.round(rows.size() * holdoutFraction);
+                for (int row : rows.subList(0, numHeldOut))
+                {
+                    holdout.set(row);
+                }
+            }
+        }
+    }
+}
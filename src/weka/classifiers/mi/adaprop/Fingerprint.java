@@ -0,0 +1,95 @@
+package weka.classifiers.mi.adaprop;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A fingerprint of a stream of values (e.g. of a dataset), computed as the values are added, so that
+ *  the values never need to be held (or converted to a String) as a whole.
+ *
+ * It is made of two independent 64-bit hashes (FNV-1a and a MurmurHash3-style mix), so two different
+ *  streams of values are very unlikely to have the same fingerprint. A fingerprint can be copied part way
+ *  (see Fingerprint(Fingerprint)), to fingerprint several streams which start with the same values.
+ */
+public final class Fingerprint
+{
+    private long hash1 = 0xcbf29ce484222325L;
+    private long hash2 = 0x9e3779b97f4a7c15L;
+
+    /** Start a fingerprint of no values */
+    public Fingerprint()
+    {
+    }
+
+    /** Continue from the other fingerprint (which is not changed by adding values to this one) */
+    public Fingerprint(final Fingerprint other)
+    {
+        this.hash1 = other.hash1;
+        this.hash2 = other.hash2;
+    }
+
+    /** Add the bits of a value */
+    public Fingerprint add(final long bits)
+    {
+        hash1 = (hash1 ^ bits) * 0x100000001b3L;
+        hash2 = mix(hash2 + bits);
+        return this;
+    }
+
+    /** Add a value */
+    public Fingerprint add(final double value)
+    {
+        return add(Double.doubleToLongBits(value));
+    }
+
+    /**
+     * Add the values of the instance, followed by its weight. The value of a relational attribute
+     *  (e.g. the instances of a bag) is added as all the values of its instances.
+     */
+    public Fingerprint add(final Instance inst)
+    {
+        final Instances dataset = inst.dataset();
+        final int numValues = inst.numAttributes();
+        for (int attrIndex = 0; attrIndex < numValues; attrIndex++)
+        {
+            if (dataset != null && dataset.attribute(attrIndex).isRelationValued() && !inst.isMissing(attrIndex))
+            {
+                add(inst.relationalValue(attrIndex));
+            }
+            else
+            {
+                add(inst.value(attrIndex));
+            }
+        }
+        return add(inst.weight());
+    }
+
+    /** Add the number of instances, followed by the values (and weight) of each instance */
+    public Fingerprint add(final Instances dataset)
+    {
+        add((long) dataset.numInstances());
+        for (int instIndex = 0; instIndex < dataset.numInstances(); instIndex++)
+        {
+            add(dataset.instance(instIndex));
+        }
+        return this;
+    }
+
+    /** @return The fingerprint of the values added so far, as 32 hexadecimal digits. */
+    @Override
+    public String toString()
+    {
+        return String.format("%016x%016x", hash1, hash2);
+    }
+
+    /** Scramble the bits of the value (the finaliser of the 64-bit MurmurHash3) */
+    private static long mix(long value)
+    {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,418 @@
+package weka.classifiers.mi.adaprop;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The custom Java Flight Recorder (JFR) events emitted while building and using AdaProp models,
+ *  so that they can be correlated with the GC and CPU events of the same recording.
+ *
+ * The events are defined at run-time (via jdk.jfr.EventFactory), which is looked up reflectively,
+ *  so that AdaProp still builds and runs on JVMs without JFR (on which no events are emitted).
+ *  When no recording is running, beginning an event returns null after checking a single flag
+ *  (which is kept up to date by listening to the state of the recordings), so the events cost
+ *  next to nothing. Events which are disabled in the settings of the running recordings are not begun either.
+ *
+ * Each event is used as follows:
+ * <pre>
+ *     final FlightRecorderEvents.Event event = FlightRecorderEvents.NODE_EXPANSION.begin();
+ *     ... // do the work
+ *     if (event != null)
+ *     {
+ *         event.set(0, nodeId).set(1, depth) ... .commit();
+ *     }
+ * </pre>
+ * where the fields are set by their index (in the order they are listed in the event type).
+ */
+public final class FlightRecorderEvents
+{
+    /** The category of the events (in JFR's event browser) */
+    private static final String[] CATEGORY = {"Weka", "AdaProp"};
+
+    /** A tree is about to be built: its search strategy, the number of bags, and its maximum number of nodes */
+    public static final EventType TREE_BUILD_START = new EventType("weka.adaprop.TreeBuildStart",
+            "Tree Build Start", "A tree of splits is about to be built", true,
+            new Field(String.class, "searchStrategy", "Search Strategy", false),
+            new Field(int.class, "numBags", "Bags", false),
+            new Field(int.class, "maxNodeCount", "Max Nodes", false));
+
+    /** A tree has been built: as per TREE_BUILD_START, along with the number of nodes of the tree */
+    public static final EventType TREE_BUILD = new EventType("weka.adaprop.TreeBuild",
+            "Tree Build", "A tree of splits was built", true,
+            new Field(String.class, "searchStrategy", "Search Strategy", false),
+            new Field(int.class, "numBags", "Bags", false),
+            new Field(int.class, "maxNodeCount", "Max Nodes", false),
+            new Field(int.class, "nodeCount", "Nodes", false));
+
+    /**
+     * The candidate splits of a node have been evaluated: the index of the node (in order of addition
+     *  to the tree), its depth, the number of instances in it, the number of candidates and the best error.
+     */
+    public static final EventType NODE_EXPANSION = new EventType("weka.adaprop.NodeExpansion",
+            "Node Expansion", "The candidate splits of a node were evaluated", false,
+            new Field(int.class, "nodeId", "Node", false),
+            new Field(int.class, "depth", "Depth", false),
+            new Field(int.class, "numInstances", "Instances", false),
+            new Field(int.class, "numCandidates", "Candidates", false),
+            new Field(double.class, "error", "Best Error", false));
+
+    /** A candidate split of a node has been evaluated: the node, the split, and its error */
+    public static final EventType CANDIDATE_EVALUATION = new EventType("weka.adaprop.CandidateEvaluation",
+            "Candidate Evaluation", "A candidate split of a node was evaluated", false,
+            new Field(int.class, "nodeId", "Node", false),
+            new Field(int.class, "attrIndex", "Attribute", false),
+            new Field(double.class, "splitPoint", "Split Point", false),
+            new Field(double.class, "error", "Error", false));
+
+    /** A bag has been classified: its size, and the time taken to propositionalise and to classify it */
+    public static final EventType SCORING = new EventType("weka.adaprop.Scoring",
+            "Scoring", "A bag was classified", false,
+            new Field(int.class, "bagSize", "Bag Size", false),
+            new Field(long.class, "propositionalisationTime", "Propositionalisation Time", true),
+            new Field(long.class, "classificationTime", "Classification Time", true));
+
+    private FlightRecorderEvents()
+    {
+        // not instantiated.
+    }
+
+    /** @return true if JFR is available (so that events are emitted, when recording). */
+    public static boolean isAvailable()
+    {
+        return Jfr.AVAILABLE;
+    }
+
+    /** A field of an event type */
+    static final class Field
+    {
+        final Class<?> type;
+        final String name;
+        final String label;
+
+        /** Whether the field is a duration (in nanoseconds) */
+        final boolean isTimespan;
+
+        Field(final Class<?> type, final String name, final String label, final boolean isTimespan)
+        {
+            this.type = type;
+            this.name = name;
+            this.label = label;
+            this.isTimespan = isTimespan;
+        }
+    }
+
+    /** A type of event (defined when the class is loaded, if JFR is available) */
+    public static final class EventType
+    {
+        /** The factory of the events (a jdk.jfr.EventFactory), or null if JFR is not available */
+        private final Object factory;
+
+        /** The type of the events (a jdk.jfr.EventType), or null if JFR is not available */
+        private final Object type;
+
+        EventType(final String name, final String label, final String description, final boolean withStackTrace,
+                  final Field... fields)
+        {
+            Object factory = null;
+            Object type = null;
+            if (Jfr.AVAILABLE)
+            {
+                try
+                {
+                    factory = Jfr.createFactory(name, label, description, withStackTrace, fields);
+                    type = Jfr.GET_EVENT_TYPE.invoke(factory);
+                }
+                catch (Exception e)
+                {
+                    factory = null; // no events of this type are emitted.
+                    type = null;
+                }
+            }
+            this.factory = factory;
+            this.type = type;
+        }
+
+        /** @return true if events of this type are being recorded. */
+        public boolean isEnabled()
+        {
+            if (type == null || !Jfr.recording)
+            {
+                return false;
+            }
+            try
+            {
+                return (Boolean) Jfr.IS_TYPE_ENABLED.invoke(type);
+            }
+            catch (Exception e)
+            {
+                return false;
+            }
+        }
+
+        /**
+         * Begin timing an event of this type (if such events are being recorded).
+         *
+         * @return The event, which is to be committed once its work is done, or null if it is not being recorded.
+         */
+        public Event begin()
+        {
+            if (!isEnabled())
+            {
+                return null;
+            }
+            try
+            {
+                final Object event = Jfr.NEW_EVENT.invoke(factory);
+                Jfr.BEGIN.invoke(event);
+                return new Event(event);
+            }
+            catch (Exception e)
+            {
+                return null;
+            }
+        }
+    }
+
+    /** An event which has begun (see EventType.begin), and which is yet to be committed */
+    public static final class Event
+    {
+        /** The event (a jdk.jfr.Event) */
+        private final Object event;
+
+        private Event(final Object event)
+        {
+            this.event = event;
+        }
+
+        /**
+         * Set a field of this event.
+         *
+         * @param index The index of the field (in the order of the fields of the event type).
+         * @param value The value of the field.
+         * @return This event.
+         */
+        public Event set(final int index, final Object value)
+        {
+            try
+            {
+                Jfr.SET.invoke(event, index, value);
+            }
+            catch (Exception e)
+            {
+                // the field is left unset.
+            }
+            return this;
+        }
+
+        /** End timing this event, and record it (unless it is shorter than the recording's threshold) */
+        public void commit()
+        {
+            try
+            {
+                Jfr.COMMIT.invoke(event);
+            }
+            catch (Exception e)
+            {
+                // the event is not recorded.
+            }
+        }
+    }
+
+    /** The (reflectively looked up) JFR API, if available */
+    private static final class Jfr
+    {
+        static final boolean AVAILABLE;
+        static final Method CREATE;
+        static final Method GET_EVENT_TYPE;
+        static final Method IS_TYPE_ENABLED;
+        static final Method NEW_EVENT;
+        static final Method BEGIN;
+        static final Method SET;
+        static final Method COMMIT;
+        static final Constructor<?> ANNOTATION_ELEMENT;
+        static final Constructor<?> VALUE_DESCRIPTOR;
+        static final Class<?> NAME;
+        static final Class<?> LABEL;
+        static final Class<?> DESCRIPTION;
+        static final Class<?> CATEGORY;
+        static final Class<?> STACK_TRACE;
+        static final Class<?> TIMESPAN;
+
+        /** Whether any recording may be running (updated by RecordingStateListener) */
+        static volatile boolean recording = false;
+
+        static
+        {
+            boolean available = false;
+            Method create = null, getEventType = null, isTypeEnabled = null, newEvent = null;
+            Method begin = null, set = null, commit = null;
+            Constructor<?> annotationElement = null, valueDescriptor = null;
+            Class<?> name = null, label = null, description = null, category = null, stackTrace = null;
+            Class<?> timespan = null;
+            try
+            {
+                final Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+                final Class<?> eventClass = Class.forName("jdk.jfr.Event");
+                final Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+                create = factoryClass.getMethod("create", List.class, List.class);
+                getEventType = factoryClass.getMethod("getEventType");
+                isTypeEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+                newEvent = factoryClass.getMethod("newEvent");
+                begin = eventClass.getMethod("begin");
+                set = eventClass.getMethod("set", int.class, Object.class);
+                commit = eventClass.getMethod("commit");
+                annotationElement = annotationElementClass.getConstructor(Class.class, Object.class);
+                valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor")
+                        .getConstructor(Class.class, String.class, List.class);
+                name = Class.forName("jdk.jfr.Name");
+                label = Class.forName("jdk.jfr.Label");
+                description = Class.forName("jdk.jfr.Description");
+                category = Class.forName("jdk.jfr.Category");
+                stackTrace = Class.forName("jdk.jfr.StackTrace");
+                timespan = Class.forName("jdk.jfr.Timespan");
+                available = true;
+            }
+            catch (Exception e)
+            {
+                // JFR is not available (e.g. before Java 9): no events are emitted.
+            }
+            catch (LinkageError e)
+            {
+                // as above.
+            }
+            AVAILABLE = available;
+            CREATE = create;
+            GET_EVENT_TYPE = getEventType;
+            IS_TYPE_ENABLED = isTypeEnabled;
+            NEW_EVENT = newEvent;
+            BEGIN = begin;
+            SET = set;
+            COMMIT = commit;
+            ANNOTATION_ELEMENT = annotationElement;
+            VALUE_DESCRIPTOR = valueDescriptor;
+            NAME = name;
+            LABEL = label;
+            DESCRIPTION = description;
+            CATEGORY = category;
+            STACK_TRACE = stackTrace;
+            TIMESPAN = timespan;
+            if (available)
+            {
+                RecordingStateListener.register();
+            }
+        }
+
+        /** Define (and register) an event type, returning its factory (a jdk.jfr.EventFactory) */
+        static Object createFactory(final String name, final String label, final String description,
+                                    final boolean withStackTrace, final Field... fields) throws Exception
+        {
+            final List<Object> annotations = new ArrayList<Object>(Arrays.asList(
+                    ANNOTATION_ELEMENT.newInstance(NAME, name),
+                    ANNOTATION_ELEMENT.newInstance(LABEL, label),
+                    ANNOTATION_ELEMENT.newInstance(DESCRIPTION, description),
+                    ANNOTATION_ELEMENT.newInstance(CATEGORY, FlightRecorderEvents.CATEGORY),
+                    ANNOTATION_ELEMENT.newInstance(STACK_TRACE, withStackTrace)));
+
+            final List<Object> valueDescriptors = new ArrayList<Object>(fields.length);
+            for (Field field : fields)
+            {
+                final List<Object> fieldAnnotations = new ArrayList<Object>();
+                fieldAnnotations.add(ANNOTATION_ELEMENT.newInstance(LABEL, field.label));
+                if (field.isTimespan)
+                {
+                    fieldAnnotations.add(ANNOTATION_ELEMENT.newInstance(TIMESPAN, "NANOSECONDS"));
+                }
+                valueDescriptors.add(VALUE_DESCRIPTOR.newInstance(field.type, field.name,
+                        Collections.unmodifiableList(fieldAnnotations)));
+            }
+            return CREATE.invoke(null, annotations, valueDescriptors);
+        }
+    }
+
+    /**
+     * Keeps track of whether any recording is running (in Jfr.recording), by listening to the state
+     *  of the recordings (as a jdk.jfr.FlightRecorderListener).
+     */
+    private static final class RecordingStateListener implements InvocationHandler
+    {
+        private final Method getFlightRecorder;
+        private final Method getRecordings;
+        private final Method getState;
+
+        private RecordingStateListener(final Class<?> recorderClass) throws Exception
+        {
+            getFlightRecorder = recorderClass.getMethod("getFlightRecorder");
+            getRecordings = recorderClass.getMethod("getRecordings");
+            getState = Class.forName("jdk.jfr.Recording").getMethod("getState");
+        }
+
+        /** Listen to the state of the recordings (or, failing that, assume that a recording is running) */
+        static void register()
+        {
+            try
+            {
+                final Class<?> recorderClass = Class.forName("jdk.jfr.FlightRecorder");
+                final Class<?> listenerClass = Class.forName("jdk.jfr.FlightRecorderListener");
+                final Object listener = Proxy.newProxyInstance(listenerClass.getClassLoader(),
+                        new Class<?>[] {listenerClass}, new RecordingStateListener(recorderClass));
+
+                // if the recorder is already initialised, this calls recorderInitialized (before returning):
+                recorderClass.getMethod("addListener", listenerClass).invoke(null, listener);
+            }
+            catch (Exception e)
+            {
+                Jfr.recording = true; // check whether each type of event is enabled instead.
+            }
+        }
+
+        @Override /** @inheritDoc */
+        public Object invoke(final Object proxy, final Method method, final Object[] args)
+        {
+            final String name = method.getName();
+            if (name.equals("recorderInitialized") || name.equals("recordingStateChanged"))
+            {
+                Jfr.recording = isAnyRecordingRunning();
+                return null;
+            }
+            else if (name.equals("equals"))
+            {
+                return proxy == args[0];
+            }
+            else if (name.equals("hashCode"))
+            {
+                return System.identityHashCode(proxy);
+            }
+            else if (name.equals("toString"))
+            {
+                return getClass().getName();
+            }
+            return null;
+        }
+
+        private boolean isAnyRecordingRunning()
+        {
+            try
+            {
+                final Object recorder = getFlightRecorder.invoke(null);
+                for (Object recording : (List<?>) getRecordings.invoke(recorder))
+                {
+                    if ("RUNNING".equals(String.valueOf(getState.invoke(recording))))
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            catch (Exception e)
+            {
+                return true; // check whether each type of event is enabled instead.
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package weka.classifiers.mi.adaprop;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the memory used while building (and scoring with) a tree: the bytes allocated by the current thread,
+ *  the heap in use, and the size of objects when serialised.
+ *
+ * The bytes allocated by each thread are counted by HotSpot (and the JVMs based on it), through
+ *  com.sun.management.ThreadMXBean. On other JVMs (or if the counting is disabled), getAllocatedBytes is always 0,
+ *  so no allocations are recorded.
+ */
+public final class MemoryMeter
+{
+    /** The approximate size (in bytes) of a BitSet, other than its words: the object and the header of its array */
+    private static final long BITSET_OVERHEAD = 24 + 16;
+
+    private MemoryMeter()
+    {
+        // static methods only
+    }
+
+    /** @return true if the bytes allocated by each thread are counted (see getAllocatedBytes). */
+    public static boolean isCountingAllocations()
+    {
+        return Threads.BEAN != null;
+    }
+
+    /**
+     * @return The number of bytes allocated (on the heap) by the current thread so far, or 0 if the allocations
+     *  are not counted. Only the difference between two calls (on the same thread) is meaningful.
+     */
+    public static long getAllocatedBytes()
+    {
+        final com.sun.management.ThreadMXBean bean = Threads.BEAN;
+        return (bean == null) ? 0 : Math.max(0, bean.getThreadAllocatedBytes(Thread.currentThread().getId()));
+    }
+
+    /** @return The number of bytes of the heap in use (including garbage which has not been collected yet). */
+    public static long getHeapUsed()
+    {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * @return The approximate size (in bytes) of a BitSet of the given number of bits (such as the instances
+     *  ignored by a node on the border of the search).
+     */
+    public static long estimateBitSetSize(final int numBits)
+    {
+        return BITSET_OVERHEAD + 8L * ((numBits + 63) / 64);
+    }
+
+    /**
+     * @return The number of bytes of the object when serialised (e.g. the size of the file a model is saved to),
+     *  which is a rough guide to the memory the object needs once it is loaded.
+     */
+    public static long getSerialisedSize(final Serializable object) throws IOException
+    {
+        final ByteCounter counter = new ByteCounter();
+        final ObjectOutputStream out = new ObjectOutputStream(counter);
+        out.writeObject(object);
+        out.close();
+        return counter.numBytes;
+    }
+
+    /** Counts the bytes written to it (and discards them) */
+    private static final class ByteCounter extends OutputStream
+    {
+        long numBytes;
+
+        @Override /** @inheritDoc */
+        public void write(final int b)
+        {
+            numBytes++;
+        }
+
+        @Override /** @inheritDoc */
+        public void write(final byte[] b, final int off, final int len)
+        {
+            numBytes += len;
+        }
+    }
+
+    /** Holds the allocation counter of the JVM, if any (looked up when first needed) */
+    private static final class Threads
+    {
+        static final com.sun.management.ThreadMXBean BEAN = lookup();
+
+        private static com.sun.management.ThreadMXBean lookup()
+        {
+            try
+            {
+                final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+                if (threads instanceof com.sun.management.ThreadMXBean)
+                {
+                    final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+                    if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled())
+                    {
+                        return bean;
+                    }
+                }
+            }
+            catch (LinkageError e)
+            {
+                // the JVM has no com.sun.management package
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package weka.classifiers.mi.adaprop;
+
+import java.io.Serializable;
+
+/**
+ * The profile of building a (split) node of the tree, recorded when profiling (see BuildMonitor.setProfiling):
+ *  the number of instances in the node, the number of candidate splits considered, the time spent choosing
+ *  its split, and the margin by which the chosen split beat the next best.
+ *
+ * A node may be evaluated several times (e.g. by best-first search, once in each iteration while it is
+ *  on the border), so the candidates and the time are summed over every evaluation of the node,
+ *  while the margin is that of its last evaluation.
+ */
+public class NodeProfile implements Serializable
+{
+    static final long serialVersionUID = SplitNode.serialVersionUID + 1L;
+
+    /** The index of the node (in order of addition to the tree), or -1 if not known */
+    private int nodeIndex = -1;
+
+    /** The attribute and value of the split of the node (if known) */
+    private int splitAttrIndex = -1;
+    private double splitPoint;
+
+    /** The number of instances (over all bags) in the node */
+    private int numInstances;
+
+    /** The number of candidate splits evaluated, over all evaluations of the node */
+    private long numCandidates;
+
+    /** The number of times the candidate splits of the node have been evaluated */
+    private int numEvaluations;
+
+    /** The time spent generating (and evaluating) the candidate splits of the node */
+    private long splitTimeNanos;
+
+    /** The error of the second best candidate less that of the best (NaN if there was only one candidate) */
+    private double errorMargin = Double.NaN;
+
+    /** Record that the candidate splits were generated (from the given number of instances) */
+    void recordSplitGeneration(final int numInstances, final long nanos)
+    {
+        this.numInstances = numInstances;
+        this.splitTimeNanos += nanos;
+    }
+
+    /** Record that candidate splits were evaluated, and the margin of the best of them */
+    void recordEvaluation(final int numCandidates, final long nanos, final double errorMargin)
+    {
+        this.numCandidates += numCandidates;
+        this.numEvaluations++;
+        this.splitTimeNanos += nanos;
+        this.errorMargin = errorMargin;
+    }
+
+    /** @return A copy of this profile. */
+    NodeProfile copy()
+    {
+        final NodeProfile copy = new NodeProfile();
+        copy.nodeIndex = nodeIndex;
+        copy.splitAttrIndex = splitAttrIndex;
+        copy.splitPoint = splitPoint;
+        copy.numInstances = numInstances;
+        copy.numCandidates = numCandidates;
+        copy.numEvaluations = numEvaluations;
+        copy.splitTimeNanos = splitTimeNanos;
+        copy.errorMargin = errorMargin;
+        return copy;
+    }
+
+    /** @return A copy of this profile, describing the node (which is the nodeIndex-th node of its tree). */
+    NodeProfile forNode(final SplitNode node, final int nodeIndex)
+    {
+        final NodeProfile copy = copy();
+        copy.nodeIndex = nodeIndex;
+        copy.splitAttrIndex = node.splitAttrIndex;
+        copy.splitPoint = node.splitPoint;
+        return copy;
+    }
+
+    /** @return The index of the node (in order of addition to the tree, from 0), or -1 if not known. */
+    public int getNodeIndex()
+    {
+        return nodeIndex;
+    }
+
+    /** @return The index of the attribute the node splits on, or -1 if not known. */
+    public int getSplitAttrIndex()
+    {
+        return splitAttrIndex;
+    }
+
+    /** @return The value of the attribute the node splits at. */
+    public double getSplitPoint()
+    {
+        return splitPoint;
+    }
+
+    /** @return The number of instances (over all bags) in the node. */
+    public int getNumInstances()
+    {
+        return numInstances;
+    }
+
+    /** @return The number of candidate splits evaluated, over all evaluations of the node. */
+    public long getNumCandidates()
+    {
+        return numCandidates;
+    }
+
+    /** @return The number of times the candidate splits of the node were evaluated. */
+    public int getNumEvaluations()
+    {
+        return numEvaluations;
+    }
+
+    /** @return The time (in seconds) spent generating and evaluating the candidate splits of the node. */
+    public double getSplitTime()
+    {
+        return splitTimeNanos / 1e9;
+    }
+
+    /**
+     * @return The error of the second best candidate split less that of the chosen split
+     *  (NaN if only one candidate was evaluated).
+     */
+    public double getErrorMargin()
+    {
+        return errorMargin;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d inst, %d candidates (%d evaluations), %.1f ms, margin %.3f",
+                numInstances, numCandidates, numEvaluations, splitTimeNanos / 1e6, errorMargin);
+    }
+}
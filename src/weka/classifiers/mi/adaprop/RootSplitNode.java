@@ -2,7 +2,12 @@ package weka.classifiers.mi.adaprop;
 
 import weka.core.Attribute;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
 
 public class RootSplitNode extends SplitNode
 {
@@ -10,7 +15,7 @@ public class RootSplitNode extends SplitNode
     private int nodeCount;
 
     /** Get the nodeCount */
-    int getNodeCount() { return this.nodeCount; }
+    public int getNodeCount() { return this.nodeCount; }
 
     /** Set the nodeCount and update the attribute-information */
     void setNodeCount(int nodeCount)
@@ -25,6 +30,12 @@ public class RootSplitNode extends SplitNode
     /** The propositionalisation strategy */
     private final PropositionalisationStrategy propStrategy;
 
+    /**
+     * Grows this tree, one node at a time (only set while the tree is being grown).
+     * This is serialised with the tree, so that growing can be resumed (see SplitNode.resumeTree).
+     */
+    private TreeGrower grower;
+
     /** Get the list of attributes */
     ArrayList<Attribute> getAttrInfo() { return this.attrInfo; }
 
@@ -52,6 +63,177 @@ public class RootSplitNode extends SplitNode
                 node.splitAttrIndex, node.splitPoint, node.left, node.right, node.curDepth, propStrategy);
     }
 
+    /**
+     * Deep-copy this tree.
+     *
+     * @param copies If not null, the copy of each node is recorded here (keyed by the original node).
+     * @return The copy of this tree.
+     */
+    RootSplitNode copyTree(final Map<SplitNode, SplitNode> copies)
+    {
+        final RootSplitNode copy = new RootSplitNode(propLeftIndex, propRightIndex, splitAttrIndex, splitPoint,
+                (left == null ? null : left.copySubtree(copies)),
+                (right == null ? null : right.copySubtree(copies)), curDepth, propStrategy);
+        copy.trainingSetError = trainingSetError;
+        copy.profile = (profile == null ? null : profile.copy());
+        copy.setNodeCount(nodeCount);
+        if (copies != null)
+        {
+            copies.put(this, copy);
+        }
+        return copy;
+    }
+
+    /**
+     * Replace this tree with the given tree.
+     *
+     * @param tree The tree whose nodes are to be taken over by this tree.
+     */
+    void setTree(final RootSplitNode tree)
+    {
+        propLeftIndex = tree.propLeftIndex;
+        propRightIndex = tree.propRightIndex;
+        splitAttrIndex = tree.splitAttrIndex;
+        splitPoint = tree.splitPoint;
+        trainingSetError = tree.trainingSetError;
+        profile = tree.profile;
+        left = tree.left;
+        right = tree.right;
+        setNodeCount(tree.nodeCount);
+    }
+
+    /** Start growing this tree, one node at a time, using the given grower */
+    void startGrowing(final TreeGrower grower)
+    {
+        this.grower = grower;
+    }
+
+    /**
+     * Resume growing this tree (e.g. after it has been deserialised), by giving the grower its parameters again.
+     *
+     * @param params The parameters for building the tree (the same as those it was started with).
+     */
+    void resumeGrowing(final TreeBuildingParams params)
+    {
+        if (grower != null)
+        {
+            grower.resume(params);
+        }
+    }
+
+    /** @return true if this tree is still being grown (i.e. more nodes may be added). */
+    public boolean isGrowing()
+    {
+        return grower != null;
+    }
+
+    /**
+     * Add the next node to this tree, as chosen by the search strategy which started growing it
+     *  (see SplitNode.startTree). Once the tree cannot be grown further, growing is finished.
+     *
+     * @return true if a node was added, false if the tree cannot be grown any further.
+     */
+    public boolean addNode() throws Exception
+    {
+        if (grower == null)
+        {
+            return false;
+        }
+        if (grower.addNode())
+        {
+            return true;
+        }
+        finishGrowing();
+        return false;
+    }
+
+    /** Stop growing this tree, releasing the state of the search which was growing it */
+    public void finishGrowing()
+    {
+        if (grower != null)
+        {
+            grower.finish();
+            grower = null;
+        }
+    }
+
+    /**
+     * Get the (split) nodes of this tree, in the order in which they were added.
+     * The k-th node added to a tree always propositionalises into the k-th pair of regions,
+     *  so the order of addition is recorded in the region indices of each node.
+     *
+     * @return The nodes of this tree, in order of addition.
+     */
+    List<SplitNode> getNodesInOrderOfAddition()
+    {
+        final int numAttrPerRegion = propStrategy.getNumPropAttrPerRegion();
+        final SplitNode[] nodes = new SplitNode[nodeCount];
+        final Deque<SplitNode> stack = new ArrayDeque<SplitNode>();
+        stack.push(this);
+        while (!stack.isEmpty())
+        {
+            final SplitNode node = stack.pop();
+            if (node.splitAttrIndex < 0)
+            {
+                continue; // leaf
+            }
+
+            final int nodeIndex = node.getNodeIndex(numAttrPerRegion);
+            if (nodeIndex < nodeCount)
+            {
+                nodes[nodeIndex] = node;
+            }
+            if (node.left != null) { stack.push(node.left); }
+            if (node.right != null) { stack.push(node.right); }
+        }
+        return Arrays.asList(nodes);
+    }
+
+    /**
+     * Truncate this tree to the given number of nodes, by removing all nodes added after the first nodeCount nodes.
+     * For search strategies which build nested trees (see SearchStrategy.buildsNestedTrees), the result is the
+     *  same tree as building the tree with nodeCount as the maximum node count.
+     *
+     * @param newNodeCount The number of nodes to keep.
+     */
+    void truncate(final int newNodeCount)
+    {
+        if (newNodeCount >= nodeCount)
+        {
+            return;
+        }
+
+        final List<SplitNode> nodes = getNodesInOrderOfAddition();
+        for (SplitNode node : nodes.subList(newNodeCount, nodes.size()))
+        {
+            // turn the node into a leaf:
+            node.splitAttrIndex = -1;
+            node.propLeftIndex = -1;
+            node.propRightIndex = -1;
+            node.left = null;
+            node.right = null;
+            node.profile = null;
+        }
+        setNodeCount(newNodeCount);
+    }
+
+    /**
+     * Get the profile of building each (split) node of this tree, in the order in which the nodes were added.
+     *
+     * @return The profile of each node (null for a node which was not profiled).
+     */
+    public List<NodeProfile> getNodeProfiles()
+    {
+        final List<SplitNode> nodes = getNodesInOrderOfAddition();
+        final List<NodeProfile> profiles = new ArrayList<NodeProfile>(nodes.size());
+        for (int nodeIndex = 0; nodeIndex < nodes.size(); nodeIndex++)
+        {
+            final SplitNode node = nodes.get(nodeIndex);
+            profiles.add((node == null || node.profile == null) ? null : node.profile.forNode(node, nodeIndex));
+        }
+        return profiles;
+    }
+
     private int getNumRegions()
     {
         // 2 regions per node, plus an extra one for the entire bag
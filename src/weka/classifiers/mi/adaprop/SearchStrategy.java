@@ -4,9 +4,17 @@ import weka.core.Instances;
 import weka.core.Tag;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 public abstract class SearchStrategy implements Serializable
 {
@@ -21,6 +29,79 @@ public abstract class SearchStrategy implements Serializable
     abstract RootSplitNode buildTree(final TreeBuildingParams params, final int instCount,
                                       final Instances trainingBags) throws Exception;
 
+    /**
+     * Build up the entire tree using this search strategy (as per buildTree),
+     *  emitting the JFR events for the start and the end of the build (see FlightRecorderEvents).
+     *
+     * @param params The parameters for building the tree.
+     * @return The root of the built tree.
+     */
+    final RootSplitNode buildTreeWithEvents(final TreeBuildingParams params) throws Exception
+    {
+        final String name = getClass().getSimpleName();
+        final int numBags = params.trainingBags.numInstances();
+        final FlightRecorderEvents.Event startEvent = FlightRecorderEvents.TREE_BUILD_START.begin();
+        if (startEvent != null)
+        {
+            startEvent.set(0, name).set(1, numBags).set(2, params.maxNodeCount).commit();
+        }
+
+        final FlightRecorderEvents.Event buildEvent = FlightRecorderEvents.TREE_BUILD.begin();
+        final RootSplitNode root = buildTree(params, params.instCount, params.trainingBags);
+        if (buildEvent != null)
+        {
+            buildEvent.set(0, name).set(1, numBags).set(2, params.maxNodeCount).set(3, root.getNodeCount()).commit();
+        }
+        return root;
+    }
+
+    /**
+     * Start growing a tree using this search strategy. The tree starts with no nodes,
+     *  and is grown one node at a time (see RootSplitNode.addNode), up to params.maxNodeCount nodes.
+     *
+     * By default, the whole tree is rebuilt (with one more node) each time a node is added.
+     *  Strategies which build up their trees one node at a time override this, so that
+     *  each node is added by continuing the search.
+     *
+     * @param params The parameters for building the tree.
+     * @return The root of the tree (with no nodes).
+     */
+    RootSplitNode startTree(final TreeBuildingParams params)
+    {
+        final RootSplitNode root = buildRoot(params.propStrategy);
+        root.setNodeCount(0);
+        root.startGrowing(new RebuildingTreeGrower(this, params, root));
+        return root;
+    }
+
+    /**
+     * Build up the entire tree, by growing it one node at a time until it cannot be grown further.
+     *
+     * @param params The parameters for building the tree.
+     * @return The root of the built tree.
+     */
+    protected RootSplitNode growTree(final TreeBuildingParams params) throws Exception
+    {
+        final RootSplitNode root = startTree(params);
+        while (root.addNode())
+        {
+            // keep growing.
+        }
+        return root;
+    }
+
+    /**
+     * Whether the trees built by this strategy are nested, i.e. whether the tree built with a smaller
+     *  maximum node count is always the same as the first few nodes of the tree built with a larger one.
+     * If so, every smaller tree can be found by truncating one large tree (see RootSplitNode.truncate).
+     *
+     * @return true if the trees are nested (the default), false otherwise.
+     */
+    public boolean buildsNestedTrees()
+    {
+        return true;
+    }
+
     /**
      * Build up the default root (a single root, with no specified split).
      *
@@ -38,17 +119,52 @@ public abstract class SearchStrategy implements Serializable
         return root;
     }
 
+    /** Construct a new node, given the numNodes and depth so far */
+    protected static SplitNode newChildNode(
+            final int numNodes, final int nextDepth, final int numAttrPerRegion)
+    {
+        int leftIndex = ((2*numNodes)+1)*numAttrPerRegion;
+        int rightIndex = leftIndex + numAttrPerRegion;
+        return new SplitNode(leftIndex, rightIndex, nextDepth);
+    }
+
+    /**
+     * Determine whether the node can be expanded.
+     *
+     * @param node The node to check.
+     * @param params Tree building parameters.
+     * @param ignoredInst The bitset indicating which instances are to be ignored.
+     * @return true if the node can be expanded, false otherwise.
+     */
+    protected static boolean isExpandable(
+            final SplitNode node, final TreeBuildingParams params,
+            final BitSet ignoredInst)
+    {
+        final int numInstInNode = params.instCount - ignoredInst.cardinality();
+        return (params.splitStrategy.canExpand(params.trainingBags, ignoredInst))
+                && (numInstInNode >= params.minOccupancy);
+    }
+
     // <editor-fold desc="===Option Handling===">
     private static final int SEARCH_BREADTH_FIRST = 1;
     private static final int SEARCH_BEST_FIRST = 2;
+    private static final int SEARCH_CACHED_BEST_FIRST = 3;
+    private static final int SEARCH_BEAM = 4;
+    private static final int SEARCH_LEVEL_BREADTH_FIRST = 5;
     public static final int DEFAULT_STRATEGY = SEARCH_BREADTH_FIRST;
     public static final String DESCRIPTION =
-            "Search strategy: 1=breadth-first (default), 2=best-first";
+            "Search strategy: 1=breadth-first (default), 2=best-first, 3=cached-best-first, 4=beam, " +
+                    "5=level-breadth-first";
 
     public static final Tag[] STRATEGIES =
     {
             new Tag(SEARCH_BREADTH_FIRST, "Build the tree using breadth first search"),
-            new Tag(SEARCH_BEST_FIRST, "Build the tree using best first search")
+            new Tag(SEARCH_BEST_FIRST, "Build the tree using best first search"),
+            new Tag(SEARCH_CACHED_BEST_FIRST, "Build the tree using best first search, " +
+                    "re-evaluating only the best few (cached) candidate splits of each node"),
+            new Tag(SEARCH_BEAM, "Build the tree using beam search, keeping the best few partial trees"),
+            new Tag(SEARCH_LEVEL_BREADTH_FIRST, "Build the tree using breadth first search, " +
+                    "expanding each level as one (parallel) batch")
     };
 
     /**
@@ -66,6 +182,12 @@ public abstract class SearchStrategy implements Serializable
                 return new BreadthFirstSearchStrategy();
             case SEARCH_BEST_FIRST:
                 return new BestFirstSearchStrategy();
+            case SEARCH_CACHED_BEST_FIRST:
+                return new CachedBestFirstSearchStrategy();
+            case SEARCH_BEAM:
+                return new BeamSearchStrategy();
+            case SEARCH_LEVEL_BREADTH_FIRST:
+                return new LevelBreadthFirstSearchStrategy();
             default:
                 throw new IllegalArgumentException(
                         "Unknown search strategy code: " + strategyID);
@@ -77,238 +199,1058 @@ public abstract class SearchStrategy implements Serializable
 /** Breadth-first search */
 class BreadthFirstSearchStrategy extends SearchStrategy
 {
-    /**
-     * Determine whether the node can be expanded.
-     *
-     * @param node The node to check.
-     * @param params Tree building parameters.
-     * @param ignoredInst The bitset indicating which instances are to be ignored.
-     * @return true if the node can be expanded, false otherwise.
-     */
-    protected static boolean isExpandable(
-            final SplitNode node, final TreeBuildingParams params,
-            final BitSet ignoredInst)
+    @Override /** @inheritDoc */
+    public RootSplitNode buildTree(final TreeBuildingParams params, final int instCount, final Instances trainingBags)
+            throws Exception
     {
-        final int numInstInNode = params.instCount - ignoredInst.cardinality();
-        return (params.splitStrategy.canExpand(params.trainingBags, ignoredInst))
-                && (numInstInNode >= params.minOccupancy);
+        return growTree(params);
     }
 
+    @Override /** @inheritDoc */
+    RootSplitNode startTree(final TreeBuildingParams params)
+    {
+        final RootSplitNode root = buildRoot(params.propStrategy);
+        root.setNodeCount(0);
+        root.startGrowing(new Grower(params, root));
+        return root;
+    }
+
+    /** Grows the tree in breadth-first order */
+    private static class Grower extends TreeGrower
+    {
+        /** The split nodes, in order, whose children are yet to be added */
+        private final Queue<Pair<SplitNode,BitSet>> border = new LinkedList<Pair<SplitNode,BitSet>>();
+
+        /** The node whose right child is to be added next (or null, to take the next node from the border) */
+        private SplitNode parent;
+
+        /** The partition of the instances in the parent node */
+        private RegionPartitioner parentCounter;
+
+        Grower(final TreeBuildingParams params, final RootSplitNode root)
+        {
+            super(params, root);
+        }
+
+        @Override /** @inheritDoc */
+        boolean addNextNode() throws Exception
+        {
+            final int numAttrPerRegion = params.propStrategy.getNumPropAttrPerRegion();
+            int numNodes = root.getNodeCount();
+            if (numNodes == 0)
+            {
+                // build the root:
+                final BitSet rootIgnoredInst = new BitSet(params.instCount);
+                if (params.maxNodeCount > 0 && isExpandable(root, params, rootIgnoredInst)) {
+                    splitNode(root, rootIgnoredInst, 1);
+                    border.add(new Pair<SplitNode, BitSet>(root, rootIgnoredInst));
+                    params.monitor.borderSize(border.size());
+                    return true;
+                } else {
+                    return false; // computation is complete.
+                }
+            }
+
+            while (numNodes < params.maxNodeCount)
+            {
+                if (parent == null)
+                {
+                    if (border.isEmpty()) {
+                        return false;
+                    }
+
+                    // take the first node, check if it's children can be expanded further:
+                    final Pair<SplitNode,BitSet> nodeMapPair = border.remove();
+                    parent = nodeMapPair.key;
+
+                    // partition the data-set into left and right sets:
+                    parentCounter = new RegionPartitioner(params.instCount);
+                    parent.filterDataset(params.trainingBags, nodeMapPair.value, parentCounter);
+
+                    // build the left node
+                    parent.left = newChildNode(numNodes, parent.curDepth + 1, numAttrPerRegion);
+                    if (expandChild(numNodes, parent.left, parentCounter.leftIgnore)) {
+                        return true;
+                    }
+                }
+
+                // build the right node
+                final SplitNode node = parent;
+                parent = null;
+                node.right = newChildNode(numNodes, node.curDepth + 1, numAttrPerRegion);
+                if (expandChild(numNodes, node.right, parentCounter.rightIgnore)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Attempt to expand the child node */
+        private boolean expandChild(final int numNodes, final SplitNode node, final BitSet ignore) throws Exception
+        {
+            if (isExpandable(node, params, ignore)) {
+                splitNode(node, ignore, numNodes + 1);
+                border.add(new Pair<SplitNode, BitSet>(node, ignore));
+                params.monitor.borderSize(border.size());
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+}
+
+class BestFirstSearchStrategy extends SearchStrategy
+{
     @Override /** @inheritDoc */
     public RootSplitNode buildTree(final TreeBuildingParams params, final int instCount, final Instances trainingBags)
             throws Exception
     {
-        // build the root:
-        final int numAttrPerRegion = params.propStrategy.getNumPropAttrPerRegion();
-        //int nextPropIndex = 3*numAttrPerRegion;
-        RootSplitNode root = buildRoot(params.propStrategy);
-        final BitSet rootIgnoredInst = new BitSet(instCount);
+        return growTree(params);
+    }
 
-        if (params.maxNodeCount > 0 && isExpandable(root, params, rootIgnoredInst)) {
-            root.computeBestSplit(params, rootIgnoredInst, root);
-        } else {
-            root.setNodeCount(0);
-            return root; // computation is complete.
+    @Override /** @inheritDoc */
+    RootSplitNode startTree(final TreeBuildingParams params)
+    {
+        final RootSplitNode root = buildRoot(params.propStrategy);
+        root.setNodeCount(0);
+        root.startGrowing(newGrower(params, root));
+        return root;
+    }
+
+    /** Create the object which grows the tree */
+    protected Grower newGrower(final TreeBuildingParams params, final RootSplitNode root)
+    {
+        return new Grower(params, root);
+    }
+
+    /** Grows the tree by expanding the best node on the border each time */
+    protected static class Grower extends TreeGrower
+    {
+        /** The list of expandable nodes (i.e. those which have at least one empty child) */
+        private final LinkedList<Pair<SplitNode, BitSet>> border = new LinkedList<Pair<SplitNode, BitSet>>();
+
+        Grower(final TreeBuildingParams params, final RootSplitNode root)
+        {
+            super(params, root);
+        }
+
+        @Override /** @inheritDoc */
+        boolean addNextNode() throws Exception
+        {
+            final int instCount = params.instCount;
+            final int numAttrPerRegion = params.propStrategy.getNumPropAttrPerRegion();
+            int nodeCount = root.getNodeCount();
+            if (nodeCount == 0)
+            {
+                // build the root:
+                final BitSet rootIgnoredInst = new BitSet(instCount);
+                if (instCount >= params.minOccupancy && params.maxNodeCount > 0) {
+                    splitNode(root, rootIgnoredInst, 1);
+                } else {
+                    return false; // computation is complete.
+                }
+
+                // initialise the border with the two children of the root.
+                root.left = new SplitNode(-1, -1, 1);
+                root.right = new SplitNode(-1, -1, 1);
+                RegionPartitioner rootCounter = new RegionPartitioner(instCount);
+                root.filterDataset(params.trainingBags, rootIgnoredInst, rootCounter);
+                if (params.splitStrategy.canExpand(params.trainingBags, rootCounter.leftIgnore))
+                {
+                    border.add(new Pair<SplitNode, BitSet>(root.left, rootCounter.leftIgnore));
+                }
+                if (params.splitStrategy.canExpand(params.trainingBags, rootCounter.rightIgnore))
+                {
+                    border.add(new Pair<SplitNode, BitSet>(root.right, rootCounter.rightIgnore));
+                }
+                params.monitor.borderSize(border.size());
+                return true;
+            }
+
+            if (border.isEmpty() || nodeCount >= params.maxNodeCount)
+            {
+                return false;
+            }
+
+            // adjust counters:
+            nodeCount++;
+            root.setNodeCount(nodeCount);
+            boolean expanded = false;
+            try
+            {
+                expanded = expandNode(instCount, numAttrPerRegion, nodeCount);
+            }
+            finally
+            {
+                if (!expanded)
+                {
+                    nodeCount--;
+                    root.setNodeCount(nodeCount);
+                }
+            }
+            return expanded;
         }
 
-        // structure the tree into an queue via breadth-first-search:
-        int numNodes = 1;
-        Queue<Pair<SplitNode,BitSet>> border = new LinkedList<Pair<SplitNode,BitSet>>();
-        border.add(new Pair<SplitNode, BitSet>(root, rootIgnoredInst));
+        @Override /** @inheritDoc */
+        void finish()
+        {
+            // clear (reset) the remaining leaf nodes:
+            for (Pair<SplitNode, BitSet> nodeMapPair: border)
+            {
+                final SplitNode node = nodeMapPair.key;
+                node.left = null;
+                node.right = null;
+                node.propLeftIndex = -1;
+                node.propRightIndex = -1;
+                node.splitAttrIndex = -1;
+                node.profile = null;
+            }
+        }
 
-        while(!border.isEmpty() && numNodes < params.maxNodeCount)
+        private boolean expandNode(final int instCount, final int numAttrPerRegion, final int nodeCount)
+                throws Exception
         {
-            // take the first node, check if it's children can be expanded further:
-            final Pair<SplitNode,BitSet> nodeMapPair = border.remove();
-            final SplitNode node = nodeMapPair.key;
-            final BitSet ignoredInst = nodeMapPair.value;
-            final int nextDepth = node.curDepth + 1;
+            // iterate over all split nodes and find the one with the least error
+            Pair<SplitNode, BitSet> bestSplit = null;
+
+            int bestSplitAttrIndex = -1;
+            double minErr = Double.MAX_VALUE;
+            for (Pair<SplitNode, BitSet> nodeMapPair : border)
+            {
+                final SplitNode node = nodeMapPair.key;
+                final BitSet ignoredInst = nodeMapPair.value;
 
-            // partition the data-set into left and right sets:
-            RegionPartitioner counter = new RegionPartitioner(instCount);
-            node.filterDataset(trainingBags, ignoredInst, counter);
+                // try expansion:
+                node.propLeftIndex = ((2*nodeCount)-1)*numAttrPerRegion;
+                node.propRightIndex = node.propLeftIndex + numAttrPerRegion;
 
-            // build the left and right nodes
-            node.left = newChildNode(numNodes, nextDepth, numAttrPerRegion);
-            if (expandChild(params, root, numNodes, border, node.left, counter.leftIgnore)) {
-                numNodes++;
+                final double nodeErr;
+                try
+                {
+                    nodeErr = evaluateNode(params, node, ignoredInst, root);
+                }
+                catch (OutOfTimeException e)
+                {
+                    // reset the node (leaving the tree as it was before this expansion):
+                    node.splitAttrIndex = -1;
+                    node.propLeftIndex = -1;
+                    node.propRightIndex = -1;
+                    throw e;
+                }
+                if (nodeErr < minErr)
+                {
+                    bestSplit = nodeMapPair;
+                    bestSplitAttrIndex = node.splitAttrIndex;
+                    minErr = nodeErr;
+                }
+
+                // reset the node (so that the other nodes in the border are unaffected):
+                node.splitAttrIndex = -1;
+                node.propLeftIndex = -1;
+                node.propRightIndex = -1;
             }
 
-            if (numNodes >= params.maxNodeCount) {
-                break;
+            if (bestSplit == null)
+            {
+                // no best-split found.
+                return false;
             }
+            else
+            {
+                // "use up" the bestSplit:
+                border.remove(bestSplit);
+                removedFromBorder(bestSplit.key);
+                final SplitNode bestNode = bestSplit.key;
+                final BitSet bestIgnoredInst = bestSplit.value;
+                bestNode.splitAttrIndex = bestSplitAttrIndex;
+                bestNode.propLeftIndex = ((2*nodeCount)-1)*numAttrPerRegion;
+                bestNode.propRightIndex = bestNode.propLeftIndex + numAttrPerRegion;
+                //nextPropIndex += 2*numAttrPerRegion;
+
+                // create 2 child nodes:
+                final int nextDepth = bestNode.curDepth + 1;
+                bestNode.left = new SplitNode(-1, -1, nextDepth);
+                bestNode.right = new SplitNode(-1, -1, nextDepth);
+                RegionPartitioner counter = new RegionPartitioner(instCount);
+                bestNode.filterDataset(params.trainingBags, bestIgnoredInst, counter);
 
-            node.right = newChildNode(numNodes, nextDepth, numAttrPerRegion);
-            if (expandChild(params, root, numNodes, border, node.right, counter.rightIgnore)) {
-                numNodes++;
+                // add the child nodes to the expandable node border:
+                if (params.splitStrategy.canExpand(params.trainingBags, counter.leftIgnore))
+                {
+                    border.add(new Pair<SplitNode, BitSet>(bestNode.left, counter.leftIgnore));
+                }
+                if (params.splitStrategy.canExpand(params.trainingBags, counter.rightIgnore))
+                {
+                    border.add(new Pair<SplitNode, BitSet>(bestNode.right, counter.rightIgnore));
+                }
+                params.monitor.nodesExpanded(1, nodeCount, params.maxNodeCount);
+                params.monitor.borderSize(border.size());
+                return true;
             }
         }
 
-        root.setNodeCount(numNodes);
-        return root;
+        /** Called when a node leaves the border (once it is expanded), e.g. to forget what was kept about it */
+        protected void removedFromBorder(final SplitNode node)
+        {
+        }
+
+        /**
+         * Find the best split of a node on the border (setting it in the node),
+         *  given the rest of the tree as it currently is.
+         *
+         * @param params The tree building parameters.
+         * @param node The node on the border.
+         * @param ignoredInst The instances which fall outside the node.
+         * @param root The root of the tree.
+         * @return The error of the best split.
+         */
+        protected double evaluateNode(final TreeBuildingParams params, final SplitNode node,
+                                      final BitSet ignoredInst, final RootSplitNode root) throws Exception
+        {
+            node.computeBestSplit(params, ignoredInst, root);
+            return node.trainingSetError;
+        }
     }
+}
 
-    /** Construct a new node, given the numNodes and depth so far */
-    private static SplitNode newChildNode(
-            final int numNodes, final int nextDepth, final int numAttrPerRegion)
+/**
+ * Best-first search, which remembers the ranking of the candidate splits of each node on the border.
+ *
+ * A node is fully evaluated (over all of its candidate splits) only once, when it first
+ *  reaches the border. In each later iteration, only its best few candidates (as per its
+ *  cached ranking) are re-evaluated against the current tree. Thus, building a tree of
+ *  N nodes takes O(N) full node searches (instead of O(N^2)).
+ */
+class CachedBestFirstSearchStrategy extends BestFirstSearchStrategy
+{
+    /** The number of (best) cached candidates to re-evaluate in each iteration */
+    static final int NUM_CANDIDATES_TO_REEVALUATE = 3;
+
+    @Override /** @inheritDoc */
+    protected Grower newGrower(final TreeBuildingParams params, final RootSplitNode root)
     {
-        int leftIndex = ((2*numNodes)+1)*numAttrPerRegion;
-        int rightIndex = leftIndex + numAttrPerRegion;
-        return new SplitNode(leftIndex, rightIndex, nextDepth);
+        return new CachingGrower(params, root);
     }
 
-    /** Attempt to expand the child node */
-    private static boolean expandChild(
-            final TreeBuildingParams params, final RootSplitNode root,
-            int numNodes, final Queue<Pair<SplitNode, BitSet>> border,
-            final SplitNode node, final BitSet ignore) throws Exception
+    /** Grows the tree by best-first search, caching the ranking of the candidate splits of each node */
+    private static class CachingGrower extends Grower
     {
-        if (isExpandable(node, params, ignore)) {
-            root.setNodeCount(numNodes + 1);
-            node.computeBestSplit(params, ignore, root);
-            border.add(new Pair<SplitNode, BitSet>(node, ignore));
-            return true;
-        } else {
-            return false;
+        /** The ranking of the candidate splits of each node on the border (best first) */
+        private final Map<SplitNode, List<ScoredSplit>> rankings = new IdentityHashMap<SplitNode, List<ScoredSplit>>();
+
+        CachingGrower(final TreeBuildingParams params, final RootSplitNode root)
+        {
+            super(params, root);
+        }
+
+        @Override /** @inheritDoc */
+        protected double evaluateNode(final TreeBuildingParams params, final SplitNode node,
+                                      final BitSet ignoredInst, final RootSplitNode root) throws Exception
+        {
+            final List<ScoredSplit> ranking = rankings.get(node);
+            if (ranking == null)
+            {
+                // first time on the border: evaluate every candidate
+                final List<CompPair<Integer, Double>> candidates = node.generateCandidateSplits(params, ignoredInst);
+                rankings.put(node, node.evaluateSplits(params, candidates, root));
+                return node.trainingSetError;
+            }
+
+            // re-evaluate only the best few candidates, leaving the rest of the ranking as is:
+            final int numToReevaluate = Math.min(NUM_CANDIDATES_TO_REEVALUATE, ranking.size());
+            final List<CompPair<Integer, Double>> best = new ArrayList<CompPair<Integer, Double>>(numToReevaluate);
+            for (ScoredSplit scoredSplit : ranking.subList(0, numToReevaluate))
+            {
+                best.add(scoredSplit.split);
+            }
+
+            // evaluate in candidate order (attribute, then split point), so that ties are broken
+            //  in the same way as when all candidates are evaluated
+            Collections.sort(best);
+
+            // the rest of the ranking is merged in by its cached errors, so that a candidate which now ranks
+            //  above the re-evaluated candidates is re-evaluated in the next iteration:
+            rankings.put(node, mergeRankings(node.evaluateSplits(params, best, root),
+                    ranking.subList(numToReevaluate, ranking.size())));
+            return node.trainingSetError;
+        }
+
+        @Override /** @inheritDoc */
+        protected void removedFromBorder(final SplitNode node)
+        {
+            rankings.remove(node);
+        }
+
+        @Override /** @inheritDoc */
+        void finish()
+        {
+            super.finish();
+            rankings.clear();
+        }
+    }
+
+    /**
+     * Merge two rankings of candidate splits (each from best to worst) into one.
+     *  Where two candidates are equally good, the one from the first ranking comes first.
+     *
+     * @return The merged ranking (from best to worst).
+     */
+    static List<ScoredSplit> mergeRankings(final List<ScoredSplit> first, final List<ScoredSplit> second)
+    {
+        final List<ScoredSplit> merged = new ArrayList<ScoredSplit>(first.size() + second.size());
+        int firstIndex = 0;
+        int secondIndex = 0;
+        while (firstIndex < first.size() && secondIndex < second.size())
+        {
+            if (second.get(secondIndex).compareTo(first.get(firstIndex)) < 0)
+            {
+                merged.add(second.get(secondIndex++));
+            }
+            else
+            {
+                merged.add(first.get(firstIndex++));
+            }
         }
+        merged.addAll(first.subList(firstIndex, first.size()));
+        merged.addAll(second.subList(secondIndex, second.size()));
+        return merged;
     }
 }
 
-/** Best-first search */
-class BestFirstSearchStrategy extends SearchStrategy
+/**
+ * Beam search: keeps the best few partial trees (the beam), rather than only the single best tree.
+ *
+ * In each iteration, every node on the border of every tree in the beam is evaluated (as independent
+ *  tasks, which may run in parallel). Each tree is expanded with its best few splits, and the best of
+ *  all the expanded trees form the next beam. Trees which can no longer be expanded stay in the beam
+ *  (as long as they are among the best). The best tree in the final beam is returned.
+ */
+class BeamSearchStrategy extends SearchStrategy
 {
+    @Override /** @inheritDoc */
+    public boolean buildsNestedTrees()
+    {
+        return false; // the best tree of a larger size may come from a different partial tree in the beam
+    }
+
+    /** The number of partial trees kept in the beam */
+    static final int BEAM_WIDTH = 4;
+
+    /** The number of (best) splits with which to expand each tree in the beam */
+    static final int NUM_EXPANSIONS_PER_TREE = 2;
+
     @Override /** @inheritDoc */
     public RootSplitNode buildTree(final TreeBuildingParams params, final int instCount, final Instances trainingBags)
             throws Exception
     {
         // build the root:
         final int numAttrPerRegion = params.propStrategy.getNumPropAttrPerRegion();
-        //int nextPropIndex = 3 * numAttrPerRegion;
         RootSplitNode root = buildRoot(params.propStrategy);
         final BitSet rootIgnoredInst = new BitSet(instCount);
+        root.setNodeCount(0);
 
-        if (instCount >= params.minOccupancy && params.maxNodeCount > 0) {
-            root.computeBestSplit(params, rootIgnoredInst, root);
-        } else {
-            root.setNodeCount(0);
+        if (params.maxNodeCount <= 0 || !isExpandable(root, params, rootIgnoredInst)) {
             return root; // computation is complete.
         }
 
-        // structure the search by keeping a list of expandable nodes
-        //  (i.e. those which have at least one empty child.
-        int nodeCount = 1;
-        LinkedList<Pair<SplitNode, BitSet>> border = new LinkedList<Pair<SplitNode, BitSet>>();
+        // the initial beam has just the (not yet split) root on its border:
+        final List<Pair<SplitNode, BitSet>> rootBorder = new ArrayList<Pair<SplitNode, BitSet>>();
+        rootBorder.add(new Pair<SplitNode, BitSet>(root, rootIgnoredInst));
+        List<BeamTree> beam = new ArrayList<BeamTree>();
+        beam.add(new BeamTree(root, rootBorder, Double.MAX_VALUE));
+
+        while (canExpandAny(beam, params) && !params.monitor.isOutOfTime())
+        {
+            params.monitor.checkCancelled();
+
+            // evaluate each node on the border of each tree:
+            final List<NodeEvaluationTask> tasks = new ArrayList<NodeEvaluationTask>();
+            for (BeamTree tree : beam)
+            {
+                if (tree.canExpand(params))
+                {
+                    for (Pair<SplitNode, BitSet> borderNode : tree.border)
+                    {
+                        // the node would be the next node of the tree:
+                        tasks.add(new NodeEvaluationTask(params, tree.root, borderNode.key, borderNode.value,
+                                tree.root.getNodeCount() + 1));
+                    }
+                }
+            }
+            params.monitor.borderSize(tasks.size());
+            final List<List<ScoredSplit>> results;
+            try
+            {
+                results = params.taskRunner.invokeAll(tasks);
+            }
+            catch (OutOfTimeException e)
+            {
+                break; // keep the current beam.
+            }
+
+            // expand each tree with its best few splits (or keep it as is if it cannot be expanded)
+            final List<BeamTree> expandedTrees = new ArrayList<BeamTree>();
+            int taskIndex = 0;
+            for (BeamTree tree : beam)
+            {
+                if (!tree.canExpand(params))
+                {
+                    expandedTrees.add(tree);
+                    continue;
+                }
+
+                final List<Expansion> expansions = new ArrayList<Expansion>();
+                for (int borderIndex = 0; borderIndex < tree.border.size(); borderIndex++)
+                {
+                    for (ScoredSplit split : results.get(taskIndex++))
+                    {
+                        expansions.add(new Expansion(borderIndex, split));
+                    }
+                }
+                Collections.sort(expansions);
+
+                final int numExpansions = Math.min(NUM_EXPANSIONS_PER_TREE, expansions.size());
+                for (Expansion expansion : expansions.subList(0, numExpansions))
+                {
+                    expandedTrees.add(tree.expand(params, expansion, numAttrPerRegion));
+                }
+            }
+
+            // the next beam holds the best (distinct) trees:
+            Collections.sort(expandedTrees);
+            beam = new ArrayList<BeamTree>(BEAM_WIDTH);
+            final Set<String> signatures = new HashSet<String>();
+            for (BeamTree tree : expandedTrees)
+            {
+                if (beam.size() < BEAM_WIDTH && signatures.add(signature(tree.root)))
+                {
+                    beam.add(tree);
+                }
+            }
+        }
+
+        // the beam is sorted, so the first tree is the best:
+        return beam.get(0).root;
+    }
 
-        // initialise the border with the two children of the root.
-        root.left = new SplitNode(-1, -1, 1);
-        root.right = new SplitNode(-1, -1, 1);
-        RegionPartitioner rootCounter = new RegionPartitioner(instCount);
-        root.filterDataset(trainingBags, rootIgnoredInst, rootCounter);
-        if (params.splitStrategy.canExpand(params.trainingBags, rootCounter.leftIgnore))
+    /** Check whether any of the trees in the beam can be expanded further */
+    private static boolean canExpandAny(final List<BeamTree> beam, final TreeBuildingParams params)
+    {
+        for (BeamTree tree : beam)
         {
-            border.add(new Pair<SplitNode, BitSet>(root.left, rootCounter.leftIgnore));
+            if (tree.canExpand(params))
+            {
+                return true;
+            }
         }
-        if (params.splitStrategy.canExpand(params.trainingBags, rootCounter.rightIgnore))
+        return false;
+    }
+
+    /** Describe the splits of the subtree (but not the prop-indices), to detect trees which are the same */
+    private static String signature(final SplitNode node)
+    {
+        if (node == null || node.splitAttrIndex < 0)
         {
-            border.add(new Pair<SplitNode, BitSet>(root.right, rootCounter.rightIgnore));
+            return ".";
         }
+        return "(" + node.splitAttrIndex + "<=" + node.splitPoint + " " +
+                signature(node.left) + " " + signature(node.right) + ")";
+    }
+
+    /** A partial tree in the beam, along with its border of expandable nodes and its error */
+    private static class BeamTree implements Comparable<BeamTree>
+    {
+        final RootSplitNode root;
+        final List<Pair<SplitNode, BitSet>> border;
+        final double error;
 
-        while(!border.isEmpty() && nodeCount < params.maxNodeCount)
+        BeamTree(final RootSplitNode root, final List<Pair<SplitNode, BitSet>> border, final double error)
         {
-            // adjust counters:
-            nodeCount++;
-            root.setNodeCount(nodeCount);
-            if (!expandNode(params, instCount, numAttrPerRegion, root, nodeCount, border))
+            this.root = root;
+            this.border = border;
+            this.error = error;
+        }
+
+        boolean canExpand(final TreeBuildingParams params)
+        {
+            return !border.isEmpty() && root.getNodeCount() < params.maxNodeCount;
+        }
+
+        /**
+         * Expand a copy of this tree, by splitting a node on its border.
+         * @return The expanded copy of the tree (this tree is unchanged).
+         */
+        BeamTree expand(final TreeBuildingParams params, final Expansion expansion, final int numAttrPerRegion)
+        {
+            // copy the tree, and the border (so that it refers to the nodes of the copy):
+            final Map<SplitNode, SplitNode> copies = new IdentityHashMap<SplitNode, SplitNode>();
+            final RootSplitNode newRoot = root.copyTree(copies);
+            final List<Pair<SplitNode, BitSet>> newBorder = new ArrayList<Pair<SplitNode, BitSet>>(border.size() + 1);
+            for (int borderIndex = 0; borderIndex < border.size(); borderIndex++)
+            {
+                if (borderIndex != expansion.borderIndex)
+                {
+                    final Pair<SplitNode, BitSet> borderNode = border.get(borderIndex);
+                    newBorder.add(new Pair<SplitNode, BitSet>(copies.get(borderNode.key), borderNode.value));
+                }
+            }
+
+            // set the split:
+            final int nodeCount = newRoot.getNodeCount() + 1;
+            final SplitNode node = copies.get(border.get(expansion.borderIndex).key);
+            final BitSet ignoredInst = border.get(expansion.borderIndex).value;
+            node.splitAttrIndex = expansion.split.split.key;
+            node.splitPoint = expansion.split.split.value;
+            node.trainingSetError = expansion.split.error;
+            node.propLeftIndex = ((2*nodeCount)-1)*numAttrPerRegion;
+            node.propRightIndex = node.propLeftIndex + numAttrPerRegion;
+            newRoot.setNodeCount(nodeCount);
+            params.monitor.nodesExpanded(1, nodeCount, params.maxNodeCount);
+
+            // create 2 child nodes, and add them to the border if they are expandable:
+            final int nextDepth = node.curDepth + 1;
+            node.left = new SplitNode(-1, -1, nextDepth);
+            node.right = new SplitNode(-1, -1, nextDepth);
+            RegionPartitioner counter = new RegionPartitioner(params.instCount);
+            node.filterDataset(params.trainingBags, ignoredInst, counter);
+            if (isExpandable(node.left, params, counter.leftIgnore))
+            {
+                newBorder.add(new Pair<SplitNode, BitSet>(node.left, counter.leftIgnore));
+            }
+            if (isExpandable(node.right, params, counter.rightIgnore))
             {
-                nodeCount--;
-                root.setNodeCount(nodeCount);
-                break;
+                newBorder.add(new Pair<SplitNode, BitSet>(node.right, counter.rightIgnore));
             }
+
+            return new BeamTree(newRoot, newBorder, expansion.split.error);
         }
 
-        // clear (reset) the remaining leaf nodes:
-        for (Pair<SplitNode, BitSet> nodeMapPair: border)
+        /** @inheritDoc */
+        @Override
+        public int compareTo(final BeamTree o)
         {
-            final SplitNode node = nodeMapPair.key;
-            node.left = null;
-            node.right = null;
-            node.propLeftIndex = -1;
-            node.propRightIndex = -1;
-            node.splitAttrIndex = -1;
+            return ScoredSplit.compareErrors(error, o.error);
         }
+    }
 
-        root.setNodeCount(nodeCount);
+    /** A candidate expansion of a tree: a split of one of the nodes on its border */
+    private static class Expansion implements Comparable<Expansion>
+    {
+        final int borderIndex;
+        final ScoredSplit split;
+
+        Expansion(final int borderIndex, final ScoredSplit split)
+        {
+            this.borderIndex = borderIndex;
+            this.split = split;
+        }
+
+        /** @inheritDoc */
+        @Override
+        public int compareTo(final Expansion o)
+        {
+            return split.compareTo(o.split);
+        }
+    }
+}
+
+/**
+ * Level-synchronous breadth-first search.
+ *
+ * Each level of the tree is expanded as one batch: the expandable children of all the nodes
+ *  on the current level are numbered (in order of their parents, left before right), and are
+ *  then evaluated as independent tasks (which may run in parallel). Each child is evaluated
+ *  against the tree of all previous levels (its siblings are not yet split), so the resulting
+ *  tree does not depend on the number of threads. The children on a level are then added to the
+ *  tree one at a time (so that the tree can be grown, and checkpointed, a node at a time).
+ */
+class LevelBreadthFirstSearchStrategy extends SearchStrategy
+{
+    @Override /** @inheritDoc */
+    public RootSplitNode buildTree(final TreeBuildingParams params, final int instCount, final Instances trainingBags)
+            throws Exception
+    {
+        return growTree(params);
+    }
+
+    @Override /** @inheritDoc */
+    RootSplitNode startTree(final TreeBuildingParams params)
+    {
+        final RootSplitNode root = buildRoot(params.propStrategy);
+        root.setNodeCount(0);
+        root.startGrowing(new Grower(params, root));
         return root;
     }
 
-    private boolean expandNode(final TreeBuildingParams params,
-                               final int instCount, final int numAttrPerRegion,
-                               final RootSplitNode root, final int nodeCount,
-                               final LinkedList<Pair<SplitNode, BitSet>> border) throws Exception
+    /**
+     * Grows the tree one level at a time: the children on a level are evaluated as one batch (when the first of them
+     *  is to be added), and are then added one at a time, in the order in which they were numbered. Each child is
+     *  added along with the unexpandable children created before it, so the tree after each node is the same as the
+     *  tree built with that many nodes.
+     */
+    private static class Grower extends TreeGrower
     {
-        // iterate over all split nodes and find the one with the least error
-        Pair<SplitNode, BitSet> bestSplit = null;
+        /** The nodes added so far on the last level of the tree, whose children are to be evaluated next */
+        private List<Pair<SplitNode, BitSet>> level = new ArrayList<Pair<SplitNode, BitSet>>();
 
-        int bestSplitAttrIndex = -1;
-        double minErr = Double.MAX_VALUE;
-        for (Pair<SplitNode, BitSet> nodeMapPair : border)
+        /** The children evaluated on the next level, in order, which are yet to be added to the tree */
+        private final Queue<Child> pending = new LinkedList<Child>();
+
+        Grower(final TreeBuildingParams params, final RootSplitNode root)
         {
-            final SplitNode node = nodeMapPair.key;
-            final BitSet ignoredInst = nodeMapPair.value;
+            super(params, root);
+        }
 
-            // try expansion:
-            node.propLeftIndex = ((2*nodeCount)-1)*numAttrPerRegion;
-            node.propRightIndex = node.propLeftIndex + numAttrPerRegion;
-            node.computeBestSplit(params, ignoredInst, root);
+        @Override /** @inheritDoc */
+        boolean addNextNode() throws Exception
+        {
+            if (root.getNodeCount() == 0)
+            {
+                // build the root:
+                final BitSet rootIgnoredInst = new BitSet(params.instCount);
+                if (params.maxNodeCount > 0 && isExpandable(root, params, rootIgnoredInst)) {
+                    splitNode(root, rootIgnoredInst, 1);
+                    level.add(new Pair<SplitNode, BitSet>(root, rootIgnoredInst));
+                    return true;
+                } else {
+                    return false; // computation is complete.
+                }
+            }
 
-            final double nodeErr = node.trainingSetError;
-            if (nodeErr < minErr)
+            // add the next child on this level, or else evaluate the next level and add its first child:
+            Child child = attachNextExpandableChild();
+            if (child == null)
             {
-                bestSplit = nodeMapPair;
-                bestSplitAttrIndex = node.splitAttrIndex;
-                minErr = nodeErr;
+                if (!evaluateNextLevel())
+                {
+                    return false;
+                }
+                child = attachNextExpandableChild();
+                if (child == null)
+                {
+                    return false; // none of the children can be expanded.
+                }
             }
 
-            // reset the node (so that the other nodes in the border are unaffected):
-            node.splitAttrIndex = -1;
-            node.propLeftIndex = -1;
-            node.propRightIndex = -1;
+            child.node.splitAttrIndex = child.bestSplit.split.key;
+            child.node.splitPoint = child.bestSplit.split.value;
+            child.node.trainingSetError = child.bestSplit.error;
+            final int nodeCount = root.getNodeCount() + 1;
+            root.setNodeCount(nodeCount);
+            level.add(new Pair<SplitNode, BitSet>(child.node, child.ignoredInst));
+            params.monitor.nodesExpanded(1, nodeCount, params.maxNodeCount);
+            return true;
         }
 
-        if (bestSplit == null)
+        /**
+         * Attach the pending children to the tree (as leaves), up to the next child which can be expanded.
+         *
+         * @return The child which can be expanded (attached, but not yet split), or null if there is none.
+         */
+        private Child attachNextExpandableChild()
         {
-            // no best-split found.
-            return false;
+            while (!pending.isEmpty())
+            {
+                final Child child = pending.remove();
+                child.attach();
+                if (child.bestSplit != null)
+                {
+                    return child;
+                }
+            }
+            return null;
         }
-        else
+
+        /**
+         * Create the children of each node on the last level (numbered as in breadth-first search), and evaluate
+         *  those which can be expanded, leaving them all pending (i.e. detached from the tree).
+         *
+         * @return false if there are no more nodes to add.
+         * @throws OutOfTimeException If the time budget runs out (after leaving the tree as it was).
+         */
+        private boolean evaluateNextLevel() throws Exception
         {
-            // "use up" the bestSplit:
-            border.remove(bestSplit);
-            final SplitNode bestNode = bestSplit.key;
-            final BitSet bestIgnoredInst = bestSplit.value;
-            bestNode.splitAttrIndex = bestSplitAttrIndex;
-            bestNode.propLeftIndex = ((2*nodeCount)-1)*numAttrPerRegion;
-            bestNode.propRightIndex = bestNode.propLeftIndex + numAttrPerRegion;
-            //nextPropIndex += 2*numAttrPerRegion;
+            final int numNodes = root.getNodeCount();
+            if (level.isEmpty() || numNodes >= params.maxNodeCount)
+            {
+                return false;
+            }
 
-            // create 2 child nodes:
-            final int nextDepth = bestNode.curDepth + 1;
-            bestNode.left = new SplitNode(-1, -1, nextDepth);
-            bestNode.right = new SplitNode(-1, -1, nextDepth);
-            RegionPartitioner counter = new RegionPartitioner(instCount);
-            bestNode.filterDataset(params.trainingBags, bestIgnoredInst, counter);
+            // create the children of each node on this level, keeping those which can be expanded:
+            final int numAttrPerRegion = params.propStrategy.getNumPropAttrPerRegion();
+            final List<Child> children = new ArrayList<Child>();
+            final List<Child> expandable = new ArrayList<Child>();
+            for (Pair<SplitNode, BitSet> nodeMapPair : level)
+            {
+                if (numNodes + expandable.size() >= params.maxNodeCount) {
+                    break;
+                }
 
-            // add the child nodes to the expandable node border:
-            if (params.splitStrategy.canExpand(params.trainingBags, counter.leftIgnore))
+                final SplitNode node = nodeMapPair.key;
+                final int nextDepth = node.curDepth + 1;
+                RegionPartitioner counter = new RegionPartitioner(params.instCount);
+                node.filterDataset(params.trainingBags, nodeMapPair.value, counter);
+
+                node.left = newChildNode(numNodes + expandable.size(), nextDepth, numAttrPerRegion);
+                addChild(new Child(node, true, counter.leftIgnore), children, expandable);
+
+                if (numNodes + expandable.size() >= params.maxNodeCount) {
+                    break;
+                }
+
+                node.right = newChildNode(numNodes + expandable.size(), nextDepth, numAttrPerRegion);
+                addChild(new Child(node, false, counter.rightIgnore), children, expandable);
+            }
+
+            // evaluate each of the children (against the tree of all previous levels):
+            params.monitor.borderSize(expandable.size());
+            final List<NodeEvaluationTask> tasks = new ArrayList<NodeEvaluationTask>(expandable.size());
+            for (int childIndex = 0; childIndex < expandable.size(); childIndex++)
             {
-                border.add(new Pair<SplitNode, BitSet>(bestNode.left, counter.leftIgnore));
+                final Child child = expandable.get(childIndex);
+                tasks.add(new NodeEvaluationTask(params, root, child.node, child.ignoredInst,
+                        numNodes + childIndex + 1));
             }
-            if (params.splitStrategy.canExpand(params.trainingBags, counter.rightIgnore))
+            final List<List<ScoredSplit>> results;
+            try
             {
-                border.add(new Pair<SplitNode, BitSet>(bestNode.right, counter.rightIgnore));
+                results = params.taskRunner.invokeAll(tasks);
             }
+            finally
+            {
+                for (Child child : children)
+                {
+                    child.detach();
+                }
+            }
+
+            for (int childIndex = 0; childIndex < expandable.size(); childIndex++)
+            {
+                expandable.get(childIndex).bestSplit = results.get(childIndex).get(0);
+            }
+            pending.addAll(children);
+            level = new ArrayList<Pair<SplitNode, BitSet>>();
             return true;
         }
+
+        /** Add the child to the children of the next level (and to those to evaluate, if it can be expanded) */
+        private void addChild(final Child child, final List<Child> children, final List<Child> expandable)
+        {
+            children.add(child);
+            if (isExpandable(child.node, params, child.ignoredInst)) {
+                expandable.add(child);
+            }
+        }
+    }
+
+    /** A child created on the next level (which is only part of the tree once it is attached to its parent) */
+    private static class Child implements Serializable
+    {
+        private final SplitNode parent;
+        private final boolean isLeft;
+        private final SplitNode node;
+
+        /** The instances which fall outside the child */
+        private final BitSet ignoredInst;
+
+        /** The best split of the child (or null, if it cannot be expanded) */
+        private ScoredSplit bestSplit;
+
+        Child(final SplitNode parent, final boolean isLeft, final BitSet ignoredInst)
+        {
+            this.parent = parent;
+            this.isLeft = isLeft;
+            this.node = isLeft ? parent.left : parent.right;
+            this.ignoredInst = ignoredInst;
+        }
+
+        void attach()
+        {
+            if (isLeft) { parent.left = node; } else { parent.right = node; }
+        }
+
+        void detach()
+        {
+            if (isLeft) { parent.left = null; } else { parent.right = null; }
+        }
+    }
+}
+
+/**
+ * Grows a tree one node at a time (see RootSplitNode.addNode), keeping the state of the search
+ *  between the nodes. The tree is valid (and may be used for propositionalisation) after each node.
+ *
+ * The grower is serialised along with its tree (so that growing can be checkpointed and resumed),
+ *  but the parameters are not: they must be given again to resume growing (see resume).
+ */
+abstract class TreeGrower implements Serializable
+{
+    protected transient TreeBuildingParams params;
+    protected final RootSplitNode root;
+
+    TreeGrower(final TreeBuildingParams params, final RootSplitNode root)
+    {
+        this.params = params;
+        this.root = root;
+    }
+
+    /**
+     * Resume growing (e.g. after the tree and this grower have been deserialised).
+     *
+     * @param params The parameters for building the tree (the same as those it was started with).
+     */
+    void resume(final TreeBuildingParams params)
+    {
+        this.params = params;
+    }
+
+    /**
+     * Add the next node to the tree, unless the time budget has run out
+     *  (in which case, the tree is left as it was before the node).
+     *
+     * @return true if a node was added, false if the tree cannot be grown any further.
+     */
+    boolean addNode() throws Exception
+    {
+        params.monitor.checkCancelled();
+        if (params.monitor.isOutOfTime())
+        {
+            return false;
+        }
+        try
+        {
+            return addNextNode();
+        }
+        catch (OutOfTimeException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Add the next node to the tree.
+     *
+     * @return true if a node was added, false if the tree cannot be grown any further.
+     * @throws OutOfTimeException If the time budget runs out (after leaving the tree as it was before the node).
+     */
+    abstract boolean addNextNode() throws Exception;
+
+    /**
+     * Split the node (i.e. compute its best split), as the nodeCount-th node of the tree.
+     * If the time budget runs out, the node and the tree are left as they were.
+     */
+    protected void splitNode(final SplitNode node, final BitSet ignoredInst, final int nodeCount) throws Exception
+    {
+        root.setNodeCount(nodeCount);
+        try
+        {
+            node.computeBestSplit(params, ignoredInst, root);
+        }
+        catch (OutOfTimeException e)
+        {
+            node.splitAttrIndex = -1;
+            root.setNodeCount(nodeCount - 1);
+            throw e;
+        }
+        params.monitor.nodesExpanded(1, nodeCount, params.maxNodeCount);
+    }
+
+    /** Tidy up the tree, once it is no longer being grown */
+    void finish()
+    {
+        // nothing to tidy up, by default.
+    }
+}
+
+/** Grows a tree by rebuilding it (with one more node) each time, for search strategies which cannot do better */
+class RebuildingTreeGrower extends TreeGrower
+{
+    private final SearchStrategy strategy;
+
+    RebuildingTreeGrower(final SearchStrategy strategy, final TreeBuildingParams params, final RootSplitNode root)
+    {
+        super(params, root);
+        this.strategy = strategy;
+    }
+
+    @Override /** @inheritDoc */
+    boolean addNextNode() throws Exception
+    {
+        final int nodeCount = root.getNodeCount();
+        if (nodeCount >= params.maxNodeCount)
+        {
+            return false;
+        }
+
+        final TreeBuildingParams nextParams = params.withMaxNodeCount(nodeCount + 1);
+        final RootSplitNode nextTree = strategy.buildTree(nextParams, params.instCount, params.trainingBags);
+        if (nextTree.getNodeCount() <= nodeCount)
+        {
+            return false;
+        }
+        root.setTree(nextTree);
+        return true;
+    }
+}
+
+/**
+ * Evaluates all candidate splits of a node, using private copies of the tree (and of the classifier),
+ *  so that several nodes (of the same or different trees) can be evaluated in parallel.
+ */
+class NodeEvaluationTask implements Callable<List<ScoredSplit>>
+{
+    private final TreeBuildingParams params;
+    private final EvaluationStrategy evalStrategy;
+    private final RootSplitNode root;
+    private final SplitNode node;
+    private final BitSet ignoredInst;
+    private final int nodeCount;
+
+    /**
+     * The tasks must be created in a fixed order (see EvaluationStrategy.forParallelTask), so that the
+     *  evaluations do not depend on the order in which they run (nor on the number of threads).
+     *
+     * @param params The tree building parameters.
+     * @param root The root of the tree containing the node (which is not modified).
+     * @param node The node to evaluate.
+     * @param ignoredInst The instances which fall outside the node.
+     * @param nodeCount The number of nodes in the tree, when the node is added as the last node.
+     */
+    NodeEvaluationTask(final TreeBuildingParams params, final RootSplitNode root, final SplitNode node,
+                       final BitSet ignoredInst, final int nodeCount)
+    {
+        this.params = params;
+        this.evalStrategy = params.evalStrategy.forParallelTask();
+        this.root = root;
+        this.node = node;
+        this.ignoredInst = ignoredInst;
+        this.nodeCount = nodeCount;
+    }
+
+    /**
+     * @return The evaluated candidate splits of the node, from best to worst.
+     */
+    @Override
+    public List<ScoredSplit> call() throws Exception
+    {
+        final TreeBuildingParams taskParams = params.forParallelTask(evalStrategy);
+        final int numAttrPerRegion = params.propStrategy.getNumPropAttrPerRegion();
+
+        // the node is added as the last node of the (copied) tree:
+        final Map<SplitNode, SplitNode> copies = new IdentityHashMap<SplitNode, SplitNode>();
+        final RootSplitNode rootCopy = root.copyTree(copies);
+        rootCopy.setNodeCount(nodeCount);
+        final SplitNode nodeCopy = copies.get(node);
+        nodeCopy.propLeftIndex = ((2*nodeCount)-1)*numAttrPerRegion;
+        nodeCopy.propRightIndex = nodeCopy.propLeftIndex + numAttrPerRegion;
+
+        final List<CompPair<Integer, Double>> candidates = nodeCopy.generateCandidateSplits(taskParams, ignoredInst);
+        final List<ScoredSplit> scoredSplits = nodeCopy.evaluateSplits(taskParams, candidates, rootCopy);
+
+        // the node is not used by any other task, so its profile can be updated from that of the copy:
+        node.profile = nodeCopy.profile;
+        return scoredSplits;
     }
 }
 
@@ -1,5 +1,6 @@
 package weka.classifiers.mi.adaprop;
 
+import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.classifiers.mi.AdaProp;
 import weka.core.Attribute;
@@ -10,7 +11,11 @@ import weka.core.Instances;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * Represents a single split point (a node in the adaSplitTree).
@@ -48,6 +53,9 @@ public class SplitNode implements Serializable
     /** The index of the propositionalised data-set to store the right-count result */
     int propRightIndex;
 
+    /** The profile of building this node (null unless profiling, see BuildMonitor.setProfiling) */
+    NodeProfile profile;
+
     SplitNode(final int propLeftIndex, final int propRightIndex, final int splitAttrIndex, final double splitPoint,
               final SplitNode left, final SplitNode right, final int curDepth)
     {
@@ -72,6 +80,26 @@ public class SplitNode implements Serializable
         this(propLeftIndex, propRightIndex, -1, 0, null, null, curDepth);
     }
 
+    /**
+     * Deep-copy the subtree rooted at this node.
+     *
+     * @param copies If not null, the copy of each node is recorded here (keyed by the original node).
+     * @return The copy of this node.
+     */
+    SplitNode copySubtree(final Map<SplitNode, SplitNode> copies)
+    {
+        final SplitNode copy = new SplitNode(propLeftIndex, propRightIndex, splitAttrIndex, splitPoint,
+                (left == null ? null : left.copySubtree(copies)),
+                (right == null ? null : right.copySubtree(copies)), curDepth);
+        copy.trainingSetError = trainingSetError;
+        copy.profile = (profile == null ? null : profile.copy());
+        if (copies != null)
+        {
+            copies.put(this, copy);
+        }
+        return copy;
+    }
+
     @Override
     public String toString()
     {
@@ -87,7 +115,12 @@ public class SplitNode implements Serializable
         final String splitPtStr = String.format("%.3f", splitPoint);
 
         result.append(prefix).append("attr-").append(splitAttrIndex).append(" <= ")
-                .append(splitPtStr).append(": region ").append(propLeftIndex).append("\n");
+                .append(splitPtStr).append(": region ").append(propLeftIndex);
+        if (profile != null)
+        {
+            result.append("  [").append(profile).append("]");
+        }
+        result.append("\n");
         if (this.left != null && this.left.splitAttrIndex >= 0)
         {
             this.left.toStringRecursive(result, newPrefix);
@@ -118,31 +151,145 @@ public class SplitNode implements Serializable
     void computeBestSplit(final TreeBuildingParams params, final BitSet ignoredInst, final RootSplitNode root)
             throws Exception
     {
-        List<CompPair<Integer, Double>> candidateSplits =
-                params.splitStrategy.generateSplitPoints(params.trainingBags, ignoredInst);
+        params.monitor.checkCancelled();
+        List<CompPair<Integer, Double>> candidateSplits = generateCandidateSplits(params, ignoredInst);
+
+        evaluateSplits(params, candidateSplits, root);
+    }
 
-        double minErr = Double.MAX_VALUE;
-        CompPair<Integer, Double> bestSplit = null;
-        for (CompPair<Integer, Double> curSplit : candidateSplits)
+    /**
+     * Generate the (distinct) candidate splits of this node, recording the number generated
+     *  and the time taken in the monitor (and in the profile of this node, if profiling).
+     *
+     * @param params The tree building parameters.
+     * @param ignoredInst The instances in the data-set to ignore (because they fall outside this node).
+     * @return The candidate splits.
+     */
+    List<CompPair<Integer, Double>> generateCandidateSplits(final TreeBuildingParams params,
+                                                            final BitSet ignoredInst) throws Exception
+    {
+        final long start = System.nanoTime();
+        final List<CompPair<Integer, Double>> candidateSplits =
+                params.splitStrategy.generateDistinctSplitPoints(params.trainingBags, ignoredInst, params.taskRunner);
+        final long elapsed = System.nanoTime() - start;
+
+        final BuildCounters counters = params.monitor.counters();
+        counters.splitGenerationNanos += elapsed;
+        counters.numCandidatesGenerated += candidateSplits.size();
+        if (params.monitor.isProfiling())
         {
-            this.splitAttrIndex = curSplit.key;
-            this.splitPoint = curSplit.value;
+            getOrCreateProfile().recordSplitGeneration(params.instCount - ignoredInst.cardinality(), elapsed);
+        }
+        return candidateSplits;
+    }
+
+    /**
+     * Get the index of this node (in order of addition to its tree).
+     * The k-th node added to a tree always propositionalises into the k-th pair of regions,
+     *  i.e. the regions (2k-1) and 2k (counting from 1).
+     *
+     * @param numAttrPerRegion The number of propositionalised attributes per region.
+     * @return The index of this node (from 0).
+     */
+    int getNodeIndex(final int numAttrPerRegion)
+    {
+        return ((propLeftIndex / numAttrPerRegion) - 1) / 2;
+    }
+
+    /** @return The profile of building this node (null unless the build was profiled). */
+    public NodeProfile getProfile()
+    {
+        return profile;
+    }
 
-            // evaluate error on split:
-            final Instances propDataset = SplitNode.propositionaliseDataset(params.trainingBags, root, params.propStrategy);
-            double err = params.evalStrategy.evaluateDataset(propDataset, params.classifier);
+    private NodeProfile getOrCreateProfile()
+    {
+        if (profile == null)
+        {
+            profile = new NodeProfile();
+        }
+        return profile;
+    }
 
-            if (err < minErr)
+    /**
+     * Evaluate each of the candidate splits for this node,
+     * then set the best split (least training-set error) in the current node.
+     *
+     * @param params The tree building parameters.
+     * @param candidateSplits The candidate splits to evaluate.
+     * @param root The root of this tree.
+     * @return The evaluated candidate splits, ordered from least to greatest error
+     *  (candidates with equal error remain in their original order).
+     * @throws OutOfTimeException If the time budget runs out before all candidates are evaluated.
+     * @throws InterruptedException If the build is cancelled before all candidates are evaluated.
+     */
+    List<ScoredSplit> evaluateSplits(final TreeBuildingParams params,
+                                     final List<CompPair<Integer, Double>> candidateSplits,
+                                     final RootSplitNode root) throws Exception
+    {
+        // the classifiers trained by the evaluation strategy are recorded in the counters of this thread:
+        final BuildCounters counters = params.monitor.counters();
+        final BuildCounters previousCounters = counters.activate();
+        final List<ScoredSplit> scoredSplits = new ArrayList<ScoredSplit>(candidateSplits.size());
+        final long start = System.nanoTime();
+        final FlightRecorderEvents.Event nodeEvent = FlightRecorderEvents.NODE_EXPANSION.begin();
+        final int nodeId = getNodeIndex(params.propStrategy.getNumPropAttrPerRegion());
+        final CandidateRows rows;
+        try
+        {
+            // only the columns of this node (and its subtree) differ between the candidates,
+            // so the rest of each propositionalised bag is computed once, for all candidates:
+            final long propStartBytes = MemoryMeter.getAllocatedBytes();
+            final long propStart = System.nanoTime();
+            rows = new CandidateRows(params, this, root);
+            counters.propositionalisationNanos += System.nanoTime() - propStart;
+            counters.propositionalisationBytes += MemoryMeter.getAllocatedBytes() - propStartBytes;
+
+            for (CompPair<Integer, Double> curSplit : candidateSplits)
             {
-                minErr = err;
-                bestSplit = curSplit;
+                params.monitor.checkTime();
+                this.splitAttrIndex = curSplit.key;
+                this.splitPoint = curSplit.value;
+
+                // evaluate error on split (timing the evaluation apart from the nested training, etc):
+                final FlightRecorderEvents.Event candidateEvent = FlightRecorderEvents.CANDIDATE_EVALUATION.begin();
+                final long evalStart = System.nanoTime();
+                final long nestedStart = counters.getNestedNanos();
+                double err = params.evalStrategy.evaluateRows(rows.getHeader(), rows, params.classifier);
+                counters.evaluationNanos += (System.nanoTime() - evalStart) - (counters.getNestedNanos() - nestedStart);
+                if (candidateEvent != null)
+                {
+                    candidateEvent.set(0, nodeId).set(1, curSplit.key).set(2, curSplit.value).set(3, err).commit();
+                }
+
+                scoredSplits.add(new ScoredSplit(curSplit, err));
+                params.monitor.candidateEvaluated(scoredSplits.size(), candidateSplits.size());
             }
+            counters.numNodesEvaluated++;
+        }
+        finally
+        {
+            BuildCounters.deactivate(previousCounters);
         }
 
-        // set the best split:
-        this.splitAttrIndex = bestSplit.key;
-        this.splitPoint = bestSplit.value;
-        this.trainingSetError = minErr;
+        // set the best split (the sort is stable, so the first of any equally good splits is chosen):
+        Collections.sort(scoredSplits);
+        final ScoredSplit bestSplit = scoredSplits.get(0);
+        this.splitAttrIndex = bestSplit.split.key;
+        this.splitPoint = bestSplit.split.value;
+        this.trainingSetError = bestSplit.error;
+        if (nodeEvent != null)
+        {
+            nodeEvent.set(0, nodeId).set(1, curDepth).set(2, rows.getNumInstances()).set(3, scoredSplits.size())
+                    .set(4, bestSplit.error).commit();
+        }
+        if (params.monitor.isProfiling())
+        {
+            final double errorMargin = (scoredSplits.size() > 1) ?
+                    scoredSplits.get(1).error - bestSplit.error : Double.NaN;
+            getOrCreateProfile().recordEvaluation(scoredSplits.size(), System.nanoTime() - start, errorMargin);
+        }
+        return scoredSplits;
     }
 
     /**
@@ -154,13 +301,86 @@ public class SplitNode implements Serializable
      * @param maxTreeSize The maximum size of the tree.
      * @param minOccupancy The minimum occupancy of each node.
      * @param propStrategy
+     * @param taskRunner For running independent tasks in parallel.
+     * @return The root of the split-tree
+     */
+    public static RootSplitNode buildTree(Instances trainingBags, final SplitStrategy splitStrategy, final int maxTreeSize,
+                                          final int minOccupancy, final Classifier classifier,
+                                          final SearchStrategy searchStrategy,
+                                          final PropositionalisationStrategy propStrategy,
+                                          final EvaluationStrategy evalStrategy,
+                                          final TaskRunner taskRunner) throws Exception
+    {
+        return buildTree(trainingBags, splitStrategy, maxTreeSize, minOccupancy, classifier, searchStrategy,
+                propStrategy, evalStrategy, taskRunner, new BuildMonitor());
+    }
+
+    /**
+     * Build up the tree of splits, within the time budget of the monitor.
+     * If the budget runs out, the best complete tree found so far is returned.
+     * The other parameters are as per buildTree (above).
+     *
+     * @param monitor For checking the time budget and counting the work done.
      * @return The root of the split-tree
      */
     public static RootSplitNode buildTree(Instances trainingBags, final SplitStrategy splitStrategy, final int maxTreeSize,
                                           final int minOccupancy, final Classifier classifier,
                                           final SearchStrategy searchStrategy,
                                           final PropositionalisationStrategy propStrategy,
-                                          final EvaluationStrategy evalStrategy) throws Exception
+                                          final EvaluationStrategy evalStrategy,
+                                          final TaskRunner taskRunner, final BuildMonitor monitor) throws Exception
+    {
+        TreeBuildingParams params = toParams(trainingBags, splitStrategy, maxTreeSize, minOccupancy, classifier,
+                propStrategy, evalStrategy, taskRunner, monitor);
+
+        return searchStrategy.buildTreeWithEvents(params);
+    }
+
+    /**
+     * Start growing a tree of splits. The tree starts with no nodes, and is grown one node
+     *  at a time (see RootSplitNode.addNode), continuing the search each time.
+     * The parameters are as per buildTree.
+     *
+     * @return The root of the (empty) split-tree.
+     */
+    public static RootSplitNode startTree(Instances trainingBags, final SplitStrategy splitStrategy,
+                                          final int maxTreeSize, final int minOccupancy,
+                                          final Classifier classifier, final SearchStrategy searchStrategy,
+                                          final PropositionalisationStrategy propStrategy,
+                                          final EvaluationStrategy evalStrategy,
+                                          final TaskRunner taskRunner, final BuildMonitor monitor)
+    {
+        return searchStrategy.startTree(toParams(trainingBags, splitStrategy, maxTreeSize, minOccupancy,
+                classifier, propStrategy, evalStrategy, taskRunner, monitor));
+    }
+
+    /**
+     * Resume growing a tree which was started by startTree, and then serialised and deserialised
+     *  (e.g. when resuming from a checkpoint). The parameters must be the same as those given to startTree
+     *  (apart from the taskRunner and monitor), so that the tree grows as if it had never been interrupted.
+     *
+     * @param root The root of the (partly grown) tree.
+     * @return The root of the tree, ready to be grown further.
+     */
+    public static RootSplitNode resumeTree(final RootSplitNode root, Instances trainingBags,
+                                           final SplitStrategy splitStrategy,
+                                           final int maxTreeSize, final int minOccupancy,
+                                           final Classifier classifier,
+                                           final PropositionalisationStrategy propStrategy,
+                                           final EvaluationStrategy evalStrategy,
+                                           final TaskRunner taskRunner, final BuildMonitor monitor)
+    {
+        root.resumeGrowing(toParams(trainingBags, splitStrategy, maxTreeSize, minOccupancy,
+                classifier, propStrategy, evalStrategy, taskRunner, monitor));
+        return root;
+    }
+
+    private static TreeBuildingParams toParams(Instances trainingBags, final SplitStrategy splitStrategy,
+                                               final int maxTreeSize, final int minOccupancy,
+                                               final Classifier classifier,
+                                               final PropositionalisationStrategy propStrategy,
+                                               final EvaluationStrategy evalStrategy,
+                                               final TaskRunner taskRunner, final BuildMonitor monitor)
     {
         // count the number of instances in all the bags:
         int instCount = 0;
@@ -169,11 +389,8 @@ public class SplitNode implements Serializable
             instCount += bag.relationalValue(REL_INDEX).size();
         }
 
-        TreeBuildingParams params = new TreeBuildingParams(maxTreeSize, minOccupancy, trainingBags,
-                instCount, splitStrategy, propStrategy, evalStrategy, classifier);
-
-        return searchStrategy.buildTree(params, instCount, trainingBags);
-
+        return new TreeBuildingParams(maxTreeSize, minOccupancy, trainingBags,
+                instCount, splitStrategy, propStrategy, evalStrategy, classifier, taskRunner, monitor);
     }
     //</editor-fold>
 
@@ -187,12 +404,7 @@ public class SplitNode implements Serializable
     public static Instances propositionaliseDataset(Instances bags, RootSplitNode root,
                                                     PropositionalisationStrategy propStrategy)
     {
-        // build up instance header
-        final ArrayList<Attribute> attrInfo = new ArrayList<Attribute>(root.getAttrInfo()); // shallow copy
-        attrInfo.add((Attribute) bags.classAttribute().copy()); // class
-
-        Instances propositionalisedDataset = new Instances(bags.relationName() +"-prop", attrInfo, bags.numInstances());
-        propositionalisedDataset.setClassIndex(attrInfo.size() - 1);
+        Instances propositionalisedDataset = createPropositionalisedHeader(bags, root, bags.numInstances());
 
         // propositionalise each bag and add it to the set
         for (Instance bag : bags) {
@@ -202,6 +414,59 @@ public class SplitNode implements Serializable
         return propositionalisedDataset;
     }
 
+    /**
+     * Create the header (an empty dataset) for the propositionalised bags.
+     *
+     * @param bags The MI dataset.
+     * @param root The root node of the tree to propositionalise with.
+     * @param capacity The number of bags the dataset is expected to hold.
+     * @return The empty propositionalised dataset.
+     */
+    static Instances createPropositionalisedHeader(Instances bags, RootSplitNode root, int capacity)
+    {
+        final ArrayList<Attribute> attrInfo = new ArrayList<Attribute>(root.getAttrInfo()); // shallow copy
+        attrInfo.add((Attribute) bags.classAttribute().copy()); // class
+
+        Instances header = new Instances(bags.relationName() +"-prop", attrInfo, capacity);
+        header.setClassIndex(attrInfo.size() - 1);
+        return header;
+    }
+
+    /**
+     * Select the columns of a propositionalised dataset which belong to the first few nodes of its tree.
+     * For a tree whose nodes are numbered in order of addition, this is the same as propositionalising
+     *  with the tree truncated to that many nodes (see RootSplitNode.truncate), without filtering the bags again.
+     *
+     * @param propDataset The dataset, propositionalised with the whole tree.
+     * @param nodeCount The number of nodes of the tree to keep.
+     * @param propStrategy The propositionalisation strategy used for the dataset.
+     * @return The dataset, as propositionalised by the first nodeCount nodes.
+     */
+    public static Instances selectPrefix(Instances propDataset, int nodeCount,
+                                         PropositionalisationStrategy propStrategy)
+    {
+        // 2 regions per node, plus an extra one for the entire bag
+        final int numPropAttr = (2*nodeCount+1) * propStrategy.getNumPropAttrPerRegion();
+        final ArrayList<Attribute> attrInfo = new ArrayList<Attribute>(numPropAttr + 1);
+        for (int attrIndex = 0; attrIndex < numPropAttr; attrIndex++)
+        {
+            attrInfo.add((Attribute) propDataset.attribute(attrIndex).copy());
+        }
+        attrInfo.add((Attribute) propDataset.classAttribute().copy()); // class
+
+        Instances prefixDataset = new Instances(propDataset.relationName(), attrInfo, propDataset.numInstances());
+        prefixDataset.setClassIndex(attrInfo.size() - 1);
+
+        for (Instance inst : propDataset)
+        {
+            final double[] attrValues = new double[numPropAttr + 1];
+            System.arraycopy(inst.toDoubleArray(), 0, attrValues, 0, numPropAttr);
+            attrValues[numPropAttr] = inst.classValue(); // set class val
+            prefixDataset.add(new DenseInstance(inst.weight(), attrValues));
+        }
+        return prefixDataset;
+    }
+
     /**
      * Propositionalise the bag into a single instance.
      *
@@ -335,11 +600,57 @@ final class TreeBuildingParams implements Serializable
     public final PropositionalisationStrategy propStrategy;
     public final EvaluationStrategy evalStrategy;
     public final Classifier classifier;
+    public final TaskRunner taskRunner;
+    public final BuildMonitor monitor;
+
+    /**
+     * Get the parameters for use by a task which runs in parallel with other tasks.
+     * Such a task gets its own copy of the classifier, and runs any sub-tasks in its own thread.
+     *
+     * @param taskEvalStrategy The evaluation strategy of the task (see EvaluationStrategy.forParallelTask).
+     * @return The parameters for the task.
+     */
+    TreeBuildingParams forParallelTask(final EvaluationStrategy taskEvalStrategy) throws Exception
+    {
+        if (taskRunner.getNumThreads() == 1)
+        {
+            return (taskEvalStrategy == evalStrategy) ? this : new TreeBuildingParams(maxNodeCount, minOccupancy,
+                    trainingBags, instCount, splitStrategy, propStrategy, taskEvalStrategy, classifier,
+                    taskRunner, monitor);
+        }
+        return new TreeBuildingParams(maxNodeCount, minOccupancy, trainingBags, instCount, splitStrategy,
+                propStrategy, taskEvalStrategy, AbstractClassifier.makeCopy(classifier), new TaskRunner(1), monitor);
+    }
+
+    /** Get the same parameters, but with a different maximum node count */
+    TreeBuildingParams withMaxNodeCount(final int newMaxNodeCount)
+    {
+        return new TreeBuildingParams(newMaxNodeCount, minOccupancy, trainingBags, instCount, splitStrategy,
+                propStrategy, evalStrategy, classifier, taskRunner, monitor);
+    }
 
     TreeBuildingParams(final int maxNodeCount, final int minOccupancy, final Instances trainingBags,
                        final int instCount, final SplitStrategy splitStrategy,
                        final PropositionalisationStrategy propStrategy, final EvaluationStrategy evalStrategy,
                        final Classifier classifier)
+    {
+        this(maxNodeCount, minOccupancy, trainingBags, instCount, splitStrategy, propStrategy, evalStrategy,
+                classifier, new TaskRunner(1));
+    }
+
+    TreeBuildingParams(final int maxNodeCount, final int minOccupancy, final Instances trainingBags,
+                       final int instCount, final SplitStrategy splitStrategy,
+                       final PropositionalisationStrategy propStrategy, final EvaluationStrategy evalStrategy,
+                       final Classifier classifier, final TaskRunner taskRunner)
+    {
+        this(maxNodeCount, minOccupancy, trainingBags, instCount, splitStrategy, propStrategy, evalStrategy,
+                classifier, taskRunner, new BuildMonitor());
+    }
+
+    TreeBuildingParams(final int maxNodeCount, final int minOccupancy, final Instances trainingBags,
+                       final int instCount, final SplitStrategy splitStrategy,
+                       final PropositionalisationStrategy propStrategy, final EvaluationStrategy evalStrategy,
+                       final Classifier classifier, final TaskRunner taskRunner, final BuildMonitor monitor)
     {
         this.maxNodeCount = maxNodeCount;
         this.minOccupancy = minOccupancy;
@@ -349,6 +660,293 @@ final class TreeBuildingParams implements Serializable
         this.trainingBags = trainingBags;
         this.instCount = instCount;
         this.splitStrategy = splitStrategy;
+        this.taskRunner = taskRunner;
+        this.monitor = monitor;
+    }
+}
+
+/**
+ * The propositionalised training bags, as split by each candidate split of one node.
+ *
+ * The columns of all the regions outside the node (and its subtree) are the same for every candidate,
+ *  so they are computed once. Each bag is then propositionalised by only the node (as currently split),
+ *  starting from the instances which reach the node. The rows are generated afresh on each iteration,
+ *  so the propositionalised dataset for a candidate need never be held in memory as a whole.
+ */
+class CandidateRows implements Iterable<Instance>
+{
+    private final SplitNode node;
+    private final PropositionalisationStrategy propStrategy;
+    private final Instances header;
+
+    /** The instances of each bag */
+    private final Instances[] bags;
+
+    /** For each bag, the instances which do not reach the node */
+    private final BitSet[] ignoredByNode;
+
+    /** For each bag, the propositionalised values (and class value) with the node as a leaf */
+    private final double[][] sharedValues;
+
+    /** The columns of the node and its subtree (i.e. those which are not shared) */
+    private final BitSet changedColumns;
+
+    /** A fingerprint of the shared values of every bag (computed when first needed, see fingerprint) */
+    private Fingerprint sharedFingerprint;
+
+    /** For each bag, the values of the changed columns with the node split as given by the two fields below */
+    private double[][] changedValues;
+    private int changedValuesAttrIndex = -1;
+    private double changedValuesSplitPoint;
+
+    /** The number of instances (over all bags) which reach the node */
+    private int numInstances;
+
+    /**
+     * @param params The tree building parameters.
+     * @param node The node whose candidate splits are to be evaluated.
+     * @param root The root of the tree containing the node.
+     */
+    CandidateRows(final TreeBuildingParams params, final SplitNode node, final RootSplitNode root)
+    {
+        this.node = node;
+        this.propStrategy = params.propStrategy;
+        final int numBags = params.trainingBags.numInstances();
+        this.header = SplitNode.createPropositionalisedHeader(params.trainingBags, root, 0);
+        this.bags = new Instances[numBags];
+        this.ignoredByNode = new BitSet[numBags];
+        this.sharedValues = new double[numBags][];
+        this.changedColumns = new BitSet(header.numAttributes());
+        addColumns(node, params.propStrategy.getNumPropAttrPerRegion());
+
+        // compute the shared values with the node as a leaf (i.e. leaving its columns as 0):
+        final int splitAttrIndex = node.splitAttrIndex;
+        node.splitAttrIndex = -1;
+        try
+        {
+            for (int bagIndex = 0; bagIndex < numBags; bagIndex++)
+            {
+                final Instance bag = params.trainingBags.instance(bagIndex);
+                bags[bagIndex] = bag.relationalValue(SplitNode.REL_INDEX);
+                ignoredByNode[bagIndex] = findIgnored(root, bags[bagIndex], new BitSet(bags[bagIndex].size()));
+                numInstances += bags[bagIndex].size() - ignoredByNode[bagIndex].cardinality();
+                sharedValues[bagIndex] = SplitNode.propositionaliseBag(bag, root, header, propStrategy).toDoubleArray();
+            }
+        }
+        finally
+        {
+            node.splitAttrIndex = splitAttrIndex;
+        }
+    }
+
+    /** @return The number of instances (over all bags) which reach the node. */
+    int getNumInstances()
+    {
+        return numInstances;
+    }
+
+    /** @return The number of rows (i.e. of bags). */
+    int getNumRows()
+    {
+        return bags.length;
+    }
+
+    /** @return The header (an empty dataset) of the rows. */
+    Instances getHeader()
+    {
+        return header;
+    }
+
+    /**
+     * @return For each bag, the propositionalised values (and class value) which are the same for every
+     *  candidate split. The changed columns (see getChangedColumns) are 0. Must not be modified.
+     */
+    double[][] getSharedValues()
+    {
+        return sharedValues;
+    }
+
+    /** @return The columns of the node and its subtree (i.e. those which depend on the split of the node). */
+    BitSet getChangedColumns()
+    {
+        return changedColumns;
+    }
+
+    /**
+     * Fingerprint the rows for the node as currently split (as would adding each row to a Fingerprint,
+     *  but with the shared values of each row added before the values of its changed columns).
+     *
+     * The shared values are fingerprinted once, for all candidates, so only the changed columns of each
+     *  bag are computed for a candidate. They are kept until the split of the node changes, so iterating
+     *  over the rows of the same candidate afterwards does not propositionalise the bags again.
+     *
+     * @return The fingerprint of the rows.
+     */
+    Fingerprint fingerprint()
+    {
+        if (sharedFingerprint == null)
+        {
+            sharedFingerprint = new Fingerprint();
+            for (double[] attrValues : sharedValues)
+            {
+                for (int attrIndex = 0; attrIndex < attrValues.length; attrIndex++)
+                {
+                    if (!changedColumns.get(attrIndex))
+                    {
+                        sharedFingerprint.add(attrValues[attrIndex]);
+                    }
+                }
+                sharedFingerprint.add(1.0); // the weight of the row
+            }
+        }
+
+        if (!hasChangedValues())
+        {
+            changedValues = new double[bags.length][];
+            for (int bagIndex = 0; bagIndex < bags.length; bagIndex++)
+            {
+                changedValues[bagIndex] = getChangedValues(propositionaliseRow(bagIndex));
+            }
+            changedValuesAttrIndex = node.splitAttrIndex;
+            changedValuesSplitPoint = node.splitPoint;
+        }
+
+        final Fingerprint fingerprint = new Fingerprint(sharedFingerprint);
+        for (double[] attrValues : changedValues)
+        {
+            for (double value : attrValues)
+            {
+                fingerprint.add(value);
+            }
+        }
+        return fingerprint;
+    }
+
+    /** @return Whether the values of the changed columns have been computed for the node as currently split. */
+    private boolean hasChangedValues()
+    {
+        return changedValues != null && changedValuesAttrIndex == node.splitAttrIndex
+                && Double.compare(changedValuesSplitPoint, node.splitPoint) == 0;
+    }
+
+    /** @return The values of the changed columns of the row, in order. */
+    private double[] getChangedValues(final double[] attrValues)
+    {
+        final double[] values = new double[changedColumns.cardinality()];
+        int valueIndex = 0;
+        for (int attrIndex = changedColumns.nextSetBit(0); attrIndex >= 0;
+             attrIndex = changedColumns.nextSetBit(attrIndex + 1))
+        {
+            values[valueIndex++] = attrValues[attrIndex];
+        }
+        return values;
+    }
+
+    /** @return The propositionalised values (and class value) of the bag, with the node as currently split. */
+    private double[] propositionaliseRow(final int bagIndex)
+    {
+        // fill in the columns of the node (and its subtree), as currently split:
+        final double[] attrValues = sharedValues[bagIndex].clone();
+        if (node.splitAttrIndex >= 0)
+        {
+            node.propositionaliseBag(bags[bagIndex], attrValues, ignoredByNode[bagIndex], propStrategy);
+        }
+        return attrValues;
+    }
+
+    /** @return The values of the row of the bag, reusing the values of its changed columns if already computed. */
+    private double[] getRow(final int bagIndex)
+    {
+        if (!hasChangedValues())
+        {
+            return propositionaliseRow(bagIndex);
+        }
+
+        final double[] attrValues = sharedValues[bagIndex].clone();
+        int valueIndex = 0;
+        for (int attrIndex = changedColumns.nextSetBit(0); attrIndex >= 0;
+             attrIndex = changedColumns.nextSetBit(attrIndex + 1))
+        {
+            attrValues[attrIndex] = changedValues[bagIndex][valueIndex++];
+        }
+        return attrValues;
+    }
+
+    /** Add the columns of the regions of the node, and of each (split) node in its subtree */
+    private void addColumns(final SplitNode cur, final int numAttrPerRegion)
+    {
+        changedColumns.set(cur.propLeftIndex, cur.propLeftIndex + numAttrPerRegion);
+        changedColumns.set(cur.propRightIndex, cur.propRightIndex + numAttrPerRegion);
+        if (cur.left != null && cur.left.splitAttrIndex >= 0)
+        {
+            addColumns(cur.left, numAttrPerRegion);
+        }
+        if (cur.right != null && cur.right.splitAttrIndex >= 0)
+        {
+            addColumns(cur.right, numAttrPerRegion);
+        }
+    }
+
+    /**
+     * Find the instances of the bag which do not reach the node.
+     *
+     * @param cur The current node (on the path from the root to the node).
+     * @param bag The instances of the bag.
+     * @param ignore The instances of the bag which do not reach the current node.
+     * @return The instances which do not reach the node, or null if the node is not in the subtree of cur.
+     */
+    private BitSet findIgnored(final SplitNode cur, final Instances bag, final BitSet ignore)
+    {
+        if (cur == node)
+        {
+            return ignore;
+        }
+        if (cur == null || cur.splitAttrIndex < 0)
+        {
+            return null;
+        }
+
+        final RegionPartitioner partitioner = new RegionPartitioner(bag.size());
+        cur.filterBag(bag, ignore, partitioner);
+        final BitSet ignoredOnLeft = findIgnored(cur.left, bag, partitioner.leftIgnore);
+        return (ignoredOnLeft != null) ? ignoredOnLeft : findIgnored(cur.right, bag, partitioner.rightIgnore);
+    }
+
+    @Override /** @inheritDoc */
+    public Iterator<Instance> iterator()
+    {
+        return new Iterator<Instance>()
+        {
+            private int bagIndex = 0;
+
+            @Override /** @inheritDoc */
+            public boolean hasNext()
+            {
+                return bagIndex < bags.length;
+            }
+
+            @Override /** @inheritDoc */
+            public Instance next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+
+                final double[] attrValues = getRow(bagIndex);
+                bagIndex++;
+
+                final Instance row = new DenseInstance(1.0, attrValues);
+                row.setDataset(header);
+                return row;
+            }
+
+            @Override /** @inheritDoc */
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 }
 
@@ -369,4 +967,38 @@ class RegionPartitioner implements Serializable
         rightIgnore = new BitSet(numInst);
         instIndex = 0;
     }
-}
\ No newline at end of file
+}
+
+/** A candidate split, along with its error when evaluated at a node. Ordered by error. */
+class ScoredSplit implements Comparable<ScoredSplit>, Serializable
+{
+    public final CompPair<Integer, Double> split;
+    public final double error;
+
+    ScoredSplit(final CompPair<Integer, Double> split, final double error)
+    {
+        this.split = split;
+        this.error = error;
+    }
+
+    /** @inheritDoc */
+    @Override
+    public int compareTo(final ScoredSplit o)
+    {
+        return compareErrors(error, o.error);
+    }
+
+    /** Compare errors as per '<' (so that -0.0 and 0.0 are equal), except that NaN is worse than any error */
+    static int compareErrors(final double error, final double otherError)
+    {
+        if (error < otherError) { return -1; }
+        if (error > otherError) { return 1; }
+        return (Double.isNaN(error) ? 1 : 0) - (Double.isNaN(otherError) ? 1 : 0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return split + ": " + error;
+    }
+}
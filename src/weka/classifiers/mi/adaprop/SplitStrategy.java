@@ -6,9 +6,13 @@ import weka.core.Tag;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 /**
  * A strategy for generating candidate splits
@@ -24,6 +28,124 @@ public abstract class SplitStrategy implements Serializable
     public abstract List<CompPair<Integer, Double>> generateSplitPoints(final Instances trainingData,
                                                                  final BitSet ignore);
 
+    /**
+     * Generate all candidate splits using the current split strategy, using the runner
+     *  for any work which can be done in parallel. By default, this is done in the calling thread.
+     * @param trainingData The training data (as bags)
+     * @param ignore The bitSet of instances to ignore.
+     * @param runner For running tasks in parallel.
+     * @return A list of candidate splits
+     */
+    public List<CompPair<Integer, Double>> generateSplitPoints(final Instances trainingData,
+                                                               final BitSet ignore, final TaskRunner runner)
+            throws Exception
+    {
+        return generateSplitPoints(trainingData, ignore);
+    }
+
+    /**
+     * @return true if the number of candidate splits of a node grows with the number of instances in it
+     *  (rather than only with the number of attributes), e.g. for estimating the cost of a build.
+     */
+    public boolean candidatesGrowWithInstances()
+    {
+        return false;
+    }
+
+    /**
+     * Generate the candidate splits (as per generateSplitPoints), keeping only one split for each distinct
+     *  partition of the instances: splits which put exactly the same instances on the left would give the
+     *  same propositionalised dataset, so only the first of them needs to be evaluated.
+     * @param trainingData The training data (as bags)
+     * @param ignore The bitSet of instances to ignore.
+     * @param runner For running tasks in parallel.
+     * @return A list of candidate splits, which all partition the instances differently
+     */
+    public List<CompPair<Integer, Double>> generateDistinctSplitPoints(final Instances trainingData,
+                                                                       final BitSet ignore, final TaskRunner runner)
+            throws Exception
+    {
+        return removeEquivalentSplits(trainingData, ignore, generateSplitPoints(trainingData, ignore, runner));
+    }
+
+    /**
+     * Remove the splits which partition the (non-ignored) instances in the same way as an earlier split.
+     * @param trainingData The training data (as bags)
+     * @param ignore The bitSet of instances to ignore.
+     * @param candidates The candidate splits.
+     * @return The first candidate split for each distinct partition (in the original order).
+     */
+    static List<CompPair<Integer, Double>> removeEquivalentSplits(final Instances trainingData, final BitSet ignore,
+                                                                  final List<CompPair<Integer, Double>> candidates)
+    {
+        if (candidates.size() <= 1)
+        {
+            return candidates;
+        }
+
+        // the values of each attribute (only of the instances in the node), gathered when first needed:
+        final int numAttr = trainingData.instance(0).relationalValue(SplitNode.REL_INDEX).numAttributes();
+        final double[][] values = new double[numAttr][];
+
+        // identify each partition by the set of instances on its left:
+        final Set<BitSet> partitions = new HashSet<BitSet>();
+        final List<CompPair<Integer, Double>> distinctSplits = new ArrayList<CompPair<Integer, Double>>();
+        for (CompPair<Integer, Double> candidate : candidates)
+        {
+            final int attrIndex = candidate.key;
+            if (values[attrIndex] == null)
+            {
+                values[attrIndex] = findValues(trainingData, ignore, attrIndex);
+            }
+
+            final double[] attrValues = values[attrIndex];
+            final BitSet left = new BitSet(attrValues.length);
+            for (int instIndex = 0; instIndex < attrValues.length; instIndex++)
+            {
+                if (attrValues[instIndex] <= candidate.value)
+                {
+                    left.set(instIndex);
+                }
+            }
+
+            if (partitions.add(left))
+            {
+                distinctSplits.add(candidate);
+            }
+        }
+        return distinctSplits;
+    }
+
+    /** Find the values of the attribute, for each instance which is not ignored */
+    private static double[] findValues(final Instances trainingData, final BitSet ignore, final int attrIndex)
+    {
+        final double[] values = new double[countInstances(trainingData) - ignore.cardinality()];
+        int index = 0;
+        int valueIndex = 0;
+        for (Instance bag : trainingData)
+        {
+            for (Instance inst : bag.relationalValue(SplitNode.REL_INDEX))
+            {
+                if (!ignore.get(index++))
+                {
+                    values[valueIndex++] = inst.value(attrIndex);
+                }
+            }
+        }
+        return values;
+    }
+
+    /** Count the (single) instances in all the bags */
+    private static int countInstances(final Instances trainingData)
+    {
+        int count = 0;
+        for (Instance bag : trainingData)
+        {
+            count += bag.relationalValue(SplitNode.REL_INDEX).size();
+        }
+        return count;
+    }
+
     public boolean canExpand(Instances dataset, BitSet ignoreMask)
     {
         return true;
@@ -85,28 +207,47 @@ abstract class CenterSplitStrategy extends SplitStrategy
     }
 
     /**
-     * Find the center of the instances in trainingData along the attrIndex axis.
-     * @param trainingData The bags of training instances.
+     * Find the center of the instances along the attrIndex axis.
+     * @param stats The statistics of the (non-ignored) instances, over all attributes.
      * @param attrIndex The attribute to find the center for.
-     * @param ignore bitset of instances to ignore.
      * @return the center value of the instances along the attribute.
      */
-    abstract double findCenter(Instances trainingData, int attrIndex, BitSet ignore);
+    abstract double findCenter(AttributeStatistics stats, int attrIndex);
 
-    /** @inheritDoc */
-    @Override
-    public List<CompPair<Integer, Double>> generateSplitPoints(
-            final Instances trainingData, final BitSet ignore)
+    /** @return true if the statistics must also keep the value of each attribute of each instance. */
+    boolean needsValues()
+    {
+        return false;
+    }
+
+    /** Convert the statistics into one candidate split (the center) per attribute */
+    private List<CompPair<Integer, Double>> toSplitPoints(final AttributeStatistics stats)
     {
         List<CompPair<Integer, Double>> splits = new ArrayList<CompPair<Integer, Double>>(numAttr);
 
         for(int attr=0; attr<numAttr; attr++)
         {
-            splits.add(new CompPair<Integer, Double>(attr, findCenter(trainingData, attr, ignore)));
+            splits.add(new CompPair<Integer, Double>(attr, findCenter(stats, attr)));
         }
 
         return splits;
     }
+
+    /** @inheritDoc */
+    @Override
+    public List<CompPair<Integer, Double>> generateSplitPoints(
+            final Instances trainingData, final BitSet ignore)
+    {
+        return toSplitPoints(AttributeStatistics.compute(trainingData, ignore, numAttr, needsValues()));
+    }
+
+    /** @inheritDoc */
+    @Override
+    public List<CompPair<Integer, Double>> generateSplitPoints(
+            final Instances trainingData, final BitSet ignore, final TaskRunner runner) throws Exception
+    {
+        return toSplitPoints(AttributeStatistics.compute(trainingData, ignore, numAttr, needsValues(), runner));
+    }
 }
 
 /** Each candidate split is a mean of an attribute */
@@ -118,42 +259,11 @@ class MeanSplitStrategy extends CenterSplitStrategy
         super(numAttr);
     }
 
-    /**
-     * Find the mean of all instances in trainingData for the attribute at instIndex=attrIndex.
-     * Assumes that the attribute is numeric. <== TODO may cause problems
-     *
-     * @param trainingData The dataset of mi-bags
-     * @param attrIndex The instIndex of the attribute to find the mean for
-     * @return The mean for the attribute over all instances in all bags
-     */
-    static double findMean(Instances trainingData, int attrIndex, BitSet ignore)
-    {
-        double sum = 0;
-        int count = 0;
-        int index = 0;
-
-        // check in each bag
-        for (Instance bag : trainingData)
-        {
-            // consider each instance in each bag
-            for (Instance inst : bag.relationalValue(SplitNode.REL_INDEX))
-            {
-                if (!ignore.get(index++))
-                {
-                    sum += inst.value(attrIndex);
-                    count++;
-                }
-            }
-        }
-
-        return sum / count;
-    }
-
     /** @inheritDoc */
     @Override
-    double findCenter(Instances trainingData, int attrIndex, BitSet ignore)
+    double findCenter(AttributeStatistics stats, int attrIndex)
     {
-        return findMean(trainingData, attrIndex, ignore);
+        return stats.sums[attrIndex] / stats.count;
     }
 }
 
@@ -166,47 +276,30 @@ class MedianSplitStrategy extends CenterSplitStrategy
         super(numAttr);
     }
 
-    /**
-     * Find the median of all instances in trainingData for the attribute at instIndex=attrIndex.
-     * Assumes that the attribute is numeric. <== TODO may cause problems
-     *
-     * @param trainingData The dataset of mi-bags
-     * @param attrIndex The instIndex of the attribute to find the mean for
-     * @param ignore bitset of instances to ignore
-     * @return The mean for the attribute over all instances in all bags
-     */
-    static double findMedian(final Instances trainingData, final int attrIndex, BitSet ignore)
+    /** @inheritDoc */
+    @Override
+    boolean needsValues()
     {
-        // for now:
-        //  copy all values into a collection then sort
-        List<Double> vals = new ArrayList<Double>();
-        int index = 0;
-        for (Instance bag : trainingData)
-        {
-            for (Instance inst : bag.relationalValue(SplitNode.REL_INDEX))
-            {
-                if (!ignore.get(index++))
-                {
-                    vals.add(inst.value(attrIndex));
-                }
-            }
-        }
+        return true;
+    }
 
-        Collections.sort(vals);
+    /** @inheritDoc */
+    @Override
+    double findCenter(AttributeStatistics stats, int attrIndex)
+    {
+        final double[] vals = stats.values[attrIndex];
+        Arrays.sort(vals);
 
-        final int count = vals.size();
+        final int count = stats.count;
+        if (count == 0)
+        {
+            return Double.NaN;
+        }
         final boolean isEven = (count & 1) == 0;
         final int midIndex = count / 2;
 
         // if there is an even number of values, take the avg of the two middle elems.
-        return isEven ? 0.5*(vals.get(midIndex) + vals.get(midIndex-1)) : vals.get(midIndex);
-    }
-
-    /** @inheritDoc */
-    @Override
-    double findCenter(Instances trainingData, int attrIndex, BitSet ignore)
-    {
-        return findMedian(trainingData, attrIndex, ignore);
+        return isEven ? 0.5*(vals[midIndex] + vals[midIndex-1]) : vals[midIndex];
     }
 }
 
@@ -219,44 +312,13 @@ class RangeSplitStrategy extends CenterSplitStrategy
         super(numAttr);
     }
 
-    /**
-     * Find the midpoint of the range of all instances in trainingData for the attribute at instIndex=attrIndex.
-     * Assumes that the attribute is numeric. <== TODO may cause problems
-     *
-     * @param trainingData The dataset of mi-bags
-     * @param attrIndex The instIndex of the attribute to find the mean for
-     * @param ignore bitset of instances to ignore
-     * @return The mean for the attribute over all instances in all bags
-     */
-    static double findMidpt(final Instances trainingData, final int attrIndex, BitSet ignore)
-    {
-        double min = Double.MAX_VALUE;
-        double max = -Double.MIN_VALUE;
-
-        //  copy all values into a collection then sort
-        int index = 0;
-        for (Instance bag : trainingData)
-        {
-            for (Instance inst : bag.relationalValue(SplitNode.REL_INDEX))
-            {
-                if (!ignore.get(index++))
-                {
-                    double iVal = inst.value(attrIndex);
-                    if (iVal < min) { min = iVal; }
-                    if (iVal > max) { max = iVal; }
-                }
-            }
-        }
-
-        // return the midpoint of the range
-        return ((max - min) / 2) + min;
-    }
-
     /** @inheritDoc */
     @Override
-    double findCenter(Instances trainingData, int attrIndex, BitSet ignore)
+    double findCenter(AttributeStatistics stats, int attrIndex)
     {
-        return findMidpt(trainingData, attrIndex, ignore);
+        final double min = stats.mins[attrIndex];
+        final double max = stats.maxs[attrIndex];
+        return ((max - min) / 2) + min;
     }
 }
 
@@ -271,6 +333,13 @@ class DiscretizedSplitStrategy extends SplitStrategy
         this.numAttr = numAttr;
     }
 
+    @Override /** @inheritDoc */
+    public boolean candidatesGrowWithInstances()
+    {
+        // (a class boundary may lie between any two instances)
+        return true;
+    }
+
     /**
      * Find the points where the class changes when the single-instance
      *  dataset is sorted by the specified attribute.
@@ -337,12 +406,21 @@ class DiscretizedSplitStrategy extends SplitStrategy
     @Override
     public boolean canExpand(final Instances dataset, final BitSet ignoreMask)
     {
-        // check if bag is pure:
+        // check if the instances in the node are pure (if so, the class never changes, so there are no splits):
         boolean hasClass0 = false;
         boolean hasClass1 = false;
-        for (Instance inst : dataset)
+        int index = 0;
+        for (Instance bag : dataset)
         {
-            if (inst.classValue() < 0.5)
+            final int bagSize = bag.relationalValue(SplitNode.REL_INDEX).size();
+            final int nextIndex = ignoreMask.nextClearBit(index);
+            index += bagSize;
+            if (nextIndex >= index)
+            {
+                continue; // every instance of this bag is outside the node
+            }
+
+            if (bag.classValue() < 0.5)
             {
                 // this inst is class 0
                 hasClass0 = true;
@@ -363,4 +441,209 @@ class DiscretizedSplitStrategy extends SplitStrategy
 
         return false;
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Per-attribute statistics (count, sum, min and max) of the non-ignored instances of a set of bags,
+ *  gathered in a single instance-major pass over the data (instead of one pass per attribute).
+ *
+ * The bags are processed in fixed-size chunks (possibly in parallel), and the chunks are then merged
+ *  in order. Since the chunks do not depend on the number of threads, neither do the results.
+ */
+class AttributeStatistics
+{
+    /** The number of bags in each chunk */
+    static final int BAGS_PER_CHUNK = 256;
+
+    final int numAttr;
+
+    /** The number of (non-ignored) instances */
+    int count;
+
+    final double[] sums;
+    final double[] mins;
+    final double[] maxs;
+
+    /** The value of each attribute (indexed by [attr][inst]), or null if not kept */
+    final double[][] values;
+
+    /**
+     * @param numAttr The number of attributes of each instance.
+     * @param capacity The number of instances whose values are to be kept (or -1 to not keep values).
+     */
+    AttributeStatistics(final int numAttr, final int capacity)
+    {
+        this.numAttr = numAttr;
+        this.count = 0;
+        this.sums = new double[numAttr];
+        this.mins = new double[numAttr];
+        this.maxs = new double[numAttr];
+        Arrays.fill(mins, Double.MAX_VALUE);
+        Arrays.fill(maxs, -Double.MAX_VALUE);
+        this.values = (capacity < 0) ? null : new double[numAttr][capacity];
+    }
+
+    /**
+     * Add the non-ignored instances of the bags in [fromBag, toBag).
+     *
+     * @param bags The dataset of bags.
+     * @param fromBag The first bag to add (inclusive).
+     * @param toBag The last bag to add (exclusive).
+     * @param firstInstIndex The (dataset-wide) index of the first instance of the first bag.
+     * @param ignore The bitset of instances to ignore.
+     */
+    void addBags(final Instances bags, final int fromBag, final int toBag,
+                 final int firstInstIndex, final BitSet ignore)
+    {
+        int index = firstInstIndex;
+        for (int bagIndex = fromBag; bagIndex < toBag; bagIndex++)
+        {
+            for (Instance inst : bags.instance(bagIndex).relationalValue(SplitNode.REL_INDEX))
+            {
+                if (!ignore.get(index++))
+                {
+                    addInstance(inst);
+                }
+            }
+        }
+    }
+
+    private void addInstance(final Instance inst)
+    {
+        for (int attr = 0; attr < numAttr; attr++)
+        {
+            final double val = inst.value(attr);
+            sums[attr] += val;
+            if (val < mins[attr]) { mins[attr] = val; }
+            if (val > maxs[attr]) { maxs[attr] = val; }
+            if (values != null)
+            {
+                values[attr][count] = val;
+            }
+        }
+        count++;
+    }
+
+    /**
+     * Compute the statistics of all non-ignored instances, in the calling thread.
+     *
+     * @param bags The dataset of bags.
+     * @param ignore The bitset of instances to ignore.
+     * @param numAttr The number of attributes of each instance.
+     * @param keepValues Whether to keep the values of each attribute.
+     * @return The statistics over all attributes.
+     */
+    static AttributeStatistics compute(final Instances bags, final BitSet ignore,
+                                       final int numAttr, final boolean keepValues)
+    {
+        final List<ChunkTask> tasks = toChunkTasks(bags, ignore, numAttr, keepValues);
+        final List<AttributeStatistics> chunks = new ArrayList<AttributeStatistics>(tasks.size());
+        for (ChunkTask task : tasks)
+        {
+            chunks.add(task.call());
+        }
+        return merge(chunks, numAttr, keepValues);
+    }
+
+    /**
+     * Compute the statistics of all non-ignored instances, with the chunks of bags
+     *  processed in parallel by the runner.
+     *
+     * @param bags The dataset of bags.
+     * @param ignore The bitset of instances to ignore.
+     * @param numAttr The number of attributes of each instance.
+     * @param keepValues Whether to keep the values of each attribute.
+     * @param runner For processing the chunks in parallel.
+     * @return The statistics over all attributes.
+     */
+    static AttributeStatistics compute(final Instances bags, final BitSet ignore, final int numAttr,
+                                       final boolean keepValues, final TaskRunner runner) throws Exception
+    {
+        return merge(runner.invokeAll(toChunkTasks(bags, ignore, numAttr, keepValues)), numAttr, keepValues);
+    }
+
+    /** Split the bags into chunks, each of which can be processed independently */
+    private static List<ChunkTask> toChunkTasks(final Instances bags, final BitSet ignore,
+                                                final int numAttr, final boolean keepValues)
+    {
+        final int numBags = bags.numInstances();
+        final List<ChunkTask> tasks = new ArrayList<ChunkTask>(numBags / BAGS_PER_CHUNK + 1);
+
+        int firstInstIndex = 0;
+        for (int fromBag = 0; fromBag < numBags; fromBag += BAGS_PER_CHUNK)
+        {
+            final int toBag = Math.min(numBags, fromBag + BAGS_PER_CHUNK);
+            int numInst = 0;
+            for (int bagIndex = fromBag; bagIndex < toBag; bagIndex++)
+            {
+                numInst += bags.instance(bagIndex).relationalValue(SplitNode.REL_INDEX).numInstances();
+            }
+
+            final int capacity = keepValues ?
+                    numInst - ignore.get(firstInstIndex, firstInstIndex + numInst).cardinality() : -1;
+            tasks.add(new ChunkTask(bags, fromBag, toBag, firstInstIndex, ignore, numAttr, capacity));
+            firstInstIndex += numInst;
+        }
+        return tasks;
+    }
+
+    /** Merge the statistics of each chunk (in order) */
+    private static AttributeStatistics merge(final List<AttributeStatistics> chunks, final int numAttr,
+                                             final boolean keepValues)
+    {
+        int totalCount = 0;
+        for (AttributeStatistics chunk : chunks)
+        {
+            totalCount += chunk.count;
+        }
+
+        final AttributeStatistics result = new AttributeStatistics(numAttr, keepValues ? totalCount : -1);
+        for (AttributeStatistics chunk : chunks)
+        {
+            for (int attr = 0; attr < numAttr; attr++)
+            {
+                result.sums[attr] += chunk.sums[attr];
+                result.mins[attr] = Math.min(result.mins[attr], chunk.mins[attr]);
+                result.maxs[attr] = Math.max(result.maxs[attr], chunk.maxs[attr]);
+                if (keepValues)
+                {
+                    System.arraycopy(chunk.values[attr], 0, result.values[attr], result.count, chunk.count);
+                }
+            }
+            result.count += chunk.count;
+        }
+        return result;
+    }
+
+    /** Computes the statistics of one chunk of bags */
+    private static class ChunkTask implements Callable<AttributeStatistics>
+    {
+        private final Instances bags;
+        private final int fromBag;
+        private final int toBag;
+        private final int firstInstIndex;
+        private final BitSet ignore;
+        private final int numAttr;
+        private final int capacity;
+
+        ChunkTask(final Instances bags, final int fromBag, final int toBag, final int firstInstIndex,
+                  final BitSet ignore, final int numAttr, final int capacity)
+        {
+            this.bags = bags;
+            this.fromBag = fromBag;
+            this.toBag = toBag;
+            this.firstInstIndex = firstInstIndex;
+            this.ignore = ignore;
+            this.numAttr = numAttr;
+            this.capacity = capacity;
+        }
+
+        @Override /** @inheritDoc */
+        public AttributeStatistics call()
+        {
+            final AttributeStatistics stats = new AttributeStatistics(numAttr, capacity);
+            stats.addBags(bags, fromBag, toBag, firstInstIndex, ignore);
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package weka.classifiers.mi.adaprop;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs batches of independent tasks, either in the calling thread
+ *  (when only a single thread is to be used) or over a fixed pool of threads.
+ *
+ * The results are always returned in the order in which the tasks were given,
+ *  so callers see the same results regardless of the number of threads.
+ */
+public class TaskRunner implements Serializable
+{
+    /** The number of threads to use */
+    private final int numThreads;
+
+    /** The pool of threads (created on first use) */
+    private transient ExecutorService executor;
+
+    /** @param numThreads The number of threads to use (1 to run in the calling thread). */
+    public TaskRunner(final int numThreads)
+    {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /** @return The number of threads used by this runner. */
+    public int getNumThreads()
+    {
+        return numThreads;
+    }
+
+    /**
+     * Run each of the tasks, and wait for all of them to complete.
+     *
+     * @param tasks The tasks to run.
+     * @return The result of each task, in the same order as the tasks.
+     * @throws Exception The exception thrown by the first failing task (in task order).
+     */
+    public <T> List<T> invokeAll(final List<? extends Callable<T>> tasks) throws Exception
+    {
+        final List<T> results = new ArrayList<T>(tasks.size());
+        if (numThreads == 1 || tasks.size() <= 1)
+        {
+            for (Callable<T> task : tasks)
+            {
+                results.add(task.call());
+            }
+            return results;
+        }
+
+        final List<Future<T>> futures = getExecutor().invokeAll(tasks);
+        try
+        {
+            for (Future<T> future : futures)
+            {
+                results.add(future.get());
+            }
+        }
+        catch (ExecutionException e)
+        {
+            throw unwrap(e);
+        }
+        finally
+        {
+            // if a task failed (or this thread was interrupted), do not leave the rest running
+            for (Future<T> future : futures)
+            {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    /** Stop the pool of threads (if any). The runner may still be used afterwards. */
+    public synchronized void shutdown()
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private synchronized ExecutorService getExecutor()
+    {
+        if (executor == null)
+        {
+            executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory()
+            {
+                private int count = 0;
+
+                @Override /** @inheritDoc */
+                public synchronized Thread newThread(final Runnable runnable)
+                {
+                    // daemon threads, so that an idle pool never keeps the JVM alive
+                    final Thread thread = new Thread(runnable, "AdaProp-worker-" + (count++));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /** Recover the original exception thrown by a task */
+    private static Exception unwrap(final ExecutionException e)
+    {
+        final Throwable cause = e.getCause();
+        if (cause instanceof Error)
+        {
+            throw (Error) cause;
+        }
+        return (cause instanceof Exception) ? (Exception) cause : e;
+    }
+}
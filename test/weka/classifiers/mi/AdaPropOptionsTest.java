@@ -7,6 +7,7 @@ import weka.classifiers.mi.adaprop.EvaluationStrategy;
 import weka.classifiers.mi.adaprop.PropositionalisationStrategy;
 import weka.classifiers.mi.adaprop.SearchStrategy;
 import weka.classifiers.mi.adaprop.SplitStrategy;
+import weka.classifiers.rules.OneR;
 import weka.core.Option;
 import weka.core.SelectedTag;
 import weka.core.Tag;
@@ -224,7 +225,8 @@ public class AdaPropOptionsTest
     @Test
     public void testSearchStrategyOptionsAreListed() // in .listOptions();
     {
-        assertOptionIsListed("search", "Search strategy: 1=breadth-first (default), 2=best-first");
+        assertOptionIsListed("search", "Search strategy: 1=breadth-first (default), 2=best-first, " +
+                "3=cached-best-first, 4=beam, 5=level-breadth-first");
     }
 
     @Test
@@ -238,7 +240,7 @@ public class AdaPropOptionsTest
         assertSelectedTagIs(val, adaProp.getSearchStrategy(), key);
 
         // try setting it to all possible values & use get to verify
-        for (val = 2; val >= 1; val--)
+        for (val = 5; val >= 1; val--)
         {
             adaProp.setOptions(new String[]{key, Integer.toString(val)});
             assertOptionValueEquals(adaProp.getOptions(), key, Integer.toString(val));
@@ -256,7 +258,10 @@ public class AdaPropOptionsTest
         }
         assertHasAllStrategies("Search Strategy", strategies,
                 "BestFirstSearchStrategy",
-                "BreadthFirstSearchStrategy");
+                "BreadthFirstSearchStrategy",
+                "CachedBestFirstSearchStrategy",
+                "BeamSearchStrategy",
+                "LevelBreadthFirstSearchStrategy");
     }
 
     @Test
@@ -338,7 +343,10 @@ public class AdaPropOptionsTest
                 "3=root mean squared error, " +
                 "4=cross-validated root mean squared error, " +
                 "5=gain ratio, " +
-                "6=cross-validated gain ratio");
+                "6=cross-validated gain ratio, " +
+                "7=mis-classification error (in closed form for Naive Bayes), " +
+                "8=gradient-statistics gain (training once per node), " +
+                "9=hold-out mis-classification error");
     }
 
     @Test
@@ -352,7 +360,7 @@ public class AdaPropOptionsTest
         assertSelectedTagIs(val, adaProp.getPropositionalisationStrategy(), key);
 
         // try setting it to all possible values & use get to verify
-        for (val = 6; val >= 1; val--)
+        for (val = 9; val >= 1; val--)
         {
             adaProp.setOptions(new String[]{key, Integer.toString(val)});
             assertOptionValueEquals(adaProp.getOptions(), key, Integer.toString(val));
@@ -374,7 +382,10 @@ public class AdaPropOptionsTest
                 "RMSEEvaluationStrategy",
                 "RMSECrossValidatedErrorEvaluationStrategy",
                 "InfoGainEvaluationStrategy",
-                "InfoGainCrossValidatedErrorEvaluationStrategy");
+                "InfoGainCrossValidatedErrorEvaluationStrategy",
+                "NaiveBayesMisClassificationErrorEvaluationStrategy",
+                "GradientGainEvaluationStrategy",
+                "MisClassificationHoldoutErrorEvaluationStrategy");
     }
 
     @Test
@@ -477,6 +488,276 @@ public class AdaPropOptionsTest
     }
     // </editor-fold>
 
+    // <editor-fold desc="===Number of Threads===">
+    @Test
+    public void testNumThreadsOptionsAreListed() // in .listOptions();
+    {
+        assertOptionIsListed("numThreads", "Number of threads to use when building the tree. Default=1.");
+    }
+
+    @Test
+    public void testGetAndSetNumThreadsOptions() throws Exception
+    {
+        final String key = "-numThreads";
+        final String message = "Value for " + key;
+
+        // by default: a single thread:
+        int val = 1;
+        assertOptionValueEquals(adaProp.getOptions(), key, Integer.toString(val));
+        assertEquals(message, val, adaProp.getNumThreads());
+
+        // try setting it to some possible values & use get to verify
+        for (val = 8; val >= 1; val--)
+        {
+            adaProp.setOptions(new String[]{key, Integer.toString(val)});
+            assertOptionValueEquals(adaProp.getOptions(), key, Integer.toString(val));
+            assertEquals(message, val, adaProp.getNumThreads());
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="===Time Budget===">
+    @Test
+    public void testTimeBudgetOptionsAreListed() // in .listOptions();
+    {
+        assertOptionIsListed("timeBudget", "Time budget (in seconds) for building the tree (including " +
+                "selecting its size), after which the best complete tree so far is used. Default=0 (unlimited).");
+    }
+
+    @Test
+    public void testGetAndSetTimeBudgetOptions() throws Exception
+    {
+        final String key = "-timeBudget";
+        final String message = "Value for " + key;
+
+        // by default: no time budget:
+        double val = 0;
+        assertOptionValueEquals(adaProp.getOptions(), key, Double.toString(val));
+        assertEquals(message, val, adaProp.getTimeBudget(), 0.0);
+
+        // try setting it to some possible values & use get to verify
+        for (val = 0.5; val <= 60; val *= 2)
+        {
+            adaProp.setOptions(new String[]{key, Double.toString(val)});
+            assertOptionValueEquals(adaProp.getOptions(), key, Double.toString(val));
+            assertEquals(message, val, adaProp.getTimeBudget(), 0.0);
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="===Checkpoint File===">
+    @Test
+    public void testCheckpointOptionsAreListed() // in .listOptions();
+    {
+        Option opt = findOption(adaProp.listOptions(), "checkpoint");
+        assertNotNull("Option -checkpoint not found", opt);
+        assertOptionEquals(opt, "\tFile to checkpoint the tree building to, and to resume it from. Default=none.",
+                1, "-checkpoint <file>");
+    }
+
+    @Test
+    public void testGetAndSetCheckpointOptions() throws Exception
+    {
+        final String key = "-checkpoint";
+        final String message = "Value for " + key;
+
+        // by default: no checkpoints:
+        assertFlagIsNotSet(adaProp.getOptions(), key);
+        assertEquals(message, "", adaProp.getCheckpointFile());
+
+        // try setting it & use get to verify
+        final String file = "build.checkpoint";
+        adaProp.setOptions(new String[]{key, file});
+        assertOptionValueEquals(adaProp.getOptions(), key, file);
+        assertEquals(message, file, adaProp.getCheckpointFile());
+
+        adaProp.setOptions(new String[]{});
+        assertFlagIsNotSet(adaProp.getOptions(), key);
+        assertEquals(message, "", adaProp.getCheckpointFile());
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="===Evaluation Cache===">
+    @Test
+    public void testEvalCacheSizeOptionsAreListed() // in .listOptions();
+    {
+        assertOptionIsListed("evalCacheSize", "Number of split evaluations to remember (in memory), so that " +
+                "identical evaluations are not repeated. Default=0 (none).");
+    }
+
+    @Test
+    public void testGetAndSetEvalCacheSizeOptions() throws Exception
+    {
+        final String key = "-evalCacheSize";
+        final String message = "Value for " + key;
+
+        // by default: no cache:
+        int val = 0;
+        assertOptionValueEquals(adaProp.getOptions(), key, Integer.toString(val));
+        assertEquals(message, val, adaProp.getEvalCacheSize());
+
+        // try setting it to some possible values & use get to verify
+        for (val = 1; val <= 10000; val *= 10)
+        {
+            adaProp.setOptions(new String[]{key, Integer.toString(val)});
+            assertOptionValueEquals(adaProp.getOptions(), key, Integer.toString(val));
+            assertEquals(message, val, adaProp.getEvalCacheSize());
+        }
+    }
+
+    @Test
+    public void testEvalCacheDirOptionsAreListed() // in .listOptions();
+    {
+        Option opt = findOption(adaProp.listOptions(), "evalCacheDir");
+        assertNotNull("Option -evalCacheDir not found", opt);
+        assertOptionEquals(opt, "\tDirectory in which to store split evaluations, so that they can " +
+                "be reused by later runs. Default=none.", 1, "-evalCacheDir <dir>");
+    }
+
+    @Test
+    public void testGetAndSetEvalCacheDirOptions() throws Exception
+    {
+        final String key = "-evalCacheDir";
+        final String message = "Value for " + key;
+
+        // by default: evaluations are not stored:
+        assertFlagIsNotSet(adaProp.getOptions(), key);
+        assertEquals(message, "", adaProp.getEvalCacheDir());
+
+        // try setting it & use get to verify
+        final String dir = "eval-cache";
+        adaProp.setOptions(new String[]{key, dir});
+        assertOptionValueEquals(adaProp.getOptions(), key, dir);
+        assertEquals(message, dir, adaProp.getEvalCacheDir());
+
+        adaProp.setOptions(new String[]{});
+        assertFlagIsNotSet(adaProp.getOptions(), key);
+        assertEquals(message, "", adaProp.getEvalCacheDir());
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="===Search Classifier===">
+    @Test
+    public void testSearchClassifierOptionsAreListed() // in .listOptions();
+    {
+        Option opt = findOption(adaProp.listOptions(), "searchClassifier");
+        assertNotNull("Option -searchClassifier not found", opt);
+        assertOptionEquals(opt, "\tClassifier (with its options) to evaluate the splits with when " +
+                "building the tree, e.g. a cheaper version of the base " +
+                "classifier. Default=none (use the base classifier).", 1, "-searchClassifier <classname [options]>");
+    }
+
+    @Test
+    public void testGetAndSetSearchClassifierOptions() throws Exception
+    {
+        final String key = "-searchClassifier";
+        final String message = "Value for " + key;
+
+        // by default: the base classifier is used:
+        assertFlagIsNotSet(adaProp.getOptions(), key);
+        assertNull(message, adaProp.getSearchClassifier());
+
+        // try setting it & use get to verify
+        final String spec = "weka.classifiers.rules.OneR -B 3";
+        adaProp.setOptions(new String[]{key, spec});
+        assertOptionValueEquals(adaProp.getOptions(), key, spec);
+        assertTrue(message, adaProp.getSearchClassifier() instanceof OneR);
+        assertEquals(message, 3, ((OneR) adaProp.getSearchClassifier()).getMinBucketSize());
+
+        adaProp.setOptions(new String[]{});
+        assertFlagIsNotSet(adaProp.getOptions(), key);
+        assertNull(message, adaProp.getSearchClassifier());
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="===Incremental Search===">
+    @Test
+    public void testIncrementalSearchOptionsAreListed()
+    {
+        assertFlagIsListed("incrementalSearch", "Train updateable classifiers incrementally (in a single pass " +
+                "over the bags) when evaluating the splits. Default=False.");
+    }
+
+    @Test
+    public void testGetAndSetIncrementalSearchOptions() throws Exception
+    {
+        final String key = "-incrementalSearch";
+
+        // by default: classifiers are trained on the whole dataset:
+        assertFlagIsNotSet(adaProp.getOptions(), key);
+        assertFalse("Flag " + key + "should not be set", adaProp.getIncrementalSearch());
+
+        adaProp.setOptions(new String[]{key});
+        assertFlagIsSet(adaProp.getOptions(), key);
+        assertTrue("Flag " + key + "should be set", adaProp.getIncrementalSearch());
+
+        adaProp.setOptions(new String[]{});
+        assertFlagIsNotSet(adaProp.getOptions(), key);
+        assertFalse("Flag " + key + "should not be set", adaProp.getIncrementalSearch());
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="===Profile===">
+    @Test
+    public void testProfileOptionsAreListed()
+    {
+        assertFlagIsListed("profile", "Profile the building of each node of the tree (the instances in the node, " +
+                "the candidate splits evaluated, the time taken and the error margin of the chosen split), " +
+                "and show the profiles in the tree. Default=False.");
+    }
+
+    @Test
+    public void testGetAndSetProfileOptions() throws Exception
+    {
+        final String key = "-profile";
+
+        // by default: nodes are not profiled:
+        assertFlagIsNotSet(adaProp.getOptions(), key);
+        assertFalse("Flag " + key + "should not be set", adaProp.getProfile());
+
+        adaProp.setOptions(new String[]{key});
+        assertFlagIsSet(adaProp.getOptions(), key);
+        assertTrue("Flag " + key + "should be set", adaProp.getProfile());
+
+        adaProp.setOptions(new String[]{});
+        assertFlagIsNotSet(adaProp.getOptions(), key);
+        assertFalse("Flag " + key + "should not be set", adaProp.getProfile());
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="===JMX Name===">
+    @Test
+    public void testJmxNameOptionsAreListed() // in .listOptions();
+    {
+        Option opt = findOption(adaProp.listOptions(), "jmxName");
+        assertNotNull("Option -jmxName not found", opt);
+        assertOptionEquals(opt, "\tName under which to register a JMX MBean with the live scoring and " +
+                "build statistics of this model (once it is built or used). Default=none (not registered).",
+                1, "-jmxName <name>");
+    }
+
+    @Test
+    public void testGetAndSetJmxNameOptions() throws Exception
+    {
+        final String key = "-jmxName";
+        final String message = "Value for " + key;
+
+        // by default: the statistics are not registered:
+        assertFlagIsNotSet(adaProp.getOptions(), key);
+        assertEquals(message, "", adaProp.getJmxName());
+
+        // try setting it & use get to verify
+        final String name = "model";
+        adaProp.setOptions(new String[]{key, name});
+        assertOptionValueEquals(adaProp.getOptions(), key, name);
+        assertEquals(message, name, adaProp.getJmxName());
+
+        adaProp.setOptions(new String[]{});
+        assertFlagIsNotSet(adaProp.getOptions(), key);
+        assertEquals(message, "", adaProp.getJmxName());
+    }
+    // </editor-fold>
+
     // TODO remove or move below tests to another file:
 
     /** Test evaluation of with the specified classifier gives the correct value */
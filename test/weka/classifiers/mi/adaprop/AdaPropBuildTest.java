@@ -0,0 +1,247 @@
+package weka.classifiers.mi.adaprop;
+
+import org.junit.Test;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.mi.ArtificialDatasetGenerator;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests building AdaProp as a whole: the measures of the build (and how the tree size is selected).
+ */
+public class AdaPropBuildTest extends TestBase
+{
+    /** Counts the candidate splits evaluated (as reported to the listener) */
+    private static class CandidateCounter implements BuildProgressListener
+    {
+        int numCandidatesEvaluated = 0;
+        int numFoldsDone = 0;
+
+        @Override /** @inheritDoc */
+        public void nodeExpanded(int nodeCount, int maxNodeCount)
+        {
+        }
+
+        @Override /** @inheritDoc */
+        public void candidateEvaluated(int numCandidatesDone, int numCandidates)
+        {
+            numCandidatesEvaluated++;
+        }
+
+        @Override /** @inheritDoc */
+        public void foldDone(int numFoldsDone, int numFolds)
+        {
+            this.numFoldsDone = numFoldsDone;
+        }
+    }
+
+    /** @return An artificial dataset, with enough bags for cross-validation. */
+    private static Instances artificialBags()
+    {
+        final Instances bags = ArtificialDatasetGenerator.generate(4, 40, 2, 6, 3, 1);
+        bags.setClassIndex(bags.numAttributes() - 1);
+        return bags;
+    }
+
+    @Test
+    public void shouldCountTheWorkOfTheCrossValidationInTheMeasures() throws Exception
+    {
+        final Instances bags = artificialBags();
+        adaProp.setMaxTreeSize(3);
+        adaProp.buildClassifier(bags);
+        final double candidatesWithoutSelection = adaProp.getMeasure("measureNumCandidatesEvaluated");
+        final double buildsWithoutSelection = adaProp.getMeasure("measureNumClassifierBuilds");
+
+        final CandidateCounter counter = new CandidateCounter();
+        adaProp.setProgressListener(counter);
+        adaProp.setDoCVParameterSelection(true);
+        adaProp.buildClassifier(bags);
+
+        // every candidate evaluated is counted, in the folds as well as in the final tree:
+        assertEquals("folds", 5, counter.numFoldsDone);
+        assertEquals("candidates", counter.numCandidatesEvaluated,
+                adaProp.getMeasure("measureNumCandidatesEvaluated"), 0);
+        assertTrue("more candidates", adaProp.getMeasure("measureNumCandidatesEvaluated") > candidatesWithoutSelection);
+        assertTrue("more builds", adaProp.getMeasure("measureNumClassifierBuilds") > buildsWithoutSelection);
+        assertEquals("one build per candidate", adaProp.getMeasure("measureNumCandidatesEvaluated"),
+                adaProp.getMeasure("measureNumClassifierBuilds"), 0);
+    }
+
+    /**
+     * Find the cross-validated error of each tree size, as AdaProp should when selecting the tree size: over
+     *  the same folds, but building the tree of each size separately (rather than taking a prefix of the largest
+     *  tree, or growing the tree one node at a time).
+     */
+    private double[] findErrorBySize(final Instances bags, final int maxTreeSize, final Classifier classifier)
+            throws Exception
+    {
+        final int numFolds = 5;
+        final int numAttr = bags.instance(0).relationalValue(SplitNode.REL_INDEX).numAttributes();
+        final SplitStrategy splitStrategy =
+                SplitStrategy.getStrategy(adaProp.getSplitStrategy().getSelectedTag().getID(), numAttr);
+        final SearchStrategy searchStrategy =
+                SearchStrategy.getStrategy(adaProp.getSearchStrategy().getSelectedTag().getID());
+        final PropositionalisationStrategy propStrategy = PropositionalisationStrategy.getStrategy(
+                adaProp.getPropositionalisationStrategy().getSelectedTag().getID(), numAttr);
+        final EvaluationStrategy evalStrategy = new MisClassificationErrorEvaluationStrategy();
+
+        // the same folds as AdaProp (whose random number generator is seeded with 1):
+        final Random random = new Random(1);
+        final Instances data = new Instances(bags);
+        data.randomize(random);
+        data.stratify(numFolds);
+
+        final double[] errorBySize = new double[maxTreeSize + 1];
+        for (int foldIndex = 0; foldIndex < numFolds; foldIndex++)
+        {
+            final Instances trainingBags = data.trainCV(numFolds, foldIndex, random);
+            final Instances testBags = data.testCV(numFolds, foldIndex);
+            for (int size = 0; size <= maxTreeSize; size++)
+            {
+                final RootSplitNode root = SplitNode.buildTree(trainingBags, splitStrategy, size,
+                        adaProp.getMinOccupancy(), classifier, searchStrategy, propStrategy, evalStrategy,
+                        new TaskRunner(1));
+                errorBySize[size] += evalStrategy.evaluateOnTestSet(
+                        SplitNode.propositionaliseDataset(trainingBags, root, propStrategy),
+                        SplitNode.propositionaliseDataset(testBags, root, propStrategy), classifier);
+            }
+        }
+        return errorBySize;
+    }
+
+    /** Check that AdaProp selects the smallest tree size with the least cross-validated error */
+    private void shouldSelectTheSmallestTreeSizeWithTheLeastError(final int searchStrategyID,
+                                                                  final boolean nested) throws Exception
+    {
+        final Instances bags = artificialBags();
+        final int maxTreeSize = 4;
+        adaProp.setClassifier(new NaiveBayes());
+        adaProp.setMaxTreeSize(maxTreeSize);
+        adaProp.setSearchStrategy(new SelectedTag(searchStrategyID, SearchStrategy.STRATEGIES));
+        adaProp.setDoCVParameterSelection(true);
+        assertEquals("nested", nested, SearchStrategy.getStrategy(searchStrategyID).buildsNestedTrees());
+
+        final double[] errorBySize = findErrorBySize(bags, maxTreeSize, new NaiveBayes());
+        int expSize = 0;
+        for (int size = 1; size <= maxTreeSize; size++)
+        {
+            if (errorBySize[size] < errorBySize[expSize])
+            {
+                expSize = size;
+            }
+        }
+
+        adaProp.buildClassifier(bags);
+        assertEquals("selected size", expSize, adaProp.getMeasure("measureSelectedMaxTreeSize"), 0);
+        assertEquals("error at the selected size", errorBySize[expSize],
+                adaProp.getMeasure("measureErrorAtChosenMaxTreeSize"), TOLERANCE);
+    }
+
+    @Test
+    public void shouldSelectTheTreeSizeWithTheLeastErrorFromPrefixesOfNestedTrees() throws Exception
+    {
+        shouldSelectTheSmallestTreeSizeWithTheLeastError(SearchStrategy.DEFAULT_STRATEGY, true); // breadth first
+    }
+
+    @Test
+    public void shouldSelectTheTreeSizeWithTheLeastErrorFromGrownTrees() throws Exception
+    {
+        shouldSelectTheSmallestTreeSizeWithTheLeastError(4, false); // beam search
+    }
+
+    @Test
+    public void shouldSelectTheTreeSizeFromTheFoldsDoneWhenTheTimeBudgetRunsOut() throws Exception
+    {
+        final Instances bags = artificialBags();
+        final int maxTreeSize = 4;
+        final double timeBudget = 1;
+        adaProp.setMaxTreeSize(maxTreeSize);
+        adaProp.setDoCVParameterSelection(true);
+        adaProp.setTimeBudget(timeBudget);
+
+        // use up the budget once the first fold is done:
+        final int[] candidatesAtFirstFold = new int[1];
+        final CandidateCounter counter = new CandidateCounter()
+        {
+            @Override /** @inheritDoc */
+            public void foldDone(int numFoldsDone, int numFolds)
+            {
+                super.foldDone(numFoldsDone, numFolds);
+                candidatesAtFirstFold[0] = numCandidatesEvaluated;
+                try
+                {
+                    Thread.sleep((long) (timeBudget * 1000) + 100);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        adaProp.setProgressListener(counter);
+        adaProp.buildClassifier(bags);
+
+        // the size is selected from the first fold, and the final tree is out of time before it starts:
+        assertEquals("folds", 1, counter.numFoldsDone);
+        final double selectedSize = adaProp.getMeasure("measureSelectedMaxTreeSize");
+        assertTrue("selected size", selectedSize >= 0 && selectedSize <= maxTreeSize);
+        assertFalse("error", Double.isNaN(adaProp.getMeasure("measureErrorAtChosenMaxTreeSize")));
+        assertEquals("candidates after the budget", candidatesAtFirstFold[0], counter.numCandidatesEvaluated);
+    }
+
+    @Test
+    public void shouldStartAfreshWhenTheCheckpointCannotBeRead() throws Exception
+    {
+        final Instances bags = artificialBags();
+        adaProp.setClassifier(new NaiveBayes());
+        adaProp.setMaxTreeSize(3);
+        adaProp.buildClassifier(bags);
+        final String exp = adaProp.toString();
+
+        final File file = File.createTempFile("adaprop", ".checkpoint");
+        try
+        {
+            final FileOutputStream out = new FileOutputStream(file);
+            try
+            {
+                out.write("not a checkpoint".getBytes("UTF-8"));
+            }
+            finally
+            {
+                out.close();
+            }
+
+            adaProp.setCheckpointFile(file.getPath());
+            adaProp.buildClassifier(bags);
+            assertEquals("tree", exp, adaProp.toString());
+            assertFalse("checkpoint deleted once the tree is complete", file.exists());
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void shouldFingerprintTheInstancesOfEachBag()
+    {
+        final Instances bags = artificialBags();
+        final String exp = new Fingerprint().add(bags).toString();
+        assertEquals("same bags", exp, new Fingerprint().add(new Instances(bags)).toString());
+
+        // change one value of one instance of the last bag:
+        final Instances changed = new Instances(bags);
+        final Instance bag = changed.lastInstance();
+        final Instances instances = bag.relationalValue(SplitNode.REL_INDEX);
+        instances.lastInstance().setValue(0, instances.lastInstance().value(0) + 1e-9);
+        assertFalse("changed bags", exp.equals(new Fingerprint().add(changed).toString()));
+    }
+}
@@ -0,0 +1,116 @@
+package weka.classifiers.mi.adaprop;
+
+import org.junit.Test;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.mi.AdaProp;
+import weka.core.Instance;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the live statistics of a model, as published with JMX (see AdaPropStats).
+ */
+public class AdaPropStatsTest extends TestBase
+{
+    @Test
+    public void shouldPublishTheScoringAndBuildStatisticsOfTheModelWithJmx() throws Exception
+    {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        adaProp.setMaxTreeSize(3);
+        adaProp.setJmxName("test model");
+        try
+        {
+            adaProp.buildClassifier(complexMIdata);
+            final ObjectName name = adaProp.registerMBean().getRegisteredName();
+            assertEquals("registered", Collections.singleton(name),
+                    server.queryNames(AdaPropStats.getObjectNamePattern("test model"), null));
+            assertEquals("builds", 1L, server.getAttribute(name, "BuildCount"));
+            assertEquals("building", false, server.getAttribute(name, "Building"));
+            final int numNodes = (Integer) server.getAttribute(name, "BuildNodeCount");
+            assertTrue("nodes = " + numNodes, 1 <= numNodes && numNodes <= 3);
+            assertEquals("max nodes", 3, server.getAttribute(name, "BuildMaxNodeCount"));
+
+            long numInstances = 0;
+            for (int bagIndex = 0; bagIndex < complexMIdata.numInstances(); bagIndex++)
+            {
+                final Instance bag = complexMIdata.instance(bagIndex);
+                adaProp.distributionForInstance(bag);
+                numInstances += bag.relationalValue(SplitNode.REL_INDEX).numInstances();
+            }
+            assertEquals("predictions", (long) complexMIdata.numInstances(),
+                    server.getAttribute(name, "PredictionCount"));
+            assertEquals("errors", 0L, server.getAttribute(name, "ErrorCount"));
+            assertEquals("bag size", numInstances / (double) complexMIdata.numInstances(),
+                    (Double) server.getAttribute(name, "BagSizeMean"), 1e-9);
+            long numTimed = 0;
+            for (long count : (long[]) server.getAttribute(name, "ClassificationLatencyHistogram"))
+            {
+                numTimed += count;
+            }
+            assertEquals("timed", (long) complexMIdata.numInstances(), numTimed);
+
+            server.invoke(name, "reset", null, null);
+            assertEquals("reset", 0L, server.getAttribute(name, "PredictionCount"));
+
+            // clearing the name unregisters the statistics (once the model is next used):
+            adaProp.setJmxName("");
+            assertNull("no statistics", adaProp.registerMBean());
+            assertFalse("unregistered", server.isRegistered(name));
+        }
+        finally
+        {
+            adaProp.unregisterMBean();
+        }
+    }
+
+    @Test
+    public void shouldRegisterCopiesOfAModelUnderNamesOfTheirOwn() throws Exception
+    {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName pattern = AdaPropStats.getObjectNamePattern("copied model");
+        adaProp.setMaxTreeSize(3);
+        adaProp.setJmxName("copied model");
+        adaProp.buildClassifier(complexMIdata);
+        final AdaProp copy = (AdaProp) AbstractClassifier.makeCopy(adaProp);
+        try
+        {
+            final ObjectName name = adaProp.registerMBean().getRegisteredName();
+            final ObjectName copyName = copy.registerMBean().getRegisteredName();
+            assertFalse("names", name.equals(copyName));
+            assertEquals("registered", 2, server.queryNames(pattern, null).size());
+
+            // unregistering the copy leaves the statistics of the original registered:
+            copy.unregisterMBean();
+            assertEquals("registered", Collections.singleton(name), server.queryNames(pattern, null));
+        }
+        finally
+        {
+            copy.unregisterMBean();
+            adaProp.unregisterMBean();
+        }
+        assertTrue("unregistered", server.queryNames(pattern, null).isEmpty());
+    }
+
+    @Test
+    public void shouldBoundThePercentilesOfAHistogramByItsBuckets()
+    {
+        final ConcurrentHistogram histogram = new ConcurrentHistogram();
+        for (long value = 0; value < 100; value++)
+        {
+            final int bucket = ConcurrentHistogram.getBucket(value);
+            assertTrue("upper bound of " + value, value <= ConcurrentHistogram.getUpperBound(bucket));
+            assertTrue("lower bound of " + value, bucket == 0 || value > ConcurrentHistogram.getUpperBound(bucket - 1));
+            histogram.record(value);
+        }
+        assertEquals("count", 100, histogram.getCount());
+        assertEquals("mean", 49.5, histogram.getMean(), 1e-9);
+        assertEquals("max", 99, histogram.getPercentile(1.0), 0);
+        final double p50 = histogram.getPercentile(0.5);
+        assertTrue("p50 = " + p50, 49 <= p50 && p50 <= 49 * 1.25);
+    }
+}
@@ -0,0 +1,71 @@
+package weka.classifiers.mi.adaprop;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests estimating the cost of a build from a probe build (see BuildCostEstimator).
+ */
+public class BuildCostEstimatorTest extends TestBase
+{
+    @Test
+    public void shouldEstimateTheCostOfABuildLikeTheProbeExactly() throws Exception
+    {
+        // (with the whole dataset and tree as the probe, nothing needs scaling up)
+        adaProp.setMaxTreeSize(3);
+        final BuildCostEstimator estimator = new BuildCostEstimator(adaProp);
+        estimator.setProbeBags(complexMIdata.numInstances());
+        estimator.setProbeTreeSize(3);
+        final BuildCostEstimator.Estimate estimate = estimator.estimate(complexMIdata);
+
+        adaProp.buildClassifier(complexMIdata);
+        assertEquals((long) adaProp.getMeasure("measureNumCandidatesEvaluated"), estimate.getNumCandidatesEvaluated());
+        assertEquals((long) adaProp.getMeasure("measureNumClassifierBuilds"), estimate.getNumClassifierBuilds());
+        assertTrue("time", estimate.getWallTime() > 0);
+        assertTrue("memory", estimate.getPeakMemoryBytes() > 0);
+        assertTrue("fits", estimate.fitsWithin(Double.MAX_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void shouldEstimateMoreWorkForALargerTreeAndDataset() throws Exception
+    {
+        adaProp.setMaxTreeSize(2);
+        final BuildCostEstimator estimator = new BuildCostEstimator(adaProp);
+        estimator.setProbeTreeSize(2);
+        final BuildCostEstimator.Estimate small = estimator.estimate(complexMIdata);
+
+        adaProp.setMaxTreeSize(8);
+        final BuildCostEstimator.DatasetStatistics stats = new BuildCostEstimator.DatasetStatistics(complexMIdata);
+        final int[] classCounts = stats.getClassCounts();
+        for (int classIndex = 0; classIndex < classCounts.length; classIndex++)
+        {
+            classCounts[classIndex] *= 10;
+        }
+        final BuildCostEstimator.Estimate large = estimator.estimate(
+                new BuildCostEstimator.DatasetStatistics(stats.getNumBags() * 10, stats.getNumInstances() * 10,
+                        stats.getNumAttributes(), classCounts), complexMIdata);
+
+        assertEquals("candidates", small.getNumCandidatesEvaluated() * 4, large.getNumCandidatesEvaluated(), 1);
+        assertTrue("time", large.getWallTime() > small.getWallTime());
+        assertTrue("memory", large.getPeakMemoryBytes() > stats.estimateSize() * 10);
+    }
+
+    @Test
+    public void shouldNotPublishTheStatisticsOfTheProbeBuilds() throws Exception
+    {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName pattern = AdaPropStats.getObjectNamePattern("estimated model");
+        adaProp.setMaxTreeSize(2);
+        adaProp.setJmxName("estimated model");
+        final BuildCostEstimator estimator = new BuildCostEstimator(adaProp);
+        estimator.setProbeTreeSize(2);
+        estimator.estimate(complexMIdata);
+
+        assertTrue("registered", server.queryNames(pattern, null).isEmpty());
+    }
+}
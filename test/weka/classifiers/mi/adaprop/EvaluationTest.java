@@ -2,13 +2,25 @@ package weka.classifiers.mi.adaprop;
 
 import org.junit.Test;
 import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
 import weka.classifiers.lazy.IBk;
+import weka.classifiers.mi.ArtificialDatasetGenerator;
 import weka.classifiers.mi.MIWrapper;
 import weka.classifiers.rules.OneR;
 import weka.classifiers.rules.ZeroR;
+import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.Tag;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 
 /**
  * Test the evaluation strategies.
@@ -103,4 +115,161 @@ public class EvaluationTest extends TestBase
         // with IBk - expect 0.0356
         assertErrorMeasureIs(0.0356, evalStrategy, dataset, new IBk(1));
     }
+
+    @Test
+    public void closedFormNaiveBayesErrorShouldEqualTheTrainedError() throws Exception
+    {
+        final TreeBuildingParams params = complexTreeParams(4, new TaskRunner(1));
+        final RootSplitNode root = new BreadthFirstSearchStrategy().buildTree(params, params.instCount, complexMIdata);
+        final EvaluationStrategy closedForm = new NaiveBayesMisClassificationErrorEvaluationStrategy();
+        final EvaluationStrategy trained = new MisClassificationErrorEvaluationStrategy();
+
+        // for the whole dataset:
+        final Instances propDataset = SplitNode.propositionaliseDataset(complexMIdata, root, params.propStrategy);
+        assertEquals("dataset", trained.evaluateDataset(propDataset, new NaiveBayes()),
+                closedForm.evaluateDataset(propDataset, new NaiveBayes()), TOLERANCE);
+
+        // and for the candidate rows of each node:
+        for (SplitNode node : root.getNodesInOrderOfAddition())
+        {
+            final CandidateRows rows = new CandidateRows(params, node, root);
+            assertEquals("rows of " + node.splitAttrIndex + " <= " + node.splitPoint,
+                    trained.evaluateRows(rows.getHeader(), rows, new NaiveBayes()),
+                    closedForm.evaluateRows(rows.getHeader(), rows, new NaiveBayes()), TOLERANCE);
+        }
+    }
+
+    @Test
+    public void gradientGainShouldChooseTheSameRootSplitAsTheTrainedError() throws Exception
+    {
+        // ZeroR predicts the same for every bag, so the gain is that of the best split of the class values:
+        final int numAttr = 2;
+        final TreeBuildingParams params = new TreeBuildingParams(1, 1, complexMIdata, 15,
+                new MeanSplitStrategy(numAttr), new CountBasedPropositionalisationStrategy(),
+                new GradientGainEvaluationStrategy(), new ZeroR());
+        final RootSplitNode root = new BreadthFirstSearchStrategy().buildTree(params, params.instCount, complexMIdata);
+        final TreeBuildingParams trainedParams = complexTreeParams(1, new TaskRunner(1));
+        final RootSplitNode exp = new BreadthFirstSearchStrategy().buildTree(trainedParams, trainedParams.instCount,
+                complexMIdata);
+        assertEquals("root", exp.toString(), root.toString());
+        assertTrue("root gain", root.trainingSetError < 0);
+    }
+
+    @Test
+    public void holdoutErrorShouldReuseTheSameSplit() throws Exception
+    {
+        // (enough bags that the error depends on which are held out)
+        final int numAttr = 4;
+        final Instances bags = ArtificialDatasetGenerator.generate(numAttr, 40, 2, 6, 3, 1);
+        bags.setClassIndex(bags.numAttributes() - 1);
+        int instCount = 0;
+        for (Instance bag : bags)
+        {
+            instCount += bag.relationalValue(SplitNode.REL_INDEX).numInstances();
+        }
+        final TreeBuildingParams params = new TreeBuildingParams(2, 1, bags, instCount,
+                new MeanSplitStrategy(numAttr), new CountBasedPropositionalisationStrategy(),
+                new MisClassificationErrorEvaluationStrategy(), new OneR());
+        final RootSplitNode root = new BreadthFirstSearchStrategy().buildTree(params, instCount, bags);
+        final Instances propDataset = SplitNode.propositionaliseDataset(bags, root, params.propStrategy);
+
+        // the same seed gives the same split (and error), whether or not the split is reused:
+        final long seed = 7;
+        final EvaluationStrategy holdout = new MisClassificationHoldoutErrorEvaluationStrategy(seed, 1.0 / 3);
+        final double exp = holdout.evaluateDataset(propDataset, new OneR());
+        assertEquals("reused", exp, holdout.evaluateDataset(propDataset, new OneR()), TOLERANCE);
+        assertEquals("new", exp, new MisClassificationHoldoutErrorEvaluationStrategy(seed, 1.0 / 3)
+                .evaluateDataset(propDataset, new OneR()), TOLERANCE);
+
+        // the error is counted over the hold-out set only (a third of the bags of each class, shuffled with the
+        // seed), after training on the other bags:
+        final Random random = new Random(seed);
+        final Instances trainingSet = new Instances(propDataset, 0);
+        final Instances holdoutSet = new Instances(propDataset, 0);
+        final BitSet heldOut = new BitSet(propDataset.numInstances());
+        for (int classValue = 0; classValue < propDataset.numClasses(); classValue++)
+        {
+            final List<Integer> rows = new ArrayList<Integer>();
+            for (int row = 0; row < propDataset.numInstances(); row++)
+            {
+                if ((int) propDataset.instance(row).classValue() == classValue)
+                {
+                    rows.add(row);
+                }
+            }
+            Collections.shuffle(rows, random);
+            final List<Integer> heldOutRows = rows.subList(0, (int) Math.round(rows.size() / 3.0));
+            assertEquals("held out of class " + classValue, 7, heldOutRows.size()); // (of 20 bags each)
+            for (int row : heldOutRows)
+            {
+                heldOut.set(row);
+            }
+        }
+        for (int row = 0; row < propDataset.numInstances(); row++)
+        {
+            (heldOut.get(row) ? holdoutSet : trainingSet).add(propDataset.instance(row));
+        }
+        assertEquals("held out", 14, holdoutSet.numInstances());
+
+        final OneR classifier = new OneR();
+        classifier.buildClassifier(trainingSet);
+        int numMisclassified = 0;
+        for (Instance inst : holdoutSet)
+        {
+            if (classifier.classifyInstance(inst) != inst.classValue())
+            {
+                numMisclassified++;
+            }
+        }
+        assertEquals("error", numMisclassified, exp, TOLERANCE);
+    }
+
+    @Test
+    public void shouldBuildTheSameTreeWhenEvaluationsAreCached() throws Exception
+    {
+        final int maxNodeCount = 4;
+        for (Tag tag : SearchStrategy.STRATEGIES)
+        {
+            final SearchStrategy strategy = SearchStrategy.getStrategy(tag.getID());
+            final String name = strategy.getClass().getSimpleName();
+            final TreeBuildingParams expParams = complexTreeParams(maxNodeCount, new TaskRunner(1));
+            final String exp = strategy.buildTree(expParams, expParams.instCount, complexMIdata).toString();
+            final File dir = File.createTempFile("eval-cache", "");
+            assertTrue(dir.delete());
+            try
+            {
+                // the first build (with an empty cache) evaluates each distinct dataset once:
+                final CachingEvaluationStrategy cache = new CachingEvaluationStrategy(
+                        new MisClassificationErrorEvaluationStrategy(), 1000, dir.getPath());
+                final TreeBuildingParams params =
+                        complexTreeParams(maxNodeCount, new TaskRunner(1), new BuildMonitor(), cache);
+                assertEquals(name, exp, strategy.buildTree(params, params.instCount, complexMIdata).toString());
+                final long numMisses = cache.getNumMisses();
+                assertTrue(name + ": misses", numMisses > 0);
+
+                // a rebuild finds every evaluation in memory:
+                assertEquals(name + " (rebuilt)", exp,
+                        strategy.buildTree(params, params.instCount, complexMIdata).toString());
+                assertEquals(name + ": misses (rebuilt)", numMisses, cache.getNumMisses());
+
+                // as does a later run, on disk:
+                final CachingEvaluationStrategy diskCache = new CachingEvaluationStrategy(
+                        new MisClassificationErrorEvaluationStrategy(), 0, dir.getPath());
+                final TreeBuildingParams diskParams =
+                        complexTreeParams(maxNodeCount, new TaskRunner(1), new BuildMonitor(), diskCache);
+                assertEquals(name + " (from disk)", exp,
+                        strategy.buildTree(diskParams, diskParams.instCount, complexMIdata).toString());
+                assertEquals(name + ": misses (from disk)", 0, diskCache.getNumMisses());
+                assertTrue(name + ": hits (from disk)", diskCache.getNumHits() > 0);
+            }
+            finally
+            {
+                for (File file : dir.listFiles())
+                {
+                    file.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
 }
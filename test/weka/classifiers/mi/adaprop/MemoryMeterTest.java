@@ -0,0 +1,54 @@
+package weka.classifiers.mi.adaprop;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests the measures of the memory used by a build (see MemoryMeter).
+ */
+public class MemoryMeterTest
+{
+    @Test
+    public void shouldEstimateTheSizeOfABitSetFromItsWords()
+    {
+        assertEquals(MemoryMeter.estimateBitSetSize(1), MemoryMeter.estimateBitSetSize(64));
+        assertEquals(MemoryMeter.estimateBitSetSize(64) + 8, MemoryMeter.estimateBitSetSize(65));
+    }
+
+    @Test
+    public void shouldCountTheBytesOfTheSerialisedObject() throws Exception
+    {
+        final ArrayList<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++)
+        {
+            list.add(i);
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(list);
+        out.close();
+        assertEquals(bytes.size(), MemoryMeter.getSerialisedSize(list));
+    }
+
+    @Test
+    public void shouldCountTheBytesAllocatedByTheCurrentThread()
+    {
+        assumeTrue(MemoryMeter.isCountingAllocations());
+        final long start = MemoryMeter.getAllocatedBytes();
+        final List<long[]> arrays = new ArrayList<long[]>();
+        for (int i = 0; i < 10; i++)
+        {
+            arrays.add(new long[1000]);
+        }
+        assertTrue("allocated", MemoryMeter.getAllocatedBytes() - start >= 10 * 8 * 1000);
+        assertEquals(10, arrays.size());
+    }
+}
@@ -2,16 +2,27 @@ package weka.classifiers.mi.adaprop;
 
 import org.junit.Test;
 import weka.classifiers.Evaluation;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.lazy.IBk;
+import weka.classifiers.mi.ArtificialDatasetGenerator;
 import weka.classifiers.rules.OneR;
 import weka.core.Attribute;
+import weka.core.Instance;
 import weka.core.Instances;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * Tests the two search strategies: Breadth First and Best First
@@ -46,18 +57,61 @@ public class SearchStrategyTest extends TestBase
 
     private RootSplitNode buildComplexTreeWith(int maxNodeCount, SearchStrategy strategy) throws Exception
     {
-        final int instCount = 15;
-        final OneR classifier = new OneR();
-        classifier.setMinBucketSize(1);
+        return buildComplexTreeWith(maxNodeCount, strategy, new TaskRunner(1));
+    }
 
-        final int numAttr = 2;
-        TreeBuildingParams params = new TreeBuildingParams(
-                maxNodeCount, 1, complexMIdata, instCount,
-                new MeanSplitStrategy(numAttr), new CountBasedPropositionalisationStrategy(),
-                new MisClassificationErrorEvaluationStrategy(), classifier);
+    private RootSplitNode buildComplexTreeWith(int maxNodeCount, SearchStrategy strategy, TaskRunner runner)
+            throws Exception
+    {
+        TreeBuildingParams params = complexTreeParams(maxNodeCount, runner);
 
         // build root
-        return strategy.buildTree(params, instCount, complexMIdata);
+        return strategy.buildTree(params, params.instCount, complexMIdata);
+    }
+
+    /**
+     * Build the tree several times in parallel (with cross-validated evaluations, drawing on a random number
+     *  generator), and check that it is always the same tree as when built in one thread.
+     */
+    private static void shouldGiveTheSameTreeWhenRunInParallelWithCrossValidation(SearchStrategy strategy,
+                                                                                    int maxNodeCount) throws Exception
+    {
+        final int numAttr = 4;
+        final Instances bags = ArtificialDatasetGenerator.generate(numAttr, 60, 2, 6, 3, 1);
+        bags.setClassIndex(bags.numAttributes() - 1);
+        int instCount = 0;
+        for (Instance bag : bags)
+        {
+            instCount += bag.relationalValue(SplitNode.REL_INDEX).numInstances();
+        }
+
+        final int numRuns = 5;
+        final TaskRunner runner = new TaskRunner(4);
+        try
+        {
+            RootSplitNode exp = null;
+            for (int run = 0; run <= numRuns; run++)
+            {
+                // (the first run is in one thread)
+                final TreeBuildingParams params = new TreeBuildingParams(maxNodeCount, 1, bags, instCount,
+                        new MeanSplitStrategy(numAttr), new CountBasedPropositionalisationStrategy(),
+                        new MisClassificationCrossValidatedErrorEvaluationStrategy(new Random(1), 5), new OneR(),
+                        (run == 0) ? new TaskRunner(1) : runner);
+                final RootSplitNode act = strategy.buildTree(params, instCount, bags);
+                if (exp == null)
+                {
+                    exp = act;
+                    continue;
+                }
+
+                assertEquals("NodeCount", exp.getNodeCount(), act.getNodeCount());
+                assertTreeEquals("run " + run, act, exp);
+            }
+        }
+        finally
+        {
+            runner.shutdown();
+        }
     }
 
     private void shouldBeASingleNodeWhenMaxTreeSizeIsOne(SearchStrategy strategy) throws Exception
@@ -202,6 +256,703 @@ public class SearchStrategyTest extends TestBase
         shouldBeASingleNodeWhenMaxTreeSizeIsOne(new BestFirstSearchStrategy());
     }
 
+    @Test
+    public void shouldBeASingleNodeTreeWhenMaxTreeSizeIsOneForCachedBestFirst() throws Exception
+    {
+        shouldBeASingleNodeWhenMaxTreeSizeIsOne(new CachedBestFirstSearchStrategy());
+    }
+
+    @Test
+    public void cachedBestFirstShouldMatchBestFirstWhenAllCandidatesAreReevaluated() throws Exception
+    {
+        // the complex dataset has 2 attributes, so (with mean splits) each node has 2 candidates,
+        //  all of which are re-evaluated in each iteration.
+        assertTrue(CachedBestFirstSearchStrategy.NUM_CANDIDATES_TO_REEVALUATE >= 2);
+        for (int maxNodeCount = 1; maxNodeCount <= 4; maxNodeCount++)
+        {
+            RootSplitNode exp = buildComplexTreeWith(maxNodeCount, new BestFirstSearchStrategy());
+            RootSplitNode act = buildComplexTreeWith(maxNodeCount, new CachedBestFirstSearchStrategy());
+
+            assertEquals("NodeCount", exp.getNodeCount(), act.getNodeCount());
+            assertTreeEquals("root(" + maxNodeCount + ")", act, exp);
+        }
+    }
+
+    @Test
+    public void cachedBestFirstShouldMergeTheCachedRankingByError()
+    {
+        // the re-evaluated candidates got worse, so a cached candidate now ranks above them:
+        final ScoredSplit reevaluated1 = new ScoredSplit(new CompPair<Integer, Double>(0, 1.0), 3);
+        final ScoredSplit reevaluated2 = new ScoredSplit(new CompPair<Integer, Double>(0, 2.0), 5);
+        final ScoredSplit cached1 = new ScoredSplit(new CompPair<Integer, Double>(1, 1.0), 2);
+        final ScoredSplit cached2 = new ScoredSplit(new CompPair<Integer, Double>(1, 2.0), 3);
+        final ScoredSplit cached3 = new ScoredSplit(new CompPair<Integer, Double>(1, 3.0), 7);
+
+        final List<ScoredSplit> merged = CachedBestFirstSearchStrategy.mergeRankings(
+                Arrays.asList(reevaluated1, reevaluated2), Arrays.asList(cached1, cached2, cached3));
+        assertListEquals("ranking", Arrays.asList(cached1, reevaluated1, cached2, reevaluated2, cached3), merged);
+    }
+
+    @Test
+    public void shouldBeASingleNodeTreeWhenMaxTreeSizeIsOneForBeam() throws Exception
+    {
+        shouldBeASingleNodeWhenMaxTreeSizeIsOne(new BeamSearchStrategy());
+    }
+
+    @Test
+    public void beamSearchShouldGiveTheSameTreeWhenRunInParallel() throws Exception
+    {
+        final TaskRunner runner = new TaskRunner(4);
+        try
+        {
+            for (int maxNodeCount = 1; maxNodeCount <= 4; maxNodeCount++)
+            {
+                RootSplitNode exp = buildComplexTreeWith(maxNodeCount, new BeamSearchStrategy());
+                RootSplitNode act = buildComplexTreeWith(maxNodeCount, new BeamSearchStrategy(), runner);
+
+                assertEquals("NodeCount", exp.getNodeCount(), act.getNodeCount());
+                assertTreeEquals("root(" + maxNodeCount + ")", act, exp);
+            }
+        }
+        finally
+        {
+            runner.shutdown();
+        }
+    }
+
+    @Test
+    public void beamSearchShouldGiveTheSameTreeWhenRunInParallelWithCrossValidation() throws Exception
+    {
+        shouldGiveTheSameTreeWhenRunInParallelWithCrossValidation(new BeamSearchStrategy(), 6);
+    }
+
+    @Test
+    public void shouldBeASingleNodeTreeWhenMaxTreeSizeIsOneForLevelBreadthFirst() throws Exception
+    {
+        shouldBeASingleNodeWhenMaxTreeSizeIsOne(new LevelBreadthFirstSearchStrategy());
+    }
+
+    @Test
+    public void levelBreadthFirstShouldMatchBreadthFirstForTheFirstTwoNodes() throws Exception
+    {
+        // the 2nd node is the only node on its level, so it sees the same tree in both searches
+        for (int maxNodeCount = 1; maxNodeCount <= 2; maxNodeCount++)
+        {
+            RootSplitNode exp = buildComplexTreeWith(maxNodeCount, new BreadthFirstSearchStrategy());
+            RootSplitNode act = buildComplexTreeWith(maxNodeCount, new LevelBreadthFirstSearchStrategy());
+
+            assertEquals("NodeCount", exp.getNodeCount(), act.getNodeCount());
+            assertTreeEquals("root(" + maxNodeCount + ")", act, exp);
+        }
+    }
+
+    @Test
+    public void levelBreadthFirstShouldGiveTheSameTreeWhenRunInParallel() throws Exception
+    {
+        final TaskRunner runner = new TaskRunner(4);
+        try
+        {
+            for (int maxNodeCount = 1; maxNodeCount <= 6; maxNodeCount++)
+            {
+                RootSplitNode exp = buildComplexTreeWith(maxNodeCount, new LevelBreadthFirstSearchStrategy());
+                RootSplitNode act = buildComplexTreeWith(maxNodeCount, new LevelBreadthFirstSearchStrategy(), runner);
+
+                assertEquals("NodeCount", exp.getNodeCount(), act.getNodeCount());
+                assertTreeEquals("root(" + maxNodeCount + ")", act, exp);
+            }
+        }
+        finally
+        {
+            runner.shutdown();
+        }
+    }
+
+    @Test
+    public void levelBreadthFirstShouldGiveTheSameTreeWhenRunInParallelWithCrossValidation() throws Exception
+    {
+        shouldGiveTheSameTreeWhenRunInParallelWithCrossValidation(new LevelBreadthFirstSearchStrategy(), 6);
+    }
+
+    @Test
+    public void growingATreeOneNodeAtATimeShouldGiveTheSameTreeAsBuildingIt() throws Exception
+    {
+        final int maxNodeCount = 4;
+        for (SearchStrategy strategy : allStrategies())
+        {
+            final String name = strategy.getClass().getSimpleName();
+            RootSplitNode grown = strategy.startTree(complexTreeParams(maxNodeCount, new TaskRunner(1)));
+            assertEquals(name + ": NodeCount", 0, grown.getNodeCount());
+
+            for (int size = 1; size <= maxNodeCount; size++)
+            {
+                RootSplitNode exp = buildComplexTreeWith(size, strategy);
+                assertEquals(name + ": added", exp.getNodeCount() == size, grown.addNode());
+                assertEquals(name + ": NodeCount", exp.getNodeCount(), grown.getNodeCount());
+                assertTreeEquals(name + ": root(" + size + ")", grown, exp);
+            }
+            assertFalse(name + ": should not grow past the max", grown.addNode());
+        }
+    }
+
+    @Test
+    public void growingANestedTreeOneNodeAtATimeShouldEvaluateNoMoreNodesThanBuildingIt() throws Exception
+    {
+        // (i.e. each node is added by continuing the search, rather than by searching afresh)
+        for (SearchStrategy strategy : allStrategies())
+        {
+            final String name = strategy.getClass().getSimpleName();
+            if (!strategy.buildsNestedTrees())
+            {
+                continue;
+            }
+            final BuildMonitor built = new BuildMonitor();
+            buildMonitoredComplexTree(strategy, 1, built);
+
+            final BuildMonitor grown = new BuildMonitor();
+            final RootSplitNode root = strategy.startTree(complexTreeParams(4, new TaskRunner(1), grown));
+            while (root.addNode())
+            {
+                // keep growing.
+            }
+            assertEquals(name + ": nodes evaluated", built.getNumNodesEvaluated(), grown.getNumNodesEvaluated());
+            assertEquals(name + ": candidates evaluated", built.getNumCandidatesEvaluated(),
+                    grown.getNumCandidatesEvaluated());
+        }
+    }
+
+    @Test
+    public void prefixesOfANestedTreeShouldBeTheSameAsSmallerTrees() throws Exception
+    {
+        final SearchStrategy[] strategies = {
+                new BreadthFirstSearchStrategy(), new BestFirstSearchStrategy(),
+                new CachedBestFirstSearchStrategy(), new LevelBreadthFirstSearchStrategy() };
+        final PropositionalisationStrategy propStrategy = new CountBasedPropositionalisationStrategy();
+        final int maxNodeCount = 4;
+        for (SearchStrategy strategy : strategies)
+        {
+            final String name = strategy.getClass().getSimpleName();
+            assertTrue(name + " should build nested trees", strategy.buildsNestedTrees());
+
+            final RootSplitNode full = buildComplexTreeWith(maxNodeCount, strategy);
+            final Instances propFull = SplitNode.propositionaliseDataset(complexMIdata, full, propStrategy);
+            for (SplitNode node : full.getNodesInOrderOfAddition())
+            {
+                assertNotNullNorLeaf(name + ": node in order of addition", node);
+            }
+
+            for (int size = 0; size <= maxNodeCount; size++)
+            {
+                final Instances exp = SplitNode.propositionaliseDataset(
+                        complexMIdata, buildComplexTreeWith(size, strategy), propStrategy);
+
+                // selecting the columns of the first few nodes:
+                final Instances prefix = SplitNode.selectPrefix(propFull, size, propStrategy);
+                assertEquals(name + ": prefix(" + size + ")", exp.toString(), prefix.toString());
+
+                // truncating the tree to the first few nodes:
+                final RootSplitNode truncated = full.copyTree(null);
+                truncated.truncate(size);
+                assertEquals(name + ": NodeCount", size, truncated.getNodeCount());
+                assertEquals(name + ": truncated(" + size + ")", exp.toString(),
+                        SplitNode.propositionaliseDataset(complexMIdata, truncated, propStrategy).toString());
+            }
+        }
+    }
+
+    private static SearchStrategy[] allStrategies()
+    {
+        final SearchStrategy[] strategies = new SearchStrategy[SearchStrategy.STRATEGIES.length];
+        for (int i = 0; i < strategies.length; i++)
+        {
+            strategies[i] = SearchStrategy.getStrategy(SearchStrategy.STRATEGIES[i].getID());
+        }
+        return strategies;
+    }
+
+    /**
+     * Build the tree (of up to 4 nodes) of the complex dataset with the search strategy, in the given number of
+     *  threads, recording the work done in the monitor.
+     */
+    private RootSplitNode buildMonitoredComplexTree(SearchStrategy strategy, int numThreads, BuildMonitor monitor)
+            throws Exception
+    {
+        final TaskRunner runner = new TaskRunner(numThreads);
+        try
+        {
+            final TreeBuildingParams params = complexTreeParams(4, runner, monitor);
+            return strategy.buildTree(params, params.instCount, complexMIdata);
+        }
+        finally
+        {
+            runner.shutdown();
+        }
+    }
+
+    /** Counts the node evaluations and expansions reported to it (for one thread, or more) */
+    private static final class ProgressCounter implements BuildProgressListener
+    {
+        final AtomicInteger numNodesExpanded = new AtomicInteger();
+        final AtomicInteger numNodesEvaluated = new AtomicInteger();
+        final AtomicInteger numCandidatesEvaluated = new AtomicInteger();
+
+        @Override /** @inheritDoc */
+        public void nodeExpanded(int nodeCount, int maxNodeCount)
+        {
+            numNodesExpanded.incrementAndGet();
+        }
+
+        @Override /** @inheritDoc */
+        public void candidateEvaluated(int numCandidatesDone, int numCandidates)
+        {
+            numCandidatesEvaluated.incrementAndGet();
+            if (numCandidatesDone == numCandidates)
+            {
+                numNodesEvaluated.incrementAndGet();
+            }
+        }
+
+        @Override /** @inheritDoc */
+        public void foldDone(int numFoldsDone, int numFolds)
+        {
+            fail("No folds");
+        }
+    }
+
+    @Test
+    public void shouldBuildAnEmptyTreeWhenTheTimeBudgetHasRunOut() throws Exception
+    {
+        for (SearchStrategy strategy : allStrategies())
+        {
+            final String name = strategy.getClass().getSimpleName();
+            final BuildMonitor monitor = new BuildMonitor(1e-9);
+            Thread.sleep(1);
+
+            final RootSplitNode root = buildMonitoredComplexTree(strategy, 1, monitor);
+            assertEquals(name + ": NodeCount", 0, root.getNodeCount());
+            assertNullOrLeaf(name + ": root", root);
+            assertEquals(name + ": candidates", 0, monitor.getNumCandidatesEvaluated());
+        }
+    }
+
+    @Test
+    public void shouldCountTheNodesAndCandidatesEvaluated() throws Exception
+    {
+        for (SearchStrategy strategy : allStrategies())
+        {
+            final String name = strategy.getClass().getSimpleName();
+            final BuildMonitor parent = new BuildMonitor();
+            final ProgressCounter counter = new ProgressCounter();
+            parent.setListener(counter);
+            final BuildMonitor monitor = new BuildMonitor(parent);
+
+            final RootSplitNode root = buildMonitoredComplexTree(strategy, 1, monitor);
+            assertFalse(name + ": should not run out of time", monitor.isOutOfTime());
+            assertTrue(name + ": nodes", monitor.getNumNodesEvaluated() >= root.getNodeCount());
+
+            // every node evaluated evaluates each of its candidates once:
+            assertEquals(name + ": nodes evaluated", counter.numNodesEvaluated.get(), monitor.getNumNodesEvaluated());
+            assertEquals(name + ": candidates evaluated", counter.numCandidatesEvaluated.get(),
+                    monitor.getNumCandidatesEvaluated());
+        }
+    }
+
+    @Test
+    public void shouldCountTheWorkDoneByEveryThread() throws Exception
+    {
+        for (SearchStrategy strategy : allStrategies())
+        {
+            final String name = strategy.getClass().getSimpleName();
+            final BuildMonitor exp = new BuildMonitor();
+            buildMonitoredComplexTree(strategy, 1, exp);
+            final BuildMonitor monitor = new BuildMonitor();
+            final RootSplitNode root = buildMonitoredComplexTree(strategy, 3, monitor);
+
+            // the same work is done (and counted), whichever threads it is done on:
+            assertTrue(name + ": nodes expanded", monitor.getNumNodesExpanded() >= root.getNodeCount());
+            assertEquals(name + ": nodes expanded", exp.getNumNodesExpanded(), monitor.getNumNodesExpanded());
+            assertEquals(name + ": nodes evaluated", exp.getNumNodesEvaluated(), monitor.getNumNodesEvaluated());
+            assertEquals(name + ": peak border", exp.getPeakBorderSize(), monitor.getPeakBorderSize());
+            assertEquals(name + ": candidates generated", exp.getNumCandidatesGenerated(),
+                    monitor.getNumCandidatesGenerated());
+            assertEquals(name + ": candidates evaluated", exp.getNumCandidatesEvaluated(),
+                    monitor.getNumCandidatesEvaluated());
+
+            // the classifier is trained once for each candidate evaluated (on any thread):
+            assertTrue(name + ": candidates evaluated", monitor.getNumCandidatesEvaluated() > 0);
+            assertEquals(name + ": builds", monitor.getNumCandidatesEvaluated(), monitor.getNumClassifierBuilds());
+            assertTrue(name + ": training time", monitor.getTrainingTime() > 0);
+            assertTrue(name + ": propositionalisation time", monitor.getPropositionalisationTime() > 0);
+            assertTrue(name + ": evaluation time", monitor.getEvaluationTime() >= 0);
+            assertTrue(name + ": split generation time", monitor.getSplitGenerationTime() > 0);
+        }
+    }
+
+    @Test
+    public void shouldCountTheBytesAllocatedByEveryThread() throws Exception
+    {
+        assumeTrue(MemoryMeter.isCountingAllocations());
+        for (SearchStrategy strategy : allStrategies())
+        {
+            final String name = strategy.getClass().getSimpleName();
+            final BuildMonitor monitor = new BuildMonitor();
+            final RootSplitNode root = buildMonitoredComplexTree(strategy, 3, monitor);
+
+            assertTrue(name + ": propositionalisation bytes", monitor.getPropositionalisationAllocatedBytes() > 0);
+            assertTrue(name + ": training bytes", monitor.getTrainingAllocatedBytes() > 0);
+            assertTrue(name + ": peak heap", monitor.getPeakHeapUsed() > 0);
+            assertTrue(name + ": serialised size", MemoryMeter.getSerialisedSize(root) > 0);
+        }
+    }
+
+    @Test
+    public void shouldProfileEveryNodeOfTheTree() throws Exception
+    {
+        for (SearchStrategy strategy : allStrategies())
+        {
+            final String name = strategy.getClass().getSimpleName();
+            final BuildMonitor monitor = new BuildMonitor();
+            monitor.setProfiling(true);
+            final RootSplitNode root = buildMonitoredComplexTree(strategy, 2, monitor);
+
+            final List<NodeProfile> profiles = root.getNodeProfiles();
+            assertEquals(name + ": profiles", root.getNodeCount(), profiles.size());
+            assertEquals(name + ": root instances", 15, profiles.get(0).getNumInstances());
+            long numCandidates = 0;
+            long numEvaluations = 0;
+            for (int nodeIndex = 0; nodeIndex < profiles.size(); nodeIndex++)
+            {
+                final String msg = name + ": node " + nodeIndex;
+                final NodeProfile profile = profiles.get(nodeIndex);
+                assertNotNull(msg, profile);
+                assertEquals(msg, nodeIndex, profile.getNodeIndex());
+                assertTrue(msg + " instances", profile.getNumInstances() > 0);
+                assertTrue(msg + " candidates", profile.getNumCandidates() >= profile.getNumEvaluations());
+                assertTrue(msg + " evaluations", profile.getNumEvaluations() >= 1);
+                assertTrue(msg + " time", profile.getSplitTime() > 0);
+                assertFalse(msg + " margin", profile.getErrorMargin() < 0);
+                numCandidates += profile.getNumCandidates();
+                numEvaluations += profile.getNumEvaluations();
+            }
+            assertTrue(name + ": toString", root.toString().contains("[" + profiles.get(0) + "]"));
+
+            // the nodes of the tree are among those evaluated (and are all of them, if no other node is evaluated):
+            assertTrue(name + ": evaluations", numEvaluations <= monitor.getNumNodesEvaluated());
+            assertTrue(name + ": candidates", numCandidates <= monitor.getNumCandidatesEvaluated());
+            if (numEvaluations == monitor.getNumNodesEvaluated())
+            {
+                assertEquals(name + ": candidates", monitor.getNumCandidatesEvaluated(), numCandidates);
+            }
+        }
+    }
+
+    @Test
+    public void shouldReportTheProgressOfTheBuildToTheListenerOfTheParent() throws Exception
+    {
+        for (SearchStrategy strategy : allStrategies())
+        {
+            final String name = strategy.getClass().getSimpleName();
+            final List<int[]> nodes = new ArrayList<int[]>();
+            final List<int[]> candidates = new ArrayList<int[]>();
+            final BuildMonitor parent = new BuildMonitor();
+            parent.setListener(new BuildProgressListener()
+            {
+                @Override /** @inheritDoc */
+                public void nodeExpanded(int nodeCount, int maxNodeCount)
+                {
+                    nodes.add(new int[] {nodeCount, maxNodeCount});
+                }
+
+                @Override /** @inheritDoc */
+                public void candidateEvaluated(int numCandidatesDone, int numCandidates)
+                {
+                    candidates.add(new int[] {numCandidatesDone, numCandidates});
+                }
+
+                @Override /** @inheritDoc */
+                public void foldDone(int numFoldsDone, int numFolds)
+                {
+                    fail("No folds");
+                }
+            });
+            final BuildMonitor monitor = new BuildMonitor(parent);
+            final RootSplitNode root = buildMonitoredComplexTree(strategy, 1, monitor);
+
+            assertFalse(name + ": nodes", nodes.isEmpty());
+            final int[] lastNode = nodes.get(nodes.size() - 1);
+            assertEquals(name + ": last node count", root.getNodeCount(), lastNode[0]);
+            assertEquals(name + ": max node count", 4, lastNode[1]);
+            assertEquals(name + ": candidates", monitor.getNumCandidatesEvaluated(), candidates.size());
+
+            // (in one thread) the candidates of each node are reported in turn, from the first to the last:
+            int[] previous = {0, 0};
+            for (int[] progress : candidates)
+            {
+                final int expDone = (previous[0] == previous[1]) ? 1 : previous[0] + 1;
+                assertEquals(name + ": candidates done", expDone, progress[0]);
+                previous = progress;
+            }
+            assertEquals(name + ": last candidate", previous[1], previous[0]);
+        }
+    }
+
+    @Test
+    public void shouldStopTheBuildWhenCancelledOrInterrupted() throws Exception
+    {
+        for (SearchStrategy strategy : allStrategies())
+        {
+            final String name = strategy.getClass().getSimpleName();
+            final BuildMonitor parent = new BuildMonitor();
+            parent.cancel();
+            try
+            {
+                final BuildMonitor monitor = new BuildMonitor(parent);
+                assertTrue(name + ": cancelled", monitor.isCancelled());
+                buildMonitoredComplexTree(strategy, 2, monitor);
+                fail(name + ": should have been cancelled");
+            }
+            catch (InterruptedException e)
+            {
+                // expected
+            }
+
+            try
+            {
+                Thread.currentThread().interrupt();
+                buildMonitoredComplexTree(strategy, 2, new BuildMonitor());
+                fail(name + ": should have been interrupted");
+            }
+            catch (InterruptedException e)
+            {
+                assertFalse(name + ": interrupt cleared", Thread.interrupted());
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotProfileByDefault() throws Exception
+    {
+        final RootSplitNode root = buildComplexTreeWith(4, new BestFirstSearchStrategy());
+        for (NodeProfile profile : root.getNodeProfiles())
+        {
+            assertNull(profile);
+        }
+        assertFalse(root.toString().contains("["));
+    }
+
+    @Test
+    public void shouldOnlyBeginFlightRecorderEventsWhileRecording() throws Exception
+    {
+        assertNull("no recording", FlightRecorderEvents.NODE_EXPANSION.begin());
+        assumeTrue(FlightRecorderEvents.isAvailable());
+
+        // (JFR is looked up reflectively, as it is not available before Java 9)
+        final Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        final Object recording = recordingClass.getConstructor().newInstance();
+        recordingClass.getMethod("start").invoke(recording);
+        try
+        {
+            final FlightRecorderEvents.Event event = FlightRecorderEvents.NODE_EXPANSION.begin();
+            assertNotNull("recording", event);
+            event.set(0, 1).set(1, 2).set(2, 3).set(3, 4).set(4, 0.5).commit();
+
+            // building a tree (with every event) should still work:
+            final RootSplitNode root = buildComplexTreeWith(4, new BestFirstSearchStrategy());
+            assertEquals("NodeCount", 4, root.getNodeCount());
+        }
+        finally
+        {
+            recordingClass.getMethod("stop").invoke(recording);
+            recordingClass.getMethod("close").invoke(recording);
+        }
+        assertNull("stopped recording", FlightRecorderEvents.NODE_EXPANSION.begin());
+    }
+
+    @Test
+    public void shouldOnlyCountBuildsForEvaluatingCandidates() throws Exception
+    {
+        final BuildMonitor monitor = new BuildMonitor();
+        final EvaluationStrategy evalStrategy = new MisClassificationCrossValidatedErrorEvaluationStrategy(
+                new Random(1), 3);
+        final TreeBuildingParams params = complexTreeParams(2, new TaskRunner(1), monitor, evalStrategy);
+        final RootSplitNode root = new BreadthFirstSearchStrategy().buildTree(params, params.instCount, complexMIdata);
+
+        // each candidate trains on the whole dataset, then on each of the 3 folds:
+        assertEquals("builds", 4 * monitor.getNumCandidatesEvaluated(), monitor.getNumClassifierBuilds());
+
+        // training outside of a build is not counted:
+        evalStrategy.evaluateDataset(SplitNode.propositionaliseDataset(complexMIdata, root, params.propStrategy),
+                new OneR());
+        assertEquals("builds", 4 * monitor.getNumCandidatesEvaluated(), monitor.getNumClassifierBuilds());
+    }
+
+    @Test
+    public void candidateRowsShouldEqualThePropositionalisedDataset() throws Exception
+    {
+        final int maxNodeCount = 4;
+        final TreeBuildingParams params = complexTreeParams(maxNodeCount, new TaskRunner(1));
+        final RootSplitNode root = new BreadthFirstSearchStrategy().buildTree(params, params.instCount, complexMIdata);
+        final Instances exp = SplitNode.propositionaliseDataset(complexMIdata, root, params.propStrategy);
+
+        // for each node (even those with subtrees), the rows should be the same as propositionalising the whole tree:
+        for (SplitNode node : root.getNodesInOrderOfAddition())
+        {
+            final CandidateRows rows = new CandidateRows(params, node, root);
+            final Instances act = new Instances(rows.getHeader(), 0);
+            for (Instance row : rows)
+            {
+                act.add(row);
+            }
+            assertEquals("rows of " + node.splitAttrIndex + " <= " + node.splitPoint, exp.toString(), act.toString());
+        }
+    }
+
+    @Test
+    public void candidateRowsShouldBeUnchangedByFingerprinting() throws Exception
+    {
+        final int maxNodeCount = 4;
+        final TreeBuildingParams params = complexTreeParams(maxNodeCount, new TaskRunner(1));
+        final RootSplitNode root = new BreadthFirstSearchStrategy().buildTree(params, params.instCount, complexMIdata);
+        final Instances exp = SplitNode.propositionaliseDataset(complexMIdata, root, params.propStrategy);
+
+        // the rows (with the values of the changed columns kept from the fingerprint) should be the same:
+        for (SplitNode node : root.getNodesInOrderOfAddition())
+        {
+            final String name = "rows of " + node.splitAttrIndex + " <= " + node.splitPoint;
+            final CandidateRows rows = new CandidateRows(params, node, root);
+            final String fingerprint = rows.fingerprint().toString();
+            final Instances act = new Instances(rows.getHeader(), 0);
+            for (Instance row : rows)
+            {
+                act.add(row);
+            }
+            assertEquals(name, exp.toString(), act.toString());
+            assertEquals(name + ": fingerprint", fingerprint,
+                    new CandidateRows(params, node, root).fingerprint().toString());
+
+            // with another split, the values of the changed columns are computed again:
+            final double splitPoint = node.splitPoint;
+            node.splitPoint = Double.MAX_VALUE;
+            try
+            {
+                final CandidateRows otherRows = new CandidateRows(params, node, root);
+                assertEquals(name + ": other split", otherRows.fingerprint().toString(),
+                        rows.fingerprint().toString());
+                assertFalse(name + ": other fingerprint", fingerprint.equals(rows.fingerprint().toString()));
+            }
+            finally
+            {
+                node.splitPoint = splitPoint;
+            }
+        }
+    }
+
+    @Test
+    public void shouldBuildTheSameTreeWhenTrainingIncrementally() throws Exception
+    {
+        // IBk gives the same model whether trained incrementally or all at once:
+        final int maxNodeCount = 4;
+        final int numAttr = 2;
+        final EvaluationStrategy incremental = new MisClassificationErrorEvaluationStrategy();
+        incremental.setTrainIncrementally(true);
+        for (SearchStrategy strategy : allStrategies())
+        {
+            final String name = strategy.getClass().getSimpleName();
+            final TreeBuildingParams batchParams = new TreeBuildingParams(maxNodeCount, 1, complexMIdata, 15,
+                    new MeanSplitStrategy(numAttr), new CountBasedPropositionalisationStrategy(),
+                    new MisClassificationErrorEvaluationStrategy(), new IBk(3));
+            final TreeBuildingParams incrementalParams = new TreeBuildingParams(maxNodeCount, 1, complexMIdata, 15,
+                    new MeanSplitStrategy(numAttr), new CountBasedPropositionalisationStrategy(),
+                    incremental, new IBk(3));
+            assertTreeEquals(name, strategy.buildTree(incrementalParams, incrementalParams.instCount, complexMIdata),
+                    strategy.buildTree(batchParams, batchParams.instCount, complexMIdata));
+        }
+    }
+
+    @Test
+    public void shouldBuildTheSameTreeWithClosedFormNaiveBayesErrors() throws Exception
+    {
+        final int maxNodeCount = 4;
+        final int numAttr = 2;
+        for (SearchStrategy strategy : allStrategies())
+        {
+            final String name = strategy.getClass().getSimpleName();
+            final TreeBuildingParams trainedParams = new TreeBuildingParams(maxNodeCount, 1, complexMIdata, 15,
+                    new MeanSplitStrategy(numAttr), new CountBasedPropositionalisationStrategy(),
+                    new MisClassificationErrorEvaluationStrategy(), new NaiveBayes());
+            final TreeBuildingParams closedFormParams = new TreeBuildingParams(maxNodeCount, 1, complexMIdata, 15,
+                    new MeanSplitStrategy(numAttr), new CountBasedPropositionalisationStrategy(),
+                    new NaiveBayesMisClassificationErrorEvaluationStrategy(), new NaiveBayes());
+            assertTreeEquals(name, strategy.buildTree(closedFormParams, closedFormParams.instCount, complexMIdata),
+                    strategy.buildTree(trainedParams, trainedParams.instCount, complexMIdata));
+        }
+    }
+
+    @Test
+    public void shouldBuildCompleteTreesWithGradientGains() throws Exception
+    {
+        final int maxNodeCount = 4;
+        final int numAttr = 2;
+        for (SearchStrategy strategy : allStrategies())
+        {
+            final String name = strategy.getClass().getSimpleName();
+            final TreeBuildingParams params = new TreeBuildingParams(maxNodeCount, 1, complexMIdata, 15,
+                    new MeanSplitStrategy(numAttr), new CountBasedPropositionalisationStrategy(),
+                    new GradientGainEvaluationStrategy(), new NaiveBayes());
+            final RootSplitNode root = strategy.buildTree(params, params.instCount, complexMIdata);
+            assertEquals(name + ": NodeCount", maxNodeCount, root.getNodeCount());
+            for (SplitNode node : root.getNodesInOrderOfAddition())
+            {
+                assertTrue(name + ": gain of " + node.splitAttrIndex, node.trainingSetError <= 0);
+            }
+        }
+    }
+
+    /** Serialise and deserialise the tree (as when checkpointing) */
+    private static RootSplitNode serialiseAndDeserialise(RootSplitNode root) throws Exception
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(root);
+        out.close();
+        return (RootSplitNode) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    }
+
+    @Test
+    public void aResumedTreeShouldGrowAsIfItWasNeverInterrupted() throws Exception
+    {
+        final int maxNodeCount = 4;
+        for (SearchStrategy strategy : allStrategies())
+        {
+            final String name = strategy.getClass().getSimpleName();
+            final RootSplitNode exp = strategy.startTree(complexTreeParams(maxNodeCount, new TaskRunner(1)));
+            while (exp.addNode())
+            {
+                // keep growing.
+            }
+
+            for (int interruptAt = 0; interruptAt < maxNodeCount; interruptAt++)
+            {
+                RootSplitNode act = strategy.startTree(complexTreeParams(maxNodeCount, new TaskRunner(1)));
+                for (int size = 0; size < interruptAt; size++)
+                {
+                    act.addNode();
+                }
+
+                // resume growing a copy of the tree, with fresh parameters:
+                act = serialiseAndDeserialise(act);
+                assertTrue(name + ": should still be growing", act.isGrowing());
+                act.resumeGrowing(complexTreeParams(maxNodeCount, new TaskRunner(1)));
+                while (act.addNode())
+                {
+                    // keep growing.
+                }
+
+                assertEquals(name + ": NodeCount", exp.getNodeCount(), act.getNodeCount());
+                assertTreeEquals(name + ": root(" + interruptAt + ")", act, exp);
+            }
+        }
+    }
+
     @Test
     public void shouldBeA2NodeTreeForBreadthFirst() throws Exception
     {
@@ -1,13 +1,19 @@
 package weka.classifiers.mi.adaprop;
 
 import org.junit.Test;
+import weka.classifiers.mi.ArtificialDatasetGenerator;
+import weka.core.Instance;
+import weka.core.Instances;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test the split strategies. TODO needs to be more extensive.
@@ -17,6 +23,10 @@ public class SplitStrategyTest extends TestBase
     @Test
     public void testFindMeanViaInstance() throws Exception
     {
+        // there are 12 instances, 5 attributes, whose values are the natural numbers in sequence,
+        //  e.g. inst1 = {0,1,2,3,4} ; inst2 = {5,6,7,8,9} etc.
+        //  so sum(attr-i) = num_inst*i + num_attr*(0+1+...+num_inst-1)
+        //  thus, mean(attr-i) = i + num_attr*(num_inst-1)/2
         double[] splits = new double[NUM_ATTR];
         final int numInst = NUM_INST_PER_BAG * NUM_BAGS;
         for (int i = 0; i < NUM_ATTR; i++)
@@ -26,32 +36,6 @@ public class SplitStrategyTest extends TestBase
         assertSplitPtListEquals(new MeanSplitStrategy(NUM_ATTR), arrayToPairList(splits), "mean");
     }
 
-    @Test
-    public void testFindMeanViaStatic() throws Exception
-    {
-        // actual values for mean:
-        //      there are 12 instances, 5 attributes
-        //      the values are the natural numbers in sequence.
-        //      for example, inst1 = {0,1,2,3,4} ; inst2 = {5,6,7,8,9} etc.
-        //      so the mean(attr-i)=(\sum_{j=0}^{num_inst-1} (i+j*num_attr))/12
-        // in fact, sum(attr-i)
-        //      = num_inst*i + num_attr*(\sum_{j=0}^{num_inst-1}(j))
-        //      = num_inst*i + num_attr*(1+2+3+...+num_inst-1)
-        //      = num_inst*i + num_attr*((num_inst * num_inst-1) / 2)
-        // thus, mean(attr-i) = i + num_attr*(num_inst-1)/2
-
-        // for each attribute:
-        final int numInst = NUM_INST_PER_BAG * NUM_BAGS;
-        for (int attrIndex = 0; attrIndex < NUM_ATTR; attrIndex++)
-        {
-            final double expectedMean = attrIndex + (NUM_ATTR*(numInst-1)/2.0);
-            final String msg = "Mean for attribute " + attrIndex;
-
-            final double actual = MeanSplitStrategy.findMean(miData, attrIndex, new BitSet(numInst));
-            assertEquals(msg, expectedMean, actual, TOLERANCE);
-        }
-    }
-
     @Test
     public void testFindMedianViaInstance() throws Exception
     {
@@ -64,23 +48,6 @@ public class SplitStrategyTest extends TestBase
         assertSplitPtListEquals(new MedianSplitStrategy(NUM_ATTR), arrayToPairList(splits), "median");
     }
 
-    @Test
-    public void testFindMedianViaStatic() throws Exception
-    {
-        // there are 12 instances, with values in increasing order
-        // median of attribute i is the average of the 6th and 7th bags
-        // e.g. for attr=0: 0, 5, ..., 25, 30, ...
-        //      for attr=1: 1, 6, ..., 26, 31, ...
-        final int numInst = NUM_INST_PER_BAG * NUM_BAGS;
-        for (int attrIndex = 0; attrIndex < NUM_ATTR; attrIndex++)
-        {
-            final double expectedMedian = 27.5 + attrIndex;
-            final String msg = "Median for attribute " + attrIndex;
-            final double actual = MedianSplitStrategy.findMedian(miData, attrIndex, new BitSet(numInst));
-            assertEquals(msg, expectedMedian, actual, TOLERANCE);
-        }
-    }
-
     @Test
     public void testFindDiscretizedViaInstance() throws Exception
     {
@@ -110,6 +77,28 @@ public class SplitStrategyTest extends TestBase
         }
     }
 
+    @Test
+    public void testDiscretizedCanOnlyExpandNodesWithBothClasses() throws Exception
+    {
+        // the class changes between the 2nd and 3rd bags (i.e. between the 8th and 9th instances):
+        final int numInst = NUM_INST_PER_BAG * NUM_BAGS;
+        final DiscretizedSplitStrategy strategy = new DiscretizedSplitStrategy(NUM_ATTR);
+        assertTrue(strategy.canExpand(miData, new BitSet(numInst)));
+
+        // only the first 2 bags in the node:
+        final BitSet ignore = new BitSet(numInst);
+        ignore.set(2 * NUM_INST_PER_BAG, numInst);
+        assertFalse(strategy.canExpand(miData, ignore));
+        assertTrue(strategy.generateSplitPoints(miData, ignore).isEmpty());
+
+        // one instance of the 1st and 3rd bags in the node:
+        ignore.set(0, numInst);
+        ignore.clear(1);
+        ignore.clear(2 * NUM_INST_PER_BAG + 1);
+        assertTrue(strategy.canExpand(miData, ignore));
+        assertFalse(strategy.generateSplitPoints(miData, ignore).isEmpty());
+    }
+
     @Test
     public void testFindRangeViaInstance() throws Exception
     {
@@ -123,22 +112,75 @@ public class SplitStrategyTest extends TestBase
     }
 
     @Test
-    public void testFindRange() throws Exception
+    public void testSplitsWhichGiveTheSamePartitionAreRemoved() throws Exception
     {
-        // actual values for mean:
-        //      there are 12 instances, 5 attributes
-        //      the values are the natural numbers in sequence.
-        //      for example, inst1 = {0,1,2,3,4} ; inst2 = {5,6,7,8,9} ; .. ; inst12 = {55,56,57,58,59} ;
-        //      so the midpt is {27.5, 28.5, ... }
-
-        // for each attribute:
+        // inst-j has the value (i + 5j) for attr-i, so every attribute orders the instances in the same way
+        final List<CompPair<Integer, Double>> candidates = Arrays.asList(
+                new CompPair<Integer, Double>(0, 2.5),   // only inst-0 on the left
+                new CompPair<Integer, Double>(1, 3.0),   // only inst-0 on the left
+                new CompPair<Integer, Double>(0, 4.0),   // only inst-0 on the left
+                new CompPair<Integer, Double>(2, 100.0), // all on the left
+                new CompPair<Integer, Double>(0, 100.0), // all on the left
+                new CompPair<Integer, Double>(1, 0.5));  // none on the left
         final int numInst = NUM_INST_PER_BAG * NUM_BAGS;
-        for (int attrIndex = 0; attrIndex < NUM_ATTR; attrIndex++)
+
+        assertPairListEquals("distinct splits", Arrays.asList(candidates.get(0), candidates.get(3), candidates.get(5)),
+                SplitStrategy.removeEquivalentSplits(miData, new BitSet(numInst), candidates));
+
+        // when inst-0 is ignored, the first split no longer differs from the last one:
+        final BitSet ignore = new BitSet(numInst);
+        ignore.set(0);
+        assertPairListEquals("distinct splits (ignoring inst-0)", Arrays.asList(candidates.get(0), candidates.get(3)),
+                SplitStrategy.removeEquivalentSplits(miData, ignore, candidates));
+    }
+
+    @Test
+    public void testCenterSplitsAreTheSameInParallelAndOverManyChunks() throws Exception
+    {
+        // enough bags to span several chunks, with every 3rd instance ignored
+        final int numAttr = 4;
+        final Instances data = ArtificialDatasetGenerator.generate(numAttr, 3 * AttributeStatistics.BAGS_PER_CHUNK + 7,
+                1, 5, 2, 1);
+        int numInst = 0;
+        for (Instance bag : data)
+        {
+            numInst += bag.relationalValue(SplitNode.REL_INDEX).numInstances();
+        }
+        final BitSet ignore = new BitSet(numInst);
+        for (int i = 0; i < numInst; i += 3)
         {
-            final double expected = attrIndex + (NUM_ATTR*(numInst-1)/2.0);
-            final String msg = "Range-MidPt for attribute " + attrIndex;
-            final double actualViaStatic = RangeSplitStrategy.findMidpt(miData, attrIndex, new BitSet(numInst));
-            assertEquals(msg, expected, actualViaStatic, TOLERANCE);
+            ignore.set(i);
+        }
+
+        final double[] means = new double[numAttr];
+        final double[] medians = new double[numAttr];
+        final double[] midpts = new double[numAttr];
+        for (int attr = 0; attr < numAttr; attr++)
+        {
+            means[attr] = findMean(data, attr, ignore);
+            medians[attr] = findMedian(data, attr, ignore);
+            midpts[attr] = findMidpt(data, attr, ignore);
+        }
+
+        assertCenterSplitsEqual(new MeanSplitStrategy(numAttr), data, ignore, arrayToPairList(means), "mean");
+        assertCenterSplitsEqual(new MedianSplitStrategy(numAttr), data, ignore, arrayToPairList(medians), "median");
+        assertCenterSplitsEqual(new RangeSplitStrategy(numAttr), data, ignore, arrayToPairList(midpts), "range");
+    }
+
+    // the single-pass splits (sequential and parallel) should match the per-attribute splits
+    private static void assertCenterSplitsEqual(SplitStrategy strategy, Instances data, BitSet ignore,
+                                                List<CompPair<Integer, Double>> exp, String msg) throws Exception
+    {
+        assertPairListEquals(msg + " (sequential)", exp, strategy.generateSplitPoints(data, ignore));
+
+        final TaskRunner runner = new TaskRunner(3);
+        try
+        {
+            assertPairListEquals(msg + " (parallel)", exp, strategy.generateSplitPoints(data, ignore, runner));
+        }
+        finally
+        {
+            runner.shutdown();
         }
     }
 
@@ -160,4 +202,90 @@ public class SplitStrategyTest extends TestBase
         }
         return list;
     }
+
+    /**
+     * Find the mean of the attribute over the instances (which are not ignored) of all bags, one attribute at
+     *  a time, as the expected split of MeanSplitStrategy.
+     */
+    private static double findMean(Instances trainingData, int attrIndex, BitSet ignore)
+    {
+        double sum = 0;
+        int count = 0;
+        int index = 0;
+
+        // check in each bag
+        for (Instance bag : trainingData)
+        {
+            // consider each instance in each bag
+            for (Instance inst : bag.relationalValue(SplitNode.REL_INDEX))
+            {
+                if (!ignore.get(index++))
+                {
+                    sum += inst.value(attrIndex);
+                    count++;
+                }
+            }
+        }
+
+        return sum / count;
+    }
+
+    /**
+     * Find the median of the attribute over the instances (which are not ignored) of all bags, one attribute at
+     *  a time, as the expected split of MedianSplitStrategy.
+     */
+    private static double findMedian(final Instances trainingData, final int attrIndex, BitSet ignore)
+    {
+        // for now:
+        //  copy all values into a collection then sort
+        List<Double> vals = new ArrayList<Double>();
+        int index = 0;
+        for (Instance bag : trainingData)
+        {
+            for (Instance inst : bag.relationalValue(SplitNode.REL_INDEX))
+            {
+                if (!ignore.get(index++))
+                {
+                    vals.add(inst.value(attrIndex));
+                }
+            }
+        }
+
+        Collections.sort(vals);
+
+        final int count = vals.size();
+        final boolean isEven = (count & 1) == 0;
+        final int midIndex = count / 2;
+
+        // if there is an even number of values, take the avg of the two middle elems.
+        return isEven ? 0.5*(vals.get(midIndex) + vals.get(midIndex-1)) : vals.get(midIndex);
+    }
+
+    /**
+     * Find the midpoint of the range of the attribute over the instances (which are not ignored) of all bags,
+     *  one attribute at a time, as the expected split of RangeSplitStrategy.
+     */
+    private static double findMidpt(final Instances trainingData, final int attrIndex, BitSet ignore)
+    {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+
+        //  copy all values into a collection then sort
+        int index = 0;
+        for (Instance bag : trainingData)
+        {
+            for (Instance inst : bag.relationalValue(SplitNode.REL_INDEX))
+            {
+                if (!ignore.get(index++))
+                {
+                    double iVal = inst.value(attrIndex);
+                    if (iVal < min) { min = iVal; }
+                    if (iVal > max) { max = iVal; }
+                }
+            }
+        }
+
+        // return the midpoint of the range
+        return ((max - min) / 2) + min;
+    }
 }
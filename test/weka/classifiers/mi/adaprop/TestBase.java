@@ -3,6 +3,7 @@ package weka.classifiers.mi.adaprop;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import weka.classifiers.mi.AdaProp;
+import weka.classifiers.rules.OneR;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
@@ -266,4 +267,29 @@ public class TestBase
         root.setNodeCount(1);
         return root;
     }
+
+    /** @return The parameters for building a tree of the given size for the complex dataset (with OneR). */
+    protected static TreeBuildingParams complexTreeParams(int maxNodeCount, TaskRunner runner)
+    {
+        return complexTreeParams(maxNodeCount, runner, new BuildMonitor());
+    }
+
+    protected static TreeBuildingParams complexTreeParams(int maxNodeCount, TaskRunner runner, BuildMonitor monitor)
+    {
+        return complexTreeParams(maxNodeCount, runner, monitor, new MisClassificationErrorEvaluationStrategy());
+    }
+
+    protected static TreeBuildingParams complexTreeParams(int maxNodeCount, TaskRunner runner, BuildMonitor monitor,
+                                                          EvaluationStrategy evalStrategy)
+    {
+        final int instCount = 15;
+        final OneR classifier = new OneR();
+        classifier.setMinBucketSize(1);
+
+        final int numAttr = 2;
+        return new TreeBuildingParams(
+                maxNodeCount, 1, complexMIdata, instCount,
+                new MeanSplitStrategy(numAttr), new CountBasedPropositionalisationStrategy(),
+                evalStrategy, classifier, runner, monitor);
+    }
 }